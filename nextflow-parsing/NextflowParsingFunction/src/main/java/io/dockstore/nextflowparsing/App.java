@@ -20,23 +20,45 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.dockstore.openapi.client.model.LanguageParsingRequest;
 import io.dockstore.openapi.client.model.LanguageParsingResponse;
 import io.dockstore.openapi.client.model.VersionTypeValidation;
-import java.io.File;
+import io.dockstore.parsing.BatchParsingRequest;
+import io.dockstore.parsing.CloneStrategy;
+import io.dockstore.parsing.CompositeFileSelector;
+import io.dockstore.parsing.ConcurrencyLimit;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import io.dockstore.parsing.FileSelector;
+import io.dockstore.parsing.GitHttpConnectionFactory;
+import io.dockstore.parsing.IncrementalClone;
+import io.dockstore.parsing.ParsingMetrics;
+import io.dockstore.parsing.SingleFlight;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.ws.rs.core.MediaType;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,7 +68,41 @@ public class App
     implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
-  ObjectMapper mapper = new ObjectMapper();
+  // Every clone and fetch of the JVM shares this pool of HTTP connections
+  private static final GitHttpConnectionFactory GIT_HTTP =
+      GitHttpConnectionFactory.installFromEnvironment();
+  private static final CloneStrategy CLONE_STRATEGY = CloneStrategy.fromEnvironment();
+  private static final WorkspaceManager WORKSPACES = NextflowUtilities.createWorkspaceManager();
+  private static final NextflowConfigCache CONFIG_CACHE = NextflowConfigCache.fromEnvironment();
+  private static final NextflowIncludeGraph INCLUDE_GRAPH = NextflowIncludeGraph.fromEnvironment();
+  static final ObjectMapper MAPPER = new ObjectMapper();
+  // Shared and pre-configured, so that no request looks up serializers in the mapper again
+  static final ObjectReader REQUEST_READER = MAPPER.readerFor(LanguageParsingRequest.class);
+  static final ObjectReader BATCH_REQUEST_READER = MAPPER.readerFor(BatchParsingRequest.class);
+  static final ObjectReader INCREMENTAL_REQUEST_READER =
+      MAPPER.readerFor(IncrementalParsingRequest.class);
+  static final ObjectWriter RESPONSE_WRITER = MAPPER.writer();
+  // Runs before a SnapStart snapshot, held here because the CRaC context only keeps weak references
+  static final Priming PRIMING = Priming.register(CLONE_STRATEGY);
+  private static final BatchParsingExecutor BATCH_EXECUTOR = BatchParsingExecutor.fromEnvironment();
+  // Shared by all requests of the JVM, clones mostly wait on the network while parsing is CPU bound
+  private static final int CLONES_PER_PROCESSOR = 4;
+  private static final ConcurrencyLimit CLONE_LIMIT =
+      ConcurrencyLimit.fromEnvironment(
+          ConcurrencyLimit.CLONES_VARIABLE,
+          CLONES_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+  private static final ConcurrencyLimit PARSE_LIMIT =
+      ConcurrencyLimit.fromEnvironment(
+          ConcurrencyLimit.PARSES_VARIABLE, Runtime.getRuntime().availableProcessors());
+  // Duplicate requests, such as webhook deliveries, that arrive while one is in progress share it
+  private static final SingleFlight<List<Object>, Reply> IDENTICAL_REQUESTS =
+      new SingleFlight<>(Reply::copy);
+  // Requests to a path with this suffix are BatchParsingRequests
+  static final String BATCH_PATH_SUFFIX = "/batch";
+  // Requests to a path with this suffix are IncrementalParsingRequests
+  static final String INCREMENTAL_PATH_SUFFIX = "/incremental";
+  static final String LANGUAGE = "Nextflow";
+  static final String SERVER_TIMING_HEADER = "Server-Timing";
 
   /**
    * Get a language parsing response from NextflowHandler.
@@ -66,99 +122,510 @@ public class App
       messageMap.put(nextflowHandler.getDescriptorTempAbsolutePath(), "File not found");
       versionTypeValidation.setMessage(messageMap);
     }
-    if (nextflowHandler.getConfiguration() == null) {
+    NextflowManifest manifest = nextflowHandler.getManifest();
+    if (manifest == null) {
       versionTypeValidation.setValid(false);
+    } else {
+      // TODO: This should be an array, don't join
+      response.setAuthor(
+          manifest.getAuthors().isEmpty() ? null : String.join(", ", manifest.getAuthors()));
+      response.setDescription(manifest.getDescription());
     }
-    // TODO: This should be an array, don't join
-    response.setAuthor(
-        String.join(", ", NextflowUtilities.getAuthors(nextflowHandler.getConfiguration())));
-    response.setDescription(NextflowUtilities.getDescription(nextflowHandler.getConfiguration()));
     versionTypeValidation.setValid(true);
+    NextflowIncludeException includeException = nextflowHandler.getIncludeException();
+    if (includeException != null) {
+      versionTypeValidation.setValid(false);
+      Map<String, String> messageMap = new HashMap<>();
+      messageMap.put(includeException.getFile(), includeException.getMessage());
+      versionTypeValidation.setMessage(messageMap);
+    }
     response.setVersionTypeValidation(versionTypeValidation);
     response.setSecondaryFilePaths(nextflowHandler.getSecondaryDescriptorPaths());
     return response;
   }
 
+  /**
+   * Get a language parsing response for a Nextflow config that is on disk.
+   *
+   * @param descriptorAbsolutePathString Absolute path to the nextflow.config file
+   * @return LanguageParsingResponse constructed after getting information from NextflowHandler
+   */
+  public static LanguageParsingResponse getResponse(String descriptorAbsolutePathString) {
+    return getResponse(Path.of(descriptorAbsolutePathString));
+  }
+
+  /**
+   * Get a language parsing response for a Nextflow config in any file system, such as an in-memory
+   * workspace.
+   *
+   * @param descriptorAbsolutePath Absolute path to the nextflow.config file
+   * @return LanguageParsingResponse constructed after getting information from NextflowHandler
+   */
+  public static LanguageParsingResponse getResponse(Path descriptorAbsolutePath) {
+    NextflowHandler nextflowHandler = new NextflowHandler();
+    nextflowHandler.setDescriptorPath(descriptorAbsolutePath);
+    // Compiling the config is the expensive part, identical configs are only compiled once
+    nextflowHandler.setManifest(CONFIG_CACHE.getManifest(descriptorAbsolutePath));
+    try {
+      String s = Files.readString(descriptorAbsolutePath);
+
+      nextflowHandler.setDescriptorContents(s);
+      List<String> strings =
+          nextflowHandler.processImports(nextflowHandler.getDescriptorContents(), INCLUDE_GRAPH);
+      nextflowHandler.setSecondaryDescriptorPaths(strings);
+    } catch (IOException e) {
+      LOGGER.error(e.getMessage());
+      nextflowHandler.setDescriptorContents(null);
+    }
+    return getResponse(nextflowHandler);
+  }
+
   @Override
   public APIGatewayProxyResponseEvent handleRequest(
       final APIGatewayProxyRequestEvent input, final Context context) {
-
+    ParsingMetrics metrics = new ParsingMetrics(LANGUAGE);
+    Deadline deadline = Deadline.fromContext(context);
+    Reply reply =
+        input == null || input.getBody() == null
+            ? Reply.NO_BODY
+            : respond(input.getPath(), new StringReader(input.getBody()), metrics, deadline);
+    String body;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      body = reply.getBody(RESPONSE_WRITER);
+    } catch (JsonProcessingException e) {
+      reply = unencodable(e);
+      body = reply.text;
+    }
     Map<String, String> headers = new HashMap<>();
     headers.put("Content-Type", MediaType.APPLICATION_JSON);
+    headers.put(SERVER_TIMING_HEADER, metrics.toServerTiming());
+    metrics.log(reply.getStatusCode());
+    return new APIGatewayProxyResponseEvent()
+        .withHeaders(headers)
+        .withStatusCode(reply.getStatusCode())
+        .withBody(body);
+  }
 
-    APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent().withHeaders(headers);
-    if (input != null && input.getBody() != null) {
-      try {
-        LanguageParsingRequest request =
-            mapper.readValue(input.getBody(), LanguageParsingRequest.class);
-        try {
-          String s = parseFile(request);
-          return response.withStatusCode(HttpURLConnection.HTTP_OK).withBody(s);
-        } catch (IOException e) {
-          String errorMessage = "Could not clone repository to temporary directory";
-          LOGGER.error(errorMessage, e);
-          return response
-              .withBody(errorMessage)
-              .withStatusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
-        } catch (GitAPIException e) {
-          StringWriter sw = new StringWriter();
-          e.printStackTrace(new PrintWriter(sw));
-          String exceptionAsString = sw.toString();
-          return response
-              .withBody(exceptionAsString)
-              .withStatusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
-        }
-      } catch (IOException e) {
-        String errorMessage = "Could not process request";
-        LOGGER.error(errorMessage, e);
-        return response.withBody(errorMessage).withStatusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+  /**
+   * Decode and parse a request.
+   *
+   * @param path The path of the request, may be null
+   * @param body The body of the request
+   * @param metrics The metrics of the request
+   * @param deadline The deadline of the request
+   * @return The reply to the request
+   */
+  static Reply respond(String path, Reader body, ParsingMetrics metrics, Deadline deadline) {
+    final Parser parser;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.DECODE)) {
+      parser = decode(path, body, metrics, deadline);
+    } catch (IOException e) {
+      return undecodable(e);
+    }
+    return parse(parser);
+  }
+
+  /**
+   * Decode the body of a request, a BatchParsingRequest if the path ends with /batch and an
+   * IncrementalParsingRequest if it ends with /incremental.
+   *
+   * @param path The path of the request, may be null
+   * @param body The body of the request
+   * @param metrics The metrics of the request
+   * @param deadline The deadline of the request
+   * @return The parser of the decoded request
+   * @throws IOException If the body is not a request
+   */
+  static Parser decode(String path, Reader body, ParsingMetrics metrics, Deadline deadline)
+      throws IOException {
+    if (path != null && path.endsWith(BATCH_PATH_SUFFIX)) {
+      BatchParsingRequest batchRequest = BATCH_REQUEST_READER.readValue(body);
+      if (batchRequest.getDescriptorRelativePathsInGit() == null
+          || batchRequest.getDescriptorRelativePathsInGit().isEmpty()) {
+        throw new IOException("The batch request has no descriptorRelativePathsInGit");
       }
-    } else {
-      return response
-          .withBody("No body in request")
-          .withStatusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+      return () ->
+          IDENTICAL_REQUESTS.run(
+              Arrays.asList(
+                  batchRequest.getUri(),
+                  batchRequest.getBranch(),
+                  batchRequest.getDescriptorRelativePathsInGit()),
+              () -> Reply.of(parseFiles(batchRequest, metrics, deadline)),
+              metrics,
+              deadline);
+    }
+    if (path != null && path.endsWith(INCREMENTAL_PATH_SUFFIX)) {
+      IncrementalParsingRequest incrementalRequest = INCREMENTAL_REQUEST_READER.readValue(body);
+      if (incrementalRequest.getLanguageParsingRequest() == null) {
+        throw new IOException("The incremental request has no languageParsingRequest");
+      }
+      // Serialized, because the parse stamps the request ids on the previous response
+      String previousResponse =
+          RESPONSE_WRITER.writeValueAsString(incrementalRequest.getPreviousResponse());
+      return () ->
+          IDENTICAL_REQUESTS.run(
+              Arrays.asList(
+                  INCREMENTAL_PATH_SUFFIX,
+                  getKey(incrementalRequest.getLanguageParsingRequest()),
+                  incrementalRequest.getPreviousCommitId(),
+                  previousResponse),
+              () -> Reply.of(parseFileIncrementally(incrementalRequest, metrics, deadline)),
+              metrics,
+              deadline);
     }
+    LanguageParsingRequest request = REQUEST_READER.readValue(body);
+    return () ->
+        IDENTICAL_REQUESTS.run(
+            getKey(request),
+            () -> Reply.of(parseFile(request, metrics, deadline)),
+            metrics,
+            deadline);
   }
 
-  private String parseFile(LanguageParsingRequest languageParsingRequest)
-      throws IOException, GitAPIException {
-    Path tempDirWithPrefix = Files.createTempDirectory("clonedRepository");
-    Git.cloneRepository()
-        .setCloneAllBranches(false)
-        .setBranch(languageParsingRequest.getBranch())
-        .setURI(languageParsingRequest.getUri())
-        .setDirectory(tempDirWithPrefix.toFile())
-        .call();
-    Path descriptorAbsolutePath =
-        tempDirWithPrefix.resolve(languageParsingRequest.getDescriptorRelativePathInGit());
-    String descriptorAbsolutePathString = descriptorAbsolutePath.toString();
-    NextflowHandler nextflowHandler = new NextflowHandler();
-    nextflowHandler.setDescriptorTempAbsolutePath(descriptorAbsolutePathString);
-    nextflowHandler.setConfiguration(
-        NextflowUtilities.getConfig(new File(descriptorAbsolutePathString)));
-    try {
-      String s = Files.readString(Path.of(descriptorAbsolutePathString));
+  /**
+   * Get the key of a request for coalescing, every field that the response depends on.
+   *
+   * @param request The request
+   * @return The key
+   */
+  static List<Object> getKey(LanguageParsingRequest request) {
+    return Arrays.asList(
+        request.getEntryId(),
+        request.getVersionId(),
+        request.getUri(),
+        request.getBranch(),
+        request.getDescriptorRelativePathInGit());
+  }
 
-      nextflowHandler.setDescriptorContents(s);
-      List<String> strings =
-          nextflowHandler.processImports(nextflowHandler.getDescriptorContents());
-      nextflowHandler.setSecondaryDescriptorPaths(strings);
+  /**
+   * Get the reply to a request that could not be decoded.
+   *
+   * @param e Why the request could not be decoded
+   * @return A reply with status 400
+   */
+  static Reply undecodable(IOException e) {
+    String errorMessage = "Could not process request";
+    LOGGER.error(errorMessage, e);
+    return Reply.error(HttpURLConnection.HTTP_BAD_REQUEST, errorMessage);
+  }
+
+  /**
+   * Get the reply to a request whose response could not be encoded.
+   *
+   * @param e Why the response could not be encoded
+   * @return A reply with status 500
+   */
+  static Reply unencodable(IOException e) {
+    String errorMessage = "Could not encode response";
+    LOGGER.error(errorMessage, e);
+    return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, errorMessage);
+  }
+
+  /**
+   * Get the reply to a request that ran out of time, a JSON object with the phase it ran out in.
+   *
+   * @param e Where the request ran out of time
+   * @return A reply with status 504
+   */
+  static Reply timedOut(DeadlineExceededException e) {
+    LOGGER.error(e.getMessage());
+    Map<String, String> body = new LinkedHashMap<>();
+    body.put("message", e.getMessage());
+    body.put("phase", e.getPhase());
+    return Reply.of(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, body);
+  }
+
+  /**
+   * Parse a decoded request, turning failures into replies with an error status.
+   *
+   * @param parser The parser of the decoded request
+   * @return The reply to the request
+   */
+  static Reply parse(Parser parser) {
+    try {
+      return parser.parse();
+    } catch (DeadlineExceededException e) {
+      return timedOut(e);
+    } catch (WorkspaceManager.WorkspaceBudgetException e) {
+      LOGGER.error("Out of disk for workspaces", e);
+      return Reply.error(HttpURLConnection.HTTP_UNAVAILABLE, e.getMessage());
     } catch (IOException e) {
-      LOGGER.error(e.getMessage());
-      nextflowHandler.setDescriptorContents(null);
+      String errorMessage = "Could not clone repository to temporary directory";
+      LOGGER.error(errorMessage, e);
+      return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, errorMessage);
+    } catch (GitAPIException e) {
+      StringWriter sw = new StringWriter();
+      e.printStackTrace(new PrintWriter(sw));
+      String exceptionAsString = sw.toString();
+      return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, exceptionAsString);
+    }
+  }
+
+  private static LanguageParsingResponse parseFile(
+      LanguageParsingRequest languageParsingRequest, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    LanguageParsingResponse response;
+    try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+      Path tempDirWithPrefix = workspace.getDirectory();
+      cloneRepository(
+          languageParsingRequest.getUri(),
+          languageParsingRequest.getBranch(),
+          tempDirWithPrefix,
+          new NextflowFileSelector(languageParsingRequest.getDescriptorRelativePathInGit()),
+          metrics,
+          deadline);
+      metrics.countClonedFiles(tempDirWithPrefix);
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+        response =
+            deadline.run(
+                ParsingMetrics.PARSE,
+                PARSE_LIMIT,
+                () ->
+                    parseClonedFile(
+                        tempDirWithPrefix,
+                        languageParsingRequest.getDescriptorRelativePathInGit()));
+      }
+    }
+    response.setLanguageParsingRequest(languageParsingRequest);
+    return response;
+  }
+
+  /**
+   * Parse a descriptor again only if a file it depends on changed since the previous commit that it
+   * was parsed at, otherwise return the previous response. Only a valid previous response is
+   * reused, an invalid one may have been caused by a transient failure.
+   */
+  static IncrementalParsingResponse parseFileIncrementally(
+      IncrementalParsingRequest incrementalRequest, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    LanguageParsingRequest languageParsingRequest = incrementalRequest.getLanguageParsingRequest();
+    String descriptorRelativePathInGit = languageParsingRequest.getDescriptorRelativePathInGit();
+    LanguageParsingResponse previousResponse = incrementalRequest.getPreviousResponse();
+    boolean reusable =
+        previousResponse != null
+            && previousResponse.getVersionTypeValidation() != null
+            && Boolean.TRUE.equals(previousResponse.getVersionTypeValidation().getValid());
+    metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    IncrementalClone clone;
+    LanguageParsingResponse response;
+    try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+      Path tempDirWithPrefix = workspace.getDirectory();
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE);
+          GitHttpConnectionFactory.Recording recording = GIT_HTTP.record(metrics);
+          ConcurrencyLimit.Permit permit = CLONE_LIMIT.acquire(deadline, ParsingMetrics.CLONE)) {
+        clone =
+            IncrementalClone.cloneRepository(
+                languageParsingRequest.getUri(),
+                languageParsingRequest.getBranch(),
+                reusable ? incrementalRequest.getPreviousCommitId() : null,
+                tempDirWithPrefix,
+                new NextflowFileSelector(descriptorRelativePathInGit),
+                deadline);
+      } catch (IOException | GitAPIException e) {
+        deadline.check(ParsingMetrics.CLONE);
+        throw e;
+      }
+      if (clone.isChanged()) {
+        metrics.countClonedFiles(tempDirWithPrefix);
+        try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+          response =
+              deadline.run(
+                  ParsingMetrics.PARSE,
+                  PARSE_LIMIT,
+                  () -> parseClonedFile(tempDirWithPrefix, descriptorRelativePathInGit));
+        }
+      } else {
+        metrics.count(ParsingMetrics.UNCHANGED, 1);
+        response = previousResponse;
+      }
     }
-    LanguageParsingResponse response = getResponse(nextflowHandler);
     response.setLanguageParsingRequest(languageParsingRequest);
-    // Deleting a directory without Common IO
-    Files.walk(tempDirWithPrefix)
-        .sorted(Comparator.reverseOrder())
-        .map(Path::toFile)
-        .forEach(File::delete);
+    IncrementalParsingResponse incrementalResponse = new IncrementalParsingResponse();
+    incrementalResponse.setCommitId(clone.getCommitId());
+    incrementalResponse.setChanged(clone.isChanged());
+    incrementalResponse.setLanguageParsingResponse(response);
+    return incrementalResponse;
+  }
+
+  /**
+   * Parse several descriptors of one repository and branch from a single clone. The descriptors
+   * that are not parsed by the deadline get an error result, the others are still returned.
+   */
+  static BatchParsingResponse parseFiles(
+      BatchParsingRequest batchRequest, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    List<String> descriptorRelativePathsInGit = batchRequest.getDescriptorRelativePathsInGit();
+    metrics.count(ParsingMetrics.DESCRIPTORS, descriptorRelativePathsInGit.size());
+    // A descriptor that is requested twice is parsed once
+    Set<String> distinctPaths = new LinkedHashSet<>(descriptorRelativePathsInGit);
+    Map<String, BatchParsingResult> results = new HashMap<>();
+    try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+      Path tempDirWithPrefix = workspace.getDirectory();
+      List<FileSelector> fileSelectors =
+          distinctPaths.stream().map(NextflowFileSelector::new).collect(Collectors.toList());
+      cloneRepository(
+          batchRequest.getUri(),
+          batchRequest.getBranch(),
+          tempDirWithPrefix,
+          new CompositeFileSelector(fileSelectors),
+          metrics,
+          deadline);
+      metrics.countClonedFiles(tempDirWithPrefix);
+      // The descriptors are parsed in parallel, this is the time until the last one is done
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+        List<BatchParsingResult> parsedResults =
+            BATCH_EXECUTOR.parse(
+                List.copyOf(distinctPaths),
+                path -> {
+                  try (ConcurrencyLimit.Permit permit = PARSE_LIMIT.acquire()) {
+                    return parseClonedFile(tempDirWithPrefix, path);
+                  }
+                },
+                deadline);
+        for (BatchParsingResult result : parsedResults) {
+          results.put(result.getDescriptorRelativePathInGit(), result);
+        }
+      }
+    }
+    BatchParsingResponse batchResponse = new BatchParsingResponse();
+    for (String descriptorRelativePathInGit : descriptorRelativePathsInGit) {
+      BatchParsingResult result = results.get(descriptorRelativePathInGit);
+      if (result.getLanguageParsingResponse() != null) {
+        LanguageParsingRequest languageParsingRequest = new LanguageParsingRequest();
+        languageParsingRequest.setUri(batchRequest.getUri());
+        languageParsingRequest.setBranch(batchRequest.getBranch());
+        languageParsingRequest.setDescriptorRelativePathInGit(descriptorRelativePathInGit);
+        result.getLanguageParsingResponse().setLanguageParsingRequest(languageParsingRequest);
+      }
+      batchResponse.getResults().add(result);
+    }
+    return batchResponse;
+  }
+
+  /** Clone within the clone limit. A clone that fails once the deadline expired timed out. */
+  private static void cloneRepository(
+      String uri,
+      String branch,
+      Path directory,
+      FileSelector fileSelector,
+      ParsingMetrics metrics,
+      Deadline deadline)
+      throws IOException, GitAPIException {
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE);
+        GitHttpConnectionFactory.Recording recording = GIT_HTTP.record(metrics);
+        ConcurrencyLimit.Permit permit = CLONE_LIMIT.acquire(deadline, ParsingMetrics.CLONE)) {
+      CLONE_STRATEGY.cloneRepository(uri, branch, directory, fileSelector, deadline);
+    } catch (IOException | GitAPIException e) {
+      // A cancelled fetch fails like any other, only the deadline tells them apart
+      deadline.check(ParsingMetrics.CLONE);
+      throw e;
+    }
+  }
+
+  private static LanguageParsingResponse parseClonedFile(
+      Path tempDirWithPrefix, String descriptorRelativePathInGit) {
+    Path descriptorAbsolutePath = tempDirWithPrefix.resolve(descriptorRelativePathInGit);
+    LanguageParsingResponse response = getResponse(descriptorAbsolutePath);
     if (response.getSecondaryFilePaths() != null) {
       response
           .getSecondaryFilePaths()
           .replaceAll(s -> s.replaceFirst(tempDirWithPrefix.toString(), ""));
     }
-    return mapper.writeValueAsString(response);
+    return response;
+  }
+
+  /**
+   * Lease a workspace to clone into. The lease may first evict old workspaces to stay within the
+   * disk budget, which is the only cleanup left on the request path.
+   */
+  private static WorkspaceManager.Workspace leaseWorkspace(ParsingMetrics metrics)
+      throws IOException {
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLEANUP)) {
+      return WORKSPACES.lease();
+    }
+  }
+
+  /** Parses the request read by the handler. */
+  interface Parser {
+    Reply parse() throws IOException, GitAPIException;
+  }
+
+  /**
+   * The status and body of a response, before a handler encodes it. The body is either a message or
+   * a response object that is encoded as JSON.
+   */
+  static final class Reply {
+
+    static final Reply NO_BODY = error(HttpURLConnection.HTTP_BAD_REQUEST, "No body in request");
+    private final int statusCode;
+    private final String text;
+    private final Object value;
+
+    private Reply(int statusCode, String text, Object value) {
+      this.statusCode = statusCode;
+      this.text = text;
+      this.value = value;
+    }
+
+    static Reply of(Object value) {
+      return of(HttpURLConnection.HTTP_OK, value);
+    }
+
+    static Reply of(int statusCode, Object value) {
+      return new Reply(statusCode, null, value);
+    }
+
+    static Reply error(int statusCode, String message) {
+      return new Reply(statusCode, message, null);
+    }
+
+    int getStatusCode() {
+      return statusCode;
+    }
+
+    /** Get a copy for another caller, with the value encoded so that it shares no object. */
+    Reply copy() throws JsonProcessingException {
+      return value == null
+          ? this
+          : new Reply(statusCode, RESPONSE_WRITER.writeValueAsString(value), null);
+    }
+
+    /** Get the body as a String, for handlers whose runtime serializes the response event. */
+    String getBody(ObjectWriter writer) throws JsonProcessingException {
+      return value == null ? text : writer.writeValueAsString(value);
+    }
+
+    /** Get the body as UTF-8, for handlers that write it as the body of an HTTP response. */
+    byte[] getBytes(ObjectWriter writer) throws JsonProcessingException {
+      return value == null
+          ? text.getBytes(StandardCharsets.UTF_8)
+          : writer.writeValueAsBytes(value);
+    }
+
+    /**
+     * Write the body as a string field of a response that is being generated. The response object
+     * is encoded into a buffer that is escaped into the output, so a failure to encode it writes
+     * nothing.
+     */
+    void writeBody(JsonGenerator generator, String fieldName, ObjectWriter writer)
+        throws IOException {
+      if (value == null) {
+        generator.writeStringField(fieldName, text);
+        return;
+      }
+      BodyWriter bodyWriter = new BodyWriter();
+      writer.writeValue(bodyWriter, value);
+      generator.writeFieldName(fieldName);
+      bodyWriter.writeString(generator);
+    }
+  }
+
+  /** Exposes its buffer, so that the encoded body is not copied into a String. */
+  private static final class BodyWriter extends CharArrayWriter {
+
+    void writeString(JsonGenerator generator) throws IOException {
+      generator.writeString(buf, 0, count);
+    }
   }
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** The results of a batch, in the order of the requested descriptor paths. */
+public class BatchParsingResponse {
+
+  private List<BatchParsingResult> results = new ArrayList<>();
+
+  public List<BatchParsingResult> getResults() {
+    return results;
+  }
+
+  public void setResults(List<BatchParsingResult> results) {
+    this.results = results;
+  }
+}
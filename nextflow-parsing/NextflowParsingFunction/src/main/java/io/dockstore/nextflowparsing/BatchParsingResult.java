@@ -0,0 +1,54 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+
+/**
+ * The outcome of one descriptor of a batch. Either the response is set, which may itself report an
+ * invalid descriptor, or the error says why the descriptor could not be parsed at all.
+ */
+public class BatchParsingResult {
+
+  private String descriptorRelativePathInGit;
+  private LanguageParsingResponse languageParsingResponse;
+  private String error;
+
+  public String getDescriptorRelativePathInGit() {
+    return descriptorRelativePathInGit;
+  }
+
+  public void setDescriptorRelativePathInGit(String descriptorRelativePathInGit) {
+    this.descriptorRelativePathInGit = descriptorRelativePathInGit;
+  }
+
+  public LanguageParsingResponse getLanguageParsingResponse() {
+    return languageParsingResponse;
+  }
+
+  public void setLanguageParsingResponse(LanguageParsingResponse languageParsingResponse) {
+    this.languageParsingResponse = languageParsingResponse;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+}
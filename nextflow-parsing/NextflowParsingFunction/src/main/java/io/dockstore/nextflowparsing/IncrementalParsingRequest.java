@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+
+/**
+ * A request to parse a descriptor that was parsed before at another commit. The previous response
+ * is returned again if none of the files that it depends on changed since that commit.
+ */
+public class IncrementalParsingRequest {
+
+  private LanguageParsingRequest languageParsingRequest;
+  private String previousCommitId;
+  private LanguageParsingResponse previousResponse;
+
+  public LanguageParsingRequest getLanguageParsingRequest() {
+    return languageParsingRequest;
+  }
+
+  public void setLanguageParsingRequest(LanguageParsingRequest languageParsingRequest) {
+    this.languageParsingRequest = languageParsingRequest;
+  }
+
+  public String getPreviousCommitId() {
+    return previousCommitId;
+  }
+
+  public void setPreviousCommitId(String previousCommitId) {
+    this.previousCommitId = previousCommitId;
+  }
+
+  public LanguageParsingResponse getPreviousResponse() {
+    return previousResponse;
+  }
+
+  public void setPreviousResponse(LanguageParsingResponse previousResponse) {
+    this.previousResponse = previousResponse;
+  }
+}
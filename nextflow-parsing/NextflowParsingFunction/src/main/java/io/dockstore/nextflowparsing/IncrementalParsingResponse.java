@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+
+/**
+ * The response to an incremental request, with the commit that it applies to, which the next
+ * incremental request for the descriptor passes as the previous commit.
+ */
+public class IncrementalParsingResponse {
+
+  private String commitId;
+  private boolean changed;
+  private LanguageParsingResponse languageParsingResponse;
+
+  public String getCommitId() {
+    return commitId;
+  }
+
+  public void setCommitId(String commitId) {
+    this.commitId = commitId;
+  }
+
+  /**
+   * Whether the descriptor was parsed again, false if the previous response was returned.
+   *
+   * @return Whether the descriptor was parsed again
+   */
+  public boolean isChanged() {
+    return changed;
+  }
+
+  public void setChanged(boolean changed) {
+    this.changed = changed;
+  }
+
+  public LanguageParsingResponse getLanguageParsingResponse() {
+    return languageParsingResponse;
+  }
+
+  public void setLanguageParsingResponse(LanguageParsingResponse languageParsingResponse) {
+    this.languageParsingResponse = languageParsingResponse;
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Keeps the manifests of parsed Nextflow configs for as long as the (warm) Lambda container lives.
+ * Parsing a config compiles it as a Groovy script, which is most of the CPU time for small
+ * repositories, and every compilation loads new classes into metaspace.
+ *
+ * <p>Manifests are keyed by the contents of the config and of the configs it includes, not by
+ * repository or commit, so the same config in different repositories and branches is parsed once.
+ * Only the manifest is kept, not the parsed config, so that the compiled script can be unloaded.
+ */
+public class NextflowConfigCache {
+
+  /** Environment variable with the number of manifests kept before the least recently used. */
+  public static final String MAX_ENTRIES_VARIABLE = "NEXTFLOW_CONFIG_CACHE_MAX_ENTRIES";
+
+  public static final int DEFAULT_MAX_ENTRIES = 256;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+  private final Map<String, NextflowManifest> entries;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxEntries The number of manifests kept before the least recently used is evicted
+   */
+  public NextflowConfigCache(int maxEntries) {
+    this.entries =
+        new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, NextflowManifest> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Create the cache configured by the environment.
+   *
+   * @return The configured cache
+   */
+  public static NextflowConfigCache fromEnvironment() {
+    String maxEntries = System.getenv(MAX_ENTRIES_VARIABLE);
+    return new NextflowConfigCache(
+        maxEntries == null || maxEntries.isBlank()
+            ? DEFAULT_MAX_ENTRIES
+            : Integer.parseInt(maxEntries.trim()));
+  }
+
+  /**
+   * Get the manifest of a config, parsing the config only if an identical one hasn't been.
+   *
+   * @param config The config file
+   * @return The manifest
+   * @throws UncheckedIOException If the config or a config it includes can't be read
+   */
+  public NextflowManifest getManifest(Path config) {
+    String key;
+    try {
+      key = key(config);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    synchronized (this) {
+      NextflowManifest manifest = entries.get(key);
+      if (manifest != null) {
+        return manifest;
+      }
+    }
+    // Parsed outside the lock, so that a batch can parse different configs in parallel
+    NextflowManifest manifest = parse(config);
+    synchronized (this) {
+      entries.put(key, manifest);
+    }
+    return manifest;
+  }
+
+  private static NextflowManifest parse(Path config) {
+    if (!NextflowUtilities.isNativeImage()) {
+      return NextflowManifest.fromConfig(NextflowUtilities.getConfig(config));
+    }
+    // A native image can't define the classes of a compiled Groovy script
+    try {
+      return NextflowManifestReader.read(config);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Digest the contents of a config and of the configs it includes, transitively, with their paths
+   * relative to the config. Included configs that don't exist are part of the key as missing.
+   */
+  static String key(Path config) throws IOException {
+    MessageDigest digest = newDigest();
+    Path directory = config.toAbsolutePath().getParent();
+    Set<Path> visited = new LinkedHashSet<>();
+    Deque<Path> pending = new ArrayDeque<>();
+    pending.add(config.toAbsolutePath().normalize());
+    while (!pending.isEmpty()) {
+      Path file = pending.remove();
+      if (!visited.add(file)) {
+        continue;
+      }
+      Optional<String> contents = read(file);
+      // The NUL separators keep different splits of the same characters apart
+      digest.update(directory.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update((byte) (contents.isPresent() ? 1 : 0));
+      if (contents.isPresent()) {
+        digest.update(contents.get().getBytes(StandardCharsets.UTF_8));
+        for (String includedPath : NextflowFileSelector.getIncludedConfigs(contents.get())) {
+          pending.add(file.resolveSibling(includedPath).normalize());
+        }
+      }
+      digest.update((byte) 0);
+    }
+    return toHex(digest.digest());
+  }
+
+  /**
+   * Digest a string into a key.
+   *
+   * @param content The string to digest
+   * @return A hex encoded SHA-256 digest, which is safe to use as a file name
+   */
+  static String digest(String content) {
+    return toHex(newDigest().digest(content.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  private static Optional<String> read(Path file) throws IOException {
+    try {
+      return Optional.of(Files.readString(file));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    }
+  }
+}
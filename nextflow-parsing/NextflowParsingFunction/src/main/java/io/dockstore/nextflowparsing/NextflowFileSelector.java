@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import com.google.common.base.CharMatcher;
+import io.dockstore.parsing.FileSelector;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Selects the files that NextflowHandler reads: the config, the configs it includes, the main
+ * script, the modules it includes and the bin and lib directories next to the config.
+ */
+public class NextflowFileSelector implements FileSelector {
+
+  private static final Pattern MAIN_SCRIPT_PATTERN =
+      Pattern.compile("(?m)^\\s*(?:manifest\\.)?mainScript\\s*=\\s*['\"](.+?)['\"]");
+  static final Pattern PROJECT_DIRECTORY_PATTERN =
+      Pattern.compile("^\\$\\{?(?:baseDir|projectDir)}?/");
+  private static final CharMatcher QUOTES = CharMatcher.anyOf("'\"");
+  private final String descriptorRelativePathInGit;
+
+  public NextflowFileSelector(String descriptorRelativePathInGit) {
+    this.descriptorRelativePathInGit = FileSelector.stripLeadingSlash(descriptorRelativePathInGit);
+  }
+
+  @Override
+  public List<String> getRequiredPaths() {
+    return List.of(descriptorRelativePathInGit);
+  }
+
+  @Override
+  public List<String> getOptionalPaths() {
+    List<String> paths = new ArrayList<>();
+    resolveSibling(descriptorRelativePathInGit, "main.nf").ifPresent(paths::add);
+    resolveSibling(descriptorRelativePathInGit, "bin").ifPresent(path -> paths.add(path + "/"));
+    resolveSibling(descriptorRelativePathInGit, "lib").ifPresent(path -> paths.add(path + "/"));
+    return paths;
+  }
+
+  /** Each reference has one path, Nextflow doesn't look for an include anywhere else. */
+  @Override
+  public List<List<String>> getReferencedPaths(String path, String contents) {
+    List<String> paths = new ArrayList<>();
+    if (path.endsWith(".nf")) {
+      for (String includedPath : NextflowIncludeGraph.scan(contents)) {
+        getIncludedScript(path, includedPath).ifPresent(paths::add);
+      }
+    } else if (path.endsWith(".config")) {
+      for (String includedPath : getIncludedConfigs(contents)) {
+        resolveSibling(path, includedPath).ifPresent(paths::add);
+      }
+      Matcher mainScriptMatcher = MAIN_SCRIPT_PATTERN.matcher(contents);
+      while (mainScriptMatcher.find()) {
+        resolveSibling(descriptorRelativePathInGit, mainScriptMatcher.group(1))
+            .ifPresent(paths::add);
+      }
+    }
+    return paths.stream().map(List::of).collect(Collectors.toList());
+  }
+
+  @Override
+  public boolean mayBeSelected(String path) {
+    if (path.equals(descriptorRelativePathInGit)
+        || path.endsWith(".nf")
+        || path.endsWith(".config")) {
+      return true;
+    }
+    // Files directly inside the bin and lib directories, like the optional paths
+    for (String directoryPath : getOptionalPaths()) {
+      if (directoryPath.endsWith("/")
+          && path.startsWith(directoryPath)
+          && path.indexOf('/', directoryPath.length()) < 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Resolve a module include to a path in the repository. The selector can't list directories, so
+   * an include of a directory is taken for a script without its extension; that script is then
+   * missing and the clone falls back to one that has the main.nf of the directory.
+   */
+  private Optional<String> getIncludedScript(String path, String includedPath) {
+    Matcher projectDirectoryMatcher = PROJECT_DIRECTORY_PATTERN.matcher(includedPath);
+    Optional<String> script =
+        projectDirectoryMatcher.find()
+            ? resolveSibling(
+                descriptorRelativePathInGit, includedPath.substring(projectDirectoryMatcher.end()))
+            : resolveSibling(path, includedPath);
+    return script
+        .filter(resolved -> !resolved.contains("$"))
+        .map(resolved -> resolved.endsWith(".nf") ? resolved : resolved + ".nf");
+  }
+
+  /**
+   * Resolve a reference relative to the file it appears in.
+   *
+   * @param fromPath The path of the file containing the reference
+   * @param reference The referenced path
+   * @return The path relative to the root of the repository, empty if the reference is absolute or
+   *     leaves the repository
+   */
+  private static Optional<String> resolveSibling(String fromPath, String reference) {
+    if (reference.isEmpty()) {
+      return Optional.empty();
+    }
+    return FileSelector.toRepositoryPath(Path.of(fromPath).resolveSibling(reference));
+  }
+
+  /**
+   * Get the configs that a config includes with includeConfig.
+   *
+   * @param contents The contents of the config
+   * @return The included paths relative to the config, except those built from variables
+   */
+  static List<String> getIncludedConfigs(String contents) {
+    List<String> includedPaths = new ArrayList<>();
+    Matcher includeMatcher = NextflowHandler.INCLUDE_CONFIG_PATTERN.matcher(contents);
+    while (includeMatcher.find()) {
+      String includedPath =
+          PROJECT_DIRECTORY_PATTERN
+              .matcher(QUOTES.trimFrom(includeMatcher.group(1).trim()))
+              .replaceFirst("");
+      // Paths built from params or other variables can't be known before the config is parsed
+      if (!includedPath.contains("$")) {
+        includedPaths.add(includedPath);
+      }
+    }
+    return includedPaths;
+  }
+}
@@ -17,29 +17,34 @@
 package io.dockstore.nextflowparsing;
 
 import com.google.common.base.CharMatcher;
-import groovy.util.ConfigObject;
 import io.dockstore.openapi.client.model.VersionTypeValidation;
-import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public class NextflowHandler {
 
   private String descriptorContents;
   private String descriptorTempAbsolutePath;
-  private ConfigObject configuration;
+  private Path descriptorPath;
+  private NextflowManifest manifest;
   private VersionTypeValidation versionTypeValidation = new VersionTypeValidation();
   private List<String> secondaryDescriptorPaths;
+  private NextflowIncludeException includeException;
+  // The included path is group 2, the names in braces may span lines
   protected static final Pattern IMPORT_PATTERN =
-      Pattern.compile("^\\s*include.+?from.+?'.+?'", Pattern.DOTALL | Pattern.MULTILINE);
-  private static final Pattern INCLUDE_CONFIG_PATTERN =
+      Pattern.compile(
+          "^\\s*include(?:\\s*\\{[^}]*}|\\s+\\w+(?:\\s+as\\s+\\w+)?)\\s*from\\s*(['\"])(.+?)\\1",
+          Pattern.MULTILINE);
+  protected static final Pattern INCLUDE_CONFIG_PATTERN =
       Pattern.compile("(?i)(?m)^[ \t]*includeConfig(.*)");
 
   public String getDescriptorTempAbsolutePath() {
@@ -48,6 +53,22 @@ public class NextflowHandler {
 
   public void setDescriptorTempAbsolutePath(String descriptorTempAbsolutePath) {
     this.descriptorTempAbsolutePath = descriptorTempAbsolutePath;
+    this.descriptorPath = Paths.get(descriptorTempAbsolutePath);
+  }
+
+  public Path getDescriptorPath() {
+    return descriptorPath;
+  }
+
+  /**
+   * Set the path of the config, which may be in another file system than the default, such as an
+   * in-memory workspace.
+   *
+   * @param descriptorPath The absolute path of the config
+   */
+  public void setDescriptorPath(Path descriptorPath) {
+    this.descriptorPath = descriptorPath;
+    this.descriptorTempAbsolutePath = descriptorPath.toString();
   }
 
   public String getDescriptorContents() {
@@ -62,9 +83,10 @@ public class NextflowHandler {
    * Get the relative path imports of the workflow.
    *
    * @param content The contents of the main descriptor file
+   * @param includeGraph Walks the modules that the main script includes
    * @return
    */
-  public List<String> processImports(String content) {
+  public List<String> processImports(String content, NextflowIncludeGraph includeGraph) {
     // FIXME: see{@link NextflowUtilities#grabConfig(String) grabConfig} method for comments on why
     // we have to look at imports in this crummy way
     final Matcher matcher = INCLUDE_CONFIG_PATTERN.matcher(content);
@@ -72,31 +94,25 @@ public class NextflowHandler {
     while (matcher.find()) {
       suspectedConfigImports.add(CharMatcher.is('\'').trimFrom(matcher.group(1).trim()));
     }
-    List<String> imports = new ArrayList<>();
-
     // add the Nextflow scripts
     String mainScriptPath = "main.nf";
-    String manifest = getManifest(configuration);
-    if (manifest != null) {
-      mainScriptPath = manifest;
+    if (manifest != null && manifest.getMainScript() != null) {
+      mainScriptPath = manifest.getMainScript();
     }
     suspectedConfigImports.add(mainScriptPath);
-
+    try {
+      suspectedConfigImports.addAll(
+          includeGraph.walk(descriptorPath.toAbsolutePath().resolveSibling("."), mainScriptPath));
+    } catch (NextflowIncludeException e) {
+      includeException = e;
+    }
+    List<String> imports = new ArrayList<>();
     imports.addAll(handleNextflowImports("bin"));
     imports.addAll(handleNextflowImports("lib"));
     imports.addAll(suspectedConfigImports);
     return imports;
   }
 
-  private String getManifest(ConfigObject configObject) {
-    try {
-      Map property = (Map) configObject.get("manifest");
-      return (String) property.get("mainScript");
-    } catch (Exception e) {
-      return null;
-    }
-  }
-
   /**
    * Get relative file paths from directory.
    *
@@ -104,26 +120,43 @@ public class NextflowHandler {
    * @return List of files relative to the main descriptor file
    */
   private List<String> handleNextflowImports(String directory) {
-    File binDirectory = Paths.get(descriptorTempAbsolutePath).resolveSibling(directory).toFile();
     List<String> binFiles = new ArrayList<>();
-    String[] binFileNames =
-        binDirectory.list((current, name) -> !(new File(current, name).isDirectory()));
-    if (binFileNames != null) {
-      List<String> binFileNamesList = List.of(binFileNames);
-      binFiles =
-          binFileNamesList.stream()
-              .map(string -> directory + "/" + string)
-              .collect(Collectors.toList());
+    Path binDirectory = descriptorPath.resolveSibling(directory);
+    if (!Files.isDirectory(binDirectory)) {
+      return binFiles;
+    }
+    try (DirectoryStream<Path> binPaths =
+        Files.newDirectoryStream(binDirectory, path -> !Files.isDirectory(path))) {
+      for (Path binPath : binPaths) {
+        binFiles.add(directory + "/" + binPath.getFileName());
+      }
+    } catch (IOException e) {
+      // Same as a directory that can't be listed by File.list
+      return new ArrayList<>();
     }
     return binFiles;
   }
 
-  public ConfigObject getConfiguration() {
-    return configuration;
+  /**
+   * Get the manifest of the config.
+   *
+   * @return The manifest, null if the config could not be parsed
+   */
+  public NextflowManifest getManifest() {
+    return manifest;
+  }
+
+  public void setManifest(NextflowManifest manifest) {
+    this.manifest = manifest;
   }
 
-  public void setConfiguration(ConfigObject configuration) {
-    this.configuration = configuration;
+  /**
+   * Get the reason the include graph couldn't be walked.
+   *
+   * @return The failure, null if the graph was walked
+   */
+  public NextflowIncludeException getIncludeException() {
+    return includeException;
   }
 
   public VersionTypeValidation getVersionTypeValidation() {
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+
+/**
+ * Walks the DSL2 include graph of a pipeline from the main script, so that the modules it includes,
+ * and the modules those include, are returned with the rest of the secondary files. The scripts of
+ * each level of the graph are read and scanned in parallel, and every script is scanned once
+ * however many others include it. A recursive include fails the walk with an error that names the
+ * cycle.
+ *
+ * <p>Includes that can't be resolved without running the pipeline are skipped: plugins, paths built
+ * from params or other variables, and paths that are outside of the repository or not in it.
+ */
+public class NextflowIncludeGraph {
+
+  /** Environment variable with the most scripts, including the main script, allowed. */
+  public static final String MAX_FILES_VARIABLE = "NEXTFLOW_INCLUDE_MAX_FILES";
+  /** Environment variable with the number of scripts scanned at the same time. */
+  public static final String PARALLELISM_VARIABLE = "NEXTFLOW_INCLUDE_PARALLELISM";
+
+  public static final int DEFAULT_MAX_FILES = 2000;
+
+  private static final String SCRIPT_EXTENSION = ".nf";
+  private static final String MODULE_MAIN_SCRIPT = "main.nf";
+  private static final String PLUGIN_PREFIX = "plugin/";
+  private final int maxFiles;
+  private final ExecutorService executorService;
+
+  /**
+   * Create a walker.
+   *
+   * @param maxFiles The most scripts allowed, including the main script
+   * @param parallelism The number of scripts scanned at the same time
+   */
+  public NextflowIncludeGraph(int maxFiles, int parallelism) {
+    this.maxFiles = maxFiles;
+    // Daemon threads, an idle pool must not keep the JVM alive
+    this.executorService =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "include-scanning");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Create the walker configured by the environment, one thread per processor by default.
+   *
+   * @return The configured walker
+   */
+  public static NextflowIncludeGraph fromEnvironment() {
+    return new NextflowIncludeGraph(
+        getInt(MAX_FILES_VARIABLE, DEFAULT_MAX_FILES),
+        getInt(PARALLELISM_VARIABLE, Runtime.getRuntime().availableProcessors()));
+  }
+
+  private static int getInt(String variable, int defaultValue) {
+    String value = System.getenv(variable);
+    return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  /**
+   * Get the paths of the include statements of a script, in the order they appear.
+   *
+   * @param contents The contents of a Nextflow script
+   * @return The included paths exactly as written, except plugins
+   */
+  static List<String> scan(String contents) {
+    List<String> includedPaths = new ArrayList<>();
+    Matcher matcher = NextflowHandler.IMPORT_PATTERN.matcher(contents);
+    while (matcher.find()) {
+      String includedPath = matcher.group(2);
+      if (!includedPath.startsWith(PLUGIN_PREFIX)) {
+        includedPaths.add(includedPath);
+      }
+    }
+    return includedPaths;
+  }
+
+  /**
+   * Walk the include graph breadth first.
+   *
+   * @param projectDirectory The directory of the config, that paths starting with projectDir or
+   *     baseDir are relative to
+   * @param mainScript The path of the main script relative to the project directory
+   * @return The paths of every script reached relative to the project directory, the main script
+   *     first, or nothing if there is no main script
+   * @throws NextflowIncludeException If the graph has a cycle or exceeds the limit
+   */
+  public Set<String> walk(Path projectDirectory, String mainScript)
+      throws NextflowIncludeException {
+    Path root = projectDirectory.toAbsolutePath().normalize();
+    Path main = root.resolve(mainScript).normalize();
+    Set<String> relativePaths = new LinkedHashSet<>();
+    if (!main.startsWith(root) || !Files.isRegularFile(main)) {
+      return relativePaths;
+    }
+    Set<Path> files = new LinkedHashSet<>();
+    files.add(main);
+    Map<Path, List<Path>> includes = new HashMap<>();
+    List<Path> level = List.of(main);
+    while (!level.isEmpty()) {
+      List<Future<List<Path>>> scans = new ArrayList<>();
+      for (Path file : level) {
+        scans.add(executorService.submit(() -> getIncludedScripts(root, file)));
+      }
+      List<Path> nextLevel = new ArrayList<>();
+      try {
+        for (int i = 0; i < level.size(); i++) {
+          List<Path> includedScripts = await(main, scans.get(i));
+          includes.put(level.get(i), includedScripts);
+          for (Path includedScript : includedScripts) {
+            // A script included by several others is only scanned once
+            if (!files.add(includedScript)) {
+              continue;
+            }
+            if (files.size() > maxFiles) {
+              throw new NextflowIncludeException(
+                  includedScript.toString(),
+                  "The pipeline includes more than " + (maxFiles - 1) + " scripts");
+            }
+            nextLevel.add(includedScript);
+          }
+        }
+      } catch (NextflowIncludeException e) {
+        scans.forEach(scan -> scan.cancel(true));
+        throw e;
+      }
+      level = nextLevel;
+    }
+    Optional<List<Path>> cycle = findCycle(main, includes);
+    if (cycle.isPresent()) {
+      List<String> cyclePaths = new ArrayList<>();
+      cycle.get().forEach(file -> cyclePaths.add(root.relativize(file).toString()));
+      throw new NextflowIncludeException(
+          cycle.get().get(0).toString(), "Recursive include: " + String.join(" -> ", cyclePaths));
+    }
+    files.forEach(file -> relativePaths.add(root.relativize(file).toString()));
+    return relativePaths;
+  }
+
+  private static List<Path> await(Path main, Future<List<Path>> scan)
+      throws NextflowIncludeException {
+    try {
+      return scan.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NextflowIncludeException(main.toString(), "Interrupted while scanning includes");
+    } catch (ExecutionException e) {
+      // Reading and scanning only throw unchecked exceptions, IOExceptions are handled
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  /** Read a script and resolve its includes to the scripts in the repository. */
+  private static List<Path> getIncludedScripts(Path root, Path file) {
+    String contents;
+    try {
+      contents = Files.readString(file, StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      // Not a script that Nextflow could include either
+      return List.of();
+    }
+    List<Path> includedScripts = new ArrayList<>();
+    for (String includedPath : scan(contents)) {
+      resolve(root, file, includedPath).ifPresent(includedScripts::add);
+    }
+    return includedScripts;
+  }
+
+  /**
+   * Resolve an include the way Nextflow does: the .nf extension may be left out, and a directory
+   * stands for the main.nf inside it.
+   */
+  private static Optional<Path> resolve(Path root, Path file, String includedPath) {
+    Matcher projectDirectoryMatcher =
+        NextflowFileSelector.PROJECT_DIRECTORY_PATTERN.matcher(includedPath);
+    boolean fromProjectDirectory = projectDirectoryMatcher.find();
+    String path =
+        fromProjectDirectory ? includedPath.substring(projectDirectoryMatcher.end()) : includedPath;
+    // Paths built from params or other variables can't be known before the pipeline runs
+    if (path.contains("$")) {
+      return Optional.empty();
+    }
+    Path target =
+        (fromProjectDirectory ? root.resolve(path) : file.resolveSibling(path)).normalize();
+    if (!target.toString().endsWith(SCRIPT_EXTENSION)) {
+      Path script = target.resolveSibling(target.getFileName() + SCRIPT_EXTENSION);
+      target =
+          !Files.isRegularFile(script) && Files.isDirectory(target)
+              ? target.resolve(MODULE_MAIN_SCRIPT)
+              : script;
+    }
+    if (!target.startsWith(root) || !Files.isRegularFile(target)) {
+      return Optional.empty();
+    }
+    return Optional.of(target);
+  }
+
+  /**
+   * Find a cycle reachable from the main script, depth first.
+   *
+   * @return The scripts of the cycle, starting and ending with the same script
+   */
+  private static Optional<List<Path>> findCycle(Path main, Map<Path, List<Path>> includes) {
+    Set<Path> visited = new HashSet<>();
+    Deque<Path> chain = new ArrayDeque<>();
+    Deque<Iterator<Path>> pending = new ArrayDeque<>();
+    visited.add(main);
+    chain.push(main);
+    pending.push(includes.getOrDefault(main, List.of()).iterator());
+    while (!chain.isEmpty()) {
+      Iterator<Path> includedScripts = pending.peek();
+      if (!includedScripts.hasNext()) {
+        chain.pop();
+        pending.pop();
+        continue;
+      }
+      Path includedScript = includedScripts.next();
+      if (chain.contains(includedScript)) {
+        List<Path> cycle = new ArrayList<>();
+        Iterator<Path> fromMain = chain.descendingIterator();
+        boolean inCycle = false;
+        while (fromMain.hasNext()) {
+          Path script = fromMain.next();
+          inCycle = inCycle || script.equals(includedScript);
+          if (inCycle) {
+            cycle.add(script);
+          }
+        }
+        cycle.add(includedScript);
+        return Optional.of(cycle);
+      }
+      // Scripts reached before were either in the chain or had no cycle through them
+      if (visited.add(includedScript)) {
+        chain.push(includedScript);
+        pending.push(includes.getOrDefault(includedScript, List.of()).iterator());
+      }
+    }
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import groovy.util.ConfigObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * The manifest scope of a Nextflow config, the only part of the config that the parser reports.
+ * Immutable, so that one instance can be shared by every request for the same config.
+ */
+public final class NextflowManifest {
+
+  private final List<String> authors;
+  private final String description;
+  private final String mainScript;
+  private final String nextflowVersion;
+
+  /**
+   * Create a manifest.
+   *
+   * @param authors The authors, empty if there are none
+   * @param description The description, null if there is none
+   * @param mainScript The main script, null if there is none
+   * @param nextflowVersion The required Nextflow version, null if there is none
+   */
+  public NextflowManifest(
+      List<String> authors, String description, String mainScript, String nextflowVersion) {
+    this.authors = List.copyOf(authors);
+    this.description = description;
+    this.mainScript = mainScript;
+    this.nextflowVersion = nextflowVersion;
+  }
+
+  /**
+   * Read the manifest of a parsed config. Values that are missing or are not strings are null.
+   *
+   * @param configuration The parsed config
+   * @return The manifest
+   */
+  public static NextflowManifest fromConfig(ConfigObject configuration) {
+    Object manifest = configuration.get("manifest");
+    return fromProperties(manifest instanceof Map ? (Map<?, ?>) manifest : Map.of());
+  }
+
+  /**
+   * Read the manifest from the properties of a manifest scope.
+   *
+   * @param properties The properties, by name
+   * @return The manifest
+   */
+  static NextflowManifest fromProperties(Map<?, ?> properties) {
+    String author = getString(properties, "author");
+    List<String> authors =
+        author == null
+            ? List.of()
+            : Arrays.stream(author.split(",")).map(String::trim).collect(Collectors.toList());
+    return new NextflowManifest(
+        authors,
+        getString(properties, "description"),
+        getString(properties, "mainScript"),
+        getString(properties, "nextflowVersion"));
+  }
+
+  private static String getString(Map<?, ?> properties, String name) {
+    Object value = properties.get(name);
+    // A GString if the value interpolates a variable
+    return value instanceof CharSequence ? value.toString() : null;
+  }
+
+  public List<String> getAuthors() {
+    return authors;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public String getMainScript() {
+    return mainScript;
+  }
+
+  public String getNextflowVersion() {
+    return nextflowVersion;
+  }
+}
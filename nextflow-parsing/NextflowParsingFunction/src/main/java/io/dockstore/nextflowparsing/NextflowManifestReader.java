@@ -0,0 +1,233 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads the manifest scope of a Nextflow config without compiling the config as a Groovy script,
+ * for native images, which can't define the classes that a compilation makes.
+ *
+ * <p>Only literal values are read: the manifest block, dotted assignments like {@code
+ * manifest.author = 'x'} and includeConfig at the top level of a config, in the order that they
+ * appear. Values that interpolate variables, or are built by any other expression, are null, as are
+ * the manifests of profiles and of conditional blocks. Included configs that are missing are
+ * skipped.
+ */
+public final class NextflowManifestReader {
+
+  private static final String MANIFEST = "manifest";
+  private static final String INCLUDE_CONFIG = "includeConfig";
+  private static final int TRIPLE_QUOTE_LENGTH = 3;
+
+  private final Map<String, Object> properties = new HashMap<>();
+  private final Set<Path> visited = new HashSet<>();
+
+  private NextflowManifestReader() {
+    // only created by read
+  }
+
+  /**
+   * Read the manifest of a config and of the configs it includes.
+   *
+   * @param config The config file, which may be in any file system
+   * @return The manifest
+   * @throws IOException If the config or a config it includes can't be read
+   */
+  public static NextflowManifest read(Path config) throws IOException {
+    NextflowManifestReader reader = new NextflowManifestReader();
+    reader.readConfig(config.toAbsolutePath().normalize());
+    return NextflowManifest.fromProperties(reader.properties);
+  }
+
+  private void readConfig(Path config) throws IOException {
+    // Groovy fails on an include cycle, the cycle just ends here
+    if (!visited.add(config) || !Files.isRegularFile(config)) {
+      return;
+    }
+    List<Token> tokens = tokenize(Files.readString(config));
+    List<String> scopes = new ArrayList<>();
+    for (int i = 0; i < tokens.size(); i++) {
+      Token token = tokens.get(i);
+      Token next = get(tokens, i + 1);
+      if (token.isSymbol('{')) {
+        // A closure, or the block of a statement, that only an evaluation could follow
+        scopes.add("");
+      } else if (token.isSymbol('}')) {
+        if (!scopes.isEmpty()) {
+          scopes.remove(scopes.size() - 1);
+        }
+      } else if (token.kind == Kind.WORD && next.isSymbol('{')) {
+        scopes.add(token.text);
+        i++;
+      } else if (token.kind == Kind.WORD && next.isSymbol('=')) {
+        List<String> path = new ArrayList<>(scopes);
+        path.addAll(Arrays.asList(token.text.split("\\.")));
+        if (path.size() == 2 && MANIFEST.equals(path.get(0))) {
+          properties.put(path.get(1), getLiteral(tokens, i + 2));
+        }
+        i++;
+      } else if (INCLUDE_CONFIG.equals(token.text) && scopes.isEmpty()) {
+        includeConfig(config, next);
+      }
+    }
+  }
+
+  private void includeConfig(Path config, Token argument) throws IOException {
+    if (argument.kind != Kind.STRING) {
+      return;
+    }
+    String includedPath =
+        NextflowFileSelector.PROJECT_DIRECTORY_PATTERN.matcher(argument.raw).replaceFirst("");
+    // Paths built from params or other variables can't be known without an evaluation
+    if (!includedPath.contains("$")) {
+      readConfig(config.resolveSibling(includedPath).normalize());
+    }
+  }
+
+  /** Get the value of a string literal, or null for an interpolation or any other expression. */
+  private static String getLiteral(List<Token> tokens, int index) {
+    Token value = get(tokens, index);
+    if (value.kind != Kind.STRING || get(tokens, index + 1).isSymbol('+')) {
+      return null;
+    }
+    return value.text;
+  }
+
+  private static Token get(List<Token> tokens, int index) {
+    return index < tokens.size() ? tokens.get(index) : Token.END;
+  }
+
+  /**
+   * Split a config into words, which may be dotted, string literals and single other characters,
+   * skipping whitespace and comments. Slashy strings are taken for divisions.
+   */
+  static List<Token> tokenize(String contents) {
+    List<Token> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < contents.length()) {
+      char c = contents.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (contents.startsWith("//", i)) {
+        int end = contents.indexOf('\n', i);
+        i = end < 0 ? contents.length() : end + 1;
+      } else if (contents.startsWith("/*", i)) {
+        int end = contents.indexOf("*/", i + 2);
+        i = end < 0 ? contents.length() : end + 2;
+      } else if (c == '\'' || c == '"') {
+        i = readString(contents, i, tokens);
+      } else if (Character.isJavaIdentifierStart(c)) {
+        int start = i;
+        while (i < contents.length()
+            && (Character.isJavaIdentifierPart(contents.charAt(i)) || contents.charAt(i) == '.')) {
+          i++;
+        }
+        tokens.add(new Token(Kind.WORD, contents.substring(start, i), null));
+      } else {
+        tokens.add(new Token(Kind.SYMBOL, String.valueOf(c), null));
+        i++;
+      }
+    }
+    return tokens;
+  }
+
+  /**
+   * Read a single, double or triple quoted string literal.
+   *
+   * @return The index after the closing quotes, or the end of the contents if there are none
+   */
+  private static int readString(String contents, int start, List<Token> tokens) {
+    char quote = contents.charAt(start);
+    String delimiter = String.valueOf(quote).repeat(TRIPLE_QUOTE_LENGTH);
+    if (!contents.startsWith(delimiter, start)) {
+      delimiter = String.valueOf(quote);
+    }
+    StringBuilder value = new StringBuilder();
+    boolean interpolated = false;
+    int i = start + delimiter.length();
+    final int valueStart = i;
+    while (i < contents.length() && !contents.startsWith(delimiter, i)) {
+      char c = contents.charAt(i);
+      if (c == '\\' && i + 1 < contents.length()) {
+        value.append(unescape(contents.charAt(i + 1)));
+        i += 2;
+      } else {
+        // Only double quoted strings are GStrings
+        interpolated |= c == '$' && quote == '"';
+        value.append(c);
+        i++;
+      }
+    }
+    String raw = contents.substring(valueStart, Math.min(i, contents.length()));
+    tokens.add(new Token(Kind.STRING, interpolated ? null : value.toString(), raw));
+    return Math.min(i + delimiter.length(), contents.length());
+  }
+
+  private static char unescape(char c) {
+    switch (c) {
+      case 'n':
+        return '\n';
+      case 't':
+        return '\t';
+      case 'r':
+        return '\r';
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      default:
+        return c;
+    }
+  }
+
+  enum Kind {
+    WORD,
+    STRING,
+    SYMBOL,
+    END
+  }
+
+  /** A token of a config. The text of a string is its value, null if it is interpolated. */
+  static final class Token {
+
+    static final Token END = new Token(Kind.END, null, null);
+
+    final Kind kind;
+    final String text;
+    final String raw;
+
+    Token(Kind kind, String text, String raw) {
+      this.kind = kind;
+      this.text = text;
+      this.raw = raw;
+    }
+
+    boolean isSymbol(char symbol) {
+      return kind == Kind.SYMBOL && text.charAt(0) == symbol;
+    }
+  }
+}
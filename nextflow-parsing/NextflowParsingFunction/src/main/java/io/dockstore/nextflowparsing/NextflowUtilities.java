@@ -17,10 +17,16 @@
 package io.dockstore.nextflowparsing;
 
 import groovy.util.ConfigObject;
-import java.io.File;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
 import nextflow.config.ConfigParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,45 +34,109 @@ import org.slf4j.LoggerFactory;
 public final class NextflowUtilities {
 
   private static final Logger LOG = LoggerFactory.getLogger(NextflowUtilities.class);
+  private static final String HTTP_FILE_SYSTEM_PROVIDER = "nextflow.file.http.XFileSystemProvider";
 
   private NextflowUtilities() {
     // hide the default constructor for a utility class
   }
 
   /**
-   * Get authors of the workflow.
+   * Whether this is running as a GraalVM native image, rather than on a JVM.
    *
-   * @param configuration The Nextflow configuration
-   * @return
+   * @return True in a native image
    */
-  public static List<String> getAuthors(ConfigObject configuration) {
+  public static boolean isNativeImage() {
+    return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+  }
+
+  /**
+   * Parse a Nextflow config, compiling it as a Groovy script.
+   *
+   * @param tempMainDescriptor The config file, which may be in any file system
+   * @return The parsed config
+   * @throws UncheckedIOException If a config in another file system could not be staged on disk
+   */
+  public static ConfigObject getConfig(Path tempMainDescriptor) {
+    if (FileSystems.getDefault().equals(tempMainDescriptor.getFileSystem())) {
+      ConfigParser configParser = new ConfigParser();
+      return configParser.parse(tempMainDescriptor.toFile());
+    }
+    // Nextflow resolves a config and its includes through URLs that only the default file system
+    // has, so the configs, and nothing else, are copied to disk for the compilation
+    Path stagingDirectory = null;
     try {
-      Map manifest = (Map) configuration.get("manifest");
-      String author = (String) manifest.get("author");
-      String[] authors = Arrays.stream(author.split(",")).map(String::trim).toArray(String[]::new);
-      return Arrays.asList(authors);
-    } catch (Exception e) {
-      return null;
+      stagingDirectory = Files.createTempDirectory("config");
+      return getConfig(stageConfigs(tempMainDescriptor, stagingDirectory));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      deleteDirectory(stagingDirectory);
     }
   }
 
   /**
-   * Get the description of the workflow.
+   * Copy a config and the configs it includes, transitively, keeping their paths from the root.
    *
-   * @param configuration The Nextflow configuration
-   * @return
+   * @return The copy of the config
    */
-  public static String getDescription(ConfigObject configuration) {
+  private static Path stageConfigs(Path config, Path stagingDirectory) throws IOException {
+    Path absoluteConfig = config.toAbsolutePath().normalize();
+    Path root = absoluteConfig.getFileSystem().getRootDirectories().iterator().next();
+    Set<Path> visited = new HashSet<>();
+    Deque<Path> pending = new ArrayDeque<>();
+    pending.add(absoluteConfig);
+    while (!pending.isEmpty()) {
+      Path file = pending.remove();
+      if (!visited.add(file) || !Files.isRegularFile(file)) {
+        continue;
+      }
+      String contents = Files.readString(file);
+      Path stagedFile = stagingDirectory.resolve(root.relativize(file).toString());
+      Path stagedParent = stagedFile.getParent();
+      if (stagedParent != null) {
+        Files.createDirectories(stagedParent);
+      }
+      Files.writeString(stagedFile, contents);
+      for (String includedPath : NextflowFileSelector.getIncludedConfigs(contents)) {
+        pending.add(file.resolveSibling(includedPath).normalize());
+      }
+    }
+    return stagingDirectory.resolve(root.relativize(absoluteConfig).toString());
+  }
+
+  private static void deleteDirectory(Path directory) {
+    if (directory == null) {
+      return;
+    }
     try {
-      Map manifest = (Map) configuration.get("manifest");
-      return (String) manifest.get("description");
-    } catch (Exception e) {
-      return null;
+      WorkspaceManager.deleteRecursively(directory);
+    } catch (IOException e) {
+      LOG.warn("Could not delete " + directory, e);
     }
   }
 
-  public static ConfigObject getConfig(File tempMainDescriptor) {
-    ConfigParser configParser = new ConfigParser();
-    return configParser.parse(tempMainDescriptor);
+  /**
+   * Create the workspace manager configured by the environment, after loading the file system
+   * providers of Nextflow so that in-memory workspaces can look up the installed providers.
+   *
+   * @return The configured manager
+   */
+  static WorkspaceManager createWorkspaceManager() {
+    loadFileSystemProviders();
+    return WorkspaceManager.fromEnvironment();
+  }
+
+  /**
+   * Load the file system providers installed with Nextflow. Its HTTP and FTP providers look up the
+   * installed providers while they are loaded, which fails for good if it was that lookup that
+   * loaded them, so they are loaded first. Other file systems, such as the in-memory one of
+   * workspaces, can then look up the installed providers.
+   */
+  static void loadFileSystemProviders() {
+    try {
+      Class.forName(HTTP_FILE_SYSTEM_PROVIDER);
+    } catch (ClassNotFoundException e) {
+      LOG.debug("Nextflow has no HTTP file system provider", e);
+    }
   }
 }
@@ -0,0 +1,15 @@
+params.input = 'input.txt'
+
+process checksum {
+  input:
+  path inputFile from Channel.fromPath(params.input)
+
+  output:
+  stdout into result
+
+  """
+  checksum.sh $inputFile
+  """
+}
+
+result.view()
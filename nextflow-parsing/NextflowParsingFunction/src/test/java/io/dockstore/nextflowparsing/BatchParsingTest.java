@@ -0,0 +1,151 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.BatchParsingRequest;
+import io.dockstore.parsing.TestRepositories;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class BatchParsingTest {
+
+  @Test
+  public void oneFailureDoesNotFailTheBatch() {
+    BatchParsingExecutor executor = new BatchParsingExecutor(2);
+    List<BatchParsingResult> results =
+        executor.parse(
+            List.of("first.config", "broken.config", "second.config"),
+            path -> {
+              if ("broken.config".equals(path)) {
+                throw new IllegalStateException("Unparsable");
+              }
+              return new LanguageParsingResponse();
+            });
+    assertEquals(
+        List.of("first.config", "broken.config", "second.config"),
+        List.of(
+            results.get(0).getDescriptorRelativePathInGit(),
+            results.get(1).getDescriptorRelativePathInGit(),
+            results.get(2).getDescriptorRelativePathInGit()));
+    assertNotNull(results.get(0).getLanguageParsingResponse());
+    assertNull(results.get(1).getLanguageParsingResponse());
+    assertTrue(results.get(1).getError().contains("Unparsable"));
+    assertNotNull(results.get(2).getLanguageParsingResponse());
+  }
+
+  @Test
+  public void batchWithoutPathsIsRejected() {
+    for (String body :
+        List.of(
+            "{\"uri\":\"https://github.com/dockstore/workflow.git\",\"branch\":\"master\"}",
+            "{\"uri\":\"https://github.com/dockstore/workflow.git\",\"branch\":\"master\","
+                + "\"descriptorRelativePathsInGit\":null}")) {
+      APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+      requestEvent.setPath("/parse/batch");
+      requestEvent.setBody(body);
+      APIGatewayProxyResponseEvent result = new App().handleRequest(requestEvent, null);
+      assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, result.getStatusCode().intValue(), body);
+    }
+  }
+
+  @Test
+  public void batchParsesEveryDescriptorOfOneClone(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "first/nextflow.config",
+              "manifest {\n  author = 'First'\n}\n",
+              "first/main.nf",
+              "",
+              "second/nextflow.config",
+              "manifest {\n  author = 'Second'\n}\n",
+              "second/main.nf",
+              ""));
+    }
+    BatchParsingRequest request = new BatchParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathsInGit(
+        List.of("first/nextflow.config", "missing/nextflow.config", "second/nextflow.config"));
+    ObjectMapper objectMapper = new ObjectMapper();
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setPath("/parse/batch");
+    requestEvent.setBody(objectMapper.writeValueAsString(request));
+    APIGatewayProxyResponseEvent result = new App().handleRequest(requestEvent, null);
+    assertEquals(HttpURLConnection.HTTP_OK, result.getStatusCode().intValue());
+    List<BatchParsingResult> results =
+        objectMapper.readValue(result.getBody(), BatchParsingResponse.class).getResults();
+    assertEquals(request.getDescriptorRelativePathsInGit().size(), results.size());
+    assertEquals("First", results.get(0).getLanguageParsingResponse().getAuthor());
+    assertNotNull(results.get(1).getError(), "A missing config can't be parsed");
+    assertEquals("Second", results.get(2).getLanguageParsingResponse().getAuthor());
+    assertEquals(
+        "second/nextflow.config",
+        results
+            .get(2)
+            .getLanguageParsingResponse()
+            .getLanguageParsingRequest()
+            .getDescriptorRelativePathInGit());
+  }
+
+  @Test
+  public void batchAnswersEveryRequestOfARepeatedDescriptor(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("nextflow.config", "manifest {\n  author = 'First'\n}\n", "main.nf", ""));
+    }
+    BatchParsingRequest request = new BatchParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathsInGit(List.of("nextflow.config", "nextflow.config"));
+    ObjectMapper objectMapper = new ObjectMapper();
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setPath("/parse/batch");
+    requestEvent.setBody(objectMapper.writeValueAsString(request));
+    APIGatewayProxyResponseEvent result = new App().handleRequest(requestEvent, null);
+    assertEquals(HttpURLConnection.HTTP_OK, result.getStatusCode().intValue());
+    List<BatchParsingResult> results =
+        objectMapper.readValue(result.getBody(), BatchParsingResponse.class).getResults();
+    assertEquals(2, results.size());
+    for (BatchParsingResult batchResult : results) {
+      assertEquals("nextflow.config", batchResult.getDescriptorRelativePathInGit());
+      assertEquals("First", batchResult.getLanguageParsingResponse().getAuthor());
+    }
+  }
+}
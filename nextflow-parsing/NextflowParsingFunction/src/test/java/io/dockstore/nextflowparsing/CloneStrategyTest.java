@@ -0,0 +1,446 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.ArchiveCloneStrategy;
+import io.dockstore.parsing.FullCloneStrategy;
+import io.dockstore.parsing.MirrorCloneStrategy;
+import io.dockstore.parsing.SparseCloneStrategy;
+import io.dockstore.parsing.TestRepositories;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CloneStrategyTest {
+
+  /** In-memory workspaces look up the installed file system providers, Nextflow's load first. */
+  @BeforeAll
+  public static void loadFileSystemProviders() {
+    NextflowUtilities.loadFileSystemProviders();
+  }
+
+  @Test
+  public void sparseCloneWritesOnlyWhatNextflowHandlerReads(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId commitId =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of(
+                  "nextflow.config",
+                  "includeConfig 'conf/base.config'\n"
+                      + "includeConfig \"$baseDir/conf/igenomes.config\"\n"
+                      + "includeConfig \"conf/${params.profile}.config\"\n"
+                      + "manifest {\n  mainScript = 'pipeline.nf'\n}\n",
+                  "conf/base.config",
+                  "includeConfig 'resources.config'\n",
+                  "conf/resources.config",
+                  "",
+                  "conf/igenomes.config",
+                  "",
+                  "conf/unused.config",
+                  "",
+                  "pipeline.nf",
+                  "",
+                  "bin/script.py",
+                  "",
+                  "bin/nested/script.py",
+                  "",
+                  "docs/usage.md",
+                  ""));
+      String clonedCommitId =
+          new SparseCloneStrategy(new FullCloneStrategy())
+              .cloneRepository(
+                  remote.toUri().toString(),
+                  "master",
+                  clone,
+                  new NextflowFileSelector("nextflow.config"));
+      assertEquals(commitId.getName(), clonedCommitId);
+      assertTrue(Files.exists(clone.resolve("nextflow.config")));
+      assertTrue(Files.exists(clone.resolve("conf/base.config")));
+      assertTrue(Files.exists(clone.resolve("conf/resources.config")));
+      assertTrue(Files.exists(clone.resolve("conf/igenomes.config")));
+      assertTrue(Files.exists(clone.resolve("pipeline.nf")));
+      assertTrue(Files.exists(clone.resolve("bin/script.py")));
+      assertFalse(Files.exists(clone.resolve("bin/nested/script.py")));
+      assertFalse(Files.exists(clone.resolve("conf/unused.config")));
+      assertFalse(Files.exists(clone.resolve("docs/usage.md")));
+    }
+  }
+
+  @Test
+  public void sparseCloneFallsBackWhenAnIncludedConfigIsMissing(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("nextflow.config", "includeConfig 'missing.config'\n", "docs/usage.md", ""));
+      new SparseCloneStrategy(new FullCloneStrategy())
+          .cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              clone,
+              new NextflowFileSelector("nextflow.config"));
+      assertTrue(
+          Files.exists(clone.resolve("docs/usage.md")),
+          "The full clone should check out every file");
+    }
+  }
+
+  @Test
+  public void mirrorCloneFetchesRefsIntoOneMirror(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    MirrorCloneStrategy cloneStrategy = new MirrorCloneStrategy(mirrors, Long.MAX_VALUE);
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId commitId =
+          TestRepositories.commit(
+              repository, "master", Map.of("nextflow.config", "", "docs/usage.md", ""));
+      TestRepositories.tag(repository, "1.0", commitId);
+      final ObjectId developCommitId =
+          TestRepositories.commit(
+              repository, "develop", Map.of("nextflow.config", "", "main.nf", ""));
+      Path masterClone = Files.createDirectory(temporaryDirectory.resolve("master"));
+      assertEquals(
+          commitId.getName(),
+          cloneStrategy.cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              masterClone,
+              new NextflowFileSelector("nextflow.config")));
+      assertFalse(Files.exists(masterClone.resolve("docs/usage.md")));
+      Path tagClone = Files.createDirectory(temporaryDirectory.resolve("tag"));
+      assertEquals(
+          commitId.getName(),
+          cloneStrategy.cloneRepository(
+              remote.toUri().toString(),
+              "1.0",
+              tagClone,
+              new NextflowFileSelector("nextflow.config")));
+      Path developClone = Files.createDirectory(temporaryDirectory.resolve("develop"));
+      assertEquals(
+          developCommitId.getName(),
+          cloneStrategy.cloneRepository(
+              remote.toUri().toString(),
+              "develop",
+              developClone,
+              new NextflowFileSelector("nextflow.config")));
+      assertTrue(Files.exists(developClone.resolve("main.nf")));
+    }
+    try (Stream<Path> mirrorDirectories = Files.list(mirrors)) {
+      assertEquals(1, mirrorDirectories.filter(path -> path.toString().endsWith(".git")).count());
+    }
+  }
+
+  @Test
+  public void mirrorsAreCompactedInsteadOfCollectedInTheBackground(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    MirrorCloneStrategy strategy = new MirrorCloneStrategy(mirrors, Long.MAX_VALUE);
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      for (int i = 0; i <= MirrorCloneStrategy.MAX_PACKS + 1; i++) {
+        TestRepositories.commit(repository, "master", Map.of("nextflow.config", "// " + i + "\n"));
+        strategy.cloneRepository(
+            remote.toUri().toString(),
+            "master",
+            Files.createDirectory(temporaryDirectory.resolve("clone" + i)),
+            new NextflowFileSelector("nextflow.config"));
+      }
+    }
+    Path mirror =
+        mirrors.resolve(MirrorCloneStrategy.getMirrorName(remote.toUri().toString()) + ".git");
+    try (Git git = Git.open(mirror.toFile())) {
+      assertEquals(
+          0,
+          git.getRepository()
+              .getConfig()
+              .getInt(ConfigConstants.CONFIG_GC_SECTION, ConfigConstants.CONFIG_KEY_AUTO, -1));
+      Number packs = (Number) git.gc().getStatistics().get("numberOfPackFiles");
+      assertTrue(packs.intValue() <= MirrorCloneStrategy.MAX_PACKS);
+    }
+  }
+
+  @Test
+  public void mirrorCloneWritesEveryFileWhenAnIncludedConfigIsMissing(
+      @TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("nextflow.config", "includeConfig 'missing.config'\n", "docs/usage.md", ""));
+      new MirrorCloneStrategy(temporaryDirectory.resolve("mirrors"), Long.MAX_VALUE)
+          .cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              clone,
+              new NextflowFileSelector("nextflow.config"));
+      assertTrue(Files.exists(clone.resolve("docs/usage.md")));
+    }
+  }
+
+  @Test
+  public void mirrorCloneEvictsTheLeastRecentlyUsedMirror(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    List<String> uris = new ArrayList<>();
+    for (String name : List.of("first", "second")) {
+      Path remote = temporaryDirectory.resolve(name);
+      try (Repository repository = TestRepositories.createBareRepository(remote)) {
+        TestRepositories.commit(repository, "master", Map.of("nextflow.config", name));
+      }
+      uris.add(remote.toUri().toString());
+    }
+    Path firstClone = Files.createDirectory(temporaryDirectory.resolve("firstClone"));
+    new MirrorCloneStrategy(mirrors, Long.MAX_VALUE)
+        .cloneRepository(
+            uris.get(0), "master", firstClone, new NextflowFileSelector("nextflow.config"));
+    Path firstMirror = mirrors.resolve(MirrorCloneStrategy.getMirrorName(uris.get(0)) + ".git");
+    long mirrorBytes;
+    try (Stream<Path> files = Files.walk(firstMirror)) {
+      mirrorBytes =
+          files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+    }
+    // Room for one mirror, not two
+    Path secondClone = Files.createDirectory(temporaryDirectory.resolve("secondClone"));
+    new MirrorCloneStrategy(mirrors, mirrorBytes + mirrorBytes / 2)
+        .cloneRepository(
+            uris.get(1), "master", secondClone, new NextflowFileSelector("nextflow.config"));
+    assertFalse(Files.exists(firstMirror));
+    assertTrue(
+        Files.exists(mirrors.resolve(MirrorCloneStrategy.getMirrorName(uris.get(1)) + ".git")));
+    assertEquals("second", Files.readString(secondClone.resolve("nextflow.config")));
+  }
+
+  @Test
+  public void sparseCloneIntoMemoryIsParsedWithoutDisk(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "nextflow.config",
+              "includeConfig 'conf/base.config'\nmanifest {\n  mainScript = 'main.nf'\n}\n",
+              "conf/base.config",
+              "manifest {\n  description = 'In memory'\n}\n",
+              "main.nf",
+              "include { ALIGN } from './modules/align'\n",
+              "modules/align.nf",
+              "",
+              "bin/script.py",
+              "",
+              "docs/usage.md",
+              ""));
+    }
+    WorkspaceManager workspaceManager =
+        new WorkspaceManager(temporaryDirectory.resolve("workspaces"), 0, true);
+    try (WorkspaceManager.Workspace workspace = workspaceManager.lease()) {
+      Path clone = workspace.getDirectory();
+      new SparseCloneStrategy(new FullCloneStrategy())
+          .cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              clone,
+              new NextflowFileSelector("nextflow.config"));
+      assertFalse(Files.exists(clone.resolve(".git")));
+      assertFalse(Files.exists(clone.resolve("docs/usage.md")));
+      LanguageParsingResponse response = App.getResponse(clone.resolve("nextflow.config"));
+      assertEquals("In memory", response.getDescription());
+      assertEquals(
+          Set.of("bin/script.py", "conf/base.config", "main.nf", "modules/align.nf"),
+          Set.copyOf(response.getSecondaryFilePaths()));
+    }
+  }
+
+  @Test
+  public void sparseCloneIntoMemoryWritesEveryFileWhenAnIncludedConfigIsMissing(
+      @TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("nextflow.config", "includeConfig 'missing.config'\n", "docs/usage.md", ""));
+    }
+    WorkspaceManager workspaceManager =
+        new WorkspaceManager(temporaryDirectory.resolve("workspaces"), 0, true);
+    try (WorkspaceManager.Workspace workspace = workspaceManager.lease()) {
+      new SparseCloneStrategy(new FullCloneStrategy())
+          .cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              workspace.getDirectory(),
+              new NextflowFileSelector("nextflow.config"));
+      assertTrue(Files.exists(workspace.getDirectory().resolve("docs/usage.md")));
+    }
+  }
+
+  @Test
+  public void archiveCloneWritesOnlyTheEntriesThatMayBeSelected(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    Map<String, String> files =
+        Map.of(
+            "nextflow.config",
+            "includeConfig 'conf/base.config'\nmanifest {\n  mainScript = 'pipeline.nf'\n}\n",
+            "conf/base.config",
+            "",
+            "pipeline.nf",
+            "include { task } from './modules/task'\n",
+            "modules/task.nf",
+            "",
+            "bin/script.py",
+            "",
+            "bin/nested/script.py",
+            "",
+            "docs/usage.md",
+            "");
+    final ObjectId commitId;
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("dockstore/pipeline"))) {
+      commitId = TestRepositories.commit(repository, "master", files);
+    }
+    AtomicInteger requests = new AtomicInteger();
+    HttpServer server = serveArchive("/dockstore/pipeline/zip/" + commitId.getName(), files);
+    server.createContext(
+        "/",
+        exchange -> {
+          requests.incrementAndGet();
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_FOUND, -1);
+          exchange.close();
+        });
+    try {
+      String clonedCommitId =
+          new ArchiveCloneStrategy(
+                  temporaryDirectory.toUri().toString(),
+                  "http://localhost:" + server.getAddress().getPort(),
+                  new FullCloneStrategy())
+              .cloneRepository(
+                  temporaryDirectory.toUri() + "dockstore/pipeline",
+                  "master",
+                  clone,
+                  new NextflowFileSelector("nextflow.config"));
+      assertEquals(commitId.getName(), clonedCommitId);
+    } finally {
+      server.stop(0);
+    }
+    assertEquals(0, requests.get(), "Only the archive of the resolved commit should be requested");
+    assertTrue(Files.exists(clone.resolve("nextflow.config")));
+    assertTrue(Files.exists(clone.resolve("conf/base.config")));
+    assertTrue(Files.exists(clone.resolve("pipeline.nf")));
+    assertTrue(Files.exists(clone.resolve("modules/task.nf")));
+    assertTrue(Files.exists(clone.resolve("bin/script.py")));
+    assertFalse(Files.exists(clone.resolve("bin/nested/script.py")));
+    assertFalse(Files.exists(clone.resolve("docs/usage.md")));
+  }
+
+  @Test
+  public void archiveCloneFallsBackWhenTheArchiveFallsShort(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Map<String, String> files =
+        Map.of("nextflow.config", "includeConfig 'missing.config'\n", "docs/usage.md", "");
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("dockstore/pipeline"))) {
+      TestRepositories.commit(repository, "master", files);
+    }
+    HttpServer server = serveArchive("/dockstore/pipeline/zip/", files);
+    String uri = temporaryDirectory.toUri() + "dockstore/pipeline";
+    try {
+      // A missing include, an archive that can't be downloaded and a repository of another host
+      for (String archiveUrl :
+          List.of(
+              "http://localhost:" + server.getAddress().getPort(),
+              "http://localhost:" + server.getAddress().getPort() + "/missing")) {
+        for (String repositoryUrl :
+            List.of(temporaryDirectory.toUri().toString(), "https://github.com/")) {
+          Path clone = Files.createTempDirectory(temporaryDirectory, "clone");
+          new ArchiveCloneStrategy(repositoryUrl, archiveUrl, new FullCloneStrategy())
+              .cloneRepository(uri, "master", clone, new NextflowFileSelector("nextflow.config"));
+          assertTrue(
+              Files.exists(clone.resolve("docs/usage.md")),
+              "The full clone should check out every file");
+        }
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /** Serve a zip of files like GitHub does, with the files in a top directory. */
+  private static HttpServer serveArchive(String path, Map<String, String> files)
+      throws IOException {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOutputStream = new ZipOutputStream(archive)) {
+      zipOutputStream.putNextEntry(new ZipEntry("pipeline-master/"));
+      for (Map.Entry<String, String> file : files.entrySet()) {
+        zipOutputStream.putNextEntry(new ZipEntry("pipeline-master/" + file.getKey()));
+        zipOutputStream.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        path,
+        exchange -> {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, archive.size());
+          try (OutputStream body = exchange.getResponseBody()) {
+            archive.writeTo(body);
+          }
+        });
+    server.start();
+    return server;
+  }
+}
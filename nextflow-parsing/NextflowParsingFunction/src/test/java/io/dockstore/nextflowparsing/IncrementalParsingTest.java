@@ -0,0 +1,133 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.parsing.TestRepositories;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IncrementalParsingTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String CONFIG = "manifest {\n  author = 'First'\n}\n";
+
+  private static IncrementalParsingResponse parse(Path remote, IncrementalParsingResponse previous)
+      throws Exception {
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit("nextflow.config");
+    IncrementalParsingRequest incrementalRequest = new IncrementalParsingRequest();
+    incrementalRequest.setLanguageParsingRequest(request);
+    if (previous != null) {
+      incrementalRequest.setPreviousCommitId(previous.getCommitId());
+      incrementalRequest.setPreviousResponse(previous.getLanguageParsingResponse());
+    }
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setPath("/parse/incremental");
+    requestEvent.setBody(MAPPER.writeValueAsString(incrementalRequest));
+    APIGatewayProxyResponseEvent result = new App().handleRequest(requestEvent, null);
+    assertEquals(HttpURLConnection.HTTP_OK, result.getStatusCode().intValue(), result.getBody());
+    return MAPPER.readValue(result.getBody(), IncrementalParsingResponse.class);
+  }
+
+  @Test
+  public void unrelatedChangesKeepThePreviousResponse(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId first =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of("nextflow.config", CONFIG, "main.nf", "", "README.md", "First"));
+      IncrementalParsingResponse firstResponse = parse(remote, null);
+      assertTrue(firstResponse.isChanged());
+      assertEquals(first.getName(), firstResponse.getCommitId());
+      assertTrue(firstResponse.getLanguageParsingResponse().getVersionTypeValidation().getValid());
+      assertEquals("First", firstResponse.getLanguageParsingResponse().getAuthor());
+      ObjectId second =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of("nextflow.config", CONFIG, "main.nf", "", "README.md", "Second"));
+      IncrementalParsingResponse secondResponse = parse(remote, firstResponse);
+      assertFalse(secondResponse.isChanged());
+      assertEquals(second.getName(), secondResponse.getCommitId());
+      assertEquals("First", secondResponse.getLanguageParsingResponse().getAuthor());
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "nextflow.config",
+              CONFIG.replace("First", "Third"),
+              "main.nf",
+              "",
+              "README.md",
+              "Second"));
+      IncrementalParsingResponse thirdResponse = parse(remote, secondResponse);
+      assertTrue(thirdResponse.isChanged());
+      assertEquals("Third", thirdResponse.getLanguageParsingResponse().getAuthor());
+    }
+  }
+
+  @Test
+  public void changesToFilesTheSelectorCouldNotPredictParseAgain(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    // The include of a directory is selected as the missing modules/foo.nf
+    String mainScript = "include { FOO } from './modules/foo'\n";
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "nextflow.config",
+              CONFIG,
+              "main.nf",
+              mainScript,
+              "modules/foo/main.nf",
+              "process FOO {\n}\n"));
+      IncrementalParsingResponse firstResponse = parse(remote, null);
+      assertTrue(firstResponse.isChanged());
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "nextflow.config",
+              CONFIG,
+              "main.nf",
+              mainScript,
+              "modules/foo/main.nf",
+              "process FOO {\n}\nprocess BAR {\n}\n"));
+      assertTrue(parse(remote, firstResponse).isChanged());
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.CloneStrategy;
+import io.dockstore.parsing.TestRepositories;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs the packaged native executable through its bootstrap, the way the provided.al2 runtime does,
+ * against a stand-in for the Lambda runtime API. It catches what the native unit tests can't, such
+ * as a class missing from the reflection configuration or a runtime interface client that doesn't
+ * start. The repository is cloned over HTTP into an in-memory workspace, so JGit, its HttpClient
+ * transport and jimfs all run in the executable. Run by the failsafe plugin of the native profile,
+ * after the executable is built.
+ */
+public class NativeBinaryIT {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String RUNTIME_PATH = "/2018-06-01/runtime/";
+  private static final String HANDLER = StreamingApp.class.getName() + "::handleRequest";
+  private static final long TIMEOUT_SECONDS = 60;
+  private static final String CONFIG = "manifest {\n  author = 'Author'\n}\n";
+  // The JVM evaluates the interpolation, the executable reads literal values only
+  private static final String INTERPOLATED_CONFIG =
+      "params.who = 'Author'\n"
+          + "manifest {\n  author = \"${params.who}\"\n  description = 'Literal'\n}\n";
+
+  private final BlockingQueue<ObjectNode> events = new LinkedBlockingQueue<>();
+  private final BlockingQueue<JsonNode> responses = new LinkedBlockingQueue<>();
+
+  @Test
+  public void parseAndIncrementalRequestsAreAnswered(@TempDir Path temporaryDirectory)
+      throws Exception {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    HttpServer runtimeServer =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    runtimeServer.createContext(RUNTIME_PATH, this::serveRuntime);
+    // Waiting for the next event must not hold up the response to the previous one
+    runtimeServer.setExecutor(executor);
+    runtimeServer.start();
+    Process process = null;
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("remote"))) {
+      ObjectId commitId =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of(
+                  "nextflow.config",
+                  CONFIG,
+                  "main.nf",
+                  "",
+                  "interpolated/nextflow.config",
+                  INTERPOLATED_CONFIG,
+                  "interpolated/main.nf",
+                  ""));
+      // Cloned over HTTP, so that the clone goes through the pooled HttpClient transport
+      HttpServer gitServer =
+          TestRepositories.serveRepository(
+              repository, new ConcurrentLinkedQueue<>(), ConcurrentHashMap.newKeySet());
+      LanguageParsingRequest request = new LanguageParsingRequest();
+      request.setUri("http://localhost:" + gitServer.getAddress().getPort() + "/repository.git");
+      request.setBranch("master");
+      request.setDescriptorRelativePathInGit("nextflow.config");
+      process = startBootstrap(runtimeServer.getAddress().getPort());
+      try {
+        JsonNode parseResponse = invoke("/parse", MAPPER.writeValueAsString(request));
+        assertEquals(HttpURLConnection.HTTP_OK, parseResponse.get("statusCode").asInt());
+        LanguageParsingResponse languageParsingResponse =
+            MAPPER.readValue(parseResponse.get("body").asText(), LanguageParsingResponse.class);
+        assertTrue(languageParsingResponse.getVersionTypeValidation().getValid());
+        assertEquals("Author", languageParsingResponse.getAuthor());
+
+        IncrementalParsingRequest incrementalRequest = new IncrementalParsingRequest();
+        incrementalRequest.setLanguageParsingRequest(request);
+        incrementalRequest.setPreviousCommitId(commitId.getName());
+        incrementalRequest.setPreviousResponse(languageParsingResponse);
+        JsonNode incrementalResponse =
+            invoke("/parse/incremental", MAPPER.writeValueAsString(incrementalRequest));
+        assertEquals(HttpURLConnection.HTTP_OK, incrementalResponse.get("statusCode").asInt());
+        IncrementalParsingResponse incrementalParsingResponse =
+            MAPPER.readValue(
+                incrementalResponse.get("body").asText(), IncrementalParsingResponse.class);
+        assertEquals(commitId.getName(), incrementalParsingResponse.getCommitId());
+        assertFalse(incrementalParsingResponse.isChanged());
+        assertEquals("Author", incrementalParsingResponse.getLanguageParsingResponse().getAuthor());
+
+        LanguageParsingRequest interpolatedRequest = new LanguageParsingRequest();
+        interpolatedRequest.setUri(request.getUri());
+        interpolatedRequest.setBranch("master");
+        interpolatedRequest.setDescriptorRelativePathInGit("interpolated/nextflow.config");
+        JsonNode interpolatedResponse =
+            invoke("/parse", MAPPER.writeValueAsString(interpolatedRequest));
+        assertEquals(HttpURLConnection.HTTP_OK, interpolatedResponse.get("statusCode").asInt());
+        LanguageParsingResponse interpolatedParsingResponse =
+            MAPPER.readValue(
+                interpolatedResponse.get("body").asText(), LanguageParsingResponse.class);
+        assertNull(interpolatedParsingResponse.getAuthor(), "Unlike on the JVM, which has Author");
+        assertEquals("Literal", interpolatedParsingResponse.getDescription());
+      } finally {
+        gitServer.stop(0);
+      }
+    } finally {
+      if (process != null) {
+        process.destroyForcibly();
+      }
+      runtimeServer.stop(0);
+      executor.shutdownNow();
+    }
+  }
+
+  /** Start the executable the way the runtime does, with the handler and the runtime API. */
+  private static Process startBootstrap(int port) throws IOException {
+    String taskRoot = System.getProperty("native.taskRoot");
+    ProcessBuilder processBuilder =
+        new ProcessBuilder(System.getProperty("native.bootstrap"))
+            .redirectErrorStream(true)
+            .redirectOutput(Path.of(taskRoot, "bootstrap.log").toFile());
+    Map<String, String> environment = processBuilder.environment();
+    environment.put("LAMBDA_TASK_ROOT", taskRoot);
+    environment.put("_HANDLER", HANDLER);
+    environment.put("AWS_LAMBDA_RUNTIME_API", "127.0.0.1:" + port);
+    environment.put("AWS_LAMBDA_FUNCTION_NAME", "NextflowParsingFunction");
+    environment.put("AWS_LAMBDA_FUNCTION_MEMORY_SIZE", "1024");
+    environment.put("AWS_LAMBDA_FUNCTION_VERSION", "$LATEST");
+    // In-memory workspaces, so that jimfs runs in the executable too
+    environment.put(CloneStrategy.VARIABLE, "sparse");
+    environment.put(WorkspaceManager.IN_MEMORY_VARIABLE, "true");
+    return processBuilder.start();
+  }
+
+  /** Queue an API Gateway proxy event and wait for the response that the executable posts. */
+  private JsonNode invoke(String path, String body) throws InterruptedException {
+    ObjectNode event = MAPPER.createObjectNode();
+    event.put("resource", path);
+    event.put("path", path);
+    event.put("httpMethod", "POST");
+    event.put("isBase64Encoded", false);
+    event.put("body", body);
+    events.add(event);
+    JsonNode response = responses.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(response, "No response from the executable, see target/bootstrap.log");
+    assertFalse(response.has("errorType"), response.toString());
+    return response;
+  }
+
+  /** Serve the next event, and take the responses and errors that the executable posts. */
+  private void serveRuntime(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath().substring(RUNTIME_PATH.length());
+      if ("invocation/next".equals(path)) {
+        ObjectNode event;
+        try {
+          event = events.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        if (event == null) {
+          send(exchange, HttpURLConnection.HTTP_INTERNAL_ERROR, new byte[0]);
+          return;
+        }
+        exchange
+            .getResponseHeaders()
+            .set("Lambda-Runtime-Aws-Request-Id", UUID.randomUUID().toString());
+        exchange
+            .getResponseHeaders()
+            .set(
+                "Lambda-Runtime-Deadline-Ms",
+                Long.toString(
+                    System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS)));
+        exchange
+            .getResponseHeaders()
+            .set(
+                "Lambda-Runtime-Invoked-Function-Arn",
+                "arn:aws:lambda:us-east-1:123456789012:function:NextflowParsingFunction");
+        send(exchange, HttpURLConnection.HTTP_OK, MAPPER.writeValueAsBytes(event));
+        return;
+      }
+      // invocation/{id}/response, invocation/{id}/error or init/error
+      try (InputStream inputStream = exchange.getRequestBody()) {
+        JsonNode posted = MAPPER.readTree(inputStream);
+        if (path.endsWith("/response")) {
+          responses.add(posted);
+        } else {
+          ObjectNode error = MAPPER.createObjectNode();
+          error.put("errorType", path);
+          error.set("error", posted);
+          responses.add(error);
+        }
+      }
+      send(exchange, HttpURLConnection.HTTP_ACCEPTED, "{}".getBytes(StandardCharsets.UTF_8));
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int statusCode, byte[] body)
+      throws IOException {
+    exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream outputStream = exchange.getResponseBody()) {
+        outputStream.write(body);
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NextflowConfigCacheTest {
+
+  private static final int MAX_ENTRIES = 4;
+  private static final String CONFIG =
+      "includeConfig 'conf/base.config'\n"
+          + "manifest {\n"
+          + "  author = 'Ada Lovelace, Charles Babbage'\n"
+          + "  description = 'Analytical engine'\n"
+          + "  mainScript = 'engine.nf'\n"
+          + "  nextflowVersion = '>=20.04.0'\n"
+          + "}\n";
+
+  private static Path write(Path directory, Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = directory.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.writeString(path, file.getValue());
+    }
+    return directory.resolve("nextflow.config");
+  }
+
+  @Test
+  public void manifestIsTyped(@TempDir Path directory) throws IOException {
+    Path config =
+        write(directory, Map.of("nextflow.config", CONFIG, "conf/base.config", "params {}\n"));
+    NextflowManifest manifest = new NextflowConfigCache(MAX_ENTRIES).getManifest(config);
+    assertEquals(List.of("Ada Lovelace", "Charles Babbage"), manifest.getAuthors());
+    assertEquals("Analytical engine", manifest.getDescription());
+    assertEquals("engine.nf", manifest.getMainScript());
+    assertEquals(">=20.04.0", manifest.getNextflowVersion());
+  }
+
+  @Test
+  public void configWithoutManifestHasAnEmptyOne(@TempDir Path directory) throws IOException {
+    Path config = write(directory, Map.of("nextflow.config", "params.reads = 'x'\n"));
+    NextflowManifest manifest = new NextflowConfigCache(MAX_ENTRIES).getManifest(config);
+    assertEquals(List.of(), manifest.getAuthors());
+    assertNull(manifest.getDescription());
+    assertNull(manifest.getMainScript());
+  }
+
+  @Test
+  public void identicalConfigsAreParsedOnce(@TempDir Path directory) throws IOException {
+    Map<String, String> files = Map.of("nextflow.config", CONFIG, "conf/base.config", "");
+    // Different clones of the same repository
+    Path first = write(directory.resolve("first"), files);
+    Path second = write(directory.resolve("second"), files);
+    NextflowConfigCache cache = new NextflowConfigCache(MAX_ENTRIES);
+    assertSame(cache.getManifest(first), cache.getManifest(second));
+  }
+
+  @Test
+  public void includedConfigsArePartOfTheKey(@TempDir Path directory) throws IOException {
+    Path first =
+        write(
+            directory.resolve("first"),
+            Map.of("nextflow.config", CONFIG, "conf/base.config", "params.a = 1\n"));
+    Path second =
+        write(
+            directory.resolve("second"),
+            Map.of("nextflow.config", CONFIG, "conf/base.config", "params.a = 2\n"));
+    Path missing = write(directory.resolve("missing"), Map.of("nextflow.config", CONFIG));
+    assertNotEquals(NextflowConfigCache.key(first), NextflowConfigCache.key(second));
+    assertNotEquals(NextflowConfigCache.key(first), NextflowConfigCache.key(missing));
+  }
+
+  @Test
+  public void includeCyclesEndTheKey(@TempDir Path directory) throws IOException {
+    Path config =
+        write(
+            directory,
+            Map.of(
+                "nextflow.config", "includeConfig 'a.config'\n",
+                "a.config", "includeConfig 'nextflow.config'\n"));
+    assertEquals(NextflowConfigCache.key(config), NextflowConfigCache.key(config));
+  }
+}
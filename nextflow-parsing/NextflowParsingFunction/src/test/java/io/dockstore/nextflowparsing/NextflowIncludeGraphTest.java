@@ -0,0 +1,152 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NextflowIncludeGraphTest {
+
+  private static final int MAX_FILES = 4;
+  private static final NextflowIncludeGraph INCLUDE_GRAPH = new NextflowIncludeGraph(MAX_FILES, 2);
+
+  @Test
+  public void includesAreResolvedTransitively(@TempDir Path directory)
+      throws IOException, NextflowIncludeException {
+    SyntheticNextflowRepository.write(
+        directory,
+        Map.of(
+            "main.nf",
+            "include { ALIGN } from './modules/align'\n"
+                + "include {\n  SORT;\n  INDEX as INDEX_BAM\n}"
+                + " from \"${projectDir}/modules/sort/main.nf\"\n"
+                + "include { hello } from 'plugin/nf-hello'\n"
+                + "include { REPORT } from \"${params.modules}/report\"\n"
+                + "include { OUTSIDE } from '../outside'\n"
+                + "// include { COMMENTED } from './modules/commented'\n",
+            "modules/align/main.nf",
+            "include { SORT } from '../sort/main'\n",
+            "modules/sort/main.nf",
+            "process SORT {\n}\n",
+            "modules/commented.nf",
+            ""));
+    assertEquals(
+        List.of("main.nf", "modules/align/main.nf", "modules/sort/main.nf"),
+        List.copyOf(INCLUDE_GRAPH.walk(directory, "main.nf")));
+  }
+
+  @Test
+  public void missingMainScriptHasNoIncludes(@TempDir Path directory)
+      throws NextflowIncludeException {
+    assertEquals(Set.of(), INCLUDE_GRAPH.walk(directory, "main.nf"));
+  }
+
+  @Test
+  public void cycleIsNamed(@TempDir Path directory) throws IOException {
+    SyntheticNextflowRepository.write(
+        directory,
+        Map.of(
+            "main.nf", "include { A } from './a'\n",
+            "a.nf", "include { B } from './b'\n",
+            "b.nf", "include { A } from './a.nf'\n"));
+    NextflowIncludeException exception =
+        assertThrows(
+            NextflowIncludeException.class, () -> INCLUDE_GRAPH.walk(directory, "main.nf"));
+    assertEquals(directory.resolve("a.nf").toString(), exception.getFile());
+    assertEquals("Recursive include: a.nf -> b.nf -> a.nf", exception.getMessage());
+  }
+
+  @Test
+  public void sharedIncludesAreNotCycles(@TempDir Path directory)
+      throws IOException, NextflowIncludeException {
+    SyntheticNextflowRepository.write(
+        directory,
+        Map.of(
+            "main.nf", "include { A } from './a'\ninclude { B } from './b'\n",
+            "a.nf", "include { C } from './common'\n",
+            "b.nf", "include { C } from './common'\n",
+            "common.nf", ""));
+    assertEquals(
+        Set.of("main.nf", "a.nf", "b.nf", "common.nf"), INCLUDE_GRAPH.walk(directory, "main.nf"));
+  }
+
+  @Test
+  public void manyIncludesExceedTheLimit(@TempDir Path directory) throws IOException {
+    SyntheticNextflowRepository.write(
+        directory,
+        Map.of(
+            "main.nf",
+            "include { A } from './a'\ninclude { B } from './b'\n"
+                + "include { C } from './c'\ninclude { D } from './d'\n",
+            "a.nf",
+            "",
+            "b.nf",
+            "",
+            "c.nf",
+            "",
+            "d.nf",
+            ""));
+    assertThrows(NextflowIncludeException.class, () -> INCLUDE_GRAPH.walk(directory, "main.nf"));
+  }
+
+  @Test
+  public void sparseClonesSelectIncludedScripts() {
+    NextflowFileSelector fileSelector = new NextflowFileSelector("pipeline/nextflow.config");
+    assertEquals(
+        List.of(
+            List.of("pipeline/modules/align.nf"),
+            List.of("pipeline/modules/sort/main.nf"),
+            List.of("pipeline/modules/index/main.nf")),
+        fileSelector.getReferencedPaths(
+            "pipeline/workflows/main.nf",
+            "include { ALIGN } from '../modules/align'\n"
+                + "include { SORT } from '../modules/sort/main.nf'\n"
+                + "include { INDEX } from '$projectDir/modules/index/main'\n"
+                + "include { REPORT } from \"${params.modules}/report\"\n"));
+  }
+
+  @Test
+  public void recursivePipelinesAreInvalid(@TempDir Path directory) throws IOException {
+    Path config =
+        SyntheticNextflowRepository.write(
+            directory,
+            Map.of(
+                SyntheticNextflowRepository.CONFIG,
+                "manifest {\n  mainScript = 'main.nf'\n}\n",
+                "main.nf",
+                "include { MAIN } from './main'\n"));
+    LanguageParsingResponse response = App.getResponse(config.toString());
+    assertFalse(response.getVersionTypeValidation().getValid());
+    assertTrue(
+        response
+            .getVersionTypeValidation()
+            .getMessage()
+            .get(directory.resolve("main.nf").toAbsolutePath().toString())
+            .startsWith("Recursive include: "));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class NextflowManifestReaderTest {
+
+  private static Path write(Path directory, Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = directory.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.writeString(path, file.getValue());
+    }
+    return directory.resolve("nextflow.config");
+  }
+
+  private static void assertSameManifest(NextflowManifest expected, NextflowManifest actual) {
+    assertEquals(expected.getAuthors(), actual.getAuthors());
+    assertEquals(expected.getDescription(), actual.getDescription());
+    assertEquals(expected.getMainScript(), actual.getMainScript());
+    assertEquals(expected.getNextflowVersion(), actual.getNextflowVersion());
+  }
+
+  @Test
+  public void literalsAreReadLikeGroovy(@TempDir Path directory) throws IOException {
+    Path config =
+        write(
+            directory,
+            Map.of(
+                "nextflow.config",
+                "// The manifest { author = 'Comment' }\n"
+                    + "params.greeting = \"Hello ${params.name}\"\n"
+                    + "includeConfig 'conf/base.config'\n"
+                    + "manifest {\n"
+                    + "  author = 'Ada Lovelace, Charles Babbage'\n"
+                    + "  /* description = 'Comment' */\n"
+                    + "  description = '''Quotes ' and \\\\'''\n"
+                    + "}\n"
+                    + "manifest.nextflowVersion = \"!>=20.04.0\"\n"
+                    + "process {\n"
+                    + "  withLabel: 'big' { memory = { 2.GB * task.attempt } }\n"
+                    + "}\n",
+                "conf/base.config",
+                "manifest.mainScript = 'engine.nf'\nmanifest.description = 'Overridden'\n"));
+    NextflowManifest manifest = NextflowManifestReader.read(config);
+    assertEquals(List.of("Ada Lovelace", "Charles Babbage"), manifest.getAuthors());
+    assertEquals("Quotes ' and \\", manifest.getDescription());
+    assertEquals("engine.nf", manifest.getMainScript());
+    assertEquals("!>=20.04.0", manifest.getNextflowVersion());
+    // The native profile runs this test too, where only the reader can parse a config
+    if (!NextflowUtilities.isNativeImage()) {
+      assertSameManifest(
+          NextflowManifest.fromConfig(NextflowUtilities.getConfig(config)), manifest);
+    }
+  }
+
+  @Test
+  public void expressionsAndProfilesAreSkipped(@TempDir Path directory) throws IOException {
+    Path config =
+        write(
+            directory,
+            Map.of(
+                "nextflow.config",
+                "manifest {\n"
+                    + "  author = 'Author'\n"
+                    + "  description = \"Version ${version}\"\n"
+                    + "  mainScript = 'main' + '.nf'\n"
+                    + "}\n"
+                    + "profiles {\n"
+                    + "  test { manifest.author = 'Tester' }\n"
+                    + "}\n"));
+    NextflowManifest manifest = NextflowManifestReader.read(config);
+    assertEquals(List.of("Author"), manifest.getAuthors());
+    assertNull(manifest.getDescription());
+    assertNull(manifest.getMainScript());
+  }
+
+  @Test
+  public void includeCyclesAndMissingIncludesEnd(@TempDir Path directory) throws IOException {
+    Path config =
+        write(
+            directory,
+            Map.of(
+                "nextflow.config",
+                "includeConfig 'a.config'\nincludeConfig 'missing.config'\n",
+                "a.config",
+                "manifest.author = 'Author'\nincludeConfig 'nextflow.config'\n"));
+    assertEquals(List.of("Author"), NextflowManifestReader.read(config).getAuthors());
+  }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import groovy.util.ConfigObject;
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.parsing.TestRepositories;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the Nextflow pipeline on generated repositories, offline:
+ *
+ * <pre>mvn test -P benchmark -Djmh.args="NextflowParsingBenchmark -prof gc"</pre>
+ *
+ * <p>Requests after the first find the manifest in the config cache, so handleRequest measures a
+ * warm container; getConfig measures the compilation that the cache saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = NextflowParsingBenchmark.WARMUP_ITERATIONS, time = 2)
+@Measurement(iterations = NextflowParsingBenchmark.MEASUREMENT_ITERATIONS, time = 2)
+public class NextflowParsingBenchmark {
+
+  static final int WARMUP_ITERATIONS = 3;
+  static final int MEASUREMENT_ITERATIONS = 5;
+
+  @Param({"10", "200"})
+  int scripts;
+
+  @Param({"0", "5"})
+  int includeDepth;
+
+  private Path directory;
+  private Path config;
+  private NextflowHandler nextflowHandler;
+  private NextflowIncludeGraph includeGraph;
+  private App app;
+  private APIGatewayProxyRequestEvent requestEvent;
+
+  /** Write the repository to a working tree and commit it to a local bare repository. */
+  @Setup
+  public void createRepository() throws IOException, GitAPIException {
+    directory = Files.createTempDirectory("benchmark");
+    Map<String, String> files = SyntheticNextflowRepository.generate(scripts, includeDepth);
+    config = SyntheticNextflowRepository.write(directory.resolve("workingTree"), files);
+    includeGraph = NextflowIncludeGraph.fromEnvironment();
+    nextflowHandler = new NextflowHandler();
+    nextflowHandler.setDescriptorTempAbsolutePath(config.toString());
+    nextflowHandler.setDescriptorContents(Files.readString(config));
+    nextflowHandler.setManifest(NextflowManifest.fromConfig(NextflowUtilities.getConfig(config)));
+    Path remote = directory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", files);
+    }
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit(SyntheticNextflowRepository.CONFIG);
+    requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setBody(new ObjectMapper().writeValueAsString(request));
+    app = new App();
+    // Fail the setup rather than measure a broken pipeline
+    APIGatewayProxyResponseEvent response = handleRequest();
+    if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+      throw new IllegalStateException(response.getBody());
+    }
+  }
+
+  /** Delete the working tree and the repository. */
+  @TearDown
+  public void deleteRepository() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * List the secondary files of the repository, walking the modules that the main script includes.
+   *
+   * @return The secondary files, so that they aren't optimised away
+   */
+  @Benchmark
+  public List<String> processImports() {
+    return nextflowHandler.processImports(nextflowHandler.getDescriptorContents(), includeGraph);
+  }
+
+  /**
+   * Compile and evaluate the config and the configs it includes, without the config cache.
+   *
+   * @return The config, so that it isn't optimised away
+   */
+  @Benchmark
+  public ConfigObject getConfig() {
+    return NextflowUtilities.getConfig(config);
+  }
+
+  /**
+   * Handle a request end to end: clone, parse and serialize.
+   *
+   * @return The response, so that it isn't optimised away
+   */
+  @Benchmark
+  public APIGatewayProxyResponseEvent handleRequest() {
+    return app.handleRequest(requestEvent, null);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.TestRepositories;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParsingServerTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final long POLL_MILLIS = 10;
+  private final HttpClient httpClient = HttpClient.newHttpClient();
+  private ParsingServer server;
+  private String baseUrl;
+
+  /** Serve on any free port of the loopback interface. */
+  @BeforeEach
+  public void startServer() throws IOException {
+    server =
+        new ParsingServer(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+            Executors.newFixedThreadPool(2),
+            Duration.ofSeconds(1));
+    server.start();
+    baseUrl = "http://localhost:" + server.getPort();
+  }
+
+  /** Stop the server, which does nothing if the test has already stopped it. */
+  @AfterEach
+  public void stopServer() {
+    server.stop();
+  }
+
+  private HttpResponse<String> send(HttpRequest.Builder request)
+      throws IOException, InterruptedException {
+    return httpClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+  }
+
+  @Test
+  public void parseRequestsAreServedLikeTheLambdaFunction(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("nextflow.config", "manifest {\n  author = 'Author'\n}\n", "main.nf", ""));
+    }
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit("nextflow.config");
+    HttpResponse<String> response =
+        send(
+            HttpRequest.newBuilder(URI.create(baseUrl + "/parse"))
+                .POST(HttpRequest.BodyPublishers.ofString(MAPPER.writeValueAsString(request))));
+    assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+    assertTrue(response.headers().firstValue(App.SERVER_TIMING_HEADER).isPresent());
+    assertEquals(
+        "Author", MAPPER.readValue(response.body(), LanguageParsingResponse.class).getAuthor());
+    assertEquals(
+        HttpURLConnection.HTTP_BAD_REQUEST,
+        send(HttpRequest.newBuilder(URI.create(baseUrl + "/parse"))
+                .POST(HttpRequest.BodyPublishers.ofString("{")))
+            .statusCode());
+    assertEquals(
+        HttpURLConnection.HTTP_BAD_METHOD,
+        send(HttpRequest.newBuilder(URI.create(baseUrl + "/parse"))).statusCode());
+    assertEquals(
+        HttpURLConnection.HTTP_NOT_FOUND,
+        send(HttpRequest.newBuilder(URI.create(baseUrl + "/parse/other"))
+                .POST(HttpRequest.BodyPublishers.ofString("{}")))
+            .statusCode());
+  }
+
+  @Test
+  public void healthIsUpUntilTheServerStops() throws Exception {
+    HttpResponse<String> response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/health")));
+    assertEquals(HttpURLConnection.HTTP_OK, response.statusCode());
+    assertEquals("UP", MAPPER.readTree(response.body()).get("status").asText());
+    server.stop();
+    assertThrows(
+        ConnectException.class,
+        () -> send(HttpRequest.newBuilder(URI.create(baseUrl + "/health"))));
+  }
+
+  @Test
+  public void healthIsDownWhileRequestsInProgressFinish() throws Exception {
+    CompletableFuture<Void> stopped;
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+      // A request whose body never arrives in full keeps its handler reading
+      OutputStream outputStream = socket.getOutputStream();
+      outputStream.write(
+          "POST /parse HTTP/1.1\r\nHost: localhost\r\nContent-Length: 100\r\n\r\n{"
+              .getBytes(StandardCharsets.UTF_8));
+      outputStream.flush();
+      while (server.getRequestsInProgress() == 0) {
+        Thread.sleep(POLL_MILLIS);
+      }
+      stopped = CompletableFuture.runAsync(server::stop);
+      HttpResponse<String> response;
+      do {
+        response = send(HttpRequest.newBuilder(URI.create(baseUrl + "/health")));
+      } while (response.statusCode() == HttpURLConnection.HTTP_OK);
+      assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, response.statusCode());
+      assertEquals("DOWN", MAPPER.readTree(response.body()).get("status").asText());
+      assertEquals(
+          HttpURLConnection.HTTP_UNAVAILABLE,
+          send(HttpRequest.newBuilder(URI.create(baseUrl + "/parse"))
+                  .POST(HttpRequest.BodyPublishers.ofString("{}")))
+              .statusCode());
+      assertFalse(stopped.isDone(), "The listener should stay open while a request is in progress");
+    }
+    stopped.get();
+    assertEquals(0, server.getRequestsInProgress());
+  }
+}
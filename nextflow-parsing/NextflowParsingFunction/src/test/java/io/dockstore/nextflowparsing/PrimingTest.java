@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.dockstore.parsing.MirrorCloneStrategy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PrimingTest {
+
+  @Test
+  public void primingParsesTheBundledSample() {
+    assertTrue(App.PRIMING.prime(), "The bundled sample pipeline should be valid");
+  }
+
+  @Test
+  public void primingLeavesNoMirrorBehind(@TempDir Path mirrors) throws IOException {
+    Priming priming =
+        new Priming(new MirrorCloneStrategy(mirrors, MirrorCloneStrategy.DEFAULT_MAX_BYTES));
+    assertTrue(priming.prime(), "The bundled sample pipeline should be valid");
+    try (Stream<Path> files = Files.list(mirrors)) {
+      assertEquals(List.of(), files.collect(Collectors.toList()));
+    }
+  }
+}
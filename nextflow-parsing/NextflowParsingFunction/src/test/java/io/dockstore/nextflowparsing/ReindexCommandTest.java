@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.parsing.TestRepositories;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ReindexCommandTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static LanguageParsingRequest request(
+      Path remote, String branch, String descriptorRelativePathInGit) {
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch(branch);
+    request.setDescriptorRelativePathInGit(descriptorRelativePathInGit);
+    return request;
+  }
+
+  private static List<ReindexResult> readResults(Path results) throws Exception {
+    List<ReindexResult> reindexResults = new ArrayList<>();
+    for (String line : Files.readAllLines(results)) {
+      reindexResults.add(MAPPER.readValue(line, ReindexResult.class));
+    }
+    return reindexResults;
+  }
+
+  @Test
+  public void rerunsResumeFromTheResults(@TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "first/nextflow.config",
+              "manifest {\n  author = 'First'\n}\n",
+              "second/nextflow.config",
+              "manifest {\n  author = 'Second'\n}\n"));
+    }
+    List<LanguageParsingRequest> requests =
+        List.of(
+            request(remote, "master", "first/nextflow.config"),
+            // Another version of the same descriptor
+            request(remote, "master", "first/nextflow.config"),
+            request(remote, "missing", "nextflow.config"),
+            request(remote, "master", "second/nextflow.config"));
+    List<String> lines = new ArrayList<>();
+    for (LanguageParsingRequest request : requests) {
+      request.setVersionId((long) lines.size());
+      lines.add(MAPPER.writeValueAsString(request));
+    }
+    final Path manifest = Files.write(temporaryDirectory.resolve("manifest.jsonl"), lines);
+    Path results = temporaryDirectory.resolve("results.jsonl");
+
+    ReindexCommand.Summary summary = new ReindexCommand(2).run(manifest, results);
+    assertEquals(requests.size(), summary.getParsed());
+    assertEquals(1, summary.getErrors());
+    List<ReindexResult> reindexResults = readResults(results);
+    assertEquals(requests.size(), reindexResults.size());
+    for (ReindexResult result : reindexResults) {
+      if ("missing".equals(result.getLanguageParsingRequest().getBranch())) {
+        assertNotNull(result.getError());
+      } else {
+        assertEquals(
+            result.getLanguageParsingRequest().getVersionId(),
+            result.getLanguageParsingResponse().getLanguageParsingRequest().getVersionId());
+      }
+    }
+
+    // A run killed while writing leaves part of a line, the error is tried again
+    Files.writeString(results, "{\"languageParsingRequest\":", StandardOpenOption.APPEND);
+    summary = new ReindexCommand(2).run(manifest, results);
+    assertEquals(requests.size() - 1, summary.getSkipped());
+    assertEquals(1, summary.getParsed());
+    assertEquals(1, summary.getErrors());
+    assertEquals(requests.size() + 1, readResults(results).size());
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.nextflowparsing;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates Nextflow repositories with a given number of bin and lib files and modules and a chain
+ * of nested includeConfig, for benchmarks that must not depend on GitHub.
+ */
+public final class SyntheticNextflowRepository {
+
+  public static final String CONFIG = "nextflow.config";
+
+  private SyntheticNextflowRepository() {
+    // hide the default constructor for a utility class
+  }
+
+  /**
+   * Generate the files of a repository.
+   *
+   * @param scripts The number of files in each of bin and lib, and of modules that the main script
+   *     includes
+   * @param includeDepth The number of configs included one inside the other, below the main config
+   * @return The contents of every file, keyed by path relative to the root of the repository
+   */
+  public static Map<String, String> generate(int scripts, int includeDepth) {
+    Map<String, String> files = new LinkedHashMap<>();
+    StringBuilder config = new StringBuilder();
+    if (includeDepth > 0) {
+      config.append("includeConfig 'conf/level1.config'\n");
+    }
+    config.append(
+        "manifest {\n"
+            + "  author = 'Ada Lovelace, Charles Babbage'\n"
+            + "  description = 'Synthetic pipeline'\n"
+            + "  mainScript = 'main.nf'\n"
+            + "  nextflowVersion = '>=20.04.0'\n"
+            + "}\n");
+    files.put(CONFIG, config.toString());
+    for (int level = 1; level <= includeDepth; level++) {
+      StringBuilder included = new StringBuilder();
+      if (level < includeDepth) {
+        included.append(String.format("includeConfig 'level%d.config'%n", level + 1));
+      }
+      included.append(
+          String.format(
+              "params {%n  level%d = %d%n}%nprocess {%n  withName: 'task%d' {%n    cpus = %d%n"
+                  + "  }%n}%n",
+              level, level, level, level));
+      files.put(String.format("conf/level%d.config", level), included.toString());
+    }
+    StringBuilder mainScript = new StringBuilder();
+    for (int i = 0; i < scripts; i++) {
+      mainScript.append(
+          String.format("include { TASK%d } from './modules/local/task%d/main'%n", i, i));
+      files.put(
+          String.format("modules/local/task%d/main.nf", i),
+          String.format(
+              "include { COMMON } from '../common/main'%nprocess TASK%d {%n  script:%n"
+                  + "  \"\"\"%n  echo %d%n  \"\"\"%n}%n",
+              i, i));
+    }
+    mainScript.append("process hello {\n  script:\n  \"\"\"\n  echo hello\n  \"\"\"\n}\n");
+    files.put("main.nf", mainScript.toString());
+    files.put(
+        "modules/local/common/main.nf",
+        "process COMMON {\n  script:\n  \"\"\"\n  echo common\n  \"\"\"\n}\n");
+    for (int i = 0; i < scripts; i++) {
+      files.put(String.format("bin/script%d.sh", i), String.format("#!/bin/sh%necho %d%n", i));
+      files.put(
+          String.format("lib/Helper%d.groovy", i),
+          String.format("class Helper%d {%n  static int value() { %d }%n}%n", i, i));
+    }
+    return files;
+  }
+
+  /**
+   * Write the files of a repository to a directory.
+   *
+   * @param directory The root of the working tree
+   * @param files The contents of every file, keyed by path relative to the directory
+   * @return The absolute path of the main config
+   */
+  public static Path write(Path directory, Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = directory.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.writeString(path, file.getValue());
+    }
+    return directory.resolve(CONFIG).toAbsolutePath();
+  }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Ref;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a zip archive of the requested commit from GitHub instead of fetching it with the git
+ * protocol, which for a public repository saves downloading any history. The archive is read as it
+ * streams in, and only the entries that the file selector may select are written, so it is never
+ * held in memory or on disk as a whole.
+ *
+ * <p>The branch or tag is still resolved with a git ls-remote, so that the archive is of a known
+ * commit. Falls back to another strategy, with the resolved ref, for repositories that are not on
+ * GitHub, when the archive can't be downloaded (such as for a private repository), and when a
+ * referenced file is not in the archive.
+ *
+ * <p>The request timeout only covers the response headers, so a watchdog also closes the archive
+ * when no byte of it arrives for as long, which falls back, or when the deadline expires.
+ */
+public class ArchiveCloneStrategy implements CloneStrategy {
+
+  /** Environment variable with the base URL of the archives, such as a proxy of codeload. */
+  public static final String ARCHIVE_URL_VARIABLE = "ARCHIVE_URL";
+
+  public static final String GITHUB_URL = "https://github.com/";
+  public static final String DEFAULT_ARCHIVE_URL = "https://codeload.github.com/";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveCloneStrategy.class);
+  private static final Pattern REPOSITORY_PATTERN = Pattern.compile("([^/]+/[^/]+?)(?:\\.git)?/?");
+  private static final Duration TIMEOUT = Duration.ofSeconds(30);
+  // Larger files are data or binaries, not descriptors worth scanning for references
+  private static final long MAX_SCANNED_BYTES = 16 * 1024 * 1024;
+  private static final long WATCHDOG_PERIOD_MILLIS = 1000;
+  // Closes the archives that stall, which fails the read that waits for them
+  private static final ScheduledExecutorService WATCHDOG =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "archive-watchdog");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final String repositoryUrl;
+  private final String archiveUrl;
+  private final CloneStrategy fallbackStrategy;
+  private final HttpClient httpClient;
+
+  /**
+   * Create a strategy.
+   *
+   * @param repositoryUrl The URL that the URIs of repositories with archives start with
+   * @param archiveUrl The URL that archives are downloaded from, by owner, name and commit
+   * @param fallbackStrategy The strategy for other repositories or when the archive falls short
+   */
+  public ArchiveCloneStrategy(
+      String repositoryUrl, String archiveUrl, CloneStrategy fallbackStrategy) {
+    this.repositoryUrl = repositoryUrl.endsWith("/") ? repositoryUrl : repositoryUrl + "/";
+    this.archiveUrl = archiveUrl.endsWith("/") ? archiveUrl : archiveUrl + "/";
+    this.fallbackStrategy = fallbackStrategy;
+    this.httpClient =
+        HttpClient.newBuilder()
+            .connectTimeout(TIMEOUT)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+  }
+
+  /**
+   * Create the strategy configured by the environment, for GitHub repositories, falling back to a
+   * sparse clone.
+   *
+   * @return The configured strategy
+   */
+  public static ArchiveCloneStrategy fromEnvironment() {
+    String archiveUrl = System.getenv(ARCHIVE_URL_VARIABLE);
+    return new ArchiveCloneStrategy(
+        GITHUB_URL,
+        archiveUrl == null || archiveUrl.isBlank() ? DEFAULT_ARCHIVE_URL : archiveUrl.trim(),
+        new SparseCloneStrategy(new FullCloneStrategy()));
+  }
+
+  @Override
+  public String cloneRepository(
+      String uri, Ref ref, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    Matcher repositoryMatcher =
+        uri.startsWith(repositoryUrl)
+            ? REPOSITORY_PATTERN.matcher(uri.substring(repositoryUrl.length()))
+            : null;
+    if (repositoryMatcher == null || !repositoryMatcher.matches()) {
+      return fallbackStrategy.cloneRepository(uri, ref, directory, fileSelector, deadline);
+    }
+    String commitId = GitRefResolver.getCommitId(ref);
+    String url = archiveUrl + repositoryMatcher.group(1) + "/zip/" + commitId;
+    try {
+      download(url, directory, fileSelector, deadline);
+      List<String> missingPaths = findMissingPaths(directory, fileSelector);
+      if (missingPaths.isEmpty()) {
+        return commitId;
+      }
+      LOGGER.info("Falling back from the archive of {}, missing {}", uri, missingPaths);
+    } catch (DeadlineExceededException e) {
+      throw e;
+    } catch (IOException e) {
+      LOGGER.info("Falling back from the archive of " + uri, e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while downloading " + url, e);
+    }
+    deadline.check(ParsingMetrics.CLONE);
+    SparseCloneStrategy.deleteContents(directory);
+    return fallbackStrategy.cloneRepository(uri, ref, directory, fileSelector, deadline);
+  }
+
+  @Override
+  public void forget(String uri) {
+    fallbackStrategy.forget(uri);
+  }
+
+  /** Stream an archive and write the entries that may be selected, without its top directory. */
+  private void download(String url, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, InterruptedException {
+    deadline.check(ParsingMetrics.CLONE);
+    long remainingMillis = Math.max(1, deadline.getRemainingMillis());
+    Duration timeout =
+        remainingMillis < TIMEOUT.toMillis() ? Duration.ofMillis(remainingMillis) : TIMEOUT;
+    HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET().build();
+    HttpResponse<InputStream> response =
+        httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+    try (InputStream body = response.body()) {
+      if (response.statusCode() != HttpURLConnection.HTTP_OK) {
+        throw new IOException("HTTP status " + response.statusCode() + " for " + url);
+      }
+      WatchedInputStream watchedBody = new WatchedInputStream(body, deadline);
+      ScheduledFuture<?> watchdog =
+          WATCHDOG.scheduleAtFixedRate(
+              watchedBody, WATCHDOG_PERIOD_MILLIS, WATCHDOG_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+      try {
+        unzip(watchedBody, directory, fileSelector, deadline);
+      } catch (IOException e) {
+        deadline.check(ParsingMetrics.CLONE);
+        if (watchedBody.stalled) {
+          throw new IOException("The archive " + url + " stalled for " + TIMEOUT, e);
+        }
+        throw e;
+      } finally {
+        watchdog.cancel(false);
+      }
+    }
+  }
+
+  /** Write the entries of an archive that may be selected, without its top directory. */
+  private static void unzip(
+      InputStream archive, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException {
+    try (ZipInputStream zipInputStream = new ZipInputStream(archive)) {
+      for (ZipEntry entry = zipInputStream.getNextEntry();
+          entry != null;
+          entry = zipInputStream.getNextEntry()) {
+        deadline.check(ParsingMetrics.CLONE);
+        String name = entry.getName();
+        String path = name.substring(name.indexOf('/') + 1);
+        if (entry.isDirectory() || path.isEmpty() || !fileSelector.mayBeSelected(path)) {
+          continue;
+        }
+        Path file = directory.resolve(path).normalize();
+        if (!file.startsWith(directory)) {
+          throw new IOException("Archive entry " + name + " is outside of the repository");
+        }
+        Path parent = file.getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        Files.copy(zipInputStream, file);
+      }
+    }
+  }
+
+  /**
+   * Follow the selection through the written files, like a sparse clone does through a commit.
+   *
+   * @return The selected files that were not written
+   */
+  static List<String> findMissingPaths(Path directory, FileSelector fileSelector)
+      throws IOException {
+    List<String> missingPaths = new ArrayList<>();
+    Deque<String> pendingPaths = new ArrayDeque<>(fileSelector.getRequiredPaths());
+    for (String optionalPath : fileSelector.getOptionalPaths()) {
+      Path optionalFile = directory.resolve(optionalPath);
+      if (optionalPath.endsWith("/")) {
+        if (Files.isDirectory(optionalFile)) {
+          try (DirectoryStream<Path> files =
+              Files.newDirectoryStream(optionalFile, Files::isRegularFile)) {
+            for (Path file : files) {
+              pendingPaths.add(optionalPath + file.getFileName());
+            }
+          }
+        }
+      } else if (Files.isRegularFile(optionalFile)) {
+        pendingPaths.add(optionalPath);
+      }
+    }
+    Set<String> visitedPaths = new HashSet<>();
+    while (!pendingPaths.isEmpty()) {
+      String path = pendingPaths.pop();
+      if (!visitedPaths.add(path)) {
+        continue;
+      }
+      Path file = directory.resolve(path);
+      if (!Files.isRegularFile(file)) {
+        missingPaths.add(path);
+        continue;
+      }
+      if (Files.size(file) <= MAX_SCANNED_BYTES) {
+        String contents = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        pendingPaths.addAll(
+            FileSelector.locate(
+                fileSelector.getReferencedPaths(path, contents),
+                referencedPath -> Files.isRegularFile(directory.resolve(referencedPath)),
+                new ArrayList<>()));
+      }
+    }
+    return missingPaths;
+  }
+
+  /** Closes the stream it wraps once no byte arrives for the timeout, or the deadline expires. */
+  private static final class WatchedInputStream extends FilterInputStream implements Runnable {
+    private final Deadline deadline;
+    private volatile long lastReadNanos = System.nanoTime();
+    private volatile boolean stalled;
+
+    WatchedInputStream(InputStream in, Deadline deadline) {
+      super(in);
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      lastReadNanos = System.nanoTime();
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      lastReadNanos = System.nanoTime();
+      return read;
+    }
+
+    @Override
+    public void run() {
+      stalled = System.nanoTime() - lastReadNanos > TIMEOUT.toNanos();
+      if (stalled || deadline.isExpired()) {
+        try {
+          in.close();
+        } catch (IOException e) {
+          // The read that waits fails either way
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** A request to parse several descriptors of the same repository and branch from one clone. */
+public class BatchParsingRequest {
+
+  private String uri;
+  private String branch;
+  private List<String> descriptorRelativePathsInGit = new ArrayList<>();
+
+  public String getUri() {
+    return uri;
+  }
+
+  public void setUri(String uri) {
+    this.uri = uri;
+  }
+
+  public String getBranch() {
+    return branch;
+  }
+
+  public void setBranch(String branch) {
+    this.branch = branch;
+  }
+
+  public List<String> getDescriptorRelativePathsInGit() {
+    return descriptorRelativePathsInGit;
+  }
+
+  public void setDescriptorRelativePathsInGit(List<String> descriptorRelativePathsInGit) {
+    this.descriptorRelativePathsInGit = descriptorRelativePathsInGit;
+  }
+}
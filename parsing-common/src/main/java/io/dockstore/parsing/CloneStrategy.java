@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Ref;
+
+/** Makes the files of one branch or tag of a remote repository available in a local directory. */
+public interface CloneStrategy {
+
+  /**
+   * Environment variable selecting the strategy, "archive", "full", "mirror" or "sparse" (the
+   * default).
+   */
+  String VARIABLE = "CLONE_STRATEGY";
+
+  /**
+   * Clone a branch or tag into a directory, without a deadline.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag to clone
+   * @param directory An empty directory that becomes the root of the working tree
+   * @param fileSelector The files the parser needs, strategies may materialise more
+   * @return The id of the commit whose files were materialised
+   * @throws IOException If the working tree could not be written
+   * @throws GitAPIException If the repository could not be fetched
+   */
+  default String cloneRepository(
+      String uri, String branch, Path directory, FileSelector fileSelector)
+      throws IOException, GitAPIException {
+    return cloneRepository(uri, branch, directory, fileSelector, Deadline.NONE);
+  }
+
+  /**
+   * Clone a branch or tag into a directory. Fetches are cancelled once the deadline expires, which
+   * makes them fail, and strategies don't fall back to another one after it.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag to clone
+   * @param directory An empty directory that becomes the root of the working tree
+   * @param fileSelector The files the parser needs, strategies may materialise more
+   * @param deadline The deadline of the request
+   * @return The id of the commit whose files were materialised
+   * @throws IOException If the working tree could not be written
+   * @throws GitAPIException If the repository could not be fetched
+   */
+  default String cloneRepository(
+      String uri, String branch, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    Ref ref =
+        GitRefResolver.resolveRef(uri, branch, deadline)
+            .orElseThrow(
+                () -> new RefNotFoundException("Remote branch or tag " + branch + " not found"));
+    return cloneRepository(uri, ref, directory, fileSelector, deadline);
+  }
+
+  /**
+   * Clone a branch or tag that was already resolved, so that the remote is asked for its refs only
+   * once per request. A strategy that falls back to another one passes the ref on.
+   *
+   * @param uri The URI of the remote repository
+   * @param ref The branch or tag to clone, as advertised by the remote
+   * @param directory An empty directory that becomes the root of the working tree
+   * @param fileSelector The files the parser needs, strategies may materialise more
+   * @param deadline The deadline of the request
+   * @return The id of the commit whose files were materialised, the ref may have moved since
+   * @throws IOException If the working tree could not be written
+   * @throws GitAPIException If the repository could not be fetched
+   */
+  String cloneRepository(
+      String uri, Ref ref, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException;
+
+  /**
+   * Delete what the strategy keeps of a repository beyond its clones, for a repository that is
+   * deleted itself, like the one that priming creates.
+   *
+   * @param uri The URI of the remote repository
+   */
+  default void forget(String uri) {
+    // Nothing is kept unless a strategy says otherwise
+  }
+
+  /**
+   * Create the strategy configured by the environment.
+   *
+   * @return The configured strategy
+   */
+  static CloneStrategy fromEnvironment() {
+    if ("full".equalsIgnoreCase(System.getenv(VARIABLE))) {
+      return new FullCloneStrategy();
+    }
+    if ("archive".equalsIgnoreCase(System.getenv(VARIABLE))) {
+      return ArchiveCloneStrategy.fromEnvironment();
+    }
+    if ("mirror".equalsIgnoreCase(System.getenv(VARIABLE))) {
+      return MirrorCloneStrategy.fromEnvironment();
+    }
+    return new SparseCloneStrategy(new FullCloneStrategy());
+  }
+}
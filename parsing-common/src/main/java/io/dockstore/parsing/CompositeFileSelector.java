@@ -0,0 +1,60 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/** Selects the files that any of several selectors selects, to clone once for many descriptors. */
+public class CompositeFileSelector implements FileSelector {
+
+  private final List<FileSelector> fileSelectors;
+
+  public CompositeFileSelector(List<FileSelector> fileSelectors) {
+    this.fileSelectors = List.copyOf(fileSelectors);
+  }
+
+  @Override
+  public List<String> getRequiredPaths() {
+    return union(FileSelector::getRequiredPaths);
+  }
+
+  @Override
+  public List<String> getOptionalPaths() {
+    return union(FileSelector::getOptionalPaths);
+  }
+
+  @Override
+  public List<List<String>> getReferencedPaths(String path, String contents) {
+    return union(fileSelector -> fileSelector.getReferencedPaths(path, contents));
+  }
+
+  @Override
+  public boolean mayBeSelected(String path) {
+    return fileSelectors.stream().anyMatch(fileSelector -> fileSelector.mayBeSelected(path));
+  }
+
+  private <T> List<T> union(Function<FileSelector, List<T>> paths) {
+    Set<T> union = new LinkedHashSet<>();
+    for (FileSelector fileSelector : fileSelectors) {
+      union.addAll(paths.apply(fileSelector));
+    }
+    return List.copyOf(union);
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits how many threads do something at the same time across all requests, such as cloning or
+ * parsing. A Lambda container serves one request at a time, but the limits still cap the
+ * descriptors of a batch that are parsed at the same time, and the clones and parses that outlived
+ * their deadline. When one JVM serves many requests, like the ParsingServer of each function, they
+ * cap those too.
+ */
+public class ConcurrencyLimit {
+
+  /** Environment variable with the number of clones at the same time. */
+  public static final String CLONES_VARIABLE = "MAX_CONCURRENT_CLONES";
+  /** Environment variable with the number of descriptors parsed at the same time. */
+  public static final String PARSES_VARIABLE = "MAX_CONCURRENT_PARSES";
+
+  private final Semaphore semaphore;
+
+  /**
+   * Create a limit.
+   *
+   * @param permits The number of threads allowed at the same time
+   */
+  public ConcurrencyLimit(int permits) {
+    this.semaphore = new Semaphore(permits, true);
+  }
+
+  /**
+   * Create the limit configured by an environment variable.
+   *
+   * @param variable The environment variable with the number of permits
+   * @param defaultPermits The number of permits if the variable is not set
+   * @return The configured limit
+   */
+  public static ConcurrencyLimit fromEnvironment(String variable, int defaultPermits) {
+    String permits = System.getenv(variable);
+    return new ConcurrencyLimit(
+        permits == null || permits.isBlank() ? defaultPermits : Integer.parseInt(permits.trim()));
+  }
+
+  /**
+   * Wait for a permit. Interrupts are deferred until it is acquired, like a blocking clone would.
+   *
+   * @return The permit, to release by closing it
+   */
+  public Permit acquire() {
+    semaphore.acquireUninterruptibly();
+    return new Permit();
+  }
+
+  /**
+   * Wait for a permit until a deadline, so that a request doesn't queue for a permit it has no time
+   * left to use.
+   *
+   * @param deadline The deadline of the request
+   * @param phase The phase that needs the permit
+   * @return The permit, to release by closing it
+   * @throws DeadlineExceededException If the deadline expired before a permit was available
+   * @throws InterruptedIOException If the thread was interrupted while waiting
+   */
+  public Permit acquire(Deadline deadline, String phase) throws IOException {
+    if (deadline == Deadline.NONE) {
+      return acquire();
+    }
+    deadline.check(phase);
+    try {
+      if (!semaphore.tryAcquire(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+        throw new DeadlineExceededException(phase);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a permit in phase " + phase);
+    }
+    return new Permit();
+  }
+
+  public int getAvailablePermits() {
+    return semaphore.availablePermits();
+  }
+
+  /** A permit of the limit that is released once, when it is closed. */
+  public final class Permit implements AutoCloseable {
+
+    private boolean released;
+
+    private Permit() {
+      // acquired by the limit
+    }
+
+    @Override
+    public void close() {
+      if (!released) {
+        released = true;
+        semaphore.release();
+      }
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.eclipse.jgit.lib.EmptyProgressMonitor;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * The time left to answer a request. Lambda stops a function at its timeout without answering, so
+ * the phases of a request check the deadline and stop early, and the request is answered with a 504
+ * that names the phase which ran out of time. A margin of the remaining time is kept back to encode
+ * and send that answer.
+ */
+public final class Deadline {
+
+  /** Environment variable with the milliseconds kept back to encode and send a response. */
+  public static final String MARGIN_VARIABLE = "DEADLINE_MARGIN_MILLIS";
+  /** The margin if the variable is not set. */
+  public static final long DEFAULT_MARGIN_MILLIS = 2000;
+  /** A deadline that never expires, for requests that are not bound by a Lambda timeout. */
+  public static final Deadline NONE = new Deadline(false, 0);
+
+  private static final long MARGIN_MILLIS = getMarginMillis();
+  private static final AtomicInteger ABANDONED_TASKS = new AtomicInteger();
+  // Daemon threads, a parse that ignores the interrupt must not keep the JVM alive
+  private static final ExecutorService WORKERS =
+      Executors.newCachedThreadPool(
+          runnable -> {
+            Thread thread = new Thread(runnable, "deadline-worker");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final boolean bounded;
+  private final long expiryNanos;
+
+  private Deadline(boolean bounded, long expiryNanos) {
+    this.bounded = bounded;
+    this.expiryNanos = expiryNanos;
+  }
+
+  /**
+   * Create a deadline that expires after a timeout.
+   *
+   * @param timeout The time from now until the deadline
+   * @return The deadline
+   */
+  public static Deadline after(Duration timeout) {
+    return new Deadline(true, System.nanoTime() + timeout.toNanos());
+  }
+
+  /**
+   * Create the deadline of a Lambda invocation, its remaining time less the configured margin.
+   *
+   * @param context The context of the invocation, may be null outside of Lambda
+   * @return The deadline, {@link #NONE} without a context
+   */
+  public static Deadline fromContext(Context context) {
+    if (context == null) {
+      return NONE;
+    }
+    return after(Duration.ofMillis(context.getRemainingTimeInMillis() - MARGIN_MILLIS));
+  }
+
+  private static long getMarginMillis() {
+    String margin = System.getenv(MARGIN_VARIABLE);
+    return margin == null || margin.isBlank()
+        ? DEFAULT_MARGIN_MILLIS
+        : Long.parseLong(margin.trim());
+  }
+
+  public boolean isExpired() {
+    return bounded && System.nanoTime() - expiryNanos >= 0;
+  }
+
+  /**
+   * Get the time left.
+   *
+   * @return The milliseconds until the deadline, 0 once it expired, Long.MAX_VALUE if it never does
+   */
+  public long getRemainingMillis() {
+    if (!bounded) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiryNanos - System.nanoTime()));
+  }
+
+  /**
+   * Get the time left as a JGit transport timeout, which bounds every read from the remote.
+   *
+   * @return The seconds until the deadline, at least 1, or 0 for no timeout
+   */
+  public int getTimeoutSeconds() {
+    if (!bounded) {
+      return 0;
+    }
+    long seconds = TimeUnit.MILLISECONDS.toSeconds(getRemainingMillis());
+    return (int) Math.max(1, Math.min(Integer.MAX_VALUE, seconds));
+  }
+
+  /**
+   * Stop a phase if the deadline expired.
+   *
+   * @param phase The phase that is running
+   * @throws DeadlineExceededException If the deadline expired
+   */
+  public void check(String phase) throws DeadlineExceededException {
+    if (isExpired()) {
+      throw new DeadlineExceededException(phase);
+    }
+  }
+
+  /**
+   * Create a progress monitor that cancels a JGit command once the deadline expires. JGit checks it
+   * between objects, so a large fetch stops without waiting for the transport timeout.
+   *
+   * @return The progress monitor
+   */
+  public ProgressMonitor newProgressMonitor() {
+    if (!bounded) {
+      return NullProgressMonitor.INSTANCE;
+    }
+    return new EmptyProgressMonitor() {
+      @Override
+      public boolean isCancelled() {
+        return isExpired();
+      }
+    };
+  }
+
+  /**
+   * Whether a task that ran out of time is still running. Womtool and Groovy ignore interrupts, so
+   * such a task may keep its thread and permits for good. Later tasks that need those permits then
+   * wait no longer than their own deadline for them.
+   *
+   * @return Whether a task was abandoned and didn't end yet
+   */
+  public static boolean hasAbandonedTasks() {
+    return ABANDONED_TASKS.get() > 0;
+  }
+
+  /**
+   * Run a task on a worker thread and wait for it until the deadline. A task that runs out of time
+   * is interrupted and left to finish on its own, the request doesn't wait for it. Without a
+   * deadline the task runs on the calling thread.
+   *
+   * @param phase The phase the task belongs to
+   * @param task The task, which may throw unchecked exceptions only
+   * @param <T> The type of its result
+   * @return The result of the task
+   * @throws IOException If the deadline expired, or the caller was interrupted
+   */
+  public <T> T run(String phase, Supplier<T> task) throws IOException {
+    return run(phase, null, task);
+  }
+
+  /**
+   * Run a task within a limit on a worker thread and wait for it until the deadline. The permit is
+   * taken on the calling thread, waiting no longer than the deadline, and the task releases it when
+   * it ends. A task that runs out of time is interrupted and left to finish on its own, and counts
+   * as abandoned until it does. Without a deadline the task runs on the calling thread.
+   *
+   * @param phase The phase the task belongs to
+   * @param limit The limit to run the task within, null for none
+   * @param task The task, which may throw unchecked exceptions only
+   * @param <T> The type of its result
+   * @return The result of the task
+   * @throws IOException If the deadline expired, or the caller was interrupted
+   */
+  public <T> T run(String phase, ConcurrencyLimit limit, Supplier<T> task) throws IOException {
+    check(phase);
+    ConcurrencyLimit.Permit permit = limit == null ? null : limit.acquire(this, phase);
+    Task<T> trackedTask = new Task<>(task::get, permit);
+    if (!bounded) {
+      try {
+        return trackedTask.call();
+      } catch (RuntimeException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    Future<T> future;
+    try {
+      future = WORKERS.submit(trackedTask);
+    } catch (RuntimeException e) {
+      trackedTask.abandon();
+      throw e;
+    }
+    try {
+      return future.get(getRemainingMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      trackedTask.abandon();
+      throw new DeadlineExceededException(phase);
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      trackedTask.abandon();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted in phase " + phase);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      // A task can only throw unchecked exceptions, so one that ran out of time itself wraps it
+      if (cause instanceof UncheckedIOException
+          && cause.getCause() instanceof DeadlineExceededException) {
+        throw (DeadlineExceededException) cause.getCause();
+      }
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  /**
+   * A task that releases its permit when it ends, or when it is abandoned before it started. A task
+   * abandoned while it runs counts as abandoned until it ends.
+   *
+   * @param <T> The type of its result
+   */
+  public static final class Task<T> implements Callable<T> {
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int ABANDONED = 2;
+    private static final int ENDED = 3;
+
+    private final Callable<T> callable;
+    private final ConcurrencyLimit.Permit permit;
+    private final AtomicInteger state = new AtomicInteger(PENDING);
+
+    public Task(Callable<T> callable, ConcurrencyLimit.Permit permit) {
+      this.callable = callable;
+      this.permit = permit;
+    }
+
+    @Override
+    public T call() throws Exception {
+      if (!state.compareAndSet(PENDING, RUNNING)) {
+        return null;
+      }
+      try {
+        return callable.call();
+      } finally {
+        release();
+        if (state.getAndSet(ENDED) == ABANDONED) {
+          ABANDONED_TASKS.decrementAndGet();
+        }
+      }
+    }
+
+    /** Stop waiting for the task, which may still be running. */
+    public void abandon() {
+      if (state.compareAndSet(RUNNING, ABANDONED)) {
+        ABANDONED_TASKS.incrementAndGet();
+      } else if (state.compareAndSet(PENDING, ENDED)) {
+        release();
+      }
+    }
+
+    private void release() {
+      if (permit != null) {
+        permit.close();
+      }
+    }
+  }
+}
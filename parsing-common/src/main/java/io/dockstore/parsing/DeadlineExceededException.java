@@ -0,0 +1,39 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+
+/** Thrown when a request runs out of time, naming the phase that was running. */
+public class DeadlineExceededException extends IOException {
+
+  private final String phase;
+
+  /**
+   * Create an exception.
+   *
+   * @param phase The phase that was running, one of the timers of {@link ParsingMetrics}
+   */
+  public DeadlineExceededException(String phase) {
+    super("Timed out in phase " + phase);
+    this.phase = phase;
+  }
+
+  public String getPhase() {
+    return phase;
+  }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Decides which files of a repository a parser needs, starting from the main descriptor.
+ *
+ * <p>Paths are relative to the root of the repository and use '/' as the separator. A path ending
+ * in '/' stands for the files directly inside that directory.
+ */
+public interface FileSelector {
+
+  /**
+   * Get the files that must be present, usually just the main descriptor.
+   *
+   * @return Paths relative to the root of the repository
+   */
+  List<String> getRequiredPaths();
+
+  /**
+   * Get the files and directories that are used if they exist, but are commonly absent.
+   *
+   * @return Paths relative to the root of the repository
+   */
+  List<String> getOptionalPaths();
+
+  /**
+   * Get the files that a selected file references, such as its imports. They must be present. Each
+   * reference is given as the paths it may be at, in the order they are looked at: the first that
+   * exists is selected, and a reference at none of them is missing.
+   *
+   * @param path The path of the selected file
+   * @param contents The contents of the selected file
+   * @return The paths of each reference, relative to the root of the repository
+   */
+  List<List<String>> getReferencedPaths(String path, String contents);
+
+  /**
+   * Whether a file may be selected, judged by its path alone. Strategies that see every file of the
+   * repository once and in no particular order, such as an archive download, keep only these.
+   *
+   * @param path A path relative to the root of the repository
+   * @return Whether the file may be a required, optional or referenced path
+   */
+  default boolean mayBeSelected(String path) {
+    return true;
+  }
+
+  /**
+   * Get a path relative to the root of the repository, such as a resolved reference.
+   *
+   * @param path A relative path
+   * @return The normalized path, empty if it is absolute or leaves the repository
+   */
+  static Optional<String> toRepositoryPath(Path path) {
+    String resolved = path.normalize().toString();
+    if (path.isAbsolute() || resolved.isEmpty() || resolved.startsWith("..")) {
+      return Optional.empty();
+    }
+    return Optional.of(resolved);
+  }
+
+  /**
+   * Pick the path of each reference that exists, or its first path if none does.
+   *
+   * @param references The paths of each reference, as {@link #getReferencedPaths} returns them
+   * @param exists Whether a path exists
+   * @param absentPaths Collects the paths that were looked at before the one that was picked
+   * @return One path for each reference
+   * @throws IOException If a path can't be looked at
+   */
+  static List<String> locate(
+      List<List<String>> references, PathPredicate exists, Collection<String> absentPaths)
+      throws IOException {
+    List<String> located = new ArrayList<>();
+    for (List<String> paths : references) {
+      String found = null;
+      List<String> absent = new ArrayList<>();
+      for (String path : paths) {
+        if (exists.test(path)) {
+          found = path;
+          break;
+        }
+        absent.add(path);
+      }
+      if (found == null) {
+        // The first path is the one that is reported missing
+        found = absent.remove(0);
+      }
+      absentPaths.addAll(absent);
+      located.add(found);
+    }
+    return located;
+  }
+
+  /**
+   * Strip the leading slash that some callers put in front of repository paths.
+   *
+   * @param path A path relative to the root of the repository
+   * @return The path without a leading slash
+   */
+  static String stripLeadingSlash(String path) {
+    return path.startsWith("/") ? path.substring(1) : path;
+  }
+
+  /** Checks whether a path exists, in a commit or a directory. */
+  @FunctionalInterface
+  interface PathPredicate {
+    boolean test(String path) throws IOException;
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+
+/** Clones the branch with its full history and checks out every file. */
+public class FullCloneStrategy implements CloneStrategy {
+
+  /** Clone the branch by its name, a full clone needs no ls-remote first. */
+  @Override
+  public String cloneRepository(
+      String uri, String branch, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    return cloneBranch(uri, branch, directory, deadline);
+  }
+
+  @Override
+  public String cloneRepository(
+      String uri, Ref ref, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    return cloneBranch(uri, ref.getName(), directory, deadline);
+  }
+
+  private static String cloneBranch(String uri, String branch, Path directory, Deadline deadline)
+      throws IOException, GitAPIException {
+    if (!FileSystems.getDefault().equals(directory.getFileSystem())) {
+      throw new IOException(
+          "A full clone needs a working tree on disk, not in " + directory.toUri());
+    }
+    try (Git git =
+        Git.cloneRepository()
+            .setCloneAllBranches(false)
+            .setBranch(branch)
+            .setURI(uri)
+            .setDirectory(directory.toFile())
+            .setTimeout(deadline.getTimeoutSeconds())
+            .setProgressMonitor(deadline.newProgressMonitor())
+            .call()) {
+      return git.getRepository().resolve(Constants.HEAD).getName();
+    }
+  }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+import org.eclipse.jgit.transport.http.HttpConnection;
+
+/**
+ * An HTTP request of JGit, sent by {@link GitHttpConnectionFactory} the first time that JGit asks
+ * for the response. A request body is buffered until then, JGit only posts the few wants and haves
+ * of a fetch.
+ */
+final class GitHttpConnection implements HttpConnection {
+
+  // Headers that the client sets itself and refuses from a request
+  private static final Set<String> RESTRICTED_HEADERS =
+      Set.of(
+          "connection",
+          "content-length",
+          "date",
+          "expect",
+          "from",
+          "host",
+          "upgrade",
+          "via",
+          "warning");
+
+  private final GitHttpConnectionFactory factory;
+  private final URL url;
+  private final Map<String, String> requestHeaders = new LinkedHashMap<>();
+  private String method = "GET";
+  private int connectTimeoutMillis;
+  private int readTimeoutMillis;
+  private ByteArrayOutputStream requestBody;
+  private HttpResponse<InputStream> response;
+
+  GitHttpConnection(GitHttpConnectionFactory factory, URL url) {
+    this.factory = factory;
+    this.url = url;
+  }
+
+  private HttpResponse<InputStream> send() throws IOException {
+    if (response == null) {
+      HttpRequest.Builder builder;
+      try {
+        builder = HttpRequest.newBuilder(url.toURI());
+      } catch (URISyntaxException e) {
+        throw new IOException("Invalid URL " + url, e);
+      }
+      int timeoutMillis = Math.max(connectTimeoutMillis, readTimeoutMillis);
+      if (timeoutMillis > 0) {
+        builder.timeout(Duration.ofMillis(timeoutMillis));
+      }
+      for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+        if (!RESTRICTED_HEADERS.contains(header.getKey().toLowerCase(Locale.ROOT))) {
+          builder.setHeader(header.getKey(), header.getValue());
+        }
+      }
+      builder.method(
+          method,
+          requestBody == null
+              ? HttpRequest.BodyPublishers.noBody()
+              : HttpRequest.BodyPublishers.ofByteArray(requestBody.toByteArray()));
+      response = factory.send(builder.build(), readTimeoutMillis);
+    }
+    return response;
+  }
+
+  @Override
+  public int getResponseCode() throws IOException {
+    return send().statusCode();
+  }
+
+  @Override
+  public URL getURL() {
+    return url;
+  }
+
+  @Override
+  public String getResponseMessage() throws IOException {
+    // HTTP/2 has no reason phrases, and the client drops those of HTTP/1.1
+    return "HTTP " + send().statusCode();
+  }
+
+  @Override
+  public Map<String, List<String>> getHeaderFields() {
+    Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    if (response != null) {
+      headers.putAll(response.headers().map());
+    }
+    return headers;
+  }
+
+  @Override
+  public List<String> getHeaderFields(String name) {
+    return response == null ? Collections.emptyList() : response.headers().allValues(name);
+  }
+
+  @Override
+  public void setRequestProperty(String key, String value) {
+    requestHeaders.put(key, value);
+  }
+
+  @Override
+  public void setRequestMethod(String requestMethod) {
+    this.method = requestMethod;
+  }
+
+  @Override
+  public void setUseCaches(boolean usecaches) {
+    // nothing is cached
+  }
+
+  @Override
+  public void setConnectTimeout(int timeout) {
+    this.connectTimeoutMillis = timeout;
+  }
+
+  @Override
+  public void setReadTimeout(int timeout) {
+    this.readTimeoutMillis = timeout;
+  }
+
+  @Override
+  public String getContentType() {
+    return getHeaderField("Content-Type");
+  }
+
+  @Override
+  public InputStream getInputStream() throws IOException {
+    HttpResponse<InputStream> sentResponse = send();
+    int statusCode = sentResponse.statusCode();
+    if (statusCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+      // Like HttpURLConnection, which JGit expects
+      sentResponse.body().close();
+      if (statusCode == HttpURLConnection.HTTP_NOT_FOUND
+          || statusCode == HttpURLConnection.HTTP_GONE) {
+        throw new FileNotFoundException(url.toString());
+      }
+      throw new IOException(
+          "Server returned HTTP response code: " + statusCode + " for URL: " + url);
+    }
+    return sentResponse.body();
+  }
+
+  @Override
+  public String getHeaderField(String name) {
+    return response == null ? null : response.headers().firstValue(name).orElse(null);
+  }
+
+  @Override
+  public int getContentLength() {
+    long contentLength =
+        response == null ? -1 : response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    return contentLength > Integer.MAX_VALUE ? -1 : (int) contentLength;
+  }
+
+  @Override
+  public void setInstanceFollowRedirects(boolean followRedirects) {
+    // the client never follows redirects, JGit does
+  }
+
+  @Override
+  public void setDoOutput(boolean dooutput) {
+    // a request has a body once JGit gets the output stream
+  }
+
+  @Override
+  public void setFixedLengthStreamingMode(int contentLength) {
+    // the body is buffered
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    if (requestBody == null) {
+      requestBody = new ByteArrayOutputStream();
+    }
+    return requestBody;
+  }
+
+  @Override
+  public void setChunkedStreamingMode(int chunklen) {
+    // the body is buffered
+  }
+
+  @Override
+  public String getRequestMethod() {
+    return method;
+  }
+
+  @Override
+  public boolean usingProxy() {
+    return false;
+  }
+
+  @Override
+  public void connect() throws IOException {
+    send();
+  }
+
+  @Override
+  public void configure(KeyManager[] km, TrustManager[] tm, SecureRandom random) {
+    throw new UnsupportedOperationException("Connections are verified with the default context");
+  }
+
+  @Override
+  public void setHostnameVerifier(HostnameVerifier hostnameverifier) {
+    throw new UnsupportedOperationException("Connections are verified with the default context");
+  }
+
+  /**
+   * The body of a response as JGit reads it, in buffers that the client delivers one at a time. A
+   * read that waits longer than the read timeout fails, like on a socket. Closing a body that was
+   * not read to the end reads the rest of what has arrived, so that the connection can still be
+   * reused.
+   */
+  static final class ResponseBody extends InputStream
+      implements HttpResponse.BodySubscriber<InputStream> {
+
+    private static final Object END = new Object();
+    private static final long DRAIN_MILLIS = 100;
+    private static final int MAX_DRAINED_BYTES = 64 * 1024;
+
+    private final int readTimeoutMillis;
+    private final BlockingQueue<Object> items = new LinkedBlockingQueue<>();
+    private final Deque<ByteBuffer> buffers = new ArrayDeque<>();
+    private volatile Flow.Subscription subscription;
+    private boolean done;
+
+    ResponseBody(int readTimeoutMillis) {
+      this.readTimeoutMillis = readTimeoutMillis;
+    }
+
+    @Override
+    public CompletionStage<InputStream> getBody() {
+      return CompletableFuture.completedFuture(this);
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription newSubscription) {
+      this.subscription = newSubscription;
+      newSubscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> item) {
+      items.add(item);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      items.add(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      items.add(END);
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!fill(readTimeoutMillis)) {
+        return -1;
+      }
+      return Byte.toUnsignedInt(buffers.peek().get());
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!fill(readTimeoutMillis)) {
+        return -1;
+      }
+      ByteBuffer buffer = buffers.peek();
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+
+    @Override
+    public int available() {
+      ByteBuffer buffer = buffers.peek();
+      return buffer == null ? 0 : buffer.remaining();
+    }
+
+    @Override
+    public void close() {
+      try {
+        long drained = 0;
+        while (drained <= MAX_DRAINED_BYTES && fill(DRAIN_MILLIS)) {
+          ByteBuffer buffer = buffers.peek();
+          drained += buffer.remaining();
+          buffer.position(buffer.limit());
+        }
+      } catch (IOException e) {
+        // the connection is not reused
+      }
+      if (!done) {
+        done = true;
+        Flow.Subscription currentSubscription = subscription;
+        if (currentSubscription != null) {
+          currentSubscription.cancel();
+        }
+      }
+      buffers.clear();
+    }
+
+    /**
+     * Wait for a buffer with bytes to read.
+     *
+     * @return false at the end of the body
+     */
+    private boolean fill(long timeoutMillis) throws IOException {
+      while (!buffers.isEmpty() && !buffers.peek().hasRemaining()) {
+        buffers.remove();
+      }
+      while (buffers.isEmpty()) {
+        if (done) {
+          return false;
+        }
+        Object item;
+        try {
+          item =
+              timeoutMillis > 0 ? items.poll(timeoutMillis, TimeUnit.MILLISECONDS) : items.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted reading a response");
+        }
+        if (item == null) {
+          throw new SocketTimeoutException("Read timed out");
+        }
+        if (item == END) {
+          done = true;
+          return false;
+        }
+        if (item instanceof Throwable) {
+          done = true;
+          throw new IOException("Could not read a response", (Throwable) item);
+        }
+        for (Object buffer : (List<?>) item) {
+          if (((ByteBuffer) buffer).hasRemaining()) {
+            buffers.add((ByteBuffer) buffer);
+          }
+        }
+        subscription.request(1);
+      }
+      return true;
+    }
+  }
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLContextSpi;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocketFactory;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import org.eclipse.jgit.transport.HttpTransport;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.transport.http.JDKHttpConnectionFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes the HTTP requests of JGit, for clones, fetches and ls-remotes, on one shared {@link
+ * HttpClient}. The client keeps connections alive between requests, so that the requests of a clone
+ * and the clones that follow it reuse the connection and TLS session to a host such as github.com
+ * instead of opening their own. It can speak HTTP/2, which puts all requests to a host on one
+ * connection.
+ *
+ * <p>A host gets a limited number of requests at the same time, and a request that the host answers
+ * with a 429 or a 5xx is sent again after an exponential backoff with jitter, or after the
+ * Retry-After of the response. Retries stop once their backoff would outlast the read timeout that
+ * JGit set from the deadline, and JGit gets the last response.
+ */
+public class GitHttpConnectionFactory implements HttpConnectionFactory {
+
+  /** Environment variable with the HTTP version to request, 1.1 or 2. */
+  public static final String HTTP_VERSION_VARIABLE = "GIT_HTTP_VERSION";
+  /** Environment variable with the number of requests to a host at the same time. */
+  public static final String CONNECTIONS_PER_HOST_VARIABLE = "GIT_HTTP_CONNECTIONS_PER_HOST";
+  /** Environment variable with the number of times a throttled or failed request is retried. */
+  public static final String RETRIES_VARIABLE = "GIT_HTTP_RETRIES";
+
+  public static final int DEFAULT_CONNECTIONS_PER_HOST = 16;
+  public static final int DEFAULT_RETRIES = 3;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(GitHttpConnectionFactory.class);
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int SERVER_ERROR = 500;
+  private static final long INITIAL_BACKOFF_MILLIS = 250;
+  private static final long MAX_BACKOFF_MILLIS = 8000;
+  // Connections through a proxy that JGit picked are left to the JDK, the client has no such proxy
+  private static final HttpConnectionFactory PROXIED_CONNECTIONS = new JDKHttpConnectionFactory();
+
+  private final HttpClient httpClient;
+  private final int connectionsPerHost;
+  private final int retries;
+  private final Map<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong retriedRequests = new AtomicLong();
+  private final AtomicLong connections = new AtomicLong();
+
+  /**
+   * Create a factory.
+   *
+   * @param version The HTTP version to request, a server that doesn't speak HTTP/2 gets HTTP/1.1
+   * @param connectionsPerHost The number of requests to a host at the same time
+   * @param retries The number of times a throttled or failed request is retried
+   */
+  public GitHttpConnectionFactory(HttpClient.Version version, int connectionsPerHost, int retries) {
+    this.connectionsPerHost = connectionsPerHost;
+    this.retries = retries;
+    HttpClient.Builder builder =
+        HttpClient.newBuilder()
+            .version(version)
+            // JGit follows redirects itself, it needs to see them to move to the new URL
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .sslContext(new CountingSslContext(getDefaultSslContext(), connections));
+    ProxySelector proxySelector = ProxySelector.getDefault();
+    if (proxySelector != null) {
+      builder.proxy(proxySelector);
+    }
+    this.httpClient = builder.build();
+  }
+
+  /**
+   * Create the factory configured by the environment.
+   *
+   * @return The configured factory
+   */
+  public static GitHttpConnectionFactory fromEnvironment() {
+    String version = System.getenv(HTTP_VERSION_VARIABLE);
+    return new GitHttpConnectionFactory(
+        version != null && "2".equals(version.trim())
+            ? HttpClient.Version.HTTP_2
+            : HttpClient.Version.HTTP_1_1,
+        getInt(CONNECTIONS_PER_HOST_VARIABLE, DEFAULT_CONNECTIONS_PER_HOST),
+        getInt(RETRIES_VARIABLE, DEFAULT_RETRIES));
+  }
+
+  /**
+   * Create the factory configured by the environment and make it the one of every JGit transport
+   * over HTTP in this JVM.
+   *
+   * @return The installed factory
+   */
+  public static GitHttpConnectionFactory installFromEnvironment() {
+    GitHttpConnectionFactory factory = fromEnvironment();
+    HttpTransport.setConnectionFactory(factory);
+    return factory;
+  }
+
+  private static int getInt(String variable, int defaultValue) {
+    String value = System.getenv(variable);
+    return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+  }
+
+  private static SSLContext getDefaultSslContext() {
+    try {
+      return SSLContext.getDefault();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("The JVM has no default TLS implementation", e);
+    }
+  }
+
+  @Override
+  public HttpConnection create(URL url) {
+    return new GitHttpConnection(this, url);
+  }
+
+  @Override
+  public HttpConnection create(URL url, Proxy proxy) throws IOException {
+    if (proxy != null && proxy.type() != Proxy.Type.DIRECT) {
+      return PROXIED_CONNECTIONS.create(url, proxy);
+    }
+    return create(url);
+  }
+
+  /**
+   * Start counting the requests, retries and new connections into the metrics of a request, until
+   * the recording is closed. The counts are those of the JVM, which are the request's own as long
+   * as it is the only one in progress, as in a Lambda container.
+   *
+   * @param metrics The metrics of the request
+   * @return The recording, to close once the request is done with Git
+   */
+  public Recording record(ParsingMetrics metrics) {
+    return new Recording(metrics);
+  }
+
+  /**
+   * Send a request within the limit of its host, and send it again while it is throttled or fails
+   * on the server, as long as the backoff fits in the read timeout. The permit of the host is held
+   * until the headers of the response arrive.
+   */
+  HttpResponse<InputStream> send(HttpRequest request, int readTimeoutMillis) throws IOException {
+    long start = System.nanoTime();
+    for (int attempt = 0; ; attempt++) {
+      HttpResponse<InputStream> response = sendOnce(request, readTimeoutMillis);
+      int statusCode = response.statusCode();
+      if (attempt >= retries || (statusCode != TOO_MANY_REQUESTS && statusCode < SERVER_ERROR)) {
+        return response;
+      }
+      long backoffMillis = getBackoffMillis(attempt, response.headers().firstValue("Retry-After"));
+      long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+      if (readTimeoutMillis > 0 && elapsedMillis + backoffMillis > readTimeoutMillis) {
+        return response;
+      }
+      response.body().close();
+      retriedRequests.incrementAndGet();
+      LOGGER.info(
+          "{} {} returned {}, retrying in {} ms",
+          request.method(),
+          request.uri(),
+          statusCode,
+          backoffMillis);
+      try {
+        Thread.sleep(backoffMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted retrying " + request.uri());
+      }
+    }
+  }
+
+  private HttpResponse<InputStream> sendOnce(HttpRequest request, int readTimeoutMillis)
+      throws IOException {
+    URI uri = request.uri();
+    String host = uri.getHost() + ':' + uri.getPort();
+    Semaphore permits =
+        hostPermits.computeIfAbsent(host, key -> new Semaphore(connectionsPerHost, true));
+    try {
+      if (readTimeoutMillis <= 0) {
+        permits.acquire();
+      } else if (!permits.tryAcquire(readTimeoutMillis, TimeUnit.MILLISECONDS)) {
+        throw new SocketTimeoutException("Timed out waiting for a connection to " + host);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a connection to " + host);
+    }
+    requests.incrementAndGet();
+    try {
+      return httpClient.send(
+          request, responseInfo -> new GitHttpConnection.ResponseBody(readTimeoutMillis));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted sending a request to " + uri);
+    } finally {
+      // Released with the headers, JGit leaves the bodies of errors and redirects unread and open
+      permits.release();
+    }
+  }
+
+  /**
+   * The Retry-After of the response in seconds up to the longest backoff, else a random backoff up
+   * to a growing ceiling.
+   */
+  private static long getBackoffMillis(int attempt, Optional<String> retryAfter) {
+    if (retryAfter.isPresent()) {
+      try {
+        return Math.min(
+            MAX_BACKOFF_MILLIS, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.get().trim())));
+      } catch (NumberFormatException e) {
+        // An HTTP date, which GitHub doesn't send
+      }
+    }
+    long ceilingMillis = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << attempt);
+    return ThreadLocalRandom.current().nextLong(ceilingMillis + 1);
+  }
+
+  /** Counts the requests, retries and new connections since it was created into metrics. */
+  public final class Recording implements AutoCloseable {
+
+    private final ParsingMetrics metrics;
+    private final long startRequests;
+    private final long startRetries;
+    private final long startConnections;
+
+    private Recording(ParsingMetrics metrics) {
+      this.metrics = metrics;
+      this.startRequests = requests.get();
+      this.startRetries = retriedRequests.get();
+      this.startConnections = connections.get();
+    }
+
+    @Override
+    public void close() {
+      metrics.count(ParsingMetrics.GIT_REQUESTS, requests.get() - startRequests);
+      metrics.count(ParsingMetrics.GIT_RETRIES, retriedRequests.get() - startRetries);
+      metrics.count(ParsingMetrics.GIT_CONNECTIONS, connections.get() - startConnections);
+    }
+  }
+
+  /**
+   * The default TLS context, counting the engines it creates. The client creates one for each
+   * connection that it opens to an https URL, the requests that didn't open one reused one.
+   */
+  private static final class CountingSslContext extends SSLContext {
+    private CountingSslContext(SSLContext delegate, AtomicLong engines) {
+      super(new CountingSslContextSpi(delegate, engines), delegate.getProvider(), "Default");
+    }
+  }
+
+  private static final class CountingSslContextSpi extends SSLContextSpi {
+
+    private final SSLContext delegate;
+    private final AtomicLong engines;
+
+    private CountingSslContextSpi(SSLContext delegate, AtomicLong engines) {
+      this.delegate = delegate;
+      this.engines = engines;
+    }
+
+    @Override
+    protected void engineInit(
+        KeyManager[] keyManagers, TrustManager[] trustManagers, SecureRandom random)
+        throws KeyManagementException {
+      throw new KeyManagementException("The default context is initialized");
+    }
+
+    @Override
+    protected SSLSocketFactory engineGetSocketFactory() {
+      return delegate.getSocketFactory();
+    }
+
+    @Override
+    protected SSLServerSocketFactory engineGetServerSocketFactory() {
+      return delegate.getServerSocketFactory();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine() {
+      engines.incrementAndGet();
+      return delegate.createSSLEngine();
+    }
+
+    @Override
+    protected SSLEngine engineCreateSSLEngine(String host, int port) {
+      engines.incrementAndGet();
+      return delegate.createSSLEngine(host, port);
+    }
+
+    @Override
+    protected SSLSessionContext engineGetServerSessionContext() {
+      return delegate.getServerSessionContext();
+    }
+
+    @Override
+    protected SSLSessionContext engineGetClientSessionContext() {
+      return delegate.getClientSessionContext();
+    }
+
+    @Override
+    protected SSLParameters engineGetDefaultSSLParameters() {
+      return delegate.getDefaultSSLParameters();
+    }
+
+    @Override
+    protected SSLParameters engineGetSupportedSSLParameters() {
+      return delegate.getSupportedSSLParameters();
+    }
+  }
+}
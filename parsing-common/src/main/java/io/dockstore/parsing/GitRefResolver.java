@@ -0,0 +1,97 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.util.Map;
+import java.util.Optional;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+
+/** Resolves branches and tags of a remote repository to commit ids without cloning it. */
+public final class GitRefResolver {
+
+  private GitRefResolver() {
+    // hide the default constructor for a utility class
+  }
+
+  /**
+   * Resolve a branch or tag to the commit it currently points to, using ls-remote.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag name
+   * @return The commit id, empty if the remote has no such branch or tag
+   * @throws GitAPIException If the remote could not be contacted
+   */
+  public static Optional<String> resolveCommit(String uri, String branch) throws GitAPIException {
+    return resolveCommit(uri, branch, Deadline.NONE);
+  }
+
+  /**
+   * Resolve a branch or tag to the commit it currently points to, using ls-remote.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag name
+   * @param deadline The deadline of the request, which bounds the wait for the remote
+   * @return The commit id, empty if the remote has no such branch or tag
+   * @throws GitAPIException If the remote could not be contacted
+   */
+  public static Optional<String> resolveCommit(String uri, String branch, Deadline deadline)
+      throws GitAPIException {
+    return resolveRef(uri, branch, deadline).map(GitRefResolver::getCommitId);
+  }
+
+  /**
+   * Find the branch or tag with the given short name, preferring branches like a clone does.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag name
+   * @param deadline The deadline of the request, which bounds the wait for the remote
+   * @return The advertised ref, empty if the remote has no such branch or tag
+   * @throws GitAPIException If the remote could not be contacted
+   */
+  public static Optional<Ref> resolveRef(String uri, String branch, Deadline deadline)
+      throws GitAPIException {
+    Map<String, Ref> refs =
+        Git.lsRemoteRepository()
+            .setRemote(uri)
+            .setHeads(true)
+            .setTags(true)
+            .setTimeout(deadline.getTimeoutSeconds())
+            .callAsMap();
+    Ref ref = refs.get(Constants.R_HEADS + branch);
+    if (ref == null) {
+      ref = refs.get(Constants.R_TAGS + branch);
+    }
+    return Optional.ofNullable(ref);
+  }
+
+  /**
+   * Get the commit an advertised ref points to.
+   *
+   * @param ref A ref advertised by a remote
+   * @return The commit id
+   */
+  public static String getCommitId(Ref ref) {
+    // Annotated tags point at a tag object, the clone checks out the commit it peels to
+    ObjectId commitId =
+        ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+    return commitId.getName();
+  }
+}
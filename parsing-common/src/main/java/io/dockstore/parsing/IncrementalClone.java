@@ -0,0 +1,201 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Clones a branch or tag for a descriptor that was parsed before at another commit, and writes its
+ * files only if the descriptor has to be parsed again. That is the case when a diff of the trees of
+ * the two commits changes a file that the selector selected at the previous commit, including
+ * optional files that were missing and the files of selected directories. A push that only changes
+ * other files, such as a README, leaves the previous response as it was. If a required or
+ * referenced file was missing at the previous commit, the parse read files that the selector can't
+ * predict, and the descriptor is always parsed again.
+ *
+ * <p>Without a previous commit, only the commit that the ref points to is fetched, like a sparse
+ * clone fetches it. Otherwise the last {@value #HISTORY_DEPTH} commits of the ref are fetched, so
+ * the previous commit is only found if it is one of them. After a force push or a longer series of
+ * pushes, for example, the descriptor is parsed again. A repository in memory can't be shallow and
+ * gets the whole history of the ref.
+ */
+public final class IncrementalClone {
+
+  /** How many commits are fetched to find the previous commit among them. */
+  public static final int HISTORY_DEPTH = 50;
+
+  private final String commitId;
+  private final boolean changed;
+
+  private IncrementalClone(String commitId, boolean changed) {
+    this.commitId = commitId;
+    this.changed = changed;
+  }
+
+  /**
+   * Clone a branch or tag into a directory, unless the files of the descriptor are the same as at
+   * the previous commit.
+   *
+   * @param uri The URI of the remote repository
+   * @param branch The branch or tag to clone
+   * @param previousCommitId The commit the descriptor was parsed at, null if it wasn't
+   * @param directory An empty directory that becomes the root of the working tree
+   * @param fileSelector The files the parser needs
+   * @param deadline The deadline of the request
+   * @return The commit that the branch or tag points to, and whether its files were written
+   * @throws IOException If the working tree could not be written
+   * @throws GitAPIException If the repository could not be fetched
+   */
+  public static IncrementalClone cloneRepository(
+      String uri,
+      String branch,
+      String previousCommitId,
+      Path directory,
+      FileSelector fileSelector,
+      Deadline deadline)
+      throws IOException, GitAPIException {
+    Ref ref =
+        GitRefResolver.resolveRef(uri, branch, deadline)
+            .orElseThrow(
+                () -> new RefNotFoundException("Remote branch or tag " + branch + " not found"));
+    // Nothing was pushed, not even the history needs to be fetched
+    if (GitRefResolver.getCommitId(ref).equals(previousCommitId)) {
+      return new IncrementalClone(previousCommitId, false);
+    }
+    // Like a sparse clone, a working tree in memory gets a repository in memory
+    boolean onDisk = FileSystems.getDefault().equals(directory.getFileSystem());
+    try (Git git =
+        onDisk
+            ? Git.init().setDirectory(directory.toFile()).call()
+            : Git.wrap(
+                new InMemoryRepository.Builder()
+                    .setRepositoryDescription(new DfsRepositoryDescription(uri))
+                    .setFS(FS.DETECTED)
+                    .build())) {
+      FetchCommand fetch =
+          git.fetch()
+              .setRemote(uri)
+              .setRefSpecs(new RefSpec("+" + ref.getName() + ":" + ref.getName()))
+              .setTagOpt(TagOpt.NO_TAGS)
+              .setTimeout(deadline.getTimeoutSeconds())
+              .setProgressMonitor(deadline.newProgressMonitor());
+      if (onDisk) {
+        fetch.setDepth(previousCommitId == null ? 1 : HISTORY_DEPTH);
+      }
+      fetch.call();
+      Repository repository = git.getRepository();
+      ObjectId commitId = repository.resolve(ref.getName() + "^{commit}");
+      if (previousCommitId != null
+          && isUnchanged(repository, previousCommitId, commitId, fileSelector)) {
+        return new IncrementalClone(commitId.getName(), false);
+      }
+      if (!SparseCloneStrategy.materialize(repository, commitId, directory, fileSelector)
+          .isEmpty()) {
+        // Like the fallback of a sparse clone, the parser may need files the selector can't predict
+        SparseCloneStrategy.materializeAll(repository, commitId, directory);
+      }
+      return new IncrementalClone(commitId.getName(), true);
+    }
+  }
+
+  /**
+   * Whether none of the files selected at the previous commit differ at the new one. A selection
+   * with missing files is never unchanged, the parse of the full clone that it fell back to may
+   * have read any file.
+   */
+  public static boolean isUnchanged(
+      Repository repository, String previousCommitId, ObjectId commitId, FileSelector fileSelector)
+      throws IOException {
+    if (!ObjectId.isId(previousCommitId)) {
+      return false;
+    }
+    ObjectId previousId = ObjectId.fromString(previousCommitId);
+    if (!repository.getObjectDatabase().has(previousId)
+        || repository.open(previousId).getType() != Constants.OBJ_COMMIT) {
+      return false;
+    }
+    List<String> missingPaths = new ArrayList<>();
+    Set<String> selectedPaths =
+        SparseCloneStrategy.select(repository, previousId, fileSelector, missingPaths);
+    if (!missingPaths.isEmpty()) {
+      return false;
+    }
+    for (String changedPath : getChangedPaths(repository, previousId, commitId)) {
+      if (selectedPaths.contains(changedPath)
+          || selectedPaths.contains(getDirectoryPath(changedPath))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Get the files that differ between two commits, added, modified or deleted, like git diff-tree.
+   *
+   * @return Paths relative to the root of the repository
+   */
+  public static List<String> getChangedPaths(
+      Repository repository, ObjectId previousCommitId, ObjectId commitId) throws IOException {
+    List<String> changedPaths = new ArrayList<>();
+    try (RevWalk revWalk = new RevWalk(repository);
+        TreeWalk treeWalk = new TreeWalk(repository)) {
+      treeWalk.addTree(revWalk.parseCommit(previousCommitId).getTree());
+      treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(TreeFilter.ANY_DIFF);
+      while (treeWalk.next()) {
+        changedPaths.add(treeWalk.getPathString());
+      }
+    }
+    return changedPaths;
+  }
+
+  /** Get the directory of a file as a selector names it, ending with '/'. */
+  private static String getDirectoryPath(String path) {
+    int slash = path.lastIndexOf('/');
+    return slash < 0 ? "/" : path.substring(0, slash + 1);
+  }
+
+  public String getCommitId() {
+    return commitId;
+  }
+
+  public boolean isChanged() {
+    return changed;
+  }
+}
@@ -0,0 +1,440 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a bare mirror of every repository it clones, keyed by the URI of the remote, so that the
+ * next request for a branch or tag of the same repository only fetches the objects that are new. A
+ * ref that the mirror already has at the advertised commit is not fetched at all. The files are
+ * then written from the mirror like a sparse clone writes them, or all of them if a referenced file
+ * is missing, which needs no further download.
+ *
+ * <p>The mirrors share a disk budget: after each clone, the least recently used mirrors are deleted
+ * until they fit. A mirror is locked while it is fetched into or read from, with a lock within the
+ * JVM and a file lock for the containers that share the directory, such as a mounted EFS. A clone
+ * waits for the lock no longer than its deadline allows. Eviction skips mirrors that are locked.
+ *
+ * <p>JGit's automatic gc is turned off in the mirrors, it would run in the background after the
+ * lock is released and race eviction and the next fetch. A mirror is compacted instead while it is
+ * locked, once a fetch leaves it with more than {@value #MAX_PACKS} packs.
+ */
+public class MirrorCloneStrategy implements CloneStrategy {
+
+  /** Environment variable with the directory of the mirrors. */
+  public static final String DIRECTORY_VARIABLE = "MIRROR_DIRECTORY";
+  /** Environment variable with the disk budget of all mirrors, in bytes. */
+  public static final String MAX_BYTES_VARIABLE = "MIRROR_MAX_BYTES";
+
+  public static final long DEFAULT_MAX_BYTES = 96 * 1024 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(MirrorCloneStrategy.class);
+  private static final String MIRROR_SUFFIX = ".git";
+  private static final String LOCK_SUFFIX = ".lock";
+  private static final long LOCK_POLL_MILLIS = 50;
+  // Each fetch adds a pack, which every later read of the mirror has to search
+  public static final int MAX_PACKS = 8;
+  private static final String PACK_COUNT = "numberOfPackFiles";
+  private final Path root;
+  private final long maxBytes;
+  private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+
+  /**
+   * Create a strategy.
+   *
+   * @param root The directory that mirrors are kept in, created if it doesn't exist
+   * @param maxBytes The disk budget of all mirrors
+   */
+  public MirrorCloneStrategy(Path root, long maxBytes) {
+    this.root = root;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Create the strategy configured by the environment, with mirrors in the temporary directory by
+   * default.
+   *
+   * @return The configured strategy
+   */
+  public static MirrorCloneStrategy fromEnvironment() {
+    String directory = System.getenv(DIRECTORY_VARIABLE);
+    String maxBytes = System.getenv(MAX_BYTES_VARIABLE);
+    return new MirrorCloneStrategy(
+        directory == null || directory.isBlank()
+            ? Path.of(System.getProperty("java.io.tmpdir"), "mirrors")
+            : Path.of(directory.trim()),
+        maxBytes == null || maxBytes.isBlank()
+            ? DEFAULT_MAX_BYTES
+            : Long.parseLong(maxBytes.trim()));
+  }
+
+  @Override
+  public String cloneRepository(
+      String uri, Ref ref, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    Files.createDirectories(root);
+    String name = getMirrorName(uri);
+    String commitId;
+    try (MirrorLock lock = lock(name, deadline)) {
+      Path mirror = root.resolve(name + MIRROR_SUFFIX);
+      try (Git git = openOrCreate(mirror)) {
+        Repository repository = git.getRepository();
+        boolean fetched = !ref.getObjectId().equals(repository.resolve(ref.getName()));
+        if (fetched) {
+          // Only the one ref, the objects the mirror already has are not downloaded again
+          git.fetch()
+              .setRemote(uri)
+              .setRefSpecs(new RefSpec("+" + ref.getName() + ":" + ref.getName()))
+              .setTagOpt(TagOpt.NO_TAGS)
+              .setTimeout(deadline.getTimeoutSeconds())
+              .setProgressMonitor(deadline.newProgressMonitor())
+              .call();
+        }
+        ObjectId mirroredCommitId = repository.resolve(ref.getName() + "^{commit}");
+        List<String> missingPaths =
+            SparseCloneStrategy.materialize(repository, mirroredCommitId, directory, fileSelector);
+        if (!missingPaths.isEmpty()) {
+          LOGGER.info("Writing every file of {}, missing {}", uri, missingPaths);
+          SparseCloneStrategy.deleteContents(directory);
+          SparseCloneStrategy.materializeAll(repository, mirroredCommitId, directory);
+        }
+        commitId = mirroredCommitId.getName();
+        if (fetched) {
+          compact(git, name);
+        }
+      }
+    }
+    evict(name);
+    return commitId;
+  }
+
+  /**
+   * Delete the mirror of a repository, waiting for the requests that use it.
+   *
+   * @param uri The URI of the remote repository
+   */
+  @Override
+  public void forget(String uri) {
+    String name = getMirrorName(uri);
+    Path mirror = root.resolve(name + MIRROR_SUFFIX);
+    if (!Files.isDirectory(mirror)) {
+      return;
+    }
+    // The lock file stays, another container may be waiting on it or have it open already
+    try (MirrorLock lock = lock(name)) {
+      delete(mirror);
+    } catch (IOException e) {
+      LOGGER.error("Could not delete mirror " + name, e);
+    }
+  }
+
+  private static Git openOrCreate(Path mirror) throws IOException, GitAPIException {
+    Git git =
+        Files.isDirectory(mirror)
+            ? Git.open(mirror.toFile())
+            : Git.init().setBare(true).setDirectory(mirror.toFile()).call();
+    StoredConfig config = git.getRepository().getConfig();
+    String section = ConfigConstants.CONFIG_GC_SECTION;
+    // Mirrors created before automatic gc was turned off have it on
+    if (config.getInt(section, ConfigConstants.CONFIG_KEY_AUTO, -1) != 0) {
+      config.setInt(section, null, ConfigConstants.CONFIG_KEY_AUTO, 0);
+      // Readers hold the lock that the gc runs under, the packs it replaces can go right away
+      config.setString(section, null, ConfigConstants.CONFIG_KEY_PRUNEPACKEXPIRE, "now");
+      try {
+        config.save();
+      } catch (IOException e) {
+        git.close();
+        throw e;
+      }
+    }
+    return git;
+  }
+
+  /** Repack a locked mirror that has too many packs. */
+  private static void compact(Git git, String name) {
+    try {
+      Object packs = git.gc().getStatistics().get(PACK_COUNT);
+      if (packs instanceof Number && ((Number) packs).intValue() > MAX_PACKS) {
+        git.gc().call();
+        LOGGER.info("Compacted mirror {} of {} packs", name, packs);
+      }
+    } catch (GitAPIException | JGitInternalException e) {
+      // The files are written already, the mirror is compacted after a later fetch
+      LOGGER.error("Could not compact mirror " + name, e);
+    }
+  }
+
+  /**
+   * Get the name of the mirror of a remote.
+   *
+   * @param uri The URI of the remote repository
+   * @return A hex encoded SHA-256 digest of the URI, which is safe to use as a file name
+   */
+  public static String getMirrorName(String uri) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(uri.getBytes(StandardCharsets.UTF_8))) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Lock a mirror, waiting for other requests and other containers that have it locked until a
+   * deadline. A file lock can't be waited for with a timeout, it is polled for instead.
+   *
+   * @throws DeadlineExceededException If the deadline expired before the mirror was unlocked
+   * @throws InterruptedIOException If the thread was interrupted while waiting
+   */
+  private MirrorLock lock(String name, Deadline deadline) throws IOException {
+    if (deadline == Deadline.NONE) {
+      return lock(name);
+    }
+    deadline.check(ParsingMetrics.CLONE);
+    ReentrantLock threadLock = locks.computeIfAbsent(name, key -> new ReentrantLock());
+    try {
+      if (!threadLock.tryLock(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS)) {
+        throw new DeadlineExceededException(ParsingMetrics.CLONE);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for mirror " + name);
+    }
+    FileChannel channel = null;
+    try {
+      Path lockFile = root.resolve(name + LOCK_SUFFIX);
+      channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock fileLock = channel.tryLock();
+      while (fileLock == null) {
+        long remainingMillis = deadline.getRemainingMillis();
+        if (remainingMillis <= 0) {
+          throw new DeadlineExceededException(ParsingMetrics.CLONE);
+        }
+        Thread.sleep(Math.min(LOCK_POLL_MILLIS, remainingMillis));
+        fileLock = channel.tryLock();
+      }
+      // The lock file records when the mirror was last used, for eviction
+      Files.setLastModifiedTime(lockFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return new MirrorLock(threadLock, channel, fileLock);
+    } catch (InterruptedException e) {
+      channel.close();
+      threadLock.unlock();
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for mirror " + name);
+    } catch (IOException | RuntimeException e) {
+      if (channel != null) {
+        channel.close();
+      }
+      threadLock.unlock();
+      throw e;
+    }
+  }
+
+  /** Lock a mirror, waiting for as long as other requests and other containers have it locked. */
+  private MirrorLock lock(String name) throws IOException {
+    ReentrantLock threadLock = locks.computeIfAbsent(name, key -> new ReentrantLock());
+    threadLock.lock();
+    FileChannel channel = null;
+    try {
+      Path lockFile = root.resolve(name + LOCK_SUFFIX);
+      channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+      FileLock fileLock = channel.lock();
+      // The lock file records when the mirror was last used, for eviction
+      Files.setLastModifiedTime(lockFile, FileTime.fromMillis(System.currentTimeMillis()));
+      return new MirrorLock(threadLock, channel, fileLock);
+    } catch (IOException | RuntimeException e) {
+      if (channel != null) {
+        channel.close();
+      }
+      threadLock.unlock();
+      throw e;
+    }
+  }
+
+  /** Lock a mirror unless a request or another container has it locked, for eviction. */
+  private MirrorLock tryLock(String name) throws IOException {
+    ReentrantLock threadLock = locks.computeIfAbsent(name, key -> new ReentrantLock());
+    if (!threadLock.tryLock()) {
+      return null;
+    }
+    FileChannel channel = null;
+    try {
+      channel =
+          FileChannel.open(
+              root.resolve(name + LOCK_SUFFIX),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE);
+      FileLock fileLock = channel.tryLock();
+      if (fileLock != null) {
+        return new MirrorLock(threadLock, channel, fileLock);
+      }
+      channel.close();
+    } catch (IOException | RuntimeException e) {
+      if (channel != null) {
+        channel.close();
+      }
+      threadLock.unlock();
+      throw e;
+    }
+    threadLock.unlock();
+    return null;
+  }
+
+  /**
+   * Delete the least recently used mirrors until all of them fit the budget. The mirror just used
+   * is deleted last, only if it alone exceeds the budget.
+   */
+  private void evict(String usedName) {
+    try {
+      List<String> names = new ArrayList<>();
+      long usedBytes = 0;
+      try (DirectoryStream<Path> mirrors = Files.newDirectoryStream(root, "*" + MIRROR_SUFFIX)) {
+        for (Path mirror : mirrors) {
+          String fileName = String.valueOf(mirror.getFileName());
+          names.add(fileName.substring(0, fileName.length() - MIRROR_SUFFIX.length()));
+          usedBytes += size(mirror);
+        }
+      }
+      if (usedBytes <= maxBytes) {
+        return;
+      }
+      names.sort(
+          Comparator.comparing((String name) -> name.equals(usedName))
+              .thenComparing(name -> lastUsed(root.resolve(name + LOCK_SUFFIX))));
+      for (String name : names) {
+        if (usedBytes <= maxBytes) {
+          break;
+        }
+        try (MirrorLock lock = tryLock(name)) {
+          if (lock == null) {
+            continue;
+          }
+          Path mirror = root.resolve(name + MIRROR_SUFFIX);
+          long size = size(mirror);
+          delete(mirror);
+          usedBytes -= size;
+          LOGGER.info("Evicted mirror {} of {} bytes", name, size);
+        }
+      }
+    } catch (IOException e) {
+      // The clone succeeded, a mirror that is not evicted now is evicted after a later clone
+      LOGGER.error("Could not evict mirrors from " + root, e);
+    }
+  }
+
+  private static FileTime lastUsed(Path lockFile) {
+    try {
+      return Files.getLastModifiedTime(lockFile);
+    } catch (IOException e) {
+      // Never locked, evicting it first costs nothing
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private static long size(Path directory) throws IOException {
+    AtomicLong size = new AtomicLong();
+    Files.walkFileTree(
+        directory,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            size.addAndGet(attrs.size());
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            // Files of a mirror that another container is fetching into may come and go
+            if (exc instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw exc;
+          }
+        });
+    return size.get();
+  }
+
+  private static void delete(Path directory) throws IOException {
+    if (Files.isDirectory(directory)) {
+      SparseCloneStrategy.deleteContents(directory);
+      Files.delete(directory);
+    }
+  }
+
+  /** The lock of a mirror, held both within the JVM and on the lock file. */
+  private static final class MirrorLock implements AutoCloseable {
+    private final ReentrantLock threadLock;
+    private final FileChannel channel;
+    private final FileLock fileLock;
+
+    MirrorLock(ReentrantLock threadLock, FileChannel channel, FileLock fileLock) {
+      this.threadLock = threadLock;
+      this.channel = channel;
+      this.fileLock = fileLock;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        fileLock.release();
+        channel.close();
+      } finally {
+        threadLock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times the phases of one request and counts what it touched, then reports them as a CloudWatch
+ * Embedded Metric Format (EMF) log line and a Server-Timing header. CloudWatch extracts the metrics
+ * from the log line without any API calls, which is what the memory size and timeout of the
+ * function are sized on.
+ *
+ * <p>Not thread-safe, phases are timed on the thread that handles the request.
+ */
+public class ParsingMetrics {
+
+  /** Environment variable with the CloudWatch namespace of the metrics. */
+  public static final String NAMESPACE_VARIABLE = "METRICS_NAMESPACE";
+
+  public static final String DEFAULT_NAMESPACE = "Dockstore/LanguageParsing";
+
+  public static final String DECODE = "Decode";
+  public static final String RESOLVE = "Resolve";
+  public static final String CLONE = "Clone";
+  public static final String PARSE = "Parse";
+  public static final String CLEANUP = "Cleanup";
+  public static final String ENCODE = "Encode";
+  // The time a request waited for an identical request in progress, instead of cloning and parsing
+  public static final String COALESCE = "Coalesce";
+
+  public static final String DESCRIPTORS = "Descriptors";
+  public static final String CACHE_HITS = "CacheHits";
+  public static final String COALESCED = "Coalesced";
+  // Descriptors of incremental requests whose previous response still applied, without a parse
+  public static final String UNCHANGED = "Unchanged";
+  public static final String CLONED_FILES = "ClonedFiles";
+  // HTTP requests to Git hosts, the throttled or failed ones sent again, and the TLS connections
+  // opened for them, the other requests reused a connection
+  public static final String GIT_REQUESTS = "GitRequests";
+  public static final String GIT_RETRIES = "GitRetries";
+  public static final String GIT_CONNECTIONS = "GitConnections";
+  public static final String CLONED_BYTES = "ClonedBytes";
+  public static final String HEAP_USED_BYTES = "HeapUsedBytes";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParsingMetrics.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String NAMESPACE = getNamespace();
+  private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private final String language;
+  private final Map<String, Long> phaseNanos = new LinkedHashMap<>();
+  private final Map<String, Long> counts = new LinkedHashMap<>();
+
+  /**
+   * Create metrics for one request.
+   *
+   * @param language The language parsed, the dimension of every metric
+   */
+  public ParsingMetrics(String language) {
+    this.language = language;
+  }
+
+  private static String getNamespace() {
+    String namespace = System.getenv(NAMESPACE_VARIABLE);
+    return namespace == null || namespace.isBlank() ? DEFAULT_NAMESPACE : namespace;
+  }
+
+  /**
+   * Start timing a phase, until the returned timer is closed. A phase timed more than once adds up.
+   *
+   * @param phase The phase
+   * @return The timer to close at the end of the phase
+   */
+  public Timer time(String phase) {
+    return new Timer(phase, System.nanoTime());
+  }
+
+  /**
+   * Add to a count.
+   *
+   * @param name The count
+   * @param value The amount to add
+   */
+  public void count(String name, long value) {
+    counts.merge(name, value, Long::sum);
+  }
+
+  /**
+   * Count the files of a cloned working tree and their size. A failure is logged rather than
+   * thrown, metrics never fail a request.
+   *
+   * @param directory The working tree
+   */
+  public void countClonedFiles(Path directory) {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      long files = 0;
+      long bytes = 0;
+      for (Path path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+        try {
+          bytes += Files.size(path);
+          files++;
+        } catch (NoSuchFileException e) {
+          // A lock file that JGit removed after the walk listed it
+        }
+      }
+      count(CLONED_FILES, files);
+      count(CLONED_BYTES, bytes);
+    } catch (IOException | UncheckedIOException e) {
+      LOGGER.warn("Could not count the cloned files", e);
+    }
+  }
+
+  Map<String, Long> getPhaseNanos() {
+    return phaseNanos;
+  }
+
+  Map<String, Long> getCounts() {
+    return counts;
+  }
+
+  /**
+   * Describe the phases as a Server-Timing header, which browsers and API clients can display.
+   *
+   * @return The header value, like "clone;dur=812.4, parse;dur=95.0"
+   */
+  public String toServerTiming() {
+    return phaseNanos.entrySet().stream()
+        .map(
+            phase ->
+                String.format(
+                    Locale.ROOT,
+                    "%s;dur=%.1f",
+                    phase.getKey().toLowerCase(Locale.ROOT),
+                    phase.getValue() / NANOS_PER_MILLI))
+        .collect(Collectors.joining(", "));
+  }
+
+  /**
+   * Describe the phases, counts and heap in use as an Embedded Metric Format document.
+   *
+   * @param statusCode The status code of the response, recorded as a property
+   * @return The document, on one line
+   */
+  public String toEmbeddedMetricFormat(int statusCode) {
+    ObjectNode document = MAPPER.createObjectNode();
+    ObjectNode metadata = document.putObject("_aws");
+    metadata.put("Timestamp", System.currentTimeMillis());
+    ObjectNode directive = metadata.putArray("CloudWatchMetrics").addObject();
+    directive.put("Namespace", NAMESPACE);
+    directive.putArray("Dimensions").addArray().add("Language");
+    ArrayNode metrics = directive.putArray("Metrics");
+    document.put("Language", language);
+    document.put("StatusCode", statusCode);
+    for (Map.Entry<String, Long> phase : phaseNanos.entrySet()) {
+      String name = phase.getKey() + "Time";
+      metrics.addObject().put("Name", name).put("Unit", "Milliseconds");
+      document.put(name, phase.getValue() / NANOS_PER_MILLI);
+    }
+    for (Map.Entry<String, Long> count : counts.entrySet()) {
+      String unit = count.getKey().endsWith("Bytes") ? "Bytes" : "Count";
+      metrics.addObject().put("Name", count.getKey()).put("Unit", unit);
+      document.put(count.getKey(), count.getValue());
+    }
+    Runtime runtime = Runtime.getRuntime();
+    metrics.addObject().put("Name", HEAP_USED_BYTES).put("Unit", "Bytes");
+    document.put(HEAP_USED_BYTES, runtime.totalMemory() - runtime.freeMemory());
+    return document.toString();
+  }
+
+  /**
+   * Write the Embedded Metric Format document to standard output. Lambda sends standard output to
+   * CloudWatch Logs line by line, and a line must be the bare document to be recognised.
+   *
+   * @param statusCode The status code of the response
+   */
+  public void log(int statusCode) {
+    System.out.println(toEmbeddedMetricFormat(statusCode));
+  }
+
+  /** Times a phase from its creation until it is closed. */
+  public final class Timer implements AutoCloseable {
+    private final String phase;
+    private final long start;
+
+    private Timer(String phase, long start) {
+      this.phase = phase;
+      this.start = start;
+    }
+
+    @Override
+    public void close() {
+      phaseNanos.merge(phase, System.nanoTime() - start, Long::sum);
+    }
+  }
+}
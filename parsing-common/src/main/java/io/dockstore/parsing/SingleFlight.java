@@ -0,0 +1,140 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+
+/**
+ * Coalesces identical calls that are in progress at the same time. The first caller of a key runs
+ * the call, callers of the same key that arrive before it is done wait for its result or exception
+ * instead of cloning and parsing again, which is what duplicate webhook deliveries would do. A call
+ * that is done is forgotten, later callers run it again.
+ *
+ * <p>Callers that waited get a copy of the result, made by the {@link Copier}, so that a caller
+ * can't change the result of another. A call that exceeded the deadline of its caller is run again
+ * by the callers that waited for it and still have time left.
+ *
+ * @param <K> The type of the keys, which must implement equals and hashCode
+ * @param <V> The type of the results
+ */
+public class SingleFlight<K, V> {
+
+  private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+  private final Copier<V> copier;
+
+  /** Create a SingleFlight whose callers share the result, which must not be modified. */
+  public SingleFlight() {
+    this(value -> value);
+  }
+
+  /**
+   * Create a SingleFlight whose callers that waited get a copy of the result.
+   *
+   * @param copier Copies the result for a caller that waited
+   */
+  public SingleFlight(Copier<V> copier) {
+    this.copier = copier;
+  }
+
+  /**
+   * Run a call, or wait for the identical call in progress.
+   *
+   * @param key The key of the call
+   * @param call The call
+   * @param metrics The metrics of the request, which count the calls that were coalesced
+   * @param deadline The deadline of the request, until which it waits for another call
+   * @return The result of the call, or a copy of it for a caller that waited
+   * @throws IOException If the call failed, or the deadline expired while waiting for it
+   * @throws GitAPIException If the call failed
+   */
+  public V run(K key, Call<V> call, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    while (true) {
+      CompletableFuture<V> flight = new CompletableFuture<>();
+      CompletableFuture<V> leader = calls.putIfAbsent(key, flight);
+      if (leader == null) {
+        try {
+          V value = call.call();
+          flight.complete(value);
+          return value;
+        } catch (Throwable e) {
+          flight.completeExceptionally(e);
+          throw e;
+        } finally {
+          calls.remove(key, flight);
+        }
+      }
+      metrics.count(ParsingMetrics.COALESCED, 1);
+      final V value;
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.COALESCE)) {
+        value = leader.get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+      } catch (TimeoutException e) {
+        throw new DeadlineExceededException(ParsingMetrics.COALESCE);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted waiting for an identical request");
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof DeadlineExceededException)) {
+          throw rethrow(e.getCause());
+        }
+        // The call ran out of its caller's time, not necessarily this caller's
+        deadline.check(ParsingMetrics.COALESCE);
+        continue;
+      }
+      return copier.copy(value);
+    }
+  }
+
+  /** Throw the exception of the call a caller waited for, as the caller's own. */
+  private static RuntimeException rethrow(Throwable cause) throws IOException, GitAPIException {
+    if (cause instanceof IOException) {
+      throw (IOException) cause;
+    }
+    if (cause instanceof GitAPIException) {
+      throw (GitAPIException) cause;
+    }
+    if (cause instanceof RuntimeException) {
+      throw (RuntimeException) cause;
+    }
+    if (cause instanceof Error) {
+      throw (Error) cause;
+    }
+    return new IllegalStateException(cause);
+  }
+
+  int getCallsInProgress() {
+    return calls.size();
+  }
+
+  /** A call that can be coalesced. */
+  public interface Call<V> {
+    V call() throws IOException, GitAPIException;
+  }
+
+  /** Copies a result for a caller that waited for it. */
+  public interface Copier<V> {
+    V copy(V value) throws IOException;
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.eclipse.jgit.api.FetchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FS;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches only the requested branch or tag and writes only the files that the parser asks for,
+ * following references (such as WDL imports or includeConfig statements) from file to file. Falls
+ * back to another strategy when a referenced file is not in the repository, since the parser may
+ * then need files that the selector cannot predict.
+ *
+ * <p>A working tree in another file system than the default, such as an in-memory workspace, gets a
+ * repository in memory as well. Files are then only inflated from the fetched objects when they are
+ * selected, and when a referenced file is missing every file is written from those objects instead
+ * of falling back, since no other strategy could write there.
+ *
+ * <p>Only the commit that the ref points to is fetched, with a depth of 1. JGit records shallow
+ * commits only in repositories on disk, so a repository in memory still gets the history of the one
+ * ref. Skipping the history, the other refs and the checkout of unrelated files is what saves time
+ * and /tmp space.
+ */
+public class SparseCloneStrategy implements CloneStrategy {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(SparseCloneStrategy.class);
+  private final CloneStrategy fallbackStrategy;
+
+  public SparseCloneStrategy(CloneStrategy fallbackStrategy) {
+    this.fallbackStrategy = fallbackStrategy;
+  }
+
+  @Override
+  public String cloneRepository(
+      String uri, Ref ref, Path directory, FileSelector fileSelector, Deadline deadline)
+      throws IOException, GitAPIException {
+    boolean inMemory = !FileSystems.getDefault().equals(directory.getFileSystem());
+    try (Git git =
+        inMemory
+            ? Git.wrap(
+                new InMemoryRepository.Builder()
+                    .setRepositoryDescription(new DfsRepositoryDescription(uri))
+                    // Needed to fetch from file URIs
+                    .setFS(FS.DETECTED)
+                    .build())
+            : Git.init().setDirectory(directory.toFile()).call()) {
+      // The repository is thrown away, a gc in the background would only race its deletion
+      StoredConfig config = git.getRepository().getConfig();
+      config.setInt(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_AUTO, 0);
+      config.save();
+      FetchCommand fetch =
+          git.fetch()
+              .setRemote(uri)
+              .setRefSpecs(new RefSpec("+" + ref.getName() + ":" + ref.getName()))
+              .setTagOpt(TagOpt.NO_TAGS)
+              .setTimeout(deadline.getTimeoutSeconds())
+              .setProgressMonitor(deadline.newProgressMonitor());
+      if (!inMemory) {
+        fetch.setDepth(1);
+      }
+      fetch.call();
+      Repository repository = git.getRepository();
+      // The ref may have moved since it was resolved, use what was actually fetched
+      ObjectId commitId = repository.resolve(ref.getName() + "^{commit}");
+      List<String> missingPaths = materialize(repository, commitId, directory, fileSelector);
+      if (missingPaths.isEmpty()) {
+        return commitId.getName();
+      }
+      if (inMemory) {
+        LOGGER.info("Writing every file of {}, missing {}", uri, missingPaths);
+        deleteContents(directory);
+        materializeAll(repository, commitId, directory);
+        return commitId.getName();
+      }
+      LOGGER.info("Falling back from a sparse clone of {}, missing {}", uri, missingPaths);
+    }
+    // A full clone takes longer than the sparse one did
+    deadline.check(ParsingMetrics.CLONE);
+    deleteContents(directory);
+    return fallbackStrategy.cloneRepository(uri, ref, directory, fileSelector, deadline);
+  }
+
+  @Override
+  public void forget(String uri) {
+    fallbackStrategy.forget(uri);
+  }
+
+  /**
+   * Write the selected files of a commit to a directory.
+   *
+   * @return The selected files that the commit doesn't have
+   */
+  static List<String> materialize(
+      Repository repository, ObjectId commitId, Path directory, FileSelector fileSelector)
+      throws IOException {
+    List<String> missingPaths = new ArrayList<>();
+    try (RevWalk revWalk = new RevWalk(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree tree = revWalk.parseCommit(commitId).getTree();
+      Deque<String> pendingPaths = new ArrayDeque<>(fileSelector.getRequiredPaths());
+      for (String optionalPath : fileSelector.getOptionalPaths()) {
+        if (optionalPath.endsWith("/")) {
+          pendingPaths.addAll(listFiles(reader, tree, optionalPath));
+        } else if (findFile(reader, tree, optionalPath) != null) {
+          pendingPaths.add(optionalPath);
+        }
+      }
+      Set<String> visitedPaths = new HashSet<>();
+      while (!pendingPaths.isEmpty()) {
+        String path = pendingPaths.pop();
+        if (!visitedPaths.add(path)) {
+          continue;
+        }
+        ObjectId blobId = findFile(reader, tree, path);
+        if (blobId == null) {
+          missingPaths.add(path);
+          continue;
+        }
+        ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+        Path file = directory.resolve(path);
+        Path parent = file.getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+          loader.copyTo(outputStream);
+        }
+        // Large files are data or binaries, not descriptors worth scanning for references
+        if (!loader.isLarge()) {
+          String contents = new String(loader.getCachedBytes(), StandardCharsets.UTF_8);
+          pendingPaths.addAll(
+              FileSelector.locate(
+                  fileSelector.getReferencedPaths(path, contents),
+                  referencedPath -> findFile(reader, tree, referencedPath) != null,
+                  new ArrayList<>()));
+        }
+      }
+    }
+    return missingPaths;
+  }
+
+  /** Write every file of a commit to a directory. */
+  static void materializeAll(Repository repository, ObjectId commitId, Path directory)
+      throws IOException {
+    try (RevWalk revWalk = new RevWalk(repository);
+        ObjectReader reader = repository.newObjectReader();
+        TreeWalk treeWalk = new TreeWalk(reader)) {
+      treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
+      treeWalk.setRecursive(true);
+      while (treeWalk.next()) {
+        if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+          continue;
+        }
+        Path file = directory.resolve(treeWalk.getPathString());
+        Path parent = file.getParent();
+        if (parent != null) {
+          Files.createDirectories(parent);
+        }
+        try (OutputStream outputStream = Files.newOutputStream(file)) {
+          reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).copyTo(outputStream);
+        }
+      }
+    }
+  }
+
+  /**
+   * Get the paths that a selector selects in a commit, without writing any file: the files that the
+   * parser reads, referenced and optional files that the commit doesn't have, including the paths a
+   * reference was looked for at before it was found, and the directories whose files it reads, as
+   * paths ending with '/'.
+   *
+   * @param missingPaths Collects the required and referenced files that the commit doesn't have
+   * @return The selected paths
+   */
+  static Set<String> select(
+      Repository repository,
+      ObjectId commitId,
+      FileSelector fileSelector,
+      List<String> missingPaths)
+      throws IOException {
+    Set<String> selectedPaths = new HashSet<>();
+    Set<String> optionalFiles = new HashSet<>();
+    Set<String> absentPaths = new HashSet<>();
+    try (RevWalk revWalk = new RevWalk(repository);
+        ObjectReader reader = repository.newObjectReader()) {
+      RevTree tree = revWalk.parseCommit(commitId).getTree();
+      Deque<String> pendingPaths = new ArrayDeque<>(fileSelector.getRequiredPaths());
+      for (String optionalPath : fileSelector.getOptionalPaths()) {
+        if (optionalPath.endsWith("/")) {
+          selectedPaths.add(optionalPath);
+          pendingPaths.addAll(listFiles(reader, tree, optionalPath));
+        } else {
+          pendingPaths.add(optionalPath);
+          optionalFiles.add(optionalPath);
+        }
+      }
+      optionalFiles.removeAll(fileSelector.getRequiredPaths());
+      while (!pendingPaths.isEmpty()) {
+        String path = pendingPaths.pop();
+        if (!selectedPaths.add(path)) {
+          continue;
+        }
+        ObjectId blobId = findFile(reader, tree, path);
+        if (blobId == null) {
+          if (!optionalFiles.contains(path)) {
+            missingPaths.add(path);
+          }
+          continue;
+        }
+        ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+        if (!loader.isLarge()) {
+          String contents = new String(loader.getCachedBytes(), StandardCharsets.UTF_8);
+          pendingPaths.addAll(
+              FileSelector.locate(
+                  fileSelector.getReferencedPaths(path, contents),
+                  referencedPath -> findFile(reader, tree, referencedPath) != null,
+                  absentPaths));
+        }
+      }
+    }
+    // A file added where a reference was looked for first changes which file the parser reads
+    selectedPaths.addAll(absentPaths);
+    return selectedPaths;
+  }
+
+  /** Find a regular file in a tree, null if there is none at that path. */
+  private static ObjectId findFile(ObjectReader reader, RevTree tree, String path)
+      throws IOException {
+    try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, tree)) {
+      if (treeWalk == null || (treeWalk.getRawMode(0) & FileMode.TYPE_MASK) != FileMode.TYPE_FILE) {
+        return null;
+      }
+      return treeWalk.getObjectId(0);
+    }
+  }
+
+  /** List the regular files directly inside a directory, given as a path ending with '/'. */
+  private static List<String> listFiles(ObjectReader reader, RevTree tree, String directoryPath)
+      throws IOException {
+    List<String> files = new ArrayList<>();
+    String prefix = "/".equals(directoryPath) ? "" : directoryPath;
+    try (TreeWalk treeWalk = new TreeWalk(reader)) {
+      if (prefix.isEmpty()) {
+        treeWalk.addTree(tree);
+      } else {
+        try (TreeWalk directoryWalk =
+            TreeWalk.forPath(reader, prefix.substring(0, prefix.length() - 1), tree)) {
+          if (directoryWalk == null || !directoryWalk.isSubtree()) {
+            return files;
+          }
+          treeWalk.addTree(directoryWalk.getObjectId(0));
+        }
+      }
+      while (treeWalk.next()) {
+        if ((treeWalk.getRawMode(0) & FileMode.TYPE_MASK) == FileMode.TYPE_FILE) {
+          files.add(prefix + treeWalk.getNameString());
+        }
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Empty a directory so that another strategy can clone into it. Files that are already gone, such
+   * as a lock file of JGit, are skipped.
+   */
+  static void deleteContents(Path directory) throws IOException {
+    Files.walkFileTree(
+        directory,
+        new SimpleFileVisitor<>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.deleteIfExists(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+            if (exc instanceof NoSuchFileException) {
+              return FileVisitResult.CONTINUE;
+            }
+            throw exc;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            if (!dir.equals(directory)) {
+              Files.delete(dir);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystem;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Leases the directories that repositories are cloned into. A workspace is deleted in the
+ * background when it is closed, so deletion is off the response path, and it is deleted even if
+ * parsing throws.
+ *
+ * <p>Every workspace is a directory under one root, and the root is kept within a disk budget: a
+ * warm container only has the /tmp it started with. When a lease finds the root over budget, the
+ * workspaces that are not leased, oldest first, are deleted before the lease returns. These are
+ * workspaces still waiting for the background, or left behind by an earlier container that was
+ * frozen or stopped before it got to them. If the leased workspaces alone exceed the budget, the
+ * lease is rejected.
+ *
+ * <p>A workspace is measured in the background after it is released, and counted until it is
+ * deleted, so a lease only walks the workspaces that are still leased or wait for the background.
+ *
+ * <p>Workspaces can instead be kept in memory, each in a file system of its own that is discarded
+ * when the workspace is closed. They use heap rather than /tmp, so the disk budget doesn't apply to
+ * them, and they only work with clone strategies that keep the repository out of the working tree.
+ */
+public class WorkspaceManager {
+
+  /** Environment variable with the disk budget of all workspaces, in bytes. */
+  public static final String MAX_BYTES_VARIABLE = "WORKSPACE_MAX_BYTES";
+
+  /** Lambda has 512 MB of /tmp by default, leave room for everything else. */
+  public static final long DEFAULT_MAX_BYTES = 384 * 1024 * 1024;
+
+  /** Environment variable that keeps workspaces in memory instead of on disk when "true". */
+  public static final String IN_MEMORY_VARIABLE = "WORKSPACE_IN_MEMORY";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WorkspaceManager.class);
+  private final Path root;
+  private final long maxBytes;
+  private final boolean inMemory;
+  private final Set<Path> leased = new HashSet<>();
+  // The workspaces that are released but not yet measured by the background
+  private final Set<Path> released = new HashSet<>();
+  // The workspaces that are not leased but still on disk, by the size they had when released
+  private final Map<Path, Long> stored = new HashMap<>();
+  private long storedBytes;
+  private boolean measured;
+  private final AtomicLong failedDeletions = new AtomicLong();
+  private final ExecutorService deleter =
+      Executors.newSingleThreadExecutor(
+          runnable -> {
+            // A daemon thread, pending deletions must not keep the JVM alive
+            Thread thread = new Thread(runnable, "workspace-deletion");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /**
+   * Create a manager.
+   *
+   * @param root The directory that workspaces are created in, created if it doesn't exist
+   * @param maxBytes The disk budget of all workspaces
+   */
+  public WorkspaceManager(Path root, long maxBytes) {
+    this(root, maxBytes, false);
+  }
+
+  /**
+   * Create a manager.
+   *
+   * @param root The directory that workspaces on disk are created in, created if it doesn't exist
+   * @param maxBytes The disk budget of all workspaces on disk
+   * @param inMemory Whether workspaces are kept in memory instead of on disk
+   */
+  public WorkspaceManager(Path root, long maxBytes, boolean inMemory) {
+    this.root = root;
+    this.maxBytes = maxBytes;
+    this.inMemory = inMemory;
+  }
+
+  /**
+   * Create the manager configured by the environment, with workspaces in the temporary directory.
+   *
+   * @return The configured manager
+   */
+  public static WorkspaceManager fromEnvironment() {
+    String maxBytes = System.getenv(MAX_BYTES_VARIABLE);
+    return new WorkspaceManager(
+        Path.of(System.getProperty("java.io.tmpdir"), "workspaces"),
+        maxBytes == null || maxBytes.isBlank()
+            ? DEFAULT_MAX_BYTES
+            : Long.parseLong(maxBytes.trim()),
+        Boolean.parseBoolean(System.getenv(IN_MEMORY_VARIABLE)));
+  }
+
+  /**
+   * Lease a new, empty workspace, evicting workspaces that are not leased if over budget.
+   *
+   * @return The workspace, to be closed when done with
+   * @throws WorkspaceBudgetException If the leased workspaces alone exceed the budget
+   * @throws IOException If the workspace could not be created
+   */
+  public Workspace lease() throws IOException {
+    if (inMemory) {
+      FileSystem fileSystem = Jimfs.newFileSystem(Configuration.unix());
+      return new Workspace(
+          Files.createDirectory(fileSystem.getPath("/clonedRepository")), fileSystem);
+    }
+    Files.createDirectories(root);
+    final List<Path> leasedWorkspaces;
+    final List<Path> releasedWorkspaces;
+    synchronized (this) {
+      if (!measured) {
+        measureLeftovers();
+        measured = true;
+      }
+      leasedWorkspaces = new ArrayList<>(leased);
+      releasedWorkspaces = new ArrayList<>(released);
+    }
+    // The stored workspaces were measured once, only the leased ones have grown since
+    long leasedBytes = 0;
+    for (Path workspace : leasedWorkspaces) {
+      leasedBytes += size(workspace);
+    }
+    // Released workspaces count towards the budget, but the background deletes them next
+    long releasedBytes = 0;
+    for (Path workspace : releasedWorkspaces) {
+      releasedBytes += size(workspace);
+    }
+    if (leasedBytes > maxBytes) {
+      throw new WorkspaceBudgetException(
+          "Leased workspaces use " + leasedBytes + " bytes, more than the budget of " + maxBytes);
+    }
+    List<Path> evicted = new ArrayList<>();
+    final Path directory;
+    synchronized (this) {
+      long usedBytes = leasedBytes + releasedBytes + storedBytes;
+      if (usedBytes > maxBytes) {
+        List<Path> evictable = new ArrayList<>(stored.keySet());
+        evictable.sort(Comparator.comparing(WorkspaceManager::lastModified));
+        for (Path workspace : evictable) {
+          if (usedBytes <= maxBytes) {
+            break;
+          }
+          usedBytes -= forget(workspace);
+          evicted.add(workspace);
+        }
+      }
+      directory = Files.createTempDirectory(root, "clonedRepository");
+      leased.add(directory);
+    }
+    for (Path workspace : evicted) {
+      delete(workspace);
+    }
+    return new Workspace(directory, null);
+  }
+
+  /** Count the workspaces left behind by an earlier container, which are only walked once. */
+  private void measureLeftovers() throws IOException {
+    try (DirectoryStream<Path> workspaces = Files.newDirectoryStream(root)) {
+      for (Path workspace : workspaces) {
+        long size = size(workspace);
+        stored.put(workspace, size);
+        storedBytes += size;
+      }
+    }
+  }
+
+  /** Stop counting a workspace that is not leased, it is being deleted. */
+  private synchronized long forget(Path workspace) {
+    Long size = stored.remove(workspace);
+    if (size == null) {
+      return 0;
+    }
+    storedBytes -= size;
+    return size;
+  }
+
+  /** Hand a workspace to the background, which measures it and then deletes it. */
+  private void release(Path directory) {
+    synchronized (this) {
+      leased.remove(directory);
+      released.add(directory);
+    }
+    deleter.execute(
+        () -> {
+          store(directory);
+          if (delete(directory)) {
+            forget(directory);
+          }
+        });
+  }
+
+  /** Count a released workspace as stored, so that it is counted if it can't be deleted. */
+  private void store(Path directory) {
+    long size;
+    try {
+      size = size(directory);
+    } catch (IOException e) {
+      LOGGER.error("Could not measure workspace " + directory, e);
+      size = 0;
+    }
+    synchronized (this) {
+      released.remove(directory);
+      stored.put(directory, size);
+      storedBytes += size;
+    }
+  }
+
+  /** Wait for the deletions scheduled so far, for tests. */
+  void awaitDeletions() throws ExecutionException, InterruptedException {
+    deleter.submit(() -> {}).get();
+  }
+
+  long getFailedDeletions() {
+    return failedDeletions.get();
+  }
+
+  private static long size(Path directory) throws IOException {
+    AtomicLong size = new AtomicLong();
+    walk(
+        directory,
+        new SkipMissingFileVisitor() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            size.addAndGet(attrs.size());
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    return size.get();
+  }
+
+  private static FileTime lastModified(Path directory) {
+    try {
+      return Files.getLastModifiedTime(directory);
+    } catch (IOException e) {
+      // Gone already, evicting it costs nothing
+      return FileTime.fromMillis(0);
+    }
+  }
+
+  private boolean delete(Path directory) {
+    try {
+      deleteRecursively(directory);
+    } catch (IOException e) {
+      failedDeletions.incrementAndGet();
+      LOGGER.error("Could not delete workspace " + directory, e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Delete a directory depth first, without listing every path up front. Paths that are deleted by
+   * someone else meanwhile, like the lock files of a JGit gc, are skipped.
+   *
+   * @param directory The directory to delete
+   * @throws IOException If a path could not be deleted
+   */
+  public static void deleteRecursively(Path directory) throws IOException {
+    walk(
+        directory,
+        new SkipMissingFileVisitor() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.deleteIfExists(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            Files.deleteIfExists(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void walk(Path directory, SkipMissingFileVisitor visitor) throws IOException {
+    try {
+      Files.walkFileTree(directory, visitor);
+    } catch (NoSuchFileException e) {
+      // Deleted since it was listed
+    }
+  }
+
+  /**
+   * Skips paths that are already gone, a workspace may be evicted while the background is deleting
+   * it.
+   */
+  private static class SkipMissingFileVisitor extends SimpleFileVisitor<Path> {
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+      if (exc instanceof NoSuchFileException) {
+        return FileVisitResult.CONTINUE;
+      }
+      throw exc;
+    }
+  }
+
+  /**
+   * A leased directory, deleted in the background when closed, or discarded with its file system if
+   * it is in memory.
+   */
+  public final class Workspace implements AutoCloseable {
+    private final Path directory;
+    private final FileSystem fileSystem;
+
+    private Workspace(Path directory, FileSystem fileSystem) {
+      this.directory = directory;
+      this.fileSystem = fileSystem;
+    }
+
+    public Path getDirectory() {
+      return directory;
+    }
+
+    @Override
+    public void close() {
+      if (fileSystem == null) {
+        release(directory);
+        return;
+      }
+      try {
+        fileSystem.close();
+      } catch (IOException e) {
+        LOGGER.error("Could not close the file system of workspace " + directory.toUri(), e);
+      }
+    }
+  }
+
+  /** Thrown when a workspace can't be leased without exceeding the disk budget. */
+  public static class WorkspaceBudgetException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public WorkspaceBudgetException(String message) {
+      super(message);
+    }
+  }
+}
@@ -13,4 +13,4 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-package io.dockstore.nextflowparsing;
+package io.dockstore.parsing;
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+public class DeadlineTest {
+
+  private static final Duration TIMEOUT = Duration.ofMillis(200);
+  private static final long WAIT_SECONDS = 10;
+
+  @Test
+  public void tasksThatOutliveTheDeadlineAreInterrupted() throws Exception {
+    CountDownLatch interrupted = new CountDownLatch(1);
+    DeadlineExceededException exception =
+        assertThrows(
+            DeadlineExceededException.class,
+            () ->
+                Deadline.after(TIMEOUT)
+                    .run(
+                        ParsingMetrics.PARSE,
+                        () -> {
+                          try {
+                            new CountDownLatch(1).await();
+                          } catch (InterruptedException e) {
+                            interrupted.countDown();
+                          }
+                          return null;
+                        }));
+    assertEquals(ParsingMetrics.PARSE, exception.getPhase());
+    assertTrue(interrupted.await(WAIT_SECONDS, TimeUnit.SECONDS));
+
+    assertEquals("parsed", Deadline.NONE.run(ParsingMetrics.PARSE, () -> "parsed"));
+    assertEquals("parsed", Deadline.after(TIMEOUT).run(ParsingMetrics.PARSE, () -> "parsed"));
+  }
+
+  @Test
+  public void tasksThatIgnoreTheInterruptKeepTheirPermitUntilTheyEnd() throws Exception {
+    ConcurrencyLimit limit = new ConcurrencyLimit(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CountDownLatch ended = new CountDownLatch(1);
+    assertThrows(
+        DeadlineExceededException.class,
+        () ->
+            Deadline.after(TIMEOUT)
+                .run(
+                    ParsingMetrics.PARSE,
+                    limit,
+                    () -> {
+                      // Like womtool, wait out the interrupt
+                      boolean waiting = true;
+                      while (waiting) {
+                        try {
+                          waiting = !release.await(WAIT_SECONDS, TimeUnit.SECONDS);
+                        } catch (InterruptedException e) {
+                          waiting = true;
+                        }
+                      }
+                      ended.countDown();
+                      return null;
+                    }));
+    assertTrue(Deadline.hasAbandonedTasks());
+    assertEquals(0, limit.getAvailablePermits());
+    // The next task of the limit runs out of time waiting for the permit, not on a worker
+    assertThrows(
+        DeadlineExceededException.class,
+        () -> Deadline.after(TIMEOUT).run(ParsingMetrics.PARSE, limit, () -> "parsed"));
+
+    release.countDown();
+    assertTrue(ended.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(WAIT_SECONDS);
+    while (Deadline.hasAbandonedTasks() && System.nanoTime() < end) {
+      Thread.sleep(TIMEOUT.toMillis());
+    }
+    assertFalse(Deadline.hasAbandonedTasks());
+    assertEquals(1, limit.getAvailablePermits());
+    assertEquals(
+        "parsed", Deadline.after(TIMEOUT).run(ParsingMetrics.PARSE, limit, () -> "parsed"));
+  }
+}
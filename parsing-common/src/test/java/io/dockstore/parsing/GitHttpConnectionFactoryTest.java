@@ -0,0 +1,183 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.TransportHttp;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class GitHttpConnectionFactoryTest {
+
+  private static final String LANGUAGE = "Nextflow";
+  private static final int CLONES = 3;
+  private static final int TOO_MANY_REQUESTS = 429;
+  private static final int TIMEOUT_SECONDS = 10;
+
+  @Test
+  public void clonesReuseTheConnection(@TempDir Path temporaryDirectory) throws Exception {
+    Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+    ParsingMetrics metrics = new ParsingMetrics(LANGUAGE);
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("remote"))) {
+      TestRepositories.commit(repository, "master", Map.of("main.nf", ""));
+      HttpServer server =
+          TestRepositories.serveRepository(repository, new ConcurrentLinkedQueue<>(), clientPorts);
+      GitHttpConnectionFactory factory =
+          new GitHttpConnectionFactory(HttpClient.Version.HTTP_1_1, 1, 0);
+      try (GitHttpConnectionFactory.Recording recording = factory.record(metrics)) {
+        for (int i = 0; i < CLONES; i++) {
+          clone(server, factory, temporaryDirectory.resolve("clone" + i));
+        }
+      } finally {
+        server.stop(0);
+      }
+    }
+    assertTrue(Files.exists(temporaryDirectory.resolve("clone0/main.nf")));
+    // An advertisement and a pack for each clone
+    assertEquals(2 * CLONES, metrics.getCounts().get(ParsingMetrics.GIT_REQUESTS));
+    assertEquals(0, metrics.getCounts().get(ParsingMetrics.GIT_RETRIES));
+    assertEquals(1, clientPorts.size(), "The requests should share one connection");
+  }
+
+  @Test
+  public void throttledRequestsAreRetried(@TempDir Path temporaryDirectory) throws Exception {
+    Queue<Integer> failures = new ConcurrentLinkedQueue<>();
+    failures.add(TOO_MANY_REQUESTS);
+    failures.add(HttpURLConnection.HTTP_UNAVAILABLE);
+    ParsingMetrics metrics = new ParsingMetrics(LANGUAGE);
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("remote"))) {
+      TestRepositories.commit(repository, "master", Map.of("main.nf", ""));
+      HttpServer server =
+          TestRepositories.serveRepository(repository, failures, ConcurrentHashMap.newKeySet());
+      GitHttpConnectionFactory factory =
+          new GitHttpConnectionFactory(
+              HttpClient.Version.HTTP_1_1,
+              GitHttpConnectionFactory.DEFAULT_CONNECTIONS_PER_HOST,
+              GitHttpConnectionFactory.DEFAULT_RETRIES);
+      try (GitHttpConnectionFactory.Recording recording = factory.record(metrics)) {
+        clone(server, factory, temporaryDirectory.resolve("clone"));
+      } finally {
+        server.stop(0);
+      }
+    }
+    assertTrue(Files.exists(temporaryDirectory.resolve("clone/main.nf")));
+    assertTrue(failures.isEmpty());
+    assertEquals(2, metrics.getCounts().get(ParsingMetrics.GIT_RETRIES));
+  }
+
+  @Test
+  public void unreadErrorsAndRedirectsDoNotHoldTheHost(@TempDir Path temporaryDirectory)
+      throws Exception {
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("remote"))) {
+      TestRepositories.commit(repository, "master", Map.of("main.nf", ""));
+      HttpServer server =
+          TestRepositories.serveRepository(
+              repository, new ConcurrentLinkedQueue<>(), ConcurrentHashMap.newKeySet());
+      server.createContext(
+          "/missing.git/", exchange -> answer(exchange, HttpURLConnection.HTTP_NOT_FOUND, null));
+      server.createContext(
+          "/private.git/",
+          exchange -> answer(exchange, HttpURLConnection.HTTP_UNAUTHORIZED, "Basic realm=\"Git\""));
+      server.createContext(
+          "/moved.git/",
+          exchange -> {
+            exchange.getResponseHeaders().set("Location", getUrl(server, "missing.git"));
+            answer(exchange, HttpURLConnection.HTTP_MOVED_PERM, null);
+          });
+      // One request to the host at a time, which each unreleased response would keep
+      GitHttpConnectionFactory factory =
+          new GitHttpConnectionFactory(HttpClient.Version.HTTP_1_1, 1, 0);
+      try {
+        for (String name : List.of("missing.git", "private.git", "moved.git")) {
+          for (int i = 0; i < CLONES; i++) {
+            assertThrows(
+                TransportException.class,
+                () ->
+                    Git.lsRemoteRepository()
+                        .setRemote(getUrl(server, name))
+                        .setTimeout(TIMEOUT_SECONDS)
+                        .setTransportConfigCallback(
+                            transport ->
+                                ((TransportHttp) transport).setHttpConnectionFactory(factory))
+                        .call());
+          }
+        }
+        clone(server, factory, temporaryDirectory.resolve("clone"));
+      } finally {
+        server.stop(0);
+      }
+    }
+    assertTrue(Files.exists(temporaryDirectory.resolve("clone/main.nf")));
+  }
+
+  private static void clone(HttpServer server, GitHttpConnectionFactory factory, Path directory)
+      throws Exception {
+    try (Git git =
+        Git.cloneRepository()
+            .setURI(getUrl(server, "repository.git"))
+            .setTimeout(TIMEOUT_SECONDS)
+            .setDirectory(directory.toFile())
+            .setTransportConfigCallback(
+                transport -> ((TransportHttp) transport).setHttpConnectionFactory(factory))
+            .call()) {
+      assertEquals("master", git.getRepository().getBranch());
+    }
+  }
+
+  private static String getUrl(HttpServer server, String name) {
+    return "http://localhost:" + server.getAddress().getPort() + "/" + name;
+  }
+
+  private static void answer(HttpExchange exchange, int statusCode, String authenticate)
+      throws IOException {
+    try (InputStream requestBody = exchange.getRequestBody()) {
+      requestBody.readAllBytes();
+      if (authenticate != null) {
+        exchange.getResponseHeaders().set("WWW-Authenticate", authenticate);
+      }
+      byte[] body = "Not here".getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(statusCode, body.length);
+      exchange.getResponseBody().write(body);
+    } finally {
+      exchange.close();
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParsingMetricsTest {
+
+  @Test
+  public void phasesTimedTwiceAddUp() {
+    ParsingMetrics metrics = new ParsingMetrics("Nextflow");
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      assertTrue(metrics.getPhaseNanos().isEmpty(), "A phase is recorded when it ends");
+    }
+    long firstEncode = metrics.getPhaseNanos().get(ParsingMetrics.ENCODE);
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    }
+    assertTrue(metrics.getPhaseNanos().get(ParsingMetrics.ENCODE) >= firstEncode);
+    assertEquals(List.of(ParsingMetrics.ENCODE), List.copyOf(metrics.getPhaseNanos().keySet()));
+  }
+
+  @Test
+  public void clonedFilesAreCounted(@TempDir Path directory) throws IOException {
+    Files.createDirectories(directory.resolve("modules"));
+    Files.writeString(directory.resolve("nextflow.config"), "manifest {}\n");
+    Files.writeString(directory.resolve("modules/hello.nf"), "process hello {}\n");
+    ParsingMetrics metrics = new ParsingMetrics("Nextflow");
+    metrics.countClonedFiles(directory);
+    assertEquals(
+        Map.of(
+            ParsingMetrics.CLONED_FILES,
+            2L,
+            ParsingMetrics.CLONED_BYTES,
+            (long) ("manifest {}\n" + "process hello {}\n").length()),
+        metrics.getCounts());
+  }
+
+  @Test
+  public void serverTimingListsPhasesInOrder() {
+    ParsingMetrics metrics = new ParsingMetrics("Nextflow");
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE)) {
+      metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    }
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+      metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    }
+    assertTrue(
+        metrics.toServerTiming().matches("clone;dur=\\d+\\.\\d, parse;dur=\\d+\\.\\d"),
+        metrics.toServerTiming());
+  }
+
+  @Test
+  public void embeddedMetricFormatDeclaresEveryMetric() throws IOException {
+    ParsingMetrics metrics = new ParsingMetrics("Nextflow");
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE)) {
+      metrics.count(ParsingMetrics.CLONED_BYTES, 1);
+    }
+    JsonNode document =
+        new ObjectMapper().readTree(metrics.toEmbeddedMetricFormat(HttpURLConnection.HTTP_OK));
+    JsonNode directive = document.get("_aws").get("CloudWatchMetrics").get(0);
+    assertEquals(ParsingMetrics.DEFAULT_NAMESPACE, directive.get("Namespace").asText());
+    assertEquals("Language", directive.get("Dimensions").get(0).get(0).asText());
+    assertEquals("Nextflow", document.get("Language").asText());
+    assertEquals(HttpURLConnection.HTTP_OK, document.get("StatusCode").asInt());
+    List<String> names = new ArrayList<>();
+    for (JsonNode metric : directive.get("Metrics")) {
+      names.add(metric.get("Name").asText());
+      // Every declared metric needs a value at the top level, or CloudWatch drops the document
+      assertTrue(document.get(metric.get("Name").asText()).isNumber());
+    }
+    assertEquals(
+        List.of("CloneTime", ParsingMetrics.CLONED_BYTES, ParsingMetrics.HEAP_USED_BYTES), names);
+    assertEquals("Bytes", directive.get("Metrics").get(1).get("Unit").asText());
+  }
+}
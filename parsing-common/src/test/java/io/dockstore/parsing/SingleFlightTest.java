@@ -0,0 +1,209 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+public class SingleFlightTest {
+
+  private static final String LANGUAGE = "WDL";
+  private static final String KEY = "https://github.com/dockstore/workflow.git";
+  private static final long WAIT_SECONDS = 10;
+  private final ExecutorService executor = Executors.newCachedThreadPool();
+  private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+  /** Stop the callers. */
+  @AfterEach
+  public void shutdownExecutor() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void identicalCallsInProgressRunOnce() throws Exception {
+    AtomicInteger calls = new AtomicInteger();
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    final Future<String> leader =
+        executor.submit(
+            () ->
+                singleFlight.run(
+                    KEY,
+                    () -> {
+                      calls.incrementAndGet();
+                      started.countDown();
+                      await(release);
+                      return "parsed";
+                    },
+                    new ParsingMetrics(LANGUAGE),
+                    Deadline.NONE));
+    assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    CoalescedMetrics followerMetrics = new CoalescedMetrics();
+    Future<String> follower =
+        executor.submit(
+            () -> singleFlight.run(KEY, () -> "parsed again", followerMetrics, Deadline.NONE));
+    assertTrue(followerMetrics.coalesced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    release.countDown();
+
+    assertSame(leader.get(), follower.get());
+    assertEquals(1, calls.get());
+    assertEquals(1L, followerMetrics.getCounts().get(ParsingMetrics.COALESCED));
+    assertTrue(followerMetrics.getPhaseNanos().containsKey(ParsingMetrics.COALESCE));
+    assertEquals(0, singleFlight.getCallsInProgress());
+    // Done calls are forgotten
+    assertEquals(
+        "parsed again",
+        singleFlight.run(
+            KEY, () -> "parsed again", new ParsingMetrics(LANGUAGE), Deadline.NONE));
+  }
+
+  @Test
+  public void callersGetTheExceptionOfTheCallTheyWaitedFor() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    IOException failure = new IOException("Could not clone");
+    final Future<String> leader =
+        executor.submit(
+            () ->
+                singleFlight.run(
+                    KEY,
+                    () -> {
+                      started.countDown();
+                      await(release);
+                      throw failure;
+                    },
+                    new ParsingMetrics(LANGUAGE),
+                    Deadline.NONE));
+    assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    CoalescedMetrics followerMetrics = new CoalescedMetrics();
+    final Future<String> follower =
+        executor.submit(
+            () -> singleFlight.run(KEY, () -> "parsed", followerMetrics, Deadline.NONE));
+    assertTrue(followerMetrics.coalesced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    release.countDown();
+
+    assertSame(failure, assertThrows(ExecutionException.class, leader::get).getCause());
+    assertSame(failure, assertThrows(ExecutionException.class, follower::get).getCause());
+    assertEquals(0, singleFlight.getCallsInProgress());
+  }
+
+  @Test
+  public void callersThatWaitedGetACopyOfTheResult() throws Exception {
+    SingleFlight<String, StringBuilder> copyingFlight =
+        new SingleFlight<>(value -> new StringBuilder(value));
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    final Future<StringBuilder> leader =
+        executor.submit(
+            () ->
+                copyingFlight.run(
+                    KEY,
+                    () -> {
+                      started.countDown();
+                      await(release);
+                      return new StringBuilder("parsed");
+                    },
+                    new ParsingMetrics(LANGUAGE),
+                    Deadline.NONE));
+    assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    CoalescedMetrics followerMetrics = new CoalescedMetrics();
+    final Future<StringBuilder> follower =
+        executor.submit(
+            () ->
+                copyingFlight.run(
+                    KEY, () -> new StringBuilder("parsed again"), followerMetrics, Deadline.NONE));
+    assertTrue(followerMetrics.coalesced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    release.countDown();
+
+    assertNotSame(leader.get(), follower.get());
+    assertEquals("parsed", follower.get().toString());
+  }
+
+  @Test
+  public void callersWithTimeLeftRunACallThatExceededAnotherDeadline() throws Exception {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    final Future<String> leader =
+        executor.submit(
+            () ->
+                singleFlight.run(
+                    KEY,
+                    () -> {
+                      started.countDown();
+                      await(release);
+                      throw new DeadlineExceededException(ParsingMetrics.CLONE);
+                    },
+                    new ParsingMetrics(LANGUAGE),
+                    Deadline.NONE));
+    assertTrue(started.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    CoalescedMetrics followerMetrics = new CoalescedMetrics();
+    final Future<String> follower =
+        executor.submit(
+            () -> singleFlight.run(KEY, () -> "parsed", followerMetrics, Deadline.NONE));
+    assertTrue(followerMetrics.coalesced.await(WAIT_SECONDS, TimeUnit.SECONDS));
+    release.countDown();
+
+    assertTrue(
+        assertThrows(ExecutionException.class, leader::get).getCause()
+            instanceof DeadlineExceededException);
+    assertEquals("parsed", follower.get());
+    assertEquals(0, singleFlight.getCallsInProgress());
+  }
+
+  /** Wait for the test to release a call, in a call that can only throw IOExceptions. */
+  private static void await(CountDownLatch release) throws IOException {
+    try {
+      release.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException();
+    }
+  }
+
+  /** Metrics that signal when a caller starts waiting for another one. */
+  private static final class CoalescedMetrics extends ParsingMetrics {
+
+    private final CountDownLatch coalesced = new CountDownLatch(1);
+
+    CoalescedMetrics() {
+      super(LANGUAGE);
+    }
+
+    @Override
+    public void count(String name, long value) {
+      super.count(name, value);
+      if (ParsingMetrics.COALESCED.equals(name)) {
+        coalesced.countDown();
+      }
+    }
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.PacketLineOut;
+import org.eclipse.jgit.transport.RefAdvertiser;
+import org.eclipse.jgit.transport.UploadPack;
+
+/** Creates and serves local bare repositories so that tests don't depend on GitHub. */
+public final class TestRepositories {
+
+  private static final String UPLOAD_PACK = "git-upload-pack";
+  private static final PersonIdent AUTHOR = new PersonIdent("Dockstore", "test@dockstore.org");
+
+  private TestRepositories() {
+    // hide the default constructor for a utility class
+  }
+
+  /**
+   * Create an empty bare repository.
+   *
+   * @param directory The directory of the repository
+   * @return The repository, which the caller must close
+   */
+  public static Repository createBareRepository(Path directory) throws GitAPIException {
+    return Git.init().setBare(true).setDirectory(directory.toFile()).call().getRepository();
+  }
+
+  /**
+   * Commit a complete tree of files on top of a branch, creating the branch if needed.
+   *
+   * @param repository The repository to commit to
+   * @param branch The branch to commit to
+   * @param files The contents of every file in the new commit, keyed by path
+   * @return The id of the new commit
+   */
+  public static ObjectId commit(Repository repository, String branch, Map<String, String> files)
+      throws IOException {
+    try (ObjectInserter inserter = repository.newObjectInserter()) {
+      DirCache index = DirCache.newInCore();
+      DirCacheBuilder builder = index.builder();
+      for (Map.Entry<String, String> file : files.entrySet()) {
+        DirCacheEntry entry = new DirCacheEntry(file.getKey());
+        entry.setFileMode(FileMode.REGULAR_FILE);
+        entry.setObjectId(
+            inserter.insert(Constants.OBJ_BLOB, file.getValue().getBytes(StandardCharsets.UTF_8)));
+        builder.add(entry);
+      }
+      builder.finish();
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(index.writeTree(inserter));
+      commit.setAuthor(AUTHOR);
+      commit.setCommitter(AUTHOR);
+      commit.setMessage("Update " + branch);
+      ObjectId parent = repository.resolve(Constants.R_HEADS + branch);
+      if (parent != null) {
+        commit.setParentId(parent);
+      }
+      ObjectId commitId = inserter.insert(commit);
+      inserter.flush();
+      RefUpdate update = repository.updateRef(Constants.R_HEADS + branch);
+      update.setNewObjectId(commitId);
+      update.forceUpdate();
+      return commitId;
+    }
+  }
+
+  /**
+   * Create an annotated tag.
+   *
+   * @param repository The repository to tag in
+   * @param name The name of the tag
+   * @param commitId The commit to tag
+   */
+  public static void tag(Repository repository, String name, ObjectId commitId)
+      throws GitAPIException, IOException {
+    try (Git git = Git.wrap(repository)) {
+      git.tag()
+          .setName(name)
+          .setAnnotated(true)
+          .setMessage(name)
+          .setTagger(AUTHOR)
+          .setObjectId(repository.parseCommit(commitId))
+          .call();
+    }
+  }
+
+  /**
+   * Serve a repository at /repository.git with the smart HTTP protocol, answering with the queued
+   * failures first and recording the ports that clients connect from.
+   *
+   * @param repository The repository to serve
+   * @param failures The status codes to answer requests with before serving them
+   * @param clientPorts Collects the ports that clients connect from
+   * @return The started server, which the caller must stop
+   */
+  public static HttpServer serveRepository(
+      Repository repository, Queue<Integer> failures, Set<Integer> clientPorts) throws IOException {
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/repository.git/",
+        exchange -> {
+          clientPorts.add(exchange.getRemoteAddress().getPort());
+          try (InputStream requestBody = exchange.getRequestBody()) {
+            Integer failure = failures.poll();
+            if (failure != null) {
+              requestBody.readAllBytes();
+              exchange.getResponseHeaders().set("Retry-After", "0");
+              exchange.sendResponseHeaders(failure, -1);
+            } else if (exchange.getRequestURI().getPath().endsWith("/info/refs")) {
+              advertise(repository, exchange);
+            } else {
+              upload(repository, exchange, requestBody);
+            }
+          } finally {
+            exchange.close();
+          }
+        });
+    server.start();
+    return server;
+  }
+
+  private static void advertise(Repository repository, HttpExchange exchange) throws IOException {
+    exchange
+        .getResponseHeaders()
+        .set("Content-Type", "application/x-" + UPLOAD_PACK + "-advertisement");
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      PacketLineOut packetLineOut = new PacketLineOut(responseBody);
+      packetLineOut.writeString("# service=" + UPLOAD_PACK + "\n");
+      packetLineOut.end();
+      UploadPack uploadPack = new UploadPack(repository);
+      uploadPack.setBiDirectionalPipe(false);
+      uploadPack.sendAdvertisedRefs(new RefAdvertiser.PacketLineOutRefAdvertiser(packetLineOut));
+    }
+  }
+
+  private static void upload(Repository repository, HttpExchange exchange, InputStream requestBody)
+      throws IOException {
+    InputStream input =
+        "gzip".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+            ? new GZIPInputStream(requestBody)
+            : requestBody;
+    exchange.getResponseHeaders().set("Content-Type", "application/x-" + UPLOAD_PACK + "-result");
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+    try (OutputStream responseBody = exchange.getResponseBody()) {
+      UploadPack uploadPack = new UploadPack(repository);
+      uploadPack.setBiDirectionalPipe(false);
+      uploadPack.upload(input, responseBody, null);
+    }
+  }
+}
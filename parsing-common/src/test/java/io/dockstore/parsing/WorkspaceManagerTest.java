@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.dockstore.parsing;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WorkspaceManagerTest {
+
+  private static final int FILE_BYTES = 1000;
+  private static final long MAX_BYTES = 2500;
+
+  private static void writeFile(Path directory) throws IOException {
+    Files.createDirectories(directory.resolve("nested"));
+    Files.write(directory.resolve("nested").resolve("file"), new byte[FILE_BYTES]);
+  }
+
+  @Test
+  public void closedWorkspacesAreDeletedInTheBackground(@TempDir Path root)
+      throws IOException, ExecutionException, InterruptedException {
+    WorkspaceManager workspaceManager = new WorkspaceManager(root, MAX_BYTES);
+    Path directory;
+    try (WorkspaceManager.Workspace workspace = workspaceManager.lease()) {
+      directory = workspace.getDirectory();
+      assertEquals(root, directory.getParent());
+      writeFile(directory);
+    }
+    workspaceManager.awaitDeletions();
+    assertFalse(Files.exists(directory));
+    assertEquals(0, workspaceManager.getFailedDeletions());
+  }
+
+  @Test
+  public void workspacesAreDeletedWhenParsingThrows(@TempDir Path root)
+      throws IOException, ExecutionException, InterruptedException {
+    WorkspaceManager workspaceManager = new WorkspaceManager(root, MAX_BYTES);
+    Path[] directory = new Path[1];
+    assertThrows(
+        IllegalStateException.class,
+        () -> {
+          try (WorkspaceManager.Workspace workspace = workspaceManager.lease()) {
+            directory[0] = workspace.getDirectory();
+            writeFile(directory[0]);
+            throw new IllegalStateException("Parsing failed");
+          }
+        });
+    workspaceManager.awaitDeletions();
+    assertFalse(Files.exists(directory[0]));
+  }
+
+  @Test
+  public void oldWorkspacesAreEvictedOverBudget(@TempDir Path root)
+      throws IOException, ExecutionException, InterruptedException {
+    // Left behind by an earlier container, in the order they were created
+    Path oldest = Files.createDirectories(root.resolve("oldest"));
+    Path older = Files.createDirectories(root.resolve("older"));
+    Path old = Files.createDirectories(root.resolve("old"));
+    long time = System.currentTimeMillis();
+    for (Path directory : new Path[] {oldest, older, old}) {
+      writeFile(directory);
+      Files.setLastModifiedTime(directory, FileTime.fromMillis(time++));
+    }
+    WorkspaceManager workspaceManager = new WorkspaceManager(root, MAX_BYTES);
+    try (WorkspaceManager.Workspace workspace = workspaceManager.lease()) {
+      assertTrue(Files.isDirectory(workspace.getDirectory()));
+      assertFalse(Files.exists(oldest));
+      assertTrue(Files.exists(older));
+      assertTrue(Files.exists(old));
+    }
+    // Before the temporary directory is deleted
+    workspaceManager.awaitDeletions();
+  }
+
+  @Test
+  public void leasedWorkspacesAreNotEvicted(@TempDir Path root)
+      throws IOException, ExecutionException, InterruptedException {
+    WorkspaceManager workspaceManager = new WorkspaceManager(root, MAX_BYTES);
+    try (WorkspaceManager.Workspace first = workspaceManager.lease();
+        WorkspaceManager.Workspace second = workspaceManager.lease();
+        WorkspaceManager.Workspace third = workspaceManager.lease()) {
+      writeFile(first.getDirectory());
+      writeFile(second.getDirectory());
+      writeFile(third.getDirectory());
+      assertThrows(WorkspaceManager.WorkspaceBudgetException.class, workspaceManager::lease);
+      assertTrue(Files.exists(first.getDirectory().resolve("nested")));
+    }
+    workspaceManager.awaitDeletions();
+  }
+
+  @Test
+  public void inMemoryWorkspacesUseNoDiskAndNoBudget(@TempDir Path root) throws IOException {
+    WorkspaceManager workspaceManager = new WorkspaceManager(root, MAX_BYTES, true);
+    Path directory;
+    try (WorkspaceManager.Workspace first = workspaceManager.lease();
+        WorkspaceManager.Workspace second = workspaceManager.lease();
+        WorkspaceManager.Workspace third = workspaceManager.lease()) {
+      writeFile(first.getDirectory());
+      writeFile(second.getDirectory());
+      writeFile(third.getDirectory());
+      directory = first.getDirectory();
+      assertNotEquals(root.getFileSystem(), directory.getFileSystem());
+      assertTrue(Files.exists(directory.resolve("nested").resolve("file")));
+    }
+    assertFalse(directory.getFileSystem().isOpen());
+    try (Stream<Path> paths = Files.list(root)) {
+      assertEquals(0, paths.count());
+    }
+  }
+}
@@ -20,177 +20,772 @@ import com.amazonaws.services.lambda.runtime.Context;
 import com.amazonaws.services.lambda.runtime.RequestHandler;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import dockstore.openapi.client.model.LanguageParsingRequest;
 import dockstore.openapi.client.model.LanguageParsingResponse;
 import dockstore.openapi.client.model.VersionTypeValidation;
-import java.io.File;
+import io.dockstore.parsing.BatchParsingRequest;
+import io.dockstore.parsing.CloneStrategy;
+import io.dockstore.parsing.CompositeFileSelector;
+import io.dockstore.parsing.ConcurrencyLimit;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import io.dockstore.parsing.FileSelector;
+import io.dockstore.parsing.GitHttpConnectionFactory;
+import io.dockstore.parsing.GitRefResolver;
+import io.dockstore.parsing.IncrementalClone;
+import io.dockstore.parsing.ParsingMetrics;
+import io.dockstore.parsing.SingleFlight;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.CharArrayWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import javax.ws.rs.core.MediaType;
-import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Ref;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import scala.Option;
-import scala.collection.JavaConverters;
-import womtool.WomtoolMain;
 
 /** Handler for requests to Lambda function. */
 public class App
     implements RequestHandler<APIGatewayProxyRequestEvent, APIGatewayProxyResponseEvent> {
 
   private static final Logger LOGGER = LoggerFactory.getLogger(App.class);
-  ObjectMapper mapper = new ObjectMapper();
+  // Static so that responses are reused across invocations of a warm container
+  private static final ParsingResultCache RESULT_CACHE = ParsingResultCache.fromEnvironment();
+  // Every clone, fetch and ls-remote of the JVM shares this pool of HTTP connections
+  private static final GitHttpConnectionFactory GIT_HTTP =
+      GitHttpConnectionFactory.installFromEnvironment();
+  private static final CloneStrategy CLONE_STRATEGY = CloneStrategy.fromEnvironment();
+  private static final WorkspaceManager WORKSPACES = WorkspaceManager.fromEnvironment();
+  private static final RemoteImportCache REMOTE_IMPORT_CACHE = RemoteImportCache.fromEnvironment();
+  // Runs womtool here, or in worker JVMs so that a pathological workflow can't exhaust this heap
+  private static final WomtoolValidator WOMTOOL =
+      WomtoolValidator.fromEnvironment(REMOTE_IMPORT_CACHE);
+  private static final WdlImportGraph IMPORT_GRAPH =
+      WdlImportGraph.fromEnvironment(REMOTE_IMPORT_CACHE);
+  static final ObjectMapper MAPPER = new ObjectMapper();
+  // Shared and pre-configured, so that no request looks up serializers in the mapper again
+  static final ObjectReader REQUEST_READER = MAPPER.readerFor(LanguageParsingRequest.class);
+  static final ObjectReader BATCH_REQUEST_READER = MAPPER.readerFor(BatchParsingRequest.class);
+  static final ObjectReader INCREMENTAL_REQUEST_READER =
+      MAPPER.readerFor(IncrementalParsingRequest.class);
+  static final ObjectReader RESPONSE_READER = MAPPER.readerFor(LanguageParsingResponse.class);
+  static final ObjectWriter RESPONSE_WRITER = MAPPER.writer();
+  // Runs before a SnapStart snapshot, held here because the CRaC context only keeps weak references
+  static final Priming PRIMING = Priming.register(CLONE_STRATEGY);
+  private static final BatchParsingExecutor BATCH_EXECUTOR = BatchParsingExecutor.fromEnvironment();
+  // Shared by all requests of the JVM, clones mostly wait on the network while womtool is CPU bound
+  private static final int CLONES_PER_PROCESSOR = 4;
+  private static final ConcurrencyLimit CLONE_LIMIT =
+      ConcurrencyLimit.fromEnvironment(
+          ConcurrencyLimit.CLONES_VARIABLE,
+          CLONES_PER_PROCESSOR * Runtime.getRuntime().availableProcessors());
+  private static final ConcurrencyLimit PARSE_LIMIT =
+      ConcurrencyLimit.fromEnvironment(
+          ConcurrencyLimit.PARSES_VARIABLE, Runtime.getRuntime().availableProcessors());
+  // Duplicate requests, such as webhook deliveries, that arrive while one is in progress share it
+  private static final SingleFlight<List<Object>, Reply> IDENTICAL_REQUESTS =
+      new SingleFlight<>(Reply::copy);
+  // Requests to a path with this suffix are BatchParsingRequests
+  static final String BATCH_PATH_SUFFIX = "/batch";
+  // Requests to a path with this suffix only want the imported files, womtool is not run
+  static final String IMPORTS_PATH_SUFFIX = "/imports";
+  // Requests to a path with this suffix are IncrementalParsingRequests
+  static final String INCREMENTAL_PATH_SUFFIX = "/incremental";
+  static final String LANGUAGE = "WDL";
+  static final String SERVER_TIMING_HEADER = "Server-Timing";
 
   /**
-   * Get a language parsing response by running womtool.
+   * Get a language parsing response by loading the workflow with womtool.
    *
    * @param descriptorAbsolutePathString Absolute path to the main descriptor file
    * @return LanguageParsingResponse constructed after running womtool
    */
   public static LanguageParsingResponse getResponse(String descriptorAbsolutePathString) {
+    return getResponse(descriptorAbsolutePathString, Deadline.NONE);
+  }
+
+  /**
+   * Get a language parsing response by loading the workflow with womtool, which is stopped at the
+   * deadline if it runs in a worker JVM.
+   *
+   * @param descriptorAbsolutePathString Absolute path to the main descriptor file
+   * @param deadline The deadline of the request
+   * @return LanguageParsingResponse constructed after running womtool
+   * @throws UncheckedIOException If the deadline expired, wrapping a DeadlineExceededException
+   */
+  public static LanguageParsingResponse getResponse(
+      String descriptorAbsolutePathString, Deadline deadline) {
     LanguageParsingResponse response = new LanguageParsingResponse();
     response.setClonedRepositoryAbsolutePath(descriptorAbsolutePathString);
-    List<String> commandLineArgs = Arrays.asList("validate", "-l", descriptorAbsolutePathString);
+    Path descriptorAbsolutePath = Path.of(descriptorAbsolutePathString);
+    VersionTypeValidation versionTypeValidation = new VersionTypeValidation();
+    response.setVersionTypeValidation(versionTypeValidation);
     try {
-      // TODO: This can be cleaner (without parsing stdout) by directly using Validate.scala, etc
-      WomtoolMain.Termination termination =
-          WomtoolMain.runWomtool(
-              JavaConverters.collectionAsScalaIterableConverter(commandLineArgs).asScala().toSeq());
-      Option<String> stdout = termination.stdout();
-      // The womtool successful response returns lines of text.
-      String[] split = stdout.get().split(System.lineSeparator());
-      List<String> strings = new ArrayList<>();
-      Collections.addAll(strings, split);
-
-      // The first two lines aren't actual paths.
-      VersionTypeValidation versionTypeValidation = new VersionTypeValidation();
-      if (strings.get(0).equals("Success!")
-          && strings.get(1).equals("List of Workflow dependencies is:")) {
-        versionTypeValidation.setValid(true);
-        response.setVersionTypeValidation(versionTypeValidation);
-        handleSuccessResponse(response, strings);
-      } else {
-        versionTypeValidation.setValid(false);
-        Map<String, String> messageMap = new HashMap<>();
-        // TODO: Using the main descriptor path as the key until we figure out how to get the actual
-        //  file that has the error
-        messageMap.put(descriptorAbsolutePathString, stdout.get());
-        versionTypeValidation.setMessage(messageMap);
-        response.setVersionTypeValidation(versionTypeValidation);
-      }
-      return response;
-    } catch (StackOverflowError e) {
-      VersionTypeValidation versionTypeValidation = new VersionTypeValidation();
-      versionTypeValidation.setValid(false);
-      Map<String, String> messageMap = new HashMap<>();
-      // TODO: Using the main descriptor path as the key until we figure out how to get the actual
-      //  file that has the error
-      messageMap.put(descriptorAbsolutePathString, "Encountered recursive imports");
-      versionTypeValidation.setMessage(messageMap);
-      response.setVersionTypeValidation(versionTypeValidation);
+      // Womtool follows imports recursively, check that the graph is finite and small first
+      IMPORT_GRAPH.walk(descriptorAbsolutePath);
+    } catch (WdlImportException e) {
+      setInvalid(versionTypeValidation, Map.of(e.getFile(), e.getMessage()));
       return response;
     }
+    WomtoolValidation validation;
+    try {
+      validation = WOMTOOL.validate(descriptorAbsolutePath, deadline);
+    } catch (DeadlineExceededException e) {
+      // Parsers are functions, Deadline.run and the batch executor unwrap it
+      throw new UncheckedIOException(e);
+    }
+    versionTypeValidation.setValid(validation.isValid());
+    if (validation.isValid()) {
+      response.setSecondaryFilePaths(new ArrayList<>(validation.getDependencies()));
+    } else {
+      versionTypeValidation.setMessage(validation.getMessagesByFile(descriptorAbsolutePath));
+    }
+    return response;
   }
 
-  // The first two lines aren't actual paths.
-  // It looks like "Success!" and "List of Workflow dependencies is:"
-  private static void handleSuccessResponse(
-      LanguageParsingResponse response, List<String> strings) {
-    strings.remove(0);
-    strings.remove(0);
-    // If there are no imports, womtool says None
-    if (strings.get(0).equals("None")) {
-      strings.remove(0);
+  /**
+   * Get a language parsing response with only the files that a workflow imports, found by scanning
+   * the import statements of each file rather than loading the workflow with womtool. The workflow
+   * is not validated otherwise, so the validation is only set, to invalid, when a local import is
+   * missing or the import graph fails the checks that precede womtool.
+   *
+   * @param descriptorAbsolutePathString Absolute path to the main descriptor file
+   * @return LanguageParsingResponse with the imported files as the secondary file paths
+   */
+  public static LanguageParsingResponse getImportsResponse(String descriptorAbsolutePathString) {
+    LanguageParsingResponse response = new LanguageParsingResponse();
+    response.setClonedRepositoryAbsolutePath(descriptorAbsolutePathString);
+    Path descriptorAbsolutePath = Path.of(descriptorAbsolutePathString);
+    VersionTypeValidation versionTypeValidation = new VersionTypeValidation();
+    response.setVersionTypeValidation(versionTypeValidation);
+    Set<String> files;
+    try {
+      files = IMPORT_GRAPH.walk(descriptorAbsolutePath);
+    } catch (WdlImportException e) {
+      setInvalid(versionTypeValidation, Map.of(e.getFile(), e.getMessage()));
+      return response;
+    }
+    // The walk skips local files that are missing, womtool would fail to load them
+    Map<String, String> messageMap = new HashMap<>();
+    for (String file : files) {
+      if (!WdlImportScanner.isHttpImport(file) && !Files.isRegularFile(Path.of(file))) {
+        messageMap.put(file, "Could not find " + file);
+      }
+    }
+    if (!messageMap.isEmpty()) {
+      setInvalid(versionTypeValidation, messageMap);
+      return response;
     }
-    response.setSecondaryFilePaths(strings);
+    files.remove(descriptorAbsolutePath.toString());
+    response.setSecondaryFilePaths(new ArrayList<>(files));
+    return response;
+  }
+
+  private static void setInvalid(
+      VersionTypeValidation versionTypeValidation, Map<String, String> messageMap) {
+    versionTypeValidation.setValid(false);
+    versionTypeValidation.setMessage(new HashMap<>(messageMap));
   }
 
   @Override
   public APIGatewayProxyResponseEvent handleRequest(
       final APIGatewayProxyRequestEvent input, final Context context) {
-
+    ParsingMetrics metrics = new ParsingMetrics(LANGUAGE);
+    Deadline deadline = Deadline.fromContext(context);
+    Reply reply =
+        input == null || input.getBody() == null
+            ? Reply.NO_BODY
+            : respond(input.getPath(), new StringReader(input.getBody()), metrics, deadline);
+    String body;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      body = reply.getBody(RESPONSE_WRITER);
+    } catch (JsonProcessingException e) {
+      reply = unencodable(e);
+      body = reply.text;
+    }
     Map<String, String> headers = new HashMap<>();
     headers.put("Content-Type", MediaType.APPLICATION_JSON);
+    headers.put(SERVER_TIMING_HEADER, metrics.toServerTiming());
+    metrics.log(reply.getStatusCode());
+    return new APIGatewayProxyResponseEvent()
+        .withHeaders(headers)
+        .withStatusCode(reply.getStatusCode())
+        .withBody(body);
+  }
+
+  /**
+   * Decode and parse a request.
+   *
+   * @param path The path of the request, may be null
+   * @param body The body of the request
+   * @param metrics The metrics of the request
+   * @param deadline The deadline of the request
+   * @return The reply to the request
+   */
+  static Reply respond(String path, Reader body, ParsingMetrics metrics, Deadline deadline) {
+    final Parser parser;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.DECODE)) {
+      parser = decode(path, body, metrics, deadline);
+    } catch (IOException e) {
+      return undecodable(e);
+    }
+    return parse(parser);
+  }
+
+  /**
+   * Decode the body of a request, a BatchParsingRequest if the path ends with /batch and an
+   * IncrementalParsingRequest if it ends with /incremental. A request to a path that ends with
+   * /imports only gets the files that the descriptor imports.
+   *
+   * @param path The path of the request, may be null
+   * @param body The body of the request
+   * @param metrics The metrics of the request
+   * @param deadline The deadline of the request
+   * @return The parser of the decoded request
+   * @throws IOException If the body is not a request
+   */
+  static Parser decode(String path, Reader body, ParsingMetrics metrics, Deadline deadline)
+      throws IOException {
+    if (path != null && path.endsWith(BATCH_PATH_SUFFIX)) {
+      BatchParsingRequest batchRequest = BATCH_REQUEST_READER.readValue(body);
+      if (batchRequest.getDescriptorRelativePathsInGit() == null
+          || batchRequest.getDescriptorRelativePathsInGit().isEmpty()) {
+        throw new IOException("The batch request has no descriptorRelativePathsInGit");
+      }
+      return () ->
+          IDENTICAL_REQUESTS.run(
+              Arrays.asList(
+                  batchRequest.getUri(),
+                  batchRequest.getBranch(),
+                  batchRequest.getDescriptorRelativePathsInGit()),
+              () -> Reply.of(parseWdlFiles(batchRequest, metrics, deadline)),
+              metrics,
+              deadline);
+    }
+    if (path != null && path.endsWith(INCREMENTAL_PATH_SUFFIX)) {
+      IncrementalParsingRequest incrementalRequest = INCREMENTAL_REQUEST_READER.readValue(body);
+      if (incrementalRequest.getLanguageParsingRequest() == null) {
+        throw new IOException("The incremental request has no languageParsingRequest");
+      }
+      // Serialized, because the parse stamps the request ids on the previous response
+      String previousResponse =
+          RESPONSE_WRITER.writeValueAsString(incrementalRequest.getPreviousResponse());
+      return () ->
+          IDENTICAL_REQUESTS.run(
+              Arrays.asList(
+                  INCREMENTAL_PATH_SUFFIX,
+                  getKey(incrementalRequest.getLanguageParsingRequest()),
+                  incrementalRequest.getPreviousCommitId(),
+                  previousResponse),
+              () -> Reply.of(parseWdlFileIncrementally(incrementalRequest, metrics, deadline)),
+              metrics,
+              deadline);
+    }
+    LanguageParsingRequest request = REQUEST_READER.readValue(body);
+    boolean importsOnly = path != null && path.endsWith(IMPORTS_PATH_SUFFIX);
+    return () ->
+        IDENTICAL_REQUESTS.run(
+            importsOnly ? Arrays.asList(IMPORTS_PATH_SUFFIX, getKey(request)) : getKey(request),
+            () ->
+                parseWdlFile(
+                    request,
+                    importsOnly
+                        ? App::getImportsResponse
+                        : descriptor -> getResponse(descriptor, deadline),
+                    metrics,
+                    deadline),
+            metrics,
+            deadline);
+  }
+
+  /**
+   * Get the key of a request for coalescing, every field that the response depends on.
+   *
+   * @param request The request
+   * @return The key
+   */
+  static List<Object> getKey(LanguageParsingRequest request) {
+    return Arrays.asList(
+        request.getEntryId(),
+        request.getVersionId(),
+        request.getUri(),
+        request.getBranch(),
+        request.getDescriptorRelativePathInGit());
+  }
+
+  /**
+   * Get the reply to a request that could not be decoded.
+   *
+   * @param e Why the request could not be decoded
+   * @return A reply with status 400
+   */
+  static Reply undecodable(IOException e) {
+    String errorMessage = "Could not process request";
+    LOGGER.error(errorMessage, e);
+    return Reply.error(HttpURLConnection.HTTP_BAD_REQUEST, errorMessage);
+  }
+
+  /**
+   * Get the reply to a request whose response could not be encoded.
+   *
+   * @param e Why the response could not be encoded
+   * @return A reply with status 500
+   */
+  static Reply unencodable(IOException e) {
+    String errorMessage = "Could not encode response";
+    LOGGER.error(errorMessage, e);
+    return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, errorMessage);
+  }
+
+  /**
+   * Get the reply to a request that ran out of time, a JSON object with the phase it ran out in.
+   *
+   * @param e Where the request ran out of time
+   * @return A reply with status 504
+   */
+  static Reply timedOut(DeadlineExceededException e) {
+    LOGGER.error(e.getMessage());
+    Map<String, String> body = new LinkedHashMap<>();
+    body.put("message", e.getMessage());
+    body.put("phase", e.getPhase());
+    return Reply.of(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, body);
+  }
+
+  /**
+   * Parse a decoded request, turning failures into replies with an error status.
+   *
+   * @param parser The parser of the decoded request
+   * @return The reply to the request
+   */
+  static Reply parse(Parser parser) {
+    try {
+      return parser.parse();
+    } catch (DeadlineExceededException e) {
+      return timedOut(e);
+    } catch (WorkspaceManager.WorkspaceBudgetException e) {
+      LOGGER.error("Out of disk for workspaces", e);
+      return Reply.error(HttpURLConnection.HTTP_UNAVAILABLE, e.getMessage());
+    } catch (IOException e) {
+      String errorMessage = "Could not clone repository to temporary directory";
+      LOGGER.error(errorMessage, e);
+      return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, errorMessage);
+    } catch (GitAPIException e) {
+      StringWriter sw = new StringWriter();
+      e.printStackTrace(new PrintWriter(sw));
+      String exceptionAsString = sw.toString();
+      return Reply.error(HttpURLConnection.HTTP_INTERNAL_ERROR, exceptionAsString);
+    }
+  }
+
+  /**
+   * Parse a descriptor, or get the response to the same descriptor at the same commit from the
+   * cache. Only valid responses are cached, so a response of the imports only is never cached, but
+   * a cached response is a full response.
+   */
+  private static Reply parseWdlFile(
+      LanguageParsingRequest languageParsingRequest,
+      Function<String, LanguageParsingResponse> parser,
+      ParsingMetrics metrics,
+      Deadline deadline)
+      throws IOException, GitAPIException {
+    final String uri = languageParsingRequest.getUri();
+    final String branch = languageParsingRequest.getBranch();
+    final String descriptorRelativePathInGit =
+        languageParsingRequest.getDescriptorRelativePathInGit();
+    metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    // Resolving the branch is a single round trip, much cheaper than a clone and womtool
+    Ref ref = resolveRef(uri, branch, metrics, deadline);
+    Optional<LanguageParsingResponse> cachedResponse =
+        getCachedResponse(uri, GitRefResolver.getCommitId(ref), descriptorRelativePathInGit);
+    if (cachedResponse.isPresent()) {
+      metrics.count(ParsingMetrics.CACHE_HITS, 1);
+      cachedResponse.get().setLanguageParsingRequest(languageParsingRequest);
+      return Reply.of(cachedResponse.get());
+    }
+    String clonedCommitId;
+    LanguageParsingResponse response;
+    try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+      Path tempDirWithPrefix = workspace.getDirectory();
+      // The branch may have moved since it was resolved, cache under what was actually parsed
+      clonedCommitId =
+          cloneRepository(
+              uri,
+              ref,
+              tempDirWithPrefix,
+              new WdlFileSelector(descriptorRelativePathInGit),
+              metrics,
+              deadline);
+      metrics.countClonedFiles(tempDirWithPrefix);
+      // Womtool doesn't check for interrupts, it is left to finish on its worker if it runs out
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+        response =
+            deadline.run(
+                ParsingMetrics.PARSE,
+                PARSE_LIMIT,
+                () -> parseClonedWdlFile(tempDirWithPrefix, descriptorRelativePathInGit, parser));
+      }
+    }
+    response.setLanguageParsingRequest(languageParsingRequest);
+    // Invalid responses are not cached, they may be caused by a transient HTTP import failure
+    if (!Boolean.TRUE.equals(response.getVersionTypeValidation().getValid())) {
+      return Reply.of(response);
+    }
+    String serializedResponse;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      serializedResponse = RESPONSE_WRITER.writeValueAsString(response);
+    }
+    RESULT_CACHE.put(
+        ParsingResultCache.key(uri, clonedCommitId, descriptorRelativePathInGit),
+        serializedResponse);
+    // Already encoded for the cache, the handler writes it as it is
+    return Reply.encoded(serializedResponse);
+  }
 
-    APIGatewayProxyResponseEvent response = new APIGatewayProxyResponseEvent().withHeaders(headers);
-    if (input != null && input.getBody() != null) {
-      try {
-        LanguageParsingRequest request =
-            mapper.readValue(input.getBody(), LanguageParsingRequest.class);
-        try {
-          String s =
-              parseWdlFile(
-                  request.getUri(),
-                  request.getBranch(),
-                  request.getDescriptorRelativePathInGit(),
-                  request);
-          return response.withStatusCode(HttpURLConnection.HTTP_OK).withBody(s);
-        } catch (IOException e) {
-          String errorMessage = "Could not clone repository to temporary directory";
-          LOGGER.error(errorMessage, e);
-          return response
-              .withBody(errorMessage)
-              .withStatusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
-        } catch (GitAPIException e) {
-          StringWriter sw = new StringWriter();
-          e.printStackTrace(new PrintWriter(sw));
-          String exceptionAsString = sw.toString();
-          return response
-              .withBody(exceptionAsString)
-              .withStatusCode(HttpURLConnection.HTTP_INTERNAL_ERROR);
+  /**
+   * Parse a descriptor again only if a file it depends on changed since the previous commit that it
+   * was parsed at, otherwise return the previous response. Only a valid previous response is
+   * reused, an invalid one may have been caused by a transient HTTP import failure.
+   */
+  static IncrementalParsingResponse parseWdlFileIncrementally(
+      IncrementalParsingRequest incrementalRequest, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    LanguageParsingRequest languageParsingRequest = incrementalRequest.getLanguageParsingRequest();
+    String uri = languageParsingRequest.getUri();
+    String descriptorRelativePathInGit = languageParsingRequest.getDescriptorRelativePathInGit();
+    LanguageParsingResponse previousResponse = incrementalRequest.getPreviousResponse();
+    boolean reusable =
+        previousResponse != null
+            && previousResponse.getVersionTypeValidation() != null
+            && Boolean.TRUE.equals(previousResponse.getVersionTypeValidation().getValid());
+    metrics.count(ParsingMetrics.DESCRIPTORS, 1);
+    IncrementalClone clone;
+    LanguageParsingResponse response;
+    try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+      Path tempDirWithPrefix = workspace.getDirectory();
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE);
+          GitHttpConnectionFactory.Recording recording = GIT_HTTP.record(metrics);
+          ConcurrencyLimit.Permit permit = CLONE_LIMIT.acquire(deadline, ParsingMetrics.CLONE)) {
+        clone =
+            IncrementalClone.cloneRepository(
+                uri,
+                languageParsingRequest.getBranch(),
+                reusable ? incrementalRequest.getPreviousCommitId() : null,
+                tempDirWithPrefix,
+                new WdlFileSelector(descriptorRelativePathInGit),
+                deadline);
+      } catch (IOException | GitAPIException e) {
+        deadline.check(ParsingMetrics.CLONE);
+        throw e;
+      }
+      if (clone.isChanged()) {
+        metrics.countClonedFiles(tempDirWithPrefix);
+        try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+          response =
+              deadline.run(
+                  ParsingMetrics.PARSE,
+                  PARSE_LIMIT,
+                  () ->
+                      parseClonedWdlFile(
+                          tempDirWithPrefix,
+                          descriptorRelativePathInGit,
+                          descriptor -> getResponse(descriptor, deadline)));
+        }
+        if (Boolean.TRUE.equals(response.getVersionTypeValidation().getValid())) {
+          RESULT_CACHE.put(
+              ParsingResultCache.key(uri, clone.getCommitId(), descriptorRelativePathInGit),
+              RESPONSE_WRITER.writeValueAsString(response));
         }
-      } catch (IOException e) {
-        String errorMessage = "Could not process request";
-        LOGGER.error(errorMessage, e);
-        return response.withBody(errorMessage).withStatusCode(HttpURLConnection.HTTP_BAD_REQUEST);
+      } else {
+        metrics.count(ParsingMetrics.UNCHANGED, 1);
+        response = previousResponse;
       }
-    } else {
-      return response
-          .withBody("No body in request")
-          .withStatusCode(HttpURLConnection.HTTP_BAD_REQUEST);
     }
+    response.setLanguageParsingRequest(languageParsingRequest);
+    IncrementalParsingResponse incrementalResponse = new IncrementalParsingResponse();
+    incrementalResponse.setCommitId(clone.getCommitId());
+    incrementalResponse.setChanged(clone.isChanged());
+    incrementalResponse.setLanguageParsingResponse(response);
+    return incrementalResponse;
   }
 
-  private String parseWdlFile(
+  /**
+   * Parse several descriptors of one repository and branch, cloning at most once. The descriptors
+   * that are not parsed by the deadline get an error result, the others are still returned.
+   */
+  static BatchParsingResponse parseWdlFiles(
+      BatchParsingRequest batchRequest, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    String uri = batchRequest.getUri();
+    String branch = batchRequest.getBranch();
+    metrics.count(
+        ParsingMetrics.DESCRIPTORS, batchRequest.getDescriptorRelativePathsInGit().size());
+    Ref ref = resolveRef(uri, branch, metrics, deadline);
+    String commitId = GitRefResolver.getCommitId(ref);
+    Map<String, BatchParsingResult> results = new HashMap<>();
+    Set<String> uncachedPaths = new LinkedHashSet<>();
+    for (String descriptorRelativePathInGit : batchRequest.getDescriptorRelativePathsInGit()) {
+      Optional<LanguageParsingResponse> cachedResponse =
+          getCachedResponse(uri, commitId, descriptorRelativePathInGit);
+      if (cachedResponse.isPresent()) {
+        metrics.count(ParsingMetrics.CACHE_HITS, 1);
+        BatchParsingResult result = new BatchParsingResult();
+        result.setDescriptorRelativePathInGit(descriptorRelativePathInGit);
+        result.setLanguageParsingResponse(cachedResponse.get());
+        results.put(descriptorRelativePathInGit, result);
+      } else {
+        uncachedPaths.add(descriptorRelativePathInGit);
+      }
+    }
+    if (!uncachedPaths.isEmpty()) {
+      try (WorkspaceManager.Workspace workspace = leaseWorkspace(metrics)) {
+        Path tempDirWithPrefix = workspace.getDirectory();
+        List<FileSelector> fileSelectors =
+            uncachedPaths.stream().map(WdlFileSelector::new).collect(Collectors.toList());
+        String clonedCommitId =
+            cloneRepository(
+                uri,
+                ref,
+                tempDirWithPrefix,
+                new CompositeFileSelector(fileSelectors),
+                metrics,
+                deadline);
+        metrics.countClonedFiles(tempDirWithPrefix);
+        List<BatchParsingResult> parsedResults;
+        // The descriptors are parsed in parallel, this is the time until the last one is done
+        try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.PARSE)) {
+          parsedResults =
+              BATCH_EXECUTOR.parse(
+                  List.copyOf(uncachedPaths),
+                  path -> {
+                    try (ConcurrencyLimit.Permit permit = PARSE_LIMIT.acquire()) {
+                      return parseClonedWdlFile(
+                          tempDirWithPrefix, path, descriptor -> getResponse(descriptor, deadline));
+                    }
+                  },
+                  deadline);
+        }
+        for (BatchParsingResult result : parsedResults) {
+          String descriptorRelativePathInGit = result.getDescriptorRelativePathInGit();
+          results.put(descriptorRelativePathInGit, result);
+          LanguageParsingResponse response = result.getLanguageParsingResponse();
+          if (response != null
+              && Boolean.TRUE.equals(response.getVersionTypeValidation().getValid())) {
+            RESULT_CACHE.put(
+                ParsingResultCache.key(uri, clonedCommitId, descriptorRelativePathInGit),
+                RESPONSE_WRITER.writeValueAsString(response));
+          }
+        }
+      }
+    }
+    BatchParsingResponse batchResponse = new BatchParsingResponse();
+    for (String descriptorRelativePathInGit : batchRequest.getDescriptorRelativePathsInGit()) {
+      BatchParsingResult result = results.get(descriptorRelativePathInGit);
+      if (result.getLanguageParsingResponse() != null) {
+        LanguageParsingRequest languageParsingRequest = new LanguageParsingRequest();
+        languageParsingRequest.setUri(uri);
+        languageParsingRequest.setBranch(branch);
+        languageParsingRequest.setDescriptorRelativePathInGit(descriptorRelativePathInGit);
+        result.getLanguageParsingResponse().setLanguageParsingRequest(languageParsingRequest);
+      }
+      batchResponse.getResults().add(result);
+    }
+    return batchResponse;
+  }
+
+  /**
+   * Resolve the branch once, for the cache lookup and then the clone. A resolve that fails once the
+   * deadline expired timed out.
+   */
+  private static Ref resolveRef(
+      String uri, String branch, ParsingMetrics metrics, Deadline deadline)
+      throws IOException, GitAPIException {
+    deadline.check(ParsingMetrics.RESOLVE);
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.RESOLVE);
+        GitHttpConnectionFactory.Recording recording = GIT_HTTP.record(metrics)) {
+      return GitRefResolver.resolveRef(uri, branch, deadline)
+          .orElseThrow(
+              () -> new RefNotFoundException("Remote branch or tag " + branch + " not found"));
+    } catch (GitAPIException e) {
+      deadline.check(ParsingMetrics.RESOLVE);
+      throw e;
+    }
+  }
+
+  /** Clone within the clone limit. A clone that fails once the deadline expired timed out. */
+  private static String cloneRepository(
       String uri,
-      String branch,
-      String descriptorRelativePathInGit,
-      LanguageParsingRequest languageParsingRequest)
+      Ref ref,
+      Path directory,
+      FileSelector fileSelector,
+      ParsingMetrics metrics,
+      Deadline deadline)
       throws IOException, GitAPIException {
-    Path tempDirWithPrefix = Files.createTempDirectory("clonedRepository");
-    Git.cloneRepository()
-        .setCloneAllBranches(false)
-        .setBranch(branch)
-        .setURI(uri)
-        .setDirectory(tempDirWithPrefix.toFile())
-        .call();
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLONE);
+        GitHttpConnectionFactory.Recording recording = GIT_HTTP.record(metrics);
+        ConcurrencyLimit.Permit permit = CLONE_LIMIT.acquire(deadline, ParsingMetrics.CLONE)) {
+      return CLONE_STRATEGY.cloneRepository(uri, ref, directory, fileSelector, deadline);
+    } catch (IOException | GitAPIException e) {
+      // A cancelled fetch fails like any other, only the deadline tells them apart
+      deadline.check(ParsingMetrics.CLONE);
+      throw e;
+    }
+  }
+
+  /**
+   * Get the cached response to a descriptor at a commit. A response that can't be read, such as one
+   * truncated in a shared directory, is a miss and is deleted so that the parse replaces it.
+   */
+  private static Optional<LanguageParsingResponse> getCachedResponse(
+      String uri, String commitId, String descriptorRelativePathInGit) {
+    String key = ParsingResultCache.key(uri, commitId, descriptorRelativePathInGit);
+    Optional<String> cachedResponse = RESULT_CACHE.get(key);
+    if (cachedResponse.isEmpty()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.of(RESPONSE_READER.readValue(cachedResponse.get()));
+    } catch (IOException e) {
+      LOGGER.error("Could not read cached response " + key, e);
+      RESULT_CACHE.remove(key);
+      return Optional.empty();
+    }
+  }
+
+  private static LanguageParsingResponse parseClonedWdlFile(
+      Path tempDirWithPrefix,
+      String descriptorRelativePathInGit,
+      Function<String, LanguageParsingResponse> parser) {
     Path descriptorAbsolutePath = tempDirWithPrefix.resolve(descriptorRelativePathInGit);
-    String descriptorAbsolutePathString = descriptorAbsolutePath.toString();
-    LanguageParsingResponse response = getResponse(descriptorAbsolutePathString);
-    response.setLanguageParsingRequest(languageParsingRequest);
-    // Deleting a directory without Common IO
-    Files.walk(tempDirWithPrefix)
-        .sorted(Comparator.reverseOrder())
-        .map(Path::toFile)
-        .forEach(File::delete);
+    LanguageParsingResponse response = parser.apply(descriptorAbsolutePath.toString());
     if (response.getSecondaryFilePaths() != null) {
       response
           .getSecondaryFilePaths()
           .replaceAll(s -> s.replaceFirst(tempDirWithPrefix.toString(), ""));
     }
-    return mapper.writeValueAsString(response);
+    return response;
+  }
+
+  /**
+   * Lease a workspace to clone into. The lease may first evict old workspaces to stay within the
+   * disk budget, which is the only cleanup left on the request path.
+   */
+  private static WorkspaceManager.Workspace leaseWorkspace(ParsingMetrics metrics)
+      throws IOException {
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.CLEANUP)) {
+      return WORKSPACES.lease();
+    }
+  }
+
+  /** Parses the request read by the handler. */
+  interface Parser {
+    Reply parse() throws IOException, GitAPIException;
+  }
+
+  /**
+   * The status and body of a response, before a handler encodes it. The body is either a message,
+   * JSON that is already encoded, or a response object that is encoded as JSON.
+   */
+  static final class Reply {
+
+    static final Reply NO_BODY = error(HttpURLConnection.HTTP_BAD_REQUEST, "No body in request");
+    private final int statusCode;
+    private final String text;
+    private final Object value;
+
+    private Reply(int statusCode, String text, Object value) {
+      this.statusCode = statusCode;
+      this.text = text;
+      this.value = value;
+    }
+
+    static Reply of(Object value) {
+      return of(HttpURLConnection.HTTP_OK, value);
+    }
+
+    static Reply of(int statusCode, Object value) {
+      return new Reply(statusCode, null, value);
+    }
+
+    static Reply encoded(String json) {
+      return new Reply(HttpURLConnection.HTTP_OK, json, null);
+    }
+
+    static Reply error(int statusCode, String message) {
+      return new Reply(statusCode, message, null);
+    }
+
+    int getStatusCode() {
+      return statusCode;
+    }
+
+    /** Get a copy for another caller, with the value encoded so that it shares no object. */
+    Reply copy() throws JsonProcessingException {
+      return value == null
+          ? this
+          : new Reply(statusCode, RESPONSE_WRITER.writeValueAsString(value), null);
+    }
+
+    /** Get the body as a String, for handlers whose runtime serializes the response event. */
+    String getBody(ObjectWriter writer) throws JsonProcessingException {
+      return value == null ? text : writer.writeValueAsString(value);
+    }
+
+    /** Get the body as UTF-8, for handlers that write it as the body of an HTTP response. */
+    byte[] getBytes(ObjectWriter writer) throws JsonProcessingException {
+      return value == null
+          ? text.getBytes(StandardCharsets.UTF_8)
+          : writer.writeValueAsBytes(value);
+    }
+
+    /**
+     * Write the body as a string field of a response that is being generated. The response object
+     * is encoded into a buffer that is escaped into the output, so a failure to encode it writes
+     * nothing.
+     */
+    void writeBody(JsonGenerator generator, String fieldName, ObjectWriter writer)
+        throws IOException {
+      if (value == null) {
+        generator.writeStringField(fieldName, text);
+        return;
+      }
+      BodyWriter bodyWriter = new BodyWriter();
+      writer.writeValue(bodyWriter, value);
+      generator.writeFieldName(fieldName);
+      bodyWriter.writeString(generator);
+    }
+  }
+
+  /** Exposes its buffer, so that the encoded body is not copied into a String. */
+  private static final class BodyWriter extends CharArrayWriter {
+
+    void writeString(JsonGenerator generator) throws IOException {
+      generator.writeString(buf, 0, count);
+    }
   }
 }
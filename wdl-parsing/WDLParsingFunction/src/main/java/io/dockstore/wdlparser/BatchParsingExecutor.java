@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses the descriptors of a batch in parallel on a fixed number of threads, so that a large batch
+ * can't run out of memory parsing everything at once. The failure of one descriptor is reported in
+ * its result and doesn't affect the others.
+ */
+public class BatchParsingExecutor {
+
+  /** Environment variable with the number of descriptors parsed at the same time. */
+  public static final String PARALLELISM_VARIABLE = "BATCH_PARALLELISM";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(BatchParsingExecutor.class);
+  private static final String TIMED_OUT = "Timed out before the descriptor was parsed";
+  private final ExecutorService executorService;
+
+  /**
+   * Create an executor.
+   *
+   * @param parallelism The number of descriptors parsed at the same time
+   */
+  public BatchParsingExecutor(int parallelism) {
+    // Daemon threads, an idle pool must not keep the JVM alive
+    this.executorService =
+        Executors.newFixedThreadPool(
+            parallelism,
+            runnable -> {
+              Thread thread = new Thread(runnable, "batch-parsing");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Create the executor configured by the environment, one thread per processor by default.
+   *
+   * @return The configured executor
+   */
+  public static BatchParsingExecutor fromEnvironment() {
+    String parallelism = System.getenv(PARALLELISM_VARIABLE);
+    return new BatchParsingExecutor(
+        parallelism == null || parallelism.isBlank()
+            ? Runtime.getRuntime().availableProcessors()
+            : Integer.parseInt(parallelism.trim()));
+  }
+
+  /**
+   * Parse descriptors in parallel.
+   *
+   * @param descriptorRelativePathsInGit The paths of the descriptors in the repository
+   * @param parser Parses the descriptor at a path
+   * @return One result per path, in the same order
+   */
+  public List<BatchParsingResult> parse(
+      List<String> descriptorRelativePathsInGit, Function<String, LanguageParsingResponse> parser) {
+    return parse(descriptorRelativePathsInGit, parser, Deadline.NONE);
+  }
+
+  /**
+   * Parse descriptors in parallel until a deadline. The descriptors that are not parsed by then are
+   * cancelled, which interrupts the ones being parsed, and get an error result. Those still being
+   * parsed are abandoned, see {@link Deadline#hasAbandonedTasks()}.
+   *
+   * @param descriptorRelativePathsInGit The paths of the descriptors in the repository
+   * @param parser Parses the descriptor at a path
+   * @param deadline The deadline of the request
+   * @return One result per path, in the same order
+   */
+  public List<BatchParsingResult> parse(
+      List<String> descriptorRelativePathsInGit,
+      Function<String, LanguageParsingResponse> parser,
+      Deadline deadline) {
+    List<Deadline.Task<LanguageParsingResponse>> tasks = new ArrayList<>();
+    List<Future<LanguageParsingResponse>> futures = new ArrayList<>();
+    for (String descriptorRelativePathInGit : descriptorRelativePathsInGit) {
+      Deadline.Task<LanguageParsingResponse> task =
+          new Deadline.Task<>(() -> parser.apply(descriptorRelativePathInGit), null);
+      tasks.add(task);
+      futures.add(executorService.submit(task));
+    }
+    List<BatchParsingResult> results = new ArrayList<>();
+    for (int i = 0; i < futures.size(); i++) {
+      BatchParsingResult result = new BatchParsingResult();
+      result.setDescriptorRelativePathInGit(descriptorRelativePathsInGit.get(i));
+      try {
+        result.setLanguageParsingResponse(
+            futures.get(i).get(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS));
+      } catch (TimeoutException e) {
+        futures.forEach(future -> future.cancel(true));
+        tasks.forEach(Deadline.Task::abandon);
+        result.setError(TIMED_OUT);
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof UncheckedIOException
+            && e.getCause().getCause() instanceof DeadlineExceededException) {
+          // The parser itself ran out of time, such as waiting for a womtool worker
+          result.setError(TIMED_OUT);
+        } else {
+          LOGGER.error("Could not parse " + result.getDescriptorRelativePathInGit(), e.getCause());
+          result.setError(String.valueOf(e.getCause()));
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        futures.forEach(future -> future.cancel(true));
+        tasks.forEach(Deadline.Task::abandon);
+        result.setError("Interrupted before the descriptor was parsed");
+      } catch (CancellationException e) {
+        // Cancelled when an earlier descriptor timed out
+        result.setError(
+            deadline.isExpired() ? TIMED_OUT : "Cancelled before the descriptor was parsed");
+      }
+      results.add(result);
+    }
+    return results;
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the files of a directory within a disk budget by deleting the least recently modified ones.
+ * The directory may be shared by containers, so files that another container deleted first are
+ * skipped.
+ */
+final class DirectoryBudget {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryBudget.class);
+  private final Path directory;
+  private final String glob;
+  private final long maxBytes;
+
+  /**
+   * Create a budget.
+   *
+   * @param directory The directory
+   * @param glob The files of the directory that count towards the budget, like *.json
+   * @param maxBytes The total size of those files
+   */
+  DirectoryBudget(Path directory, String glob, long maxBytes) {
+    this.directory = directory;
+    this.glob = glob;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Delete the least recently modified files until the others fit the budget. */
+  void evict() {
+    List<StoredFile> files = new ArrayList<>();
+    long usedBytes = 0;
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory, glob)) {
+      for (Path path : paths) {
+        try {
+          BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+          files.add(new StoredFile(path, attributes.size(), attributes.lastModifiedTime()));
+          usedBytes += attributes.size();
+        } catch (NoSuchFileException e) {
+          // Deleted since it was listed
+        }
+      }
+    } catch (NoSuchFileException e) {
+      return;
+    } catch (IOException e) {
+      // Nothing was evicted, the next write tries again
+      LOGGER.error("Could not list " + directory, e);
+      return;
+    }
+    if (usedBytes <= maxBytes) {
+      return;
+    }
+    files.sort(Comparator.comparing(file -> file.lastModified));
+    for (StoredFile file : files) {
+      if (usedBytes <= maxBytes) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(file.path);
+      } catch (IOException e) {
+        LOGGER.error("Could not evict " + file.path, e);
+        continue;
+      }
+      usedBytes -= file.size;
+    }
+  }
+
+  /** A file of the directory, as it was listed. */
+  private static final class StoredFile {
+    private final Path path;
+    private final long size;
+    private final FileTime lastModified;
+
+    StoredFile(Path path, long size, FileTime lastModified) {
+      this.path = path;
+      this.size = size;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores one JSON file per response in a directory. The directory can be local to the container or
+ * a shared mount (EFS, or an S3 bucket mounted through a FUSE driver) so that every container
+ * benefits from responses computed by the others. The responses share a disk budget, after a write
+ * the least recently written are deleted until they fit, which also clears out the responses of
+ * older versions after an upgrade.
+ */
+public class DirectoryParsingResultCache implements ParsingResultCache {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryParsingResultCache.class);
+  private static final String SUFFIX = ".json";
+  private final Path directory;
+  private final DirectoryBudget budget;
+
+  /**
+   * Create a cache.
+   *
+   * @param directory The directory of the responses, created on the first write
+   * @param maxBytes The disk budget of the responses
+   */
+  public DirectoryParsingResultCache(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.budget = new DirectoryBudget(directory, "*" + SUFFIX, maxBytes);
+  }
+
+  @Override
+  public Optional<String> get(String key) {
+    try {
+      return Optional.of(Files.readString(directory.resolve(key + SUFFIX)));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOGGER.error("Could not read cached response " + key, e);
+      return Optional.empty();
+    }
+  }
+
+  @Override
+  public void put(String key, String serializedResponse) {
+    Path temporaryFile = null;
+    boolean moved = false;
+    try {
+      Files.createDirectories(directory);
+      // Write to a temporary file first so that concurrent readers never see a partial response
+      temporaryFile = Files.createTempFile(directory, key, ".tmp");
+      Files.writeString(temporaryFile, serializedResponse);
+      Files.move(
+          temporaryFile,
+          directory.resolve(key + SUFFIX),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      moved = true;
+    } catch (IOException e) {
+      // A failed write only costs a future cache miss
+      LOGGER.error("Could not cache response " + key, e);
+      return;
+    } finally {
+      // The budget only counts responses, a leftover temporary file would never be deleted
+      if (!moved && temporaryFile != null) {
+        deleteQuietly(temporaryFile);
+      }
+    }
+    budget.evict();
+  }
+
+  @Override
+  public void remove(String key) {
+    deleteQuietly(directory.resolve(key + SUFFIX));
+  }
+
+  private static void deleteQuietly(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOGGER.error("Could not delete " + file, e);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/** A least recently used cache that lives as long as the (warm) Lambda container. */
+public class InMemoryParsingResultCache implements ParsingResultCache {
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+  private final Map<String, String> entries;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxEntries The number of responses kept before the least recently used is evicted
+   */
+  public InMemoryParsingResultCache(int maxEntries) {
+    this.entries =
+        new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  @Override
+  public synchronized Optional<String> get(String key) {
+    return Optional.ofNullable(entries.get(key));
+  }
+
+  @Override
+  public synchronized void put(String key, String serializedResponse) {
+    entries.put(key, serializedResponse);
+  }
+
+  @Override
+  public synchronized void remove(String key) {
+    entries.remove(key);
+  }
+}
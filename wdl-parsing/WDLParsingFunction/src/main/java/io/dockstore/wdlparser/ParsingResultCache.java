@@ -0,0 +1,146 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Stores serialized LanguageParsingResponses keyed by the content they were computed from.
+ *
+ * <p>A commit id identifies the full content of a repository, so a response computed for a
+ * repository URI, commit id and descriptor path can be reused until one of those changes, or until
+ * the parser is upgraded: every key includes the {@link #VERSION} of the responses.
+ */
+public interface ParsingResultCache {
+
+  /** Environment variable with the number of responses kept in memory. */
+  String MAX_ENTRIES_VARIABLE = "PARSING_CACHE_MAX_ENTRIES";
+  /** Environment variable with a directory that responses are also stored in. */
+  String DIRECTORY_VARIABLE = "PARSING_CACHE_DIRECTORY";
+  /** Environment variable with the total size of the responses stored in the directory. */
+  String MAX_STORED_BYTES_VARIABLE = "PARSING_CACHE_DIRECTORY_MAX_BYTES";
+
+  int DEFAULT_MAX_ENTRIES = 256;
+  long DEFAULT_MAX_STORED_BYTES = 256 * 1024 * 1024;
+
+  /**
+   * The version of the responses: the womtool version, which decides the validation results, and a
+   * number to increment when a change to this parser changes its responses.
+   */
+  String VERSION = "2-womtool-" + readWomtoolVersion();
+
+  /**
+   * Get a previously stored response.
+   *
+   * @param key The key created by {@link #key(String, String, String)}
+   * @return The serialized response, empty on a miss
+   */
+  Optional<String> get(String key);
+
+  /**
+   * Store a response.
+   *
+   * @param key The key created by {@link #key(String, String, String)}
+   * @param serializedResponse The serialized LanguageParsingResponse
+   */
+  void put(String key, String serializedResponse);
+
+  /**
+   * Delete a stored response, such as one that can no longer be read.
+   *
+   * @param key The key created by {@link #key(String, String, String)}
+   */
+  void remove(String key);
+
+  /**
+   * Create the cache key of a descriptor at a commit.
+   *
+   * @param uri The URI of the repository
+   * @param commitId The full commit id
+   * @param descriptorRelativePathInGit The path to the main descriptor in the repository
+   * @return A hex encoded SHA-256 digest, which is safe to use as a file name
+   */
+  static String key(String uri, String commitId, String descriptorRelativePathInGit) {
+    // The NUL separator keeps different splits of the same characters apart
+    return digest(String.join("\0", VERSION, uri, commitId, descriptorRelativePathInGit));
+  }
+
+  /**
+   * Digest a string into a key.
+   *
+   * @param content The string to digest
+   * @return A hex encoded SHA-256 digest, which is safe to use as a file name
+   */
+  static String digest(String content) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      StringBuilder hex = new StringBuilder();
+      for (byte b : digest.digest(content.getBytes(StandardCharsets.UTF_8))) {
+        hex.append(String.format("%02x", b));
+      }
+      return hex.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    }
+  }
+
+  /**
+   * Create the cache configured by the environment: an in-memory LRU cache, backed by a directory
+   * cache if {@value #DIRECTORY_VARIABLE} is set.
+   *
+   * @return The configured cache
+   */
+  static ParsingResultCache fromEnvironment() {
+    String maxEntries = System.getenv(MAX_ENTRIES_VARIABLE);
+    ParsingResultCache memory =
+        new InMemoryParsingResultCache(
+            maxEntries == null || maxEntries.isBlank()
+                ? DEFAULT_MAX_ENTRIES
+                : Integer.parseInt(maxEntries.trim()));
+    String directory = System.getenv(DIRECTORY_VARIABLE);
+    if (directory == null || directory.isBlank()) {
+      return memory;
+    }
+    String maxStoredBytes = System.getenv(MAX_STORED_BYTES_VARIABLE);
+    return new TieredParsingResultCache(
+        memory,
+        new DirectoryParsingResultCache(
+            Path.of(directory.trim()),
+            maxStoredBytes == null || maxStoredBytes.isBlank()
+                ? DEFAULT_MAX_STORED_BYTES
+                : Long.parseLong(maxStoredBytes.trim())));
+  }
+
+  private static String readWomtoolVersion() {
+    Properties properties = new Properties();
+    try (InputStream stream = ParsingResultCache.class.getResourceAsStream("/parser.properties")) {
+      if (stream != null) {
+        properties.load(stream);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Could not read parser.properties", e);
+    }
+    return properties.getProperty("womtool.version", "unknown");
+  }
+}
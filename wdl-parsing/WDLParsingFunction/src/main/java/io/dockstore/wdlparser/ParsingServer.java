@@ -0,0 +1,289 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.ws.rs.core.MediaType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the same POST /parse, /parse/batch, /parse/imports and /parse/incremental requests as the
+ * Lambda function, from a JVM that stays warm between requests, such as a container behind a load
+ * balancer. Requests are handled on an executor of their own and share the clone and parse limits
+ * of {@link App}. GET /health reports whether the server takes requests, which it stops doing when
+ * it is shut down, while the requests in progress finish, and while a parse that outlived its
+ * deadline still holds a thread.
+ *
+ * <pre>java -cp wdl-parser.jar io.dockstore.wdlparser.ParsingServer</pre>
+ */
+public class ParsingServer {
+
+  /** Environment variable with the port to listen on. */
+  public static final String PORT_VARIABLE = "SERVER_PORT";
+  /**
+   * Environment variable with the number of threads handling requests. Unset, each request gets a
+   * virtual thread on a JVM that has them.
+   */
+  public static final String THREADS_VARIABLE = "SERVER_THREADS";
+  /** Environment variable with the seconds that requests in progress get to finish on shutdown. */
+  public static final String SHUTDOWN_SECONDS_VARIABLE = "SERVER_SHUTDOWN_SECONDS";
+  /**
+   * Environment variable with the seconds a request gets before it is answered with a 504, like a
+   * Lambda invocation at its timeout. Unset, requests have no deadline.
+   */
+  public static final String TIMEOUT_SECONDS_VARIABLE = "SERVER_TIMEOUT_SECONDS";
+
+  public static final int DEFAULT_PORT = 8080;
+  public static final long DEFAULT_SHUTDOWN_SECONDS = 30;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ParsingServer.class);
+  private static final String PARSE_PATH = "/parse";
+  private static final String HEALTH_PATH = "/health";
+  private static final byte[] UP = "{\"status\":\"UP\"}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] DOWN = "{\"status\":\"DOWN\"}".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] STOPPING = "The server is stopping".getBytes(StandardCharsets.UTF_8);
+  private static final String TIMEOUT_SECONDS = System.getenv(TIMEOUT_SECONDS_VARIABLE);
+  private final HttpServer server;
+  private final ExecutorService executor;
+  private final Duration shutdownTimeout;
+  private volatile boolean stopping;
+  private int requestsInProgress;
+
+  /**
+   * Create a server that is not started yet.
+   *
+   * @param address The address to listen on, port 0 for any free port
+   * @param executor The executor that requests are handled on, shut down with the server
+   * @param shutdownTimeout How long requests in progress get to finish on shutdown
+   * @throws IOException If the address can't be bound
+   */
+  public ParsingServer(
+      InetSocketAddress address, ExecutorService executor, Duration shutdownTimeout)
+      throws IOException {
+    this.server = HttpServer.create(address, 0);
+    this.executor = executor;
+    this.shutdownTimeout = shutdownTimeout;
+    server.createContext(PARSE_PATH, this::parse);
+    server.createContext(HEALTH_PATH, this::health);
+    server.setExecutor(executor);
+  }
+
+  /**
+   * Create the server configured by the environment.
+   *
+   * @return The configured server, not started yet
+   * @throws IOException If the port can't be bound
+   */
+  public static ParsingServer fromEnvironment() throws IOException {
+    String port = System.getenv(PORT_VARIABLE);
+    String shutdownSeconds = System.getenv(SHUTDOWN_SECONDS_VARIABLE);
+    return new ParsingServer(
+        new InetSocketAddress(
+            port == null || port.isBlank() ? DEFAULT_PORT : Integer.parseInt(port.trim())),
+        createExecutor(System.getenv(THREADS_VARIABLE)),
+        Duration.ofSeconds(
+            shutdownSeconds == null || shutdownSeconds.isBlank()
+                ? DEFAULT_SHUTDOWN_SECONDS
+                : Long.parseLong(shutdownSeconds.trim())));
+  }
+
+  /**
+   * Create the executor that requests are handled on: a fixed number of threads, or a virtual
+   * thread per request if no number is given and the JVM has them (Java 21 and later).
+   *
+   * @param threads The number of threads, may be null or blank
+   * @return The executor
+   */
+  static ExecutorService createExecutor(String threads) {
+    if (threads == null || threads.isBlank()) {
+      try {
+        // Looked up by reflection, the code is compiled for Java 11
+        return (ExecutorService)
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException e) {
+        LOGGER.info("No virtual threads, handling requests on a thread per processor");
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+      }
+    }
+    return Executors.newFixedThreadPool(Integer.parseInt(threads.trim()));
+  }
+
+  /** Start taking requests. */
+  public void start() {
+    server.start();
+    LOGGER.info("Listening on port {}", getPort());
+  }
+
+  public int getPort() {
+    return server.getAddress().getPort();
+  }
+
+  /**
+   * Stop taking requests and wait for those in progress to finish, for up to the shutdown timeout.
+   * GET /health answers DOWN while they finish, and new parse requests are answered with a 503, the
+   * listener is only closed after them.
+   */
+  public void stop() {
+    synchronized (this) {
+      stopping = true;
+    }
+    final long end = System.nanoTime() + shutdownTimeout.toNanos();
+    try {
+      awaitRequests(end);
+      server.stop(0);
+      executor.shutdown();
+      if (!executor.awaitTermination(Math.max(0, end - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+        executor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      server.stop(0);
+      executor.shutdownNow();
+    }
+    LOGGER.info("Stopped");
+  }
+
+  /** Wait until no request is in progress, or the end of the shutdown timeout. */
+  private synchronized void awaitRequests(long end) throws InterruptedException {
+    long remaining = end - System.nanoTime();
+    while (requestsInProgress > 0 && remaining > 0) {
+      TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      remaining = end - System.nanoTime();
+    }
+  }
+
+  /**
+   * Count a request as in progress, unless the server is stopping.
+   *
+   * @return Whether the request may start
+   */
+  private synchronized boolean requestStarted() {
+    if (stopping) {
+      return false;
+    }
+    requestsInProgress++;
+    return true;
+  }
+
+  private synchronized void requestFinished() {
+    requestsInProgress--;
+    notifyAll();
+  }
+
+  synchronized int getRequestsInProgress() {
+    return requestsInProgress;
+  }
+
+  private void parse(HttpExchange exchange) throws IOException {
+    try {
+      String path = exchange.getRequestURI().getPath();
+      if (!PARSE_PATH.equals(path)
+          && !(PARSE_PATH + App.BATCH_PATH_SUFFIX).equals(path)
+          && !(PARSE_PATH + App.IMPORTS_PATH_SUFFIX).equals(path)
+          && !(PARSE_PATH + App.INCREMENTAL_PATH_SUFFIX).equals(path)) {
+        send(exchange, HttpURLConnection.HTTP_NOT_FOUND, new byte[0]);
+      } else if (!"POST".equals(exchange.getRequestMethod())) {
+        exchange.getResponseHeaders().set("Allow", "POST");
+        send(exchange, HttpURLConnection.HTTP_BAD_METHOD, new byte[0]);
+      } else if (!requestStarted()) {
+        // The server waits for the requests in progress, not for those that keep arriving
+        send(exchange, HttpURLConnection.HTTP_UNAVAILABLE, STOPPING);
+      } else {
+        try {
+          respond(exchange, path);
+        } finally {
+          requestFinished();
+        }
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private void respond(HttpExchange exchange, String path) throws IOException {
+    ParsingMetrics metrics = new ParsingMetrics(App.LANGUAGE);
+    App.Reply reply =
+        App.respond(
+            path,
+            new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8),
+            metrics,
+            TIMEOUT_SECONDS == null || TIMEOUT_SECONDS.isBlank()
+                ? Deadline.NONE
+                : Deadline.after(Duration.ofSeconds(Long.parseLong(TIMEOUT_SECONDS.trim()))));
+    byte[] body;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+      body = reply.getBytes(App.RESPONSE_WRITER);
+    } catch (JsonProcessingException e) {
+      reply = App.unencodable(e);
+      body = reply.getBytes(App.RESPONSE_WRITER);
+    }
+    exchange.getResponseHeaders().set(App.SERVER_TIMING_HEADER, metrics.toServerTiming());
+    send(exchange, reply.getStatusCode(), body);
+    metrics.log(reply.getStatusCode());
+  }
+
+  private void health(HttpExchange exchange) throws IOException {
+    try {
+      // A parse that ran out of time and ignored its interrupt holds a thread and a parse permit
+      if (stopping || Deadline.hasAbandonedTasks()) {
+        send(exchange, HttpURLConnection.HTTP_UNAVAILABLE, DOWN);
+      } else {
+        send(exchange, HttpURLConnection.HTTP_OK, UP);
+      }
+    } finally {
+      exchange.close();
+    }
+  }
+
+  private static void send(HttpExchange exchange, int statusCode, byte[] body) throws IOException {
+    exchange.getResponseHeaders().set("Content-Type", MediaType.APPLICATION_JSON);
+    // -1 is no body at all, 0 would be a chunked body
+    exchange.sendResponseHeaders(statusCode, body.length == 0 ? -1 : body.length);
+    if (body.length > 0) {
+      try (OutputStream outputStream = exchange.getResponseBody()) {
+        outputStream.write(body);
+      }
+    }
+  }
+
+  /**
+   * Run the server until the JVM is shut down, such as by a SIGTERM from the container runtime.
+   *
+   * @param args Not used, the server is configured by the environment
+   * @throws IOException If the port can't be bound
+   */
+  public static void main(String[] args) throws IOException {
+    ParsingServer parsingServer = fromEnvironment();
+    Runtime.getRuntime().addShutdownHook(new Thread(parsingServer::stop, "server-shutdown"));
+    parsingServer.start();
+  }
+}
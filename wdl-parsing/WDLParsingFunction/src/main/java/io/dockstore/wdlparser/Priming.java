@@ -0,0 +1,170 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.BatchParsingRequest;
+import io.dockstore.parsing.CloneStrategy;
+import io.dockstore.parsing.WorkspaceManager;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Parses a bundled sample workflow before a SnapStart (CRaC) snapshot is taken. Restored containers
+ * then start with Scala, womtool, Jackson and JGit already loaded and compiled, instead of paying
+ * for it on the first request.
+ */
+public class Priming implements Resource {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(Priming.class);
+  private static final String SAMPLE_DESCRIPTOR = "sample.wdl";
+  private static final List<String> SAMPLE_FILES = List.of(SAMPLE_DESCRIPTOR, "tasks.wdl");
+  private static final PersonIdent AUTHOR = new PersonIdent("Dockstore", "priming@dockstore.org");
+  private final CloneStrategy cloneStrategy;
+
+  Priming(CloneStrategy cloneStrategy) {
+    this.cloneStrategy = cloneStrategy;
+  }
+
+  /**
+   * Create priming for a handler and register it to run before checkpoints. The global context only
+   * keeps weak references, so the caller must hold on to the returned instance.
+   *
+   * @param cloneStrategy The strategy that the handler clones with
+   * @return The registered priming
+   */
+  public static Priming register(CloneStrategy cloneStrategy) {
+    Priming priming = new Priming(cloneStrategy);
+    Core.getGlobalContext().register(priming);
+    return priming;
+  }
+
+  @Override
+  public void beforeCheckpoint(Context<? extends Resource> context) {
+    prime();
+  }
+
+  @Override
+  public void afterRestore(Context<? extends Resource> context) {
+    // Nothing was opened by priming that needs to be restored
+  }
+
+  /**
+   * Clone the sample workflow from a local repository, validate it and serialize the response. A
+   * failure is logged rather than thrown, a snapshot without priming is still usable.
+   *
+   * @return Whether the sample workflow was parsed and found valid
+   */
+  public boolean prime() {
+    final long start = System.nanoTime();
+    boolean primed = false;
+    Path directory = null;
+    try {
+      directory = Files.createTempDirectory("priming");
+      Path repository = directory.resolve("repository");
+      String branch = createSampleRepository(repository);
+      LanguageParsingRequest request = new LanguageParsingRequest();
+      request.setUri(repository.toUri().toString());
+      request.setBranch(branch);
+      request.setDescriptorRelativePathInGit(SAMPLE_DESCRIPTOR);
+      // Through the handler's own readers and writer, which keep the (de)serializers they look up
+      request = App.REQUEST_READER.readValue(App.RESPONSE_WRITER.writeValueAsString(request));
+      primeRequestReaders(request);
+      Path clone = Files.createDirectory(directory.resolve("clone"));
+      cloneStrategy.cloneRepository(
+          request.getUri(),
+          request.getBranch(),
+          clone,
+          new WdlFileSelector(request.getDescriptorRelativePathInGit()));
+      LanguageParsingResponse response =
+          App.getResponse(clone.resolve(request.getDescriptorRelativePathInGit()).toString());
+      response.setLanguageParsingRequest(request);
+      App.RESPONSE_READER.readValue(App.RESPONSE_WRITER.writeValueAsString(response));
+      primed = Boolean.TRUE.equals(response.getVersionTypeValidation().getValid());
+      if (!primed) {
+        LOGGER.warn("The priming workflow is invalid: {}", response.getVersionTypeValidation());
+      }
+    } catch (IOException | GitAPIException | RuntimeException e) {
+      LOGGER.warn("Could not prime the parser", e);
+    } finally {
+      if (directory != null) {
+        // The repository is gone after priming, and so should be anything kept of it
+        cloneStrategy.forget(directory.resolve("repository").toUri().toString());
+        deleteDirectory(directory);
+      }
+    }
+    LOGGER.info(
+        "Primed the parser in {} ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return primed;
+  }
+
+  /** Read a batch and an incremental request for the sample, as their handlers would. */
+  private static void primeRequestReaders(LanguageParsingRequest request) throws IOException {
+    BatchParsingRequest batchRequest = new BatchParsingRequest();
+    batchRequest.setUri(request.getUri());
+    batchRequest.setBranch(request.getBranch());
+    batchRequest.setDescriptorRelativePathsInGit(List.of(request.getDescriptorRelativePathInGit()));
+    App.BATCH_REQUEST_READER.readValue(App.RESPONSE_WRITER.writeValueAsString(batchRequest));
+    IncrementalParsingRequest incrementalRequest = new IncrementalParsingRequest();
+    incrementalRequest.setLanguageParsingRequest(request);
+    incrementalRequest.setPreviousCommitId(ObjectId.zeroId().getName());
+    incrementalRequest.setPreviousResponse(new LanguageParsingResponse());
+    App.INCREMENTAL_REQUEST_READER.readValue(
+        App.RESPONSE_WRITER.writeValueAsString(incrementalRequest));
+  }
+
+  /** Commit the sample files to a new repository, returning the branch committed to. */
+  private static String createSampleRepository(Path repository)
+      throws IOException, GitAPIException {
+    Files.createDirectories(repository);
+    for (String sampleFile : SAMPLE_FILES) {
+      try (InputStream inputStream = Priming.class.getResourceAsStream("/priming/" + sampleFile)) {
+        if (inputStream == null) {
+          throw new IOException("Missing priming resource " + sampleFile);
+        }
+        Files.copy(inputStream, repository.resolve(sampleFile));
+      }
+    }
+    try (Git git = Git.init().setDirectory(repository.toFile()).call()) {
+      git.add().addFilepattern(".").call();
+      git.commit().setMessage("Priming").setAuthor(AUTHOR).setCommitter(AUTHOR).call();
+      return git.getRepository().getBranch();
+    }
+  }
+
+  private static void deleteDirectory(Path directory) {
+    try {
+      WorkspaceManager.deleteRecursively(directory);
+    } catch (IOException e) {
+      LOGGER.warn("Could not delete " + directory, e);
+    }
+  }
+}
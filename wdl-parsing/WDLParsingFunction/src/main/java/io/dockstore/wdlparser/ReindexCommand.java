@@ -0,0 +1,376 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.BatchParsingRequest;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-validates many versions offline, such as after a womtool upgrade, instead of sending each of
+ * them through API Gateway. Reads a manifest with a LanguageParsingRequest per line and appends a
+ * {@link ReindexResult} per request to a results file as soon as it is known, also one per line.
+ *
+ * <p>The requests for the same repository and branch are parsed as one batch from a single clone,
+ * and several batches are parsed at the same time. The results file is the checkpoint: a rerun with
+ * the same files skips the requests that already have a response, so an interrupted run resumes
+ * where it stopped. Requests that failed with an error are tried again. Responses are taken from
+ * the result cache like any other; its keys include the version of the parser, so a re-index after
+ * an upgrade parses again even with a cache directory shared with the previous version.
+ *
+ * <pre>java -cp wdl-parser.jar io.dockstore.wdlparser.ReindexCommand manifest.jsonl
+ * results.jsonl [parallelism]</pre>
+ */
+public class ReindexCommand {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(ReindexCommand.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final ObjectReader REQUEST_READER = MAPPER.readerFor(LanguageParsingRequest.class);
+  private static final ObjectReader RESULT_READER = MAPPER.readerFor(ReindexResult.class);
+  private static final ObjectReader RESPONSE_READER =
+      MAPPER.readerFor(LanguageParsingResponse.class);
+  private static final ObjectWriter RESULT_WRITER = MAPPER.writer();
+  private static final int BUFFER_SIZE = 8192;
+  private static final int PARALLELISM_ARGUMENT = 2;
+  private final int parallelism;
+
+  /**
+   * Create a command.
+   *
+   * @param parallelism The number of repositories cloned and parsed at the same time
+   */
+  public ReindexCommand(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Parse the requests of a manifest that don't have a response in the results file yet.
+   *
+   * @param manifest The file with a LanguageParsingRequest per line
+   * @param results The file to append a ReindexResult per line to, created if it doesn't exist
+   * @return The summary of this run
+   * @throws IOException If the manifest can't be read or the results can't be written
+   */
+  public Summary run(Path manifest, Path results) throws IOException {
+    final long start = System.nanoTime();
+    Set<List<Object>> checkpoint = readCheckpoint(results);
+    Map<List<String>, List<LanguageParsingRequest>> batches = new LinkedHashMap<>();
+    int skipped = 0;
+    try (BufferedReader reader = Files.newBufferedReader(manifest)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.isBlank()) {
+          continue;
+        }
+        LanguageParsingRequest request = REQUEST_READER.readValue(line);
+        if (checkpoint.contains(getKey(request))) {
+          skipped++;
+        } else {
+          batches
+              .computeIfAbsent(
+                  List.of(request.getUri(), request.getBranch()), key -> new ArrayList<>())
+              .add(request);
+        }
+      }
+    }
+    Summary summary = new Summary(skipped);
+    ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+    try (Writer writer =
+        Files.newBufferedWriter(results, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      List<Future<?>> futures = new ArrayList<>();
+      for (List<LanguageParsingRequest> batch : batches.values()) {
+        futures.add(
+            executor.submit(
+                () -> {
+                  List<ReindexResult> batchResults = parse(batch);
+                  write(writer, batchResults);
+                  summary.add(batchResults);
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof UncheckedIOException
+          ? ((UncheckedIOException) e.getCause()).getCause()
+          : new IOException(e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while re-indexing", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    summary.setElapsedMillis(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    return summary;
+  }
+
+  /** Parse the requests for one repository and branch from a single clone. */
+  private static List<ReindexResult> parse(List<LanguageParsingRequest> batch) {
+    final long start = System.nanoTime();
+    BatchParsingRequest batchRequest = new BatchParsingRequest();
+    batchRequest.setUri(batch.get(0).getUri());
+    batchRequest.setBranch(batch.get(0).getBranch());
+    batchRequest.setDescriptorRelativePathsInGit(
+        batch.stream()
+            .map(LanguageParsingRequest::getDescriptorRelativePathInGit)
+            .collect(Collectors.toList()));
+    List<BatchParsingResult> batchResults = null;
+    String error = null;
+    try {
+      batchResults =
+          App.parseWdlFiles(batchRequest, new ParsingMetrics(App.LANGUAGE), Deadline.NONE)
+              .getResults();
+    } catch (IOException | GitAPIException | RuntimeException e) {
+      LOGGER.error("Could not parse " + batchRequest.getUri() + " " + batchRequest.getBranch(), e);
+      error = String.valueOf(e);
+    }
+    final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    List<ReindexResult> results = new ArrayList<>();
+    for (int i = 0; i < batch.size(); i++) {
+      ReindexResult result = new ReindexResult();
+      result.setLanguageParsingRequest(batch.get(i));
+      result.setMillis(millis);
+      if (batchResults == null) {
+        result.setError(error);
+      } else {
+        LanguageParsingResponse response = batchResults.get(i).getLanguageParsingResponse();
+        result.setError(batchResults.get(i).getError());
+        if (response != null) {
+          // Lines with the same path share a response, each keeps its own entry and version ids
+          try {
+            response = RESPONSE_READER.readValue(MAPPER.writeValueAsBytes(response));
+            response.setLanguageParsingRequest(batch.get(i));
+          } catch (IOException e) {
+            response = null;
+            result.setError(String.valueOf(e));
+          }
+        }
+        result.setLanguageParsingResponse(response);
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * Append results, a whole line at a time so that a run that is killed leaves at most one part.
+   */
+  private static void write(Writer writer, List<ReindexResult> results) {
+    synchronized (writer) {
+      try {
+        for (ReindexResult result : results) {
+          writer.write(RESULT_WRITER.writeValueAsString(result));
+          writer.write('\n');
+        }
+        writer.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /**
+   * Read the requests that already have a response. A line that a killed run didn't finish is cut
+   * off, so that the results appended after it start on a line of their own.
+   */
+  private static Set<List<Object>> readCheckpoint(Path results) throws IOException {
+    Set<List<Object>> checkpoint = new HashSet<>();
+    if (!Files.exists(results)) {
+      return checkpoint;
+    }
+    truncatePartialLine(results);
+    try (BufferedReader reader = Files.newBufferedReader(results)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        if (line.isBlank()) {
+          continue;
+        }
+        ReindexResult result = RESULT_READER.readValue(line);
+        if (result.getLanguageParsingResponse() != null) {
+          checkpoint.add(getKey(result.getLanguageParsingRequest()));
+        }
+      }
+    }
+    return checkpoint;
+  }
+
+  private static void truncatePartialLine(Path results) throws IOException {
+    try (FileChannel channel =
+        FileChannel.open(results, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+      long end = channel.size();
+      while (end > 0) {
+        long position = Math.max(0, end - BUFFER_SIZE);
+        buffer.clear().limit((int) (end - position));
+        while (buffer.hasRemaining()) {
+          if (channel.read(buffer, position + buffer.position()) < 0) {
+            break;
+          }
+        }
+        for (int i = buffer.position() - 1; i >= 0; i--) {
+          if (buffer.get(i) == '\n') {
+            channel.truncate(position + i + 1);
+            return;
+          }
+        }
+        end = position;
+      }
+      channel.truncate(0);
+    }
+  }
+
+  private static List<Object> getKey(LanguageParsingRequest request) {
+    return Arrays.asList(
+        request.getEntryId(),
+        request.getVersionId(),
+        request.getUri(),
+        request.getBranch(),
+        request.getDescriptorRelativePathInGit());
+  }
+
+  /**
+   * Run a re-index configured by the arguments and print its summary.
+   *
+   * @param args The manifest, the results file and optionally the number of repositories parsed at
+   *     the same time, one per processor by default
+   * @throws IOException If the manifest can't be read or the results can't be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < PARALLELISM_ARGUMENT || args.length > PARALLELISM_ARGUMENT + 1) {
+      throw new IllegalArgumentException(
+          "Usage: ReindexCommand <manifest.jsonl> <results.jsonl> [parallelism]");
+    }
+    int parallelism =
+        args.length > PARALLELISM_ARGUMENT
+            ? Integer.parseInt(args[PARALLELISM_ARGUMENT])
+            : Runtime.getRuntime().availableProcessors();
+    Summary summary = new ReindexCommand(parallelism).run(Path.of(args[0]), Path.of(args[1]));
+    System.out.println(summary);
+  }
+
+  /** Counts and timings of a run, the latencies are per batch of one repository and branch. */
+  public static final class Summary {
+
+    private static final int PERCENT = 100;
+    private static final int P95 = 95;
+    private final int skipped;
+    private final List<Long> batchMillis = new ArrayList<>();
+    private int parsed;
+    private int valid;
+    private int errors;
+    private long elapsedMillis;
+
+    Summary(int skipped) {
+      this.skipped = skipped;
+    }
+
+    synchronized void add(List<ReindexResult> results) {
+      batchMillis.add(results.get(0).getMillis());
+      for (ReindexResult result : results) {
+        parsed++;
+        LanguageParsingResponse response = result.getLanguageParsingResponse();
+        if (response == null) {
+          errors++;
+        } else if (Boolean.TRUE.equals(response.getVersionTypeValidation().getValid())) {
+          valid++;
+        }
+      }
+    }
+
+    void setElapsedMillis(long elapsedMillis) {
+      this.elapsedMillis = elapsedMillis;
+    }
+
+    public int getSkipped() {
+      return skipped;
+    }
+
+    public synchronized int getParsed() {
+      return parsed;
+    }
+
+    public synchronized int getValid() {
+      return valid;
+    }
+
+    public synchronized int getErrors() {
+      return errors;
+    }
+
+    public long getElapsedMillis() {
+      return elapsedMillis;
+    }
+
+    private long getPercentile(List<Long> sortedMillis, int percentile) {
+      return sortedMillis.isEmpty()
+          ? 0
+          : sortedMillis.get((sortedMillis.size() - 1) * percentile / PERCENT);
+    }
+
+    @Override
+    public synchronized String toString() {
+      List<Long> sortedMillis = new ArrayList<>(batchMillis);
+      Collections.sort(sortedMillis);
+      double seconds = Math.max(elapsedMillis, 1) / (double) TimeUnit.SECONDS.toMillis(1);
+      return String.format(
+          "Parsed %d requests (%d valid, %d invalid, %d errors) in %d batches, skipped %d already"
+              + " parsed, in %.1f s, %.2f requests/s. Batch latency p50 %d ms, p95 %d ms, max %d"
+              + " ms",
+          parsed,
+          valid,
+          parsed - valid - errors,
+          errors,
+          batchMillis.size(),
+          skipped,
+          seconds,
+          parsed / seconds,
+          getPercentile(sortedMillis, PERCENT / 2),
+          getPercentile(sortedMillis, P95),
+          getPercentile(sortedMillis, PERCENT));
+    }
+  }
+}
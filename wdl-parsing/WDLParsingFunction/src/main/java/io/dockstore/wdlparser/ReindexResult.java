@@ -0,0 +1,70 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+
+/**
+ * The outcome of one request of a re-index. Either the response is set, which may itself report an
+ * invalid descriptor, or the error says why the descriptor could not be parsed at all.
+ */
+public class ReindexResult {
+
+  private LanguageParsingRequest languageParsingRequest;
+  private LanguageParsingResponse languageParsingResponse;
+  private String error;
+  private long millis;
+
+  public LanguageParsingRequest getLanguageParsingRequest() {
+    return languageParsingRequest;
+  }
+
+  public void setLanguageParsingRequest(LanguageParsingRequest languageParsingRequest) {
+    this.languageParsingRequest = languageParsingRequest;
+  }
+
+  public LanguageParsingResponse getLanguageParsingResponse() {
+    return languageParsingResponse;
+  }
+
+  public void setLanguageParsingResponse(LanguageParsingResponse languageParsingResponse) {
+    this.languageParsingResponse = languageParsingResponse;
+  }
+
+  public String getError() {
+    return error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+
+  /**
+   * Get the time it took to clone the repository and parse the descriptors of the request's batch,
+   * which the request shares with the other requests for the same repository and branch.
+   *
+   * @return The time in milliseconds
+   */
+  public long getMillis() {
+    return millis;
+  }
+
+  public void setMillis(long millis) {
+    this.millis = millis;
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+
+/** The contents of a remote import and the validators needed to revalidate them. */
+public class RemoteImport {
+
+  private String url;
+  private String contents;
+  private String etag;
+  private String lastModified;
+  private long fetchedAtMillis;
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getContents() {
+    return contents;
+  }
+
+  public void setContents(String contents) {
+    this.contents = contents;
+  }
+
+  /**
+   * Get the ETag header of the response the contents came from.
+   *
+   * @return The ETag, null if the server didn't send one
+   */
+  public String getEtag() {
+    return etag;
+  }
+
+  public void setEtag(String etag) {
+    this.etag = etag;
+  }
+
+  /**
+   * Get the Last-Modified header of the response the contents came from.
+   *
+   * @return The date, exactly as sent, null if the server didn't send one
+   */
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  public void setLastModified(String lastModified) {
+    this.lastModified = lastModified;
+  }
+
+  /**
+   * Get when the contents were last fetched or revalidated.
+   *
+   * @return Milliseconds since the epoch
+   */
+  public long getFetchedAtMillis() {
+    return fetchedAtMillis;
+  }
+
+  public void setFetchedAtMillis(long fetchedAtMillis) {
+    this.fetchedAtMillis = fetchedAtMillis;
+  }
+}
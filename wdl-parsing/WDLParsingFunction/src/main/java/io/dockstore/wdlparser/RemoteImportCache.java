@@ -0,0 +1,320 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads remote WDL imports and keeps them for as long as the (warm) Lambda container lives, so
+ * that files imported by many workflows, like shared task libraries on GitHub, are downloaded once
+ * rather than once per validation. Both the import graph walk and womtool go through it.
+ *
+ * <p>Imports younger than the time to live are returned without a request. Older ones are
+ * revalidated with their ETag or Last-Modified date, which costs a request but not the download.
+ * The memory tier is bounded by the total size of the imports and evicts the least recently used;
+ * the optional {@link RemoteImportStore} lets imports outlive the container.
+ *
+ * <p>The timeout bounds the whole download, the body included, so that a server that sends an
+ * import a few bytes at a time can't hold a validation for longer.
+ */
+public class RemoteImportCache {
+
+  /** Environment variable with the total size of the imports kept in memory, in bytes. */
+  public static final String MAX_CACHED_BYTES_VARIABLE = "REMOTE_IMPORT_CACHE_MAX_BYTES";
+  /** Environment variable with how long an import is used without revalidation, in seconds. */
+  public static final String TIME_TO_LIVE_VARIABLE = "REMOTE_IMPORT_CACHE_TTL_SECONDS";
+  /** Environment variable with the directory that imports are also kept in, if any. */
+  public static final String DIRECTORY_VARIABLE = "REMOTE_IMPORT_CACHE_DIRECTORY";
+  /** Environment variable with the total size of the imports kept in the directory, in bytes. */
+  public static final String MAX_STORED_BYTES_VARIABLE = "REMOTE_IMPORT_CACHE_DIRECTORY_MAX_BYTES";
+
+  public static final long DEFAULT_MAX_CACHED_BYTES = 32 * 1024 * 1024;
+  public static final long DEFAULT_TIME_TO_LIVE_SECONDS = 300;
+  public static final long DEFAULT_MAX_STORED_BYTES = 128 * 1024 * 1024;
+
+  private static final int INITIAL_CAPACITY = 16;
+  private static final float LOAD_FACTOR = 0.75f;
+
+  private final long maxImportBytes;
+  private final Duration timeout;
+  private final long maxCachedBytes;
+  private final Duration timeToLive;
+  private final Optional<RemoteImportStore> store;
+  private final HttpClient httpClient;
+  private final Map<String, RemoteImport> entries =
+      new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+  private long cachedBytes;
+
+  /**
+   * Create an empty cache.
+   *
+   * @param maxImportBytes The largest import allowed
+   * @param timeout The timeout of each request, from connecting to the end of the body
+   * @param maxCachedBytes The total size of the imports kept in memory
+   * @param timeToLive How long an import is used without revalidation
+   * @param store The store that imports are also kept in, if any
+   */
+  public RemoteImportCache(
+      long maxImportBytes,
+      Duration timeout,
+      long maxCachedBytes,
+      Duration timeToLive,
+      Optional<RemoteImportStore> store) {
+    this.maxImportBytes = maxImportBytes;
+    this.timeout = timeout;
+    this.maxCachedBytes = maxCachedBytes;
+    this.timeToLive = timeToLive;
+    this.store = store;
+    this.httpClient =
+        HttpClient.newBuilder()
+            .connectTimeout(timeout)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+  }
+
+  /**
+   * Create the cache configured by the environment. The size and timeout of each import are the
+   * limits of the import graph walk.
+   *
+   * @return The configured cache
+   */
+  public static RemoteImportCache fromEnvironment() {
+    String directory = System.getenv(DIRECTORY_VARIABLE);
+    return new RemoteImportCache(
+        getLong(WdlImportGraph.MAX_BYTES_VARIABLE, WdlImportGraph.DEFAULT_MAX_BYTES),
+        Duration.ofSeconds(
+            getLong(WdlImportGraph.TIMEOUT_VARIABLE, WdlImportGraph.DEFAULT_TIMEOUT_SECONDS)),
+        getLong(MAX_CACHED_BYTES_VARIABLE, DEFAULT_MAX_CACHED_BYTES),
+        Duration.ofSeconds(getLong(TIME_TO_LIVE_VARIABLE, DEFAULT_TIME_TO_LIVE_SECONDS)),
+        directory == null || directory.isBlank()
+            ? Optional.empty()
+            : Optional.of(
+                new RemoteImportStore(
+                    Path.of(directory),
+                    getLong(MAX_STORED_BYTES_VARIABLE, DEFAULT_MAX_STORED_BYTES))));
+  }
+
+  private static long getLong(String variable, long defaultValue) {
+    String value = System.getenv(variable);
+    return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+  }
+
+  /**
+   * Get the contents of a remote import, from the cache if they are fresh or still valid.
+   *
+   * @param url The absolute URL of the import
+   * @return The contents of the import
+   * @throws TooLargeException If the import is larger than allowed
+   * @throws HttpTimeoutException If the import was not downloaded within the timeout
+   * @throws IOException If the import could not be downloaded
+   * @throws InterruptedException If interrupted while downloading
+   */
+  public String fetch(String url) throws IOException, InterruptedException {
+    Optional<RemoteImport> cached = getCached(url);
+    final long now = System.currentTimeMillis();
+    if (cached.isPresent() && now - cached.get().getFetchedAtMillis() < timeToLive.toMillis()) {
+      return cached.get().getContents();
+    }
+    HttpRequest.Builder requestBuilder;
+    try {
+      requestBuilder = HttpRequest.newBuilder(URI.create(url)).timeout(timeout).GET();
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Invalid URL " + url, e);
+    }
+    cached
+        .map(RemoteImport::getEtag)
+        .ifPresent(etag -> requestBuilder.header("If-None-Match", etag));
+    cached
+        .map(RemoteImport::getLastModified)
+        .ifPresent(date -> requestBuilder.header("If-Modified-Since", date));
+    HttpResponse<byte[]> response = send(url, requestBuilder.build());
+    RemoteImport remoteImport;
+    if (response.statusCode() == HttpURLConnection.HTTP_NOT_MODIFIED && cached.isPresent()) {
+      remoteImport = copy(cached.get());
+    } else if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+      remoteImport = new RemoteImport();
+      remoteImport.setUrl(url);
+      remoteImport.setContents(new String(response.body(), StandardCharsets.UTF_8));
+      remoteImport.setEtag(response.headers().firstValue("ETag").orElse(null));
+      remoteImport.setLastModified(response.headers().firstValue("Last-Modified").orElse(null));
+    } else {
+      throw new IOException("HTTP status " + response.statusCode());
+    }
+    remoteImport.setFetchedAtMillis(now);
+    put(remoteImport);
+    return remoteImport.getContents();
+  }
+
+  /** Send a request and wait for the whole response, its body only if the status is OK. */
+  private HttpResponse<byte[]> send(String url, HttpRequest request)
+      throws IOException, InterruptedException {
+    CompletableFuture<HttpResponse<byte[]>> response =
+        httpClient.sendAsync(
+            request,
+            responseInfo ->
+                responseInfo.statusCode() == HttpURLConnection.HTTP_OK
+                    ? new BoundedBody(url, maxImportBytes)
+                    : HttpResponse.BodySubscribers.replacing(null));
+    try {
+      return response.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    } catch (TimeoutException e) {
+      response.cancel(true);
+      throw new HttpTimeoutException("Timed out downloading " + url);
+    } catch (InterruptedException e) {
+      response.cancel(true);
+      throw e;
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CompletionException && cause.getCause() != null) {
+        cause = cause.getCause();
+      }
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Could not download " + url, cause);
+    }
+  }
+
+  private static RemoteImport copy(RemoteImport remoteImport) {
+    RemoteImport copy = new RemoteImport();
+    copy.setUrl(remoteImport.getUrl());
+    copy.setContents(remoteImport.getContents());
+    copy.setEtag(remoteImport.getEtag());
+    copy.setLastModified(remoteImport.getLastModified());
+    return copy;
+  }
+
+  private Optional<RemoteImport> getCached(String url) {
+    synchronized (this) {
+      RemoteImport remoteImport = entries.get(url);
+      if (remoteImport != null) {
+        return Optional.of(remoteImport);
+      }
+    }
+    Optional<RemoteImport> stored = store.flatMap(importStore -> importStore.get(url));
+    stored.ifPresent(this::putInMemory);
+    return stored;
+  }
+
+  private void put(RemoteImport remoteImport) {
+    putInMemory(remoteImport);
+    store.ifPresent(importStore -> importStore.put(remoteImport));
+  }
+
+  private synchronized void putInMemory(RemoteImport remoteImport) {
+    RemoteImport replaced = entries.put(remoteImport.getUrl(), remoteImport);
+    if (replaced != null) {
+      cachedBytes -= size(replaced);
+    }
+    cachedBytes += size(remoteImport);
+    Iterator<RemoteImport> leastRecentlyUsed = entries.values().iterator();
+    while (cachedBytes > maxCachedBytes && leastRecentlyUsed.hasNext()) {
+      cachedBytes -= size(leastRecentlyUsed.next());
+      leastRecentlyUsed.remove();
+    }
+  }
+
+  /** Get the size of the contents in bytes, as downloaded, not in chars. */
+  private static long size(RemoteImport remoteImport) {
+    return remoteImport.getContents().getBytes(StandardCharsets.UTF_8).length;
+  }
+
+  /** Collects a body of at most a number of bytes, and fails as soon as it is larger. */
+  private static final class BoundedBody implements HttpResponse.BodySubscriber<byte[]> {
+    private final String url;
+    private final long maxBytes;
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final CompletableFuture<byte[]> body = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+
+    BoundedBody(String url, long maxBytes) {
+      this.url = url;
+      this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public CompletionStage<byte[]> getBody() {
+      return body;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription newSubscription) {
+      subscription = newSubscription;
+      subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> buffers) {
+      if (body.isDone()) {
+        return;
+      }
+      for (ByteBuffer buffer : buffers) {
+        if (bytes.size() + (long) buffer.remaining() > maxBytes) {
+          subscription.cancel();
+          body.completeExceptionally(
+              new TooLargeException(url + " is larger than " + maxBytes + " bytes"));
+          return;
+        }
+        byte[] chunk = new byte[buffer.remaining()];
+        buffer.get(chunk);
+        bytes.write(chunk, 0, chunk.length);
+      }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+      body.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+      body.complete(bytes.toByteArray());
+    }
+  }
+
+  /** Thrown when an import is larger than allowed, which is the fault of the import itself. */
+  public static class TooLargeException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public TooLargeException(String message) {
+      super(message);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores one JSON file per remote import in a directory, named after a digest of its URL, so that
+ * imports outlive the container or are shared by containers. The files share a disk budget, after a
+ * write the least recently written are deleted until they fit. Imports are written again each time
+ * they are revalidated, so the imports still in use are the last to go.
+ */
+public class RemoteImportStore {
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(RemoteImportStore.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String SUFFIX = ".json";
+  private final Path directory;
+  private final DirectoryBudget budget;
+
+  /**
+   * Create a store.
+   *
+   * @param directory The directory of the imports, created on the first write
+   * @param maxBytes The disk budget of the imports
+   */
+  public RemoteImportStore(Path directory, long maxBytes) {
+    this.directory = directory;
+    this.budget = new DirectoryBudget(directory, "*" + SUFFIX, maxBytes);
+  }
+
+  /**
+   * Get a stored import.
+   *
+   * @param url The absolute URL of the import
+   * @return The import, empty if it isn't stored or can't be read
+   */
+  public Optional<RemoteImport> get(String url) {
+    Path file = getFile(url);
+    RemoteImport remoteImport;
+    try {
+      remoteImport = MAPPER.readValue(Files.readString(file), RemoteImport.class);
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      LOGGER.error("Could not read stored import " + file, e);
+      return Optional.empty();
+    }
+    // The file name is a digest, so make sure that the stored import is for this URL
+    return url.equals(remoteImport.getUrl()) ? Optional.of(remoteImport) : Optional.empty();
+  }
+
+  /**
+   * Store an import, replacing the one stored for its URL, and evict imports beyond the budget. A
+   * failure is logged, it only costs a future download.
+   *
+   * @param remoteImport The import
+   */
+  public void put(RemoteImport remoteImport) {
+    String url = remoteImport.getUrl();
+    try {
+      Files.createDirectories(directory);
+      // Write to a temporary file first so that concurrent readers never see a partial import
+      Path temporaryFile = Files.createTempFile(directory, ParsingResultCache.digest(url), ".tmp");
+      Files.writeString(temporaryFile, MAPPER.writeValueAsString(remoteImport));
+      Files.move(
+          temporaryFile,
+          getFile(url),
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.error("Could not store import " + url, e);
+      return;
+    }
+    budget.evict();
+  }
+
+  private Path getFile(String url) {
+    return directory.resolve(ParsingResultCache.digest(url) + SUFFIX);
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.amazonaws.services.lambda.runtime.RequestStreamHandler;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.CharArrayReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import javax.ws.rs.core.MediaType;
+
+/**
+ * Handler for requests to Lambda function that reads the API Gateway proxy event and writes the
+ * response event itself, instead of letting the runtime map them to POJOs. The request is decoded
+ * from the characters of the event as it is parsed, and the response is escaped straight into the
+ * output, so a large response is not copied through several Strings on its way out.
+ *
+ * <p>Otherwise it responds like {@link App}, which it shares the parsing and caches with.
+ */
+public class StreamingApp implements RequestStreamHandler {
+
+  private static final JsonFactory JSON_FACTORY = App.MAPPER.getFactory();
+
+  @Override
+  public void handleRequest(InputStream input, OutputStream output, Context context)
+      throws IOException {
+    ParsingMetrics metrics = new ParsingMetrics(App.LANGUAGE);
+    App.Reply reply = respond(input, metrics, Deadline.fromContext(context));
+    try (JsonGenerator generator = JSON_FACTORY.createGenerator(output)) {
+      generator.writeStartObject();
+      // The body goes first, so that the timing header includes its encoding
+      try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.ENCODE)) {
+        reply.writeBody(generator, "body", App.RESPONSE_WRITER);
+      } catch (IOException e) {
+        reply = App.unencodable(e);
+        reply.writeBody(generator, "body", App.RESPONSE_WRITER);
+      }
+      generator.writeNumberField("statusCode", reply.getStatusCode());
+      generator.writeObjectFieldStart("headers");
+      generator.writeStringField("Content-Type", MediaType.APPLICATION_JSON);
+      generator.writeStringField(App.SERVER_TIMING_HEADER, metrics.toServerTiming());
+      generator.writeEndObject();
+      generator.writeEndObject();
+    }
+    metrics.log(reply.getStatusCode());
+  }
+
+  private static App.Reply respond(InputStream input, ParsingMetrics metrics, Deadline deadline) {
+    final App.Parser parser;
+    try (ParsingMetrics.Timer timer = metrics.time(ParsingMetrics.DECODE)) {
+      parser = decode(input, metrics, deadline);
+    } catch (IOException e) {
+      return App.undecodable(e);
+    }
+    return parser == null ? App.Reply.NO_BODY : App.parse(parser);
+  }
+
+  /**
+   * Read the path and body of an event in one pass, skipping the other fields.
+   *
+   * @return The parser of the request in the body, null if the event has no body
+   */
+  private static App.Parser decode(InputStream input, ParsingMetrics metrics, Deadline deadline)
+      throws IOException {
+    String path = null;
+    String body = null;
+    App.Parser parser = null;
+    try (JsonParser jsonParser = JSON_FACTORY.createParser(input)) {
+      if (jsonParser.nextToken() != JsonToken.START_OBJECT) {
+        throw new JsonParseException(jsonParser, "Expected an API Gateway proxy event");
+      }
+      while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+        String fieldName = jsonParser.getCurrentName();
+        JsonToken token = jsonParser.nextToken();
+        if (token == JsonToken.VALUE_STRING && "path".equals(fieldName)) {
+          path = jsonParser.getText();
+        } else if (token == JsonToken.VALUE_STRING && "body".equals(fieldName)) {
+          if (path == null) {
+            // API Gateway puts the path first, otherwise the body is decoded once the path is known
+            body = jsonParser.getText();
+          } else {
+            parser =
+                App.decode(
+                    path,
+                    new CharArrayReader(
+                        jsonParser.getTextCharacters(),
+                        jsonParser.getTextOffset(),
+                        jsonParser.getTextLength()),
+                    metrics,
+                    deadline);
+          }
+        } else {
+          jsonParser.skipChildren();
+        }
+      }
+    }
+    if (body != null) {
+      parser = App.decode(path, new StringReader(body), metrics, deadline);
+    }
+    return parser;
+  }
+}
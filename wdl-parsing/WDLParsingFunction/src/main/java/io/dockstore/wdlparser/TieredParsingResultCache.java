@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.util.Optional;
+
+/** Checks a fast cache before a slower, shared one and copies hits into the fast cache. */
+public class TieredParsingResultCache implements ParsingResultCache {
+
+  private final ParsingResultCache fastCache;
+  private final ParsingResultCache sharedCache;
+
+  public TieredParsingResultCache(ParsingResultCache fastCache, ParsingResultCache sharedCache) {
+    this.fastCache = fastCache;
+    this.sharedCache = sharedCache;
+  }
+
+  @Override
+  public Optional<String> get(String key) {
+    Optional<String> response = fastCache.get(key);
+    if (response.isEmpty()) {
+      response = sharedCache.get(key);
+      response.ifPresent(serializedResponse -> fastCache.put(key, serializedResponse));
+    }
+    return response;
+  }
+
+  @Override
+  public void put(String key, String serializedResponse) {
+    fastCache.put(key, serializedResponse);
+    sharedCache.put(key, serializedResponse);
+  }
+
+  @Override
+  public void remove(String key) {
+    fastCache.remove(key);
+    sharedCache.remove(key);
+  }
+}
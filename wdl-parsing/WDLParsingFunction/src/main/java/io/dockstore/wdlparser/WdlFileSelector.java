@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import io.dockstore.parsing.FileSelector;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/** Selects a WDL descriptor and the local files it imports, transitively. */
+public class WdlFileSelector implements FileSelector {
+
+  private final String descriptorRelativePathInGit;
+
+  public WdlFileSelector(String descriptorRelativePathInGit) {
+    this.descriptorRelativePathInGit = FileSelector.stripLeadingSlash(descriptorRelativePathInGit);
+  }
+
+  @Override
+  public List<String> getRequiredPaths() {
+    return List.of(descriptorRelativePathInGit);
+  }
+
+  @Override
+  public List<String> getOptionalPaths() {
+    return List.of();
+  }
+
+  @Override
+  public List<List<String>> getReferencedPaths(String path, String contents) {
+    List<List<String>> references = new ArrayList<>();
+    for (String importPath : WdlImportScanner.scan(contents)) {
+      // HTTP imports are fetched by womtool itself
+      if (WdlImportScanner.isHttpImport(importPath)) {
+        continue;
+      }
+      // Like the import graph, an import not next to its file is looked for next to the descriptor
+      List<String> paths = new ArrayList<>();
+      for (Path importedPath :
+          WdlImportScanner.getLocalImportPaths(
+              Path.of(descriptorRelativePathInGit), Path.of(path), importPath)) {
+        FileSelector.toRepositoryPath(importedPath).ifPresent(paths::add);
+      }
+      if (!paths.isEmpty()) {
+        references.add(paths);
+      }
+    }
+    return references;
+  }
+
+  @Override
+  public boolean mayBeSelected(String path) {
+    return path.equals(descriptorRelativePathInGit) || path.endsWith(".wdl");
+  }
+}
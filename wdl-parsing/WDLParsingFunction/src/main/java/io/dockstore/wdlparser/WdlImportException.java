@@ -0,0 +1,40 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+
+/** Thrown when the import graph of a workflow is recursive, too large or can't be fetched. */
+public class WdlImportException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+  private final String file;
+
+  /**
+   * Create an exception.
+   *
+   * @param file The absolute path or URL of the file whose import failed
+   * @param message What failed, naming the files involved
+   */
+  public WdlImportException(String file, String message) {
+    super(message);
+    this.file = file;
+  }
+
+  public String getFile() {
+    return file;
+  }
+}
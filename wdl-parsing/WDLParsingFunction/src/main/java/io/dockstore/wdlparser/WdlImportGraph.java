@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Walks the import graph of a WDL workflow before womtool loads it. Womtool follows imports
+ * recursively, so a recursive import overflows the stack and an adversarial graph can use the whole
+ * timeout. This walk is iterative and bounded by depth, number of files, file size and HTTP
+ * timeout, and fails fast with an error that names the cycle or the limit. HTTP imports are
+ * downloaded through the same {@link RemoteImportCache} as womtool uses, so they are only
+ * downloaded once.
+ *
+ * <p>Like womtool, a local import that is not next to the importing file is looked for next to the
+ * main descriptor. An import found in neither place is skipped rather than failed, womtool reports
+ * it if it is really missing.
+ */
+public class WdlImportGraph {
+
+  /** Environment variable with the longest chain of imports allowed. */
+  public static final String MAX_DEPTH_VARIABLE = "WDL_IMPORT_MAX_DEPTH";
+  /** Environment variable with the most files, including the main descriptor, allowed. */
+  public static final String MAX_FILES_VARIABLE = "WDL_IMPORT_MAX_FILES";
+  /** Environment variable with the largest imported file allowed, in bytes. */
+  public static final String MAX_BYTES_VARIABLE = "WDL_IMPORT_MAX_BYTES";
+  /** Environment variable with the timeout of each HTTP import, in seconds, read by the cache. */
+  public static final String TIMEOUT_VARIABLE = "WDL_IMPORT_TIMEOUT_SECONDS";
+
+  public static final int DEFAULT_MAX_DEPTH = 32;
+  public static final int DEFAULT_MAX_FILES = 500;
+  public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+  public static final long DEFAULT_TIMEOUT_SECONDS = 10;
+
+  private final int maxDepth;
+  private final int maxFiles;
+  private final long maxBytes;
+  private final RemoteImportCache remoteImportCache;
+
+  /**
+   * Create a walker.
+   *
+   * @param maxDepth The longest chain of imports allowed, the main descriptor is at depth 0
+   * @param maxFiles The most files allowed, including the main descriptor
+   * @param maxBytes The largest file allowed
+   * @param remoteImportCache The cache that HTTP imports are downloaded through
+   */
+  public WdlImportGraph(
+      int maxDepth, int maxFiles, long maxBytes, RemoteImportCache remoteImportCache) {
+    this.maxDepth = maxDepth;
+    this.maxFiles = maxFiles;
+    this.maxBytes = maxBytes;
+    this.remoteImportCache = remoteImportCache;
+  }
+
+  /**
+   * Create the walker configured by the environment.
+   *
+   * @param remoteImportCache The cache that HTTP imports are downloaded through
+   * @return The configured walker
+   */
+  public static WdlImportGraph fromEnvironment(RemoteImportCache remoteImportCache) {
+    return new WdlImportGraph(
+        (int) getLong(MAX_DEPTH_VARIABLE, DEFAULT_MAX_DEPTH),
+        (int) getLong(MAX_FILES_VARIABLE, DEFAULT_MAX_FILES),
+        getLong(MAX_BYTES_VARIABLE, DEFAULT_MAX_BYTES),
+        remoteImportCache);
+  }
+
+  private static long getLong(String variable, long defaultValue) {
+    String value = System.getenv(variable);
+    return value == null || value.isBlank() ? defaultValue : Long.parseLong(value.trim());
+  }
+
+  /**
+   * Walk the import graph depth first.
+   *
+   * @param mainDescriptor The absolute path of the main descriptor
+   * @return The absolute paths and URLs of every file reached, the main descriptor first
+   * @throws WdlImportException If the graph has a cycle, exceeds a limit or an HTTP import fails
+   */
+  public Set<String> walk(Path mainDescriptor) throws WdlImportException {
+    String mainFile = mainDescriptor.toString();
+    Set<String> files = new LinkedHashSet<>();
+    files.add(mainFile);
+    // The chain of imports from the main descriptor to the file being walked
+    Deque<ImportFrame> chain = new ArrayDeque<>();
+    Set<String> filesInChain = new HashSet<>();
+    Optional<String> mainContents = read(mainFile, mainFile);
+    if (mainContents.isEmpty()) {
+      return files;
+    }
+    chain.push(new ImportFrame(mainFile, mainContents.get()));
+    filesInChain.add(mainFile);
+    while (!chain.isEmpty()) {
+      ImportFrame frame = chain.peek();
+      if (!frame.imports.hasNext()) {
+        filesInChain.remove(chain.pop().file);
+        continue;
+      }
+      String importedFile = resolve(mainFile, frame.file, frame.imports.next());
+      if (filesInChain.contains(importedFile)) {
+        throw new WdlImportException(
+            importedFile, "Recursive import: " + describeCycle(chain, importedFile));
+      }
+      // A file imported twice through different chains is only walked once
+      if (files.contains(importedFile)) {
+        continue;
+      }
+      if (chain.size() > maxDepth) {
+        throw new WdlImportException(
+            importedFile,
+            "Imports are nested more than " + maxDepth + " deep: " + describeChain(chain));
+      }
+      if (files.size() >= maxFiles) {
+        throw new WdlImportException(
+            importedFile, "The workflow imports more than " + (maxFiles - 1) + " files");
+      }
+      files.add(importedFile);
+      Optional<String> contents = read(frame.file, importedFile);
+      if (contents.isPresent()) {
+        chain.push(new ImportFrame(importedFile, contents.get()));
+        filesInChain.add(importedFile);
+      }
+    }
+    return files;
+  }
+
+  private static String resolve(String mainFile, String fromFile, String importPath) {
+    if (WdlImportScanner.isHttpImport(importPath)) {
+      return importPath;
+    }
+    if (WdlImportScanner.isHttpImport(fromFile)) {
+      return URI.create(fromFile).resolve(importPath).toString();
+    }
+    List<Path> paths =
+        WdlImportScanner.getLocalImportPaths(Path.of(mainFile), Path.of(fromFile), importPath);
+    return paths.stream().filter(Files::isRegularFile).findFirst().orElse(paths.get(0)).toString();
+  }
+
+  private static String describeCycle(Deque<ImportFrame> chain, String importedFile) {
+    List<String> cycle = new ArrayList<>();
+    Iterator<ImportFrame> fromMainDescriptor = chain.descendingIterator();
+    boolean inCycle = false;
+    while (fromMainDescriptor.hasNext()) {
+      String file = fromMainDescriptor.next().file;
+      inCycle = inCycle || file.equals(importedFile);
+      if (inCycle) {
+        cycle.add(file);
+      }
+    }
+    cycle.add(importedFile);
+    return String.join(" -> ", cycle);
+  }
+
+  private static String describeChain(Deque<ImportFrame> chain) {
+    List<String> files = new ArrayList<>();
+    chain.descendingIterator().forEachRemaining(frame -> files.add(frame.file));
+    return String.join(" -> ", files);
+  }
+
+  /** Read a file, empty if it is a local file that doesn't exist. */
+  private Optional<String> read(String fromFile, String file) throws WdlImportException {
+    if (WdlImportScanner.isHttpImport(file)) {
+      return Optional.of(fetch(fromFile, file));
+    }
+    Path path = Path.of(file);
+    try {
+      if (!Files.isRegularFile(path)) {
+        return Optional.empty();
+      }
+      if (Files.size(path) > maxBytes) {
+        throw new WdlImportException(file, file + " is larger than " + maxBytes + " bytes");
+      }
+      return Optional.of(Files.readString(path, StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      // Left for womtool to report
+      return Optional.empty();
+    }
+  }
+
+  private String fetch(String fromFile, String url) throws WdlImportException {
+    try {
+      return remoteImportCache.fetch(url);
+    } catch (RemoteImportCache.TooLargeException e) {
+      throw new WdlImportException(url, e.getMessage());
+    } catch (IOException e) {
+      throw new WdlImportException(fromFile, "Could not import " + url + ": " + e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new WdlImportException(fromFile, "Interrupted while importing " + url);
+    }
+  }
+
+  /** A file in the chain of imports and the imports of it that are left to walk. */
+  private static final class ImportFrame {
+    private final String file;
+    private final Iterator<String> imports;
+
+    ImportFrame(String file, String contents) {
+      this.file = file;
+      this.imports = WdlImportScanner.scan(contents).iterator();
+    }
+  }
+}
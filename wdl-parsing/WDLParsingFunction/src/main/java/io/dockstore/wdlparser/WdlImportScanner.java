@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Finds the import statements of a WDL file without parsing the rest of the document. */
+public final class WdlImportScanner {
+
+  // Imports must start a line, which skips commented out imports
+  private static final Pattern IMPORT_PATTERN =
+      Pattern.compile("^\\s*import\\s+([\"'])(.+?)\\1", Pattern.MULTILINE);
+
+  private WdlImportScanner() {
+    // hide the default constructor for a utility class
+  }
+
+  /**
+   * Get the targets of the import statements, in the order they appear.
+   *
+   * @param contents The contents of a WDL file
+   * @return The imported paths or URLs, exactly as written
+   */
+  public static List<String> scan(String contents) {
+    List<String> imports = new ArrayList<>();
+    Matcher matcher = IMPORT_PATTERN.matcher(contents);
+    while (matcher.find()) {
+      imports.add(matcher.group(2));
+    }
+    return imports;
+  }
+
+  /**
+   * Check whether an import is fetched over HTTP rather than read from the repository.
+   *
+   * @param importPath The imported path or URL
+   * @return true for http and https URLs
+   */
+  public static boolean isHttpImport(String importPath) {
+    return importPath.startsWith("http://") || importPath.startsWith("https://");
+  }
+
+  /**
+   * Get where a local import may be, in the order womtool looks for it: next to the importing file,
+   * then next to the main descriptor.
+   *
+   * @param mainDescriptor The path of the main descriptor
+   * @param importingFile The path of the file with the import statement
+   * @param importPath The imported path, as written
+   * @return The normalized paths, without duplicates
+   */
+  public static List<Path> getLocalImportPaths(
+      Path mainDescriptor, Path importingFile, String importPath) {
+    Path sibling = importingFile.resolveSibling(importPath).normalize();
+    Path fromMainDirectory = mainDescriptor.resolveSibling(importPath).normalize();
+    return sibling.equals(fromMainDirectory)
+        ? List.of(sibling)
+        : List.of(sibling, fromMainDirectory);
+  }
+}
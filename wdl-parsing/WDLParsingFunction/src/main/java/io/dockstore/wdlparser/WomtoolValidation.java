@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** The outcome of loading a WDL workflow with womtool, as structured data. */
+public final class WomtoolValidation {
+
+  // Womtool nests the errors of imported files in one message per failed import
+  private static final Pattern FAILED_IMPORT_PATTERN =
+      Pattern.compile("Failed to import '([^']+)'");
+  private final boolean valid;
+  private final List<String> dependencies;
+  private final List<String> errors;
+
+  private WomtoolValidation(boolean valid, List<String> dependencies, List<String> errors) {
+    this.valid = valid;
+    this.dependencies = List.copyOf(dependencies);
+    this.errors = List.copyOf(errors);
+  }
+
+  /**
+   * Create the result of a workflow that loaded.
+   *
+   * @param dependencies The resolved paths and URLs of every file imported, transitively
+   * @return The validation
+   */
+  public static WomtoolValidation valid(List<String> dependencies) {
+    return new WomtoolValidation(true, dependencies, List.of());
+  }
+
+  /**
+   * Create the result of a workflow that didn't load.
+   *
+   * @param errors The error messages from womtool
+   * @return The validation
+   */
+  public static WomtoolValidation invalid(List<String> errors) {
+    return new WomtoolValidation(false, List.of(), errors);
+  }
+
+  public boolean isValid() {
+    return valid;
+  }
+
+  public List<String> getDependencies() {
+    return dependencies;
+  }
+
+  public List<String> getErrors() {
+    return errors;
+  }
+
+  /**
+   * Group the error messages by the file that caused them. An error is attributed to the innermost
+   * import it was reported through, otherwise to the main descriptor.
+   *
+   * @param mainDescriptor The absolute path of the main descriptor
+   * @return The error messages, one line each, keyed by absolute path or URL
+   */
+  public Map<String, String> getMessagesByFile(Path mainDescriptor) {
+    Map<String, String> messages = new LinkedHashMap<>();
+    for (String error : errors) {
+      messages.merge(
+          getCausingFile(mainDescriptor, error),
+          error,
+          (first, second) -> first + System.lineSeparator() + second);
+    }
+    return messages;
+  }
+
+  private static String getCausingFile(Path mainDescriptor, String error) {
+    String file = mainDescriptor.toString();
+    List<String> importPaths = new ArrayList<>();
+    Matcher matcher = FAILED_IMPORT_PATTERN.matcher(error);
+    while (matcher.find()) {
+      importPaths.add(matcher.group(1));
+    }
+    // Each nested import is found like womtool found it, from the file that imported it
+    for (String importPath : importPaths) {
+      if (WdlImportScanner.isHttpImport(importPath)) {
+        file = importPath;
+      } else if (WdlImportScanner.isHttpImport(file)) {
+        file = URI.create(file).resolve(importPath).toString();
+      } else {
+        file = getLocalImport(mainDescriptor, Path.of(file), importPath).toString();
+      }
+    }
+    return file;
+  }
+
+  /** Get the first place womtool looks for a local import that has the file, or else the first. */
+  private static Path getLocalImport(Path mainDescriptor, Path importingFile, String importPath) {
+    List<Path> candidates =
+        WdlImportScanner.getLocalImportPaths(mainDescriptor, importingFile, importPath);
+    return candidates.stream().filter(Files::exists).findFirst().orElse(candidates.get(0));
+  }
+}
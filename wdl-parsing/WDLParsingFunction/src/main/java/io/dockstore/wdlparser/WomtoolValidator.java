@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import java.nio.file.Path;
+
+/** Validates WDL workflows with womtool, in this JVM or in a pool of worker JVMs. */
+public interface WomtoolValidator {
+
+  /**
+   * Environment variable with the number of worker JVMs that validate workflows. Unset or 0,
+   * workflows are validated in this JVM.
+   */
+  String WORKERS_VARIABLE = "WOMTOOL_WORKERS";
+
+  /**
+   * Validate a WDL workflow and list the files it imports.
+   *
+   * @param mainDescriptor Absolute path to the main descriptor file
+   * @return The dependencies if the workflow is valid, the errors otherwise
+   */
+  WomtoolValidation validate(Path mainDescriptor);
+
+  /**
+   * Validate a WDL workflow and list the files it imports, giving up at a deadline where womtool
+   * can be stopped. Womtool in this JVM ignores interrupts, so by default the deadline is ignored.
+   *
+   * @param mainDescriptor Absolute path to the main descriptor file
+   * @param deadline The deadline of the request
+   * @return The dependencies if the workflow is valid, the errors otherwise
+   * @throws DeadlineExceededException If the deadline expired before the workflow was validated
+   */
+  default WomtoolValidation validate(Path mainDescriptor, Deadline deadline)
+      throws DeadlineExceededException {
+    return validate(mainDescriptor);
+  }
+
+  /**
+   * Create the validator configured by the environment.
+   *
+   * @param remoteImportCache The cache that HTTP imports are downloaded through in this JVM
+   * @return The configured validator
+   */
+  static WomtoolValidator fromEnvironment(RemoteImportCache remoteImportCache) {
+    String workers = System.getenv(WORKERS_VARIABLE);
+    if (workers == null || workers.isBlank() || Integer.parseInt(workers.trim()) == 0) {
+      return mainDescriptor -> WomtoolBridge.validate(mainDescriptor, remoteImportCache);
+    }
+    return WomtoolWorkerPool.fromEnvironment(Integer.parseInt(workers.trim()));
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The main class of a worker JVM of {@link WomtoolWorkerPool}. It reads one task per line from
+ * standard input, a JSON object with the path of a main descriptor, validates the workflow and
+ * writes the validation as one JSON line to standard output. It exits at the end of its input.
+ *
+ * <p>A result asks to recycle the worker when womtool overflowed the stack, or when the heap that
+ * survived the last garbage collection grew past most of the maximum heap.
+ */
+public final class WomtoolWorker {
+
+  static final String DESCRIPTOR = "descriptor";
+  static final String VALID = "valid";
+  static final String DEPENDENCIES = "dependencies";
+  static final String ERRORS = "errors";
+  static final String RECYCLE = "recycle";
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final double MAX_RETAINED_HEAP_FRACTION = 0.75;
+  private static final String PRIMING_WORKFLOW = "version 1.0\n\nworkflow priming {\n}\n";
+
+  private WomtoolWorker() {
+    // hide the default constructor for a main class
+  }
+
+  /**
+   * Validate workflows until the end of standard input.
+   *
+   * @param args Not used
+   * @throws IOException If the pool could not be read from or written to
+   */
+  public static void main(String[] args) throws IOException {
+    // The results own standard output, anything womtool prints goes to standard error instead
+    PrintStream standardOutput = System.out;
+    System.setOut(System.err);
+    RemoteImportCache remoteImportCache = RemoteImportCache.fromEnvironment();
+    prime(remoteImportCache);
+    BufferedReader tasks =
+        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+    Writer results =
+        new BufferedWriter(new OutputStreamWriter(standardOutput, StandardCharsets.UTF_8));
+    for (String task = tasks.readLine(); task != null; task = tasks.readLine()) {
+      Path mainDescriptor = Path.of(MAPPER.readTree(task).get(DESCRIPTOR).asText());
+      ObjectNode result = MAPPER.createObjectNode();
+      WomtoolValidation validation;
+      try {
+        validation = WomtoolBridge.validate(mainDescriptor, remoteImportCache);
+      } catch (StackOverflowError e) {
+        validation =
+            WomtoolValidation.invalid(
+                List.of(
+                    "Womtool ran out of stack validating the workflow, it is nested too deeply"));
+        result.put(RECYCLE, true);
+      }
+      result.put(VALID, validation.isValid());
+      validation.getDependencies().forEach(result.putArray(DEPENDENCIES)::add);
+      validation.getErrors().forEach(result.putArray(ERRORS)::add);
+      if (getRetainedHeapBytes() > MAX_RETAINED_HEAP_FRACTION * Runtime.getRuntime().maxMemory()) {
+        result.put(RECYCLE, true);
+      }
+      results.write(result.toString());
+      results.write('\n');
+      results.flush();
+    }
+  }
+
+  /** Load womtool and its language factories before the first task, like the function does. */
+  private static void prime(RemoteImportCache remoteImportCache) throws IOException {
+    Path workflow = Files.createTempFile("priming", ".wdl");
+    try {
+      Files.writeString(workflow, PRIMING_WORKFLOW);
+      WomtoolBridge.validate(workflow, remoteImportCache);
+    } finally {
+      Files.delete(workflow);
+    }
+  }
+
+  /** Get the heap in use after the last garbage collection, which is what the worker retains. */
+  private static long getRetainedHeapBytes() {
+    long bytes = 0;
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      MemoryUsage usage = pool.getCollectionUsage();
+      if (pool.getType() == MemoryType.HEAP && usage != null) {
+        bytes += usage.getUsed();
+      }
+    }
+    return bytes;
+  }
+}
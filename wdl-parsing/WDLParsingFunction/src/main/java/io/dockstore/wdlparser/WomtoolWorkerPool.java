@@ -0,0 +1,320 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.crac.Context;
+import org.crac.Core;
+import org.crac.Resource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Validates workflows in a pool of worker JVMs running {@link WomtoolWorker}, so that a
+ * pathological workflow that exhausts the heap or the stack of womtool takes down a worker, not the
+ * function. Each worker has a heap and stack of its own and validates one workflow at a time, so
+ * independent descriptors are validated in parallel by as many workers as there are.
+ *
+ * <p>Workers are started with the pool, and again as soon as one exits or is recycled, so that a
+ * task rarely waits for a JVM to start. A worker is recycled after a number of tasks, or when it
+ * reports that womtool overflowed its stack or that most of its heap is retained. A worker that is
+ * still validating when the deadline of the request expires is killed and replaced, so that a
+ * workflow that loops or grows exponentially doesn't keep it. Worker processes don't survive a
+ * SnapStart restore, the pool starts them again right after it.
+ *
+ * <p>The import graph is still walked in this JVM before a workflow is handed to a worker.
+ */
+public class WomtoolWorkerPool implements WomtoolValidator, Resource, AutoCloseable {
+
+  /** Environment variable with the maximum heap of a worker, as given to -Xmx. */
+  public static final String HEAP_VARIABLE = "WOMTOOL_WORKER_HEAP";
+  /** Environment variable with the stack size of a worker thread, as given to -Xss. */
+  public static final String STACK_VARIABLE = "WOMTOOL_WORKER_STACK";
+  /** Environment variable with the number of tasks after which a worker is recycled. */
+  public static final String MAX_TASKS_VARIABLE = "WOMTOOL_WORKER_MAX_TASKS";
+
+  public static final String DEFAULT_HEAP = "256m";
+  public static final String DEFAULT_STACK = "8m";
+  public static final int DEFAULT_MAX_TASKS = 100;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(WomtoolWorkerPool.class);
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  // Kills the workers that are still validating at the deadline of their request
+  private static final ScheduledExecutorService WATCHDOG =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, "womtool-watchdog");
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final List<String> command;
+  private final int maxTasks;
+  private final BlockingQueue<Worker> idleWorkers = new LinkedBlockingQueue<>();
+  private final AtomicInteger startedWorkers = new AtomicInteger();
+
+  /**
+   * Create a pool and start its workers.
+   *
+   * @param workers The number of workers
+   * @param heap The maximum heap of a worker, like 256m
+   * @param stack The stack size of a worker thread, like 8m
+   * @param maxTasks The number of tasks after which a worker is recycled
+   */
+  public WomtoolWorkerPool(int workers, String heap, String stack, int maxTasks) {
+    this(
+        List.of(
+            Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+            "-Xmx" + heap,
+            "-Xss" + stack,
+            // An exhausted heap ends the worker, the pool starts another one
+            "-XX:+ExitOnOutOfMemoryError",
+            "-XX:TieredStopAtLevel=1",
+            "-cp",
+            getClasspath(),
+            WomtoolWorker.class.getName()),
+        workers,
+        maxTasks);
+  }
+
+  WomtoolWorkerPool(List<String> command, int workers, int maxTasks) {
+    this.command = command;
+    this.maxTasks = maxTasks;
+    for (int i = 0; i < workers; i++) {
+      Worker worker = new Worker();
+      worker.start();
+      idleWorkers.add(worker);
+    }
+  }
+
+  /**
+   * Create the pool configured by the environment.
+   *
+   * @param workers The number of workers
+   * @return The configured pool, with its workers started and registered to restart after a
+   *     SnapStart restore, the caller must hold on to it
+   */
+  public static WomtoolWorkerPool fromEnvironment(int workers) {
+    String heap = System.getenv(HEAP_VARIABLE);
+    String stack = System.getenv(STACK_VARIABLE);
+    String maxTasks = System.getenv(MAX_TASKS_VARIABLE);
+    WomtoolWorkerPool pool =
+        new WomtoolWorkerPool(
+            workers,
+            heap == null || heap.isBlank() ? DEFAULT_HEAP : heap.trim(),
+            stack == null || stack.isBlank() ? DEFAULT_STACK : stack.trim(),
+            maxTasks == null || maxTasks.isBlank()
+                ? DEFAULT_MAX_TASKS
+                : Integer.parseInt(maxTasks.trim()));
+    Core.getGlobalContext().register(pool);
+    return pool;
+  }
+
+  /**
+   * Get the classpath of the workers. Lambda loads the function from its code directory rather than
+   * the classpath of the JVM, so that directory or jar comes first.
+   */
+  private static String getClasspath() {
+    List<String> classpath = new ArrayList<>();
+    CodeSource codeSource = WomtoolWorker.class.getProtectionDomain().getCodeSource();
+    if (codeSource != null) {
+      try {
+        Path location = Path.of(codeSource.getLocation().toURI());
+        classpath.add(location.toString());
+        // The dependencies of a function deployed as a directory
+        classpath.add(location.resolve("lib").resolve("*").toString());
+      } catch (URISyntaxException e) {
+        LOGGER.warn("Could not locate the classes of the workers", e);
+      }
+    }
+    classpath.add(System.getProperty("java.class.path"));
+    return String.join(File.pathSeparator, classpath);
+  }
+
+  @Override
+  public WomtoolValidation validate(Path mainDescriptor) {
+    return validate(mainDescriptor, Deadline.NONE);
+  }
+
+  @Override
+  public WomtoolValidation validate(Path mainDescriptor, Deadline deadline)
+      throws DeadlineExceededException {
+    Worker worker;
+    try {
+      worker = idleWorkers.poll(deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return WomtoolValidation.invalid(List.of("Interrupted waiting for a womtool worker"));
+    }
+    if (worker == null) {
+      throw new DeadlineExceededException(ParsingMetrics.PARSE);
+    }
+    try {
+      return worker.validate(mainDescriptor, deadline);
+    } catch (DeadlineExceededException e) {
+      LOGGER.warn("Killed the womtool worker validating {} at the deadline", mainDescriptor);
+      worker.recycle();
+      throw e;
+    } catch (IOException e) {
+      LOGGER.error("Womtool worker failed validating " + mainDescriptor, e);
+      worker.recycle();
+      return WomtoolValidation.invalid(
+          List.of(
+              "Womtool exited validating the workflow, it may need more than the "
+                  + HEAP_VARIABLE
+                  + " or "
+                  + STACK_VARIABLE
+                  + " of a worker"));
+    } finally {
+      idleWorkers.add(worker);
+    }
+  }
+
+  @Override
+  public void beforeCheckpoint(Context<? extends Resource> context) {
+    // The workers are still needed by priming, which may run before or after this
+  }
+
+  /** Start the workers again, their processes were not part of the snapshot. */
+  @Override
+  public void afterRestore(Context<? extends Resource> context) {
+    List<Worker> workers = new ArrayList<>();
+    idleWorkers.drainTo(workers);
+    workers.forEach(Worker::recycle);
+    idleWorkers.addAll(workers);
+  }
+
+  /** Stop the workers, which exit at the end of their input. */
+  @Override
+  public void close() {
+    idleWorkers.forEach(Worker::stop);
+  }
+
+  int getStartedWorkers() {
+    return startedWorkers.get();
+  }
+
+  /** One worker JVM, used by one task at a time. */
+  private final class Worker {
+
+    private Process process;
+    private Writer tasks;
+    private BufferedReader results;
+    private int completedTasks;
+
+    /** Start the JVM, a failure is logged and retried by the next task. */
+    void start() {
+      try {
+        process =
+            new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+      } catch (IOException e) {
+        LOGGER.error("Could not start a womtool worker", e);
+        return;
+      }
+      startedWorkers.incrementAndGet();
+      tasks =
+          new BufferedWriter(
+              new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+      results =
+          new BufferedReader(
+              new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+      completedTasks = 0;
+    }
+
+    WomtoolValidation validate(Path mainDescriptor, Deadline deadline) throws IOException {
+      if (process == null || !process.isAlive()) {
+        recycle();
+      }
+      if (process == null) {
+        throw new IOException("No womtool worker is running");
+      }
+      Process running = process;
+      ScheduledFuture<?> watchdog =
+          deadline == Deadline.NONE
+              ? null
+              : WATCHDOG.schedule(
+                  running::destroyForcibly, deadline.getRemainingMillis(), TimeUnit.MILLISECONDS);
+      String line;
+      try {
+        tasks.write(
+            MAPPER.createObjectNode().put(WomtoolWorker.DESCRIPTOR, mainDescriptor.toString())
+                + "\n");
+        tasks.flush();
+        line = results.readLine();
+      } catch (IOException e) {
+        deadline.check(ParsingMetrics.PARSE);
+        throw e;
+      } finally {
+        if (watchdog != null) {
+          watchdog.cancel(false);
+        }
+      }
+      if (line == null) {
+        deadline.check(ParsingMetrics.PARSE);
+        throw new IOException("Womtool worker exited");
+      }
+      JsonNode result = MAPPER.readTree(line);
+      completedTasks++;
+      if (completedTasks >= maxTasks || result.path(WomtoolWorker.RECYCLE).asBoolean()) {
+        recycle();
+      }
+      List<String> values = new ArrayList<>();
+      if (result.get(WomtoolWorker.VALID).asBoolean()) {
+        result.path(WomtoolWorker.DEPENDENCIES).forEach(value -> values.add(value.asText()));
+        return WomtoolValidation.valid(values);
+      }
+      result.path(WomtoolWorker.ERRORS).forEach(value -> values.add(value.asText()));
+      return WomtoolValidation.invalid(values);
+    }
+
+    /** Replace the JVM with a new one. */
+    void recycle() {
+      stop();
+      start();
+    }
+
+    void stop() {
+      if (process != null) {
+        process.destroy();
+        process = null;
+      }
+    }
+  }
+}
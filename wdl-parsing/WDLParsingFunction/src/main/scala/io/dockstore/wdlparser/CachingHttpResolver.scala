@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser
+
+import java.net.URI
+
+import cats.data.{NonEmptyList, Validated}
+import common.Checked
+import common.validation.ErrorOr.ErrorOr
+import cromwell.languages.util.ImportResolver.{ImportResolver, ResolvedImportBundle}
+import wom.ResolvedImportRecord
+
+import scala.util.{Failure, Success, Try}
+
+/**
+ * Resolves HTTP imports through a [[RemoteImportCache]] instead of downloading them for every
+ * validation like Cromwell's HttpResolver does.
+ *
+ * @param remoteImportCache The cache shared by every validation of a warm container
+ * @param relativeTo The URL of the importing file, which relative imports are resolved against
+ */
+case class CachingHttpResolver(
+    remoteImportCache: RemoteImportCache,
+    relativeTo: Option[String] = None) extends ImportResolver {
+
+  override def name: String =
+    relativeTo.fold("Caching HTTP resolver")(url => s"Caching HTTP resolver relative to $url")
+
+  override protected def innerResolver(
+      path: String,
+      currentResolvers: List[ImportResolver]): Checked[ResolvedImportBundle] = {
+    val url =
+      if (WdlImportScanner.isHttpImport(path)) Some(path)
+      else relativeTo.map(URI.create(_).resolve(path).toString)
+    url match {
+      case None => Left(NonEmptyList.one(s"Relative path $path is not an HTTP import"))
+      case Some(resolvedUrl) =>
+        Try(remoteImportCache.fetch(resolvedUrl)) match {
+          case Success(contents) =>
+            // Imports of the imported file are relative to its URL
+            val newResolvers = List(CachingHttpResolver(remoteImportCache, Some(resolvedUrl)))
+            Right(ResolvedImportBundle(contents, newResolvers, ResolvedImportRecord(resolvedUrl)))
+          case Failure(e) =>
+            Left(NonEmptyList.one(s"Failed to download $resolvedUrl (${e.getMessage})"))
+        }
+    }
+  }
+
+  // The cache outlives every validation, so there is nothing to clean up
+  def cleanupIfNecessary(): ErrorOr[Unit] = Validated.valid(())
+
+  def hashKey: ErrorOr[String] = Validated.valid(name)
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser
+
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path}
+
+import com.typesafe.config.ConfigFactory
+import cromwell.core.path.DefaultPathBuilder
+import cromwell.languages.LanguageFactory
+import cromwell.languages.util.ImportResolver.DirectoryResolver
+import languages.wdl.biscayne.WdlBiscayneLanguageFactory
+import languages.wdl.draft2.WdlDraft2LanguageFactory
+import languages.wdl.draft3.WdlDraft3LanguageFactory
+
+import scala.collection.JavaConverters._
+import scala.util.{Failure, Success, Try}
+
+/**
+ * Loads a WDL workflow the way `womtool validate -l` does, returning the dependencies and errors
+ * as data instead of printing them.
+ *
+ * Written in Scala because the Cromwell APIs rely on default arguments and Scala collections.
+ */
+object WomtoolBridge {
+
+  // The factories hold no per-workflow state, so they are shared by every invocation of a warm
+  // container
+  private val draft2LanguageFactory = new WdlDraft2LanguageFactory(ConfigFactory.empty())
+  private val languageFactories: List[LanguageFactory] = List(
+    new WdlDraft3LanguageFactory(ConfigFactory.empty()),
+    new WdlBiscayneLanguageFactory(ConfigFactory.empty()))
+
+  /**
+   * Validate a WDL workflow and list the files it imports.
+   *
+   * @param mainDescriptor Absolute path to the main descriptor file
+   * @param remoteImportCache The cache that HTTP imports are downloaded through
+   * @return The dependencies if the workflow is valid, the errors otherwise
+   */
+  def validate(mainDescriptor: Path, remoteImportCache: RemoteImportCache): WomtoolValidation = {
+    Try(new String(Files.readAllBytes(mainDescriptor), StandardCharsets.UTF_8)) match {
+      case Failure(e) =>
+        WomtoolValidation.invalid(List(s"Could not read $mainDescriptor: ${e.getMessage}").asJava)
+      case Success(contents) =>
+        val languageFactory =
+          languageFactories.find(_.looksParsable(contents)).getOrElse(draft2LanguageFactory)
+        // Directory resolvers are relative to the descriptor, so they can't be shared
+        val importResolvers = DirectoryResolver.localFilesystemResolvers(
+          Some(DefaultPathBuilder.build(mainDescriptor))) :+ CachingHttpResolver(remoteImportCache)
+        val checkedBundle =
+          languageFactory.getWomBundle(contents, None, "{}", importResolvers, List(languageFactory))
+        // Without inputs womtool also checks that the bundle has a callable to run, a bundle of
+        // several tasks and no workflow loads but is not valid
+        val checkedExecutableBundle =
+          checkedBundle.flatMap(bundle => bundle.toExecutableCallable.map(_ => bundle))
+        checkedExecutableBundle match {
+          case Right(bundle) =>
+            WomtoolValidation.valid(bundle.resolvedImportRecords.map(_.importPath).toList.asJava)
+          case Left(errors) => WomtoolValidation.invalid(errors.toList.asJava)
+        }
+    }
+  }
+}
@@ -24,14 +24,20 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
 import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
 import dockstore.openapi.client.model.LanguageParsingRequest;
 import dockstore.openapi.client.model.LanguageParsingResponse;
-import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import javax.ws.rs.core.MediaType;
-import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class AppTest {
   @Test
@@ -94,17 +100,84 @@ public class AppTest {
     System.out.println(response.getClonedRepositoryAbsolutePath());
   }
 
-  /** Tests the case where the WDL is malformed and recursively imports itself. */
-  @Disabled("Too dangerous test to run, also flakey")
   @Test
-  public void testRecursiveWdl() {
-    File file = new File("src/test/resources/recursive.wdl");
-    String path = file.getAbsolutePath();
-    LanguageParsingResponse response = App.getResponse(path);
-    assertNotNull(response.getVersionTypeValidation());
-    assertNotNull(response.getVersionTypeValidation().getValid());
-    assertFalse(
-        response.getVersionTypeValidation().getValid(),
-        "A workflow that has recursive HTTP imports is invalid");
+  public void localImportsAreListedAsDependencies(@TempDir Path temporaryDirectory)
+      throws IOException {
+    Path mainDescriptor = temporaryDirectory.resolve("main.wdl");
+    Files.writeString(
+        mainDescriptor,
+        "version 1.0\nimport \"tasks.wdl\" as tasks\nworkflow main {\n  call tasks.hello\n}\n");
+    Files.writeString(
+        temporaryDirectory.resolve("tasks.wdl"),
+        "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n");
+    LanguageParsingResponse response = App.getResponse(mainDescriptor.toString());
+    assertTrue(response.getVersionTypeValidation().getValid());
+    assertEquals(1, response.getSecondaryFilePaths().size());
+    assertTrue(response.getSecondaryFilePaths().get(0).endsWith("tasks.wdl"));
+  }
+
+  @Test
+  public void invalidWorkflowsAreNotValid(@TempDir Path temporaryDirectory) throws IOException {
+    Path mainDescriptor = temporaryDirectory.resolve("main.wdl");
+    Files.writeString(mainDescriptor, "version 1.0\nworkflow main {\n  call missing\n}\n");
+    LanguageParsingResponse response = App.getResponse(mainDescriptor.toString());
+    assertFalse(response.getVersionTypeValidation().getValid());
+    assertTrue(
+        response.getVersionTypeValidation().getMessage().containsKey(mainDescriptor.toString()));
+  }
+
+  /** Womtool rejects a bundle without a workflow that has more than one task to run. */
+  @Test
+  public void severalTasksWithoutAWorkflowAreNotValid(@TempDir Path temporaryDirectory)
+      throws IOException {
+    Path mainDescriptor = temporaryDirectory.resolve("main.wdl");
+    Files.writeString(
+        mainDescriptor,
+        "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n"
+            + "task goodbye {\n  command {\n    echo goodbye\n  }\n}\n");
+    LanguageParsingResponse response = App.getResponse(mainDescriptor.toString());
+    assertFalse(response.getVersionTypeValidation().getValid());
+    assertTrue(
+        response.getVersionTypeValidation().getMessage().containsKey(mainDescriptor.toString()));
+  }
+
+  /**
+   * Tests the case where the WDL is malformed and recursively imports itself. The import is served
+   * locally, so that the test doesn't depend on GitHub.
+   */
+  @Test
+  public void testRecursiveWdl(@TempDir Path temporaryDirectory) throws IOException {
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    String importUrl = "http://localhost:" + server.getAddress().getPort() + "/recursive.wdl";
+    byte[] recursiveImport =
+        ("import \"" + importUrl + "\" as f1\n\nworkflow RecursiveImport {\n}\n")
+            .getBytes(StandardCharsets.UTF_8);
+    server.createContext(
+        "/recursive.wdl",
+        exchange -> {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, recursiveImport.length);
+          try (OutputStream body = exchange.getResponseBody()) {
+            body.write(recursiveImport);
+          }
+        });
+    server.start();
+    try {
+      Path mainDescriptor = temporaryDirectory.resolve("recursive.wdl");
+      Files.writeString(
+          mainDescriptor,
+          "import \""
+              + importUrl
+              + "\" as f1\n\nworkflow RecursiveWorkflow {\n  File inputFile\n\n"
+              + "  call f1.thing as thing {\n      input: inputFile = inputFile\n  }\n}\n");
+      LanguageParsingResponse response = App.getResponse(mainDescriptor.toString());
+      assertNotNull(response.getVersionTypeValidation());
+      assertNotNull(response.getVersionTypeValidation().getValid());
+      assertFalse(
+          response.getVersionTypeValidation().getValid(),
+          "A workflow that has recursive HTTP imports is invalid");
+    } finally {
+      server.stop(0);
+    }
   }
 }
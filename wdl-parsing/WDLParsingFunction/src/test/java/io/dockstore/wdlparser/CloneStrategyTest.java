@@ -0,0 +1,570 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import io.dockstore.parsing.ArchiveCloneStrategy;
+import io.dockstore.parsing.CloneStrategy;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import io.dockstore.parsing.FullCloneStrategy;
+import io.dockstore.parsing.GitRefResolver;
+import io.dockstore.parsing.IncrementalClone;
+import io.dockstore.parsing.MirrorCloneStrategy;
+import io.dockstore.parsing.ParsingMetrics;
+import io.dockstore.parsing.SparseCloneStrategy;
+import io.dockstore.parsing.TestRepositories;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CloneStrategyTest {
+
+  // How much later than its deadline a stalled clone may give up
+  private static final Duration TIMEOUT_SLACK = Duration.ofSeconds(5);
+
+  private static final Map<String, String> WORKFLOW =
+      Map.of(
+          "workflows/main.wdl",
+          "version 1.0\n"
+              + "import \"../tasks/align.wdl\" as align\n"
+              + "# import \"commented.wdl\"\n"
+              + "import 'https://example.com/remote.wdl'\n",
+          "tasks/align.wdl",
+          "version 1.0\nimport \"common.wdl\"\n",
+          "tasks/common.wdl",
+          "version 1.0\n",
+          "tasks/unused.wdl",
+          "version 1.0\n",
+          "README.md",
+          "Not needed");
+
+  @Test
+  public void sparseCloneWritesOnlyTheImportGraph(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId commitId = TestRepositories.commit(repository, "master", WORKFLOW);
+      CloneStrategy strategy = new SparseCloneStrategy(new FullCloneStrategy());
+      String clonedCommitId =
+          strategy.cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              clone,
+              new WdlFileSelector("workflows/main.wdl"));
+      assertEquals(commitId.getName(), clonedCommitId);
+      assertTrue(Files.exists(clone.resolve("workflows/main.wdl")));
+      assertTrue(Files.exists(clone.resolve("tasks/align.wdl")));
+      assertTrue(Files.exists(clone.resolve("tasks/common.wdl")));
+      assertFalse(Files.exists(clone.resolve("tasks/unused.wdl")));
+      assertFalse(Files.exists(clone.resolve("README.md")));
+      assertFalse(Files.exists(clone.resolve("commented.wdl")));
+    }
+  }
+
+  @Test
+  public void sparseCloneFetchesOnlyTheLastCommit(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId firstCommitId =
+          TestRepositories.commit(repository, "master", Map.of("main.wdl", ""));
+      ObjectId commitId = TestRepositories.commit(repository, "master", WORKFLOW);
+      new SparseCloneStrategy(new FullCloneStrategy())
+          .cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              clone,
+              new WdlFileSelector("workflows/main.wdl"));
+      try (Git git = Git.open(clone.toFile())) {
+        assertTrue(git.getRepository().getObjectDatabase().has(commitId));
+        assertFalse(git.getRepository().getObjectDatabase().has(firstCommitId));
+      }
+    }
+  }
+
+  @Test
+  public void sparseCloneFallsBackWhenAnImportIsMissing(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "develop",
+          Map.of("main.wdl", "import \"missing.wdl\"\n", "README.md", "Not needed"));
+      CloneStrategy strategy = new SparseCloneStrategy(new FullCloneStrategy());
+      strategy.cloneRepository(
+          remote.toUri().toString(), "develop", clone, new WdlFileSelector("main.wdl"));
+      assertTrue(
+          Files.exists(clone.resolve("README.md")), "The full clone should check out every file");
+    }
+  }
+
+  @Test
+  public void sparseCloneFallsBackWithTheRefItWasGiven(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", Map.of("main.wdl", "import \"missing.wdl\"\n"));
+      String uri = remote.toUri().toString();
+      Ref ref = GitRefResolver.resolveRef(uri, "master", Deadline.NONE).orElseThrow();
+      List<Ref> fallbackRefs = new ArrayList<>();
+      CloneStrategy strategy =
+          new SparseCloneStrategy(
+              (fallbackUri, fallbackRef, directory, fileSelector, deadline) -> {
+                fallbackRefs.add(fallbackRef);
+                return GitRefResolver.getCommitId(fallbackRef);
+              });
+      strategy.cloneRepository(uri, ref, clone, new WdlFileSelector("main.wdl"), Deadline.NONE);
+      // The fallback doesn't ask the remote for its refs again
+      assertEquals(List.of(ref), fallbackRefs);
+    }
+  }
+
+  @Test
+  public void sparseCloneFindsNestedImportsNextToTheMainDescriptor(
+      @TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    // Like womtool, common/util.wdl is not next to tasks/align.wdl but next to main.wdl
+    Map<String, String> workflow =
+        Map.of(
+            "main.wdl",
+            "version 1.0\nimport \"tasks/align.wdl\"\n",
+            "tasks/align.wdl",
+            "version 1.0\nimport \"common/util.wdl\"\n",
+            "common/util.wdl",
+            "version 1.0\n",
+            "README.md",
+            "Not needed");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId commitId = TestRepositories.commit(repository, "master", workflow);
+      WdlFileSelector fileSelector = new WdlFileSelector("main.wdl");
+      new SparseCloneStrategy(new FullCloneStrategy())
+          .cloneRepository(remote.toUri().toString(), "master", clone, fileSelector);
+      assertTrue(Files.exists(clone.resolve("common/util.wdl")));
+      assertFalse(Files.exists(clone.resolve("README.md")), "There should be no full clone");
+      Map<String, String> changedReadme = new HashMap<>(workflow);
+      changedReadme.put("README.md", "Changed");
+      ObjectId readmeCommitId = TestRepositories.commit(repository, "master", changedReadme);
+      assertTrue(
+          IncrementalClone.isUnchanged(
+              repository, commitId.getName(), readmeCommitId, fileSelector));
+      // The file next to the importing one would now be read instead
+      Map<String, String> addedSibling = new HashMap<>(changedReadme);
+      addedSibling.put("tasks/common/util.wdl", "version 1.0\n");
+      ObjectId siblingCommitId = TestRepositories.commit(repository, "master", addedSibling);
+      assertFalse(
+          IncrementalClone.isUnchanged(
+              repository, readmeCommitId.getName(), siblingCommitId, fileSelector));
+    }
+  }
+
+  @Test
+  public void sparseCloneChecksOutTags(@TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId tagged = TestRepositories.commit(repository, "master", Map.of("main.wdl", "v1"));
+      TestRepositories.tag(repository, "1.0", tagged);
+      TestRepositories.commit(repository, "master", Map.of("main.wdl", "v2"));
+      String clonedCommitId =
+          new SparseCloneStrategy(new FullCloneStrategy())
+              .cloneRepository(
+                  remote.toUri().toString(), "1.0", clone, new WdlFileSelector("/main.wdl"));
+      assertEquals(tagged.getName(), clonedCommitId);
+      assertEquals("v1", Files.readString(clone.resolve("main.wdl")));
+    }
+  }
+
+  @Test
+  public void sparseCloneRejectsUnknownBranches(@TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", Map.of("main.wdl", ""));
+      CloneStrategy strategy = new SparseCloneStrategy(new FullCloneStrategy());
+      assertThrows(
+          RefNotFoundException.class,
+          () ->
+              strategy.cloneRepository(
+                  remote.toUri().toString(), "missing", clone, new WdlFileSelector("main.wdl")));
+    }
+  }
+
+  @Test
+  public void mirrorCloneFetchesRefsIntoOneMirror(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    MirrorCloneStrategy strategy = new MirrorCloneStrategy(mirrors, Long.MAX_VALUE);
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId commitId = TestRepositories.commit(repository, "master", WORKFLOW);
+      TestRepositories.tag(repository, "1.0", commitId);
+      Path masterClone = Files.createDirectory(temporaryDirectory.resolve("master"));
+      assertEquals(
+          commitId.getName(),
+          strategy.cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              masterClone,
+              new WdlFileSelector("workflows/main.wdl")));
+      assertTrue(Files.exists(masterClone.resolve("tasks/common.wdl")));
+      assertFalse(Files.exists(masterClone.resolve("tasks/unused.wdl")));
+      final ObjectId newCommitId =
+          TestRepositories.commit(
+              repository, "master", Map.of("workflows/main.wdl", "version 1.0\n"));
+      Path tagClone = Files.createDirectory(temporaryDirectory.resolve("tag"));
+      assertEquals(
+          commitId.getName(),
+          strategy.cloneRepository(
+              remote.toUri().toString(),
+              "1.0",
+              tagClone,
+              new WdlFileSelector("workflows/main.wdl")));
+      Path newClone = Files.createDirectory(temporaryDirectory.resolve("new"));
+      assertEquals(
+          newCommitId.getName(),
+          strategy.cloneRepository(
+              remote.toUri().toString(),
+              "master",
+              newClone,
+              new WdlFileSelector("workflows/main.wdl")));
+      assertFalse(Files.exists(newClone.resolve("tasks/align.wdl")));
+    }
+    try (Stream<Path> mirrorDirectories = Files.list(mirrors)) {
+      assertEquals(1, mirrorDirectories.filter(path -> path.toString().endsWith(".git")).count());
+    }
+  }
+
+  @Test
+  public void mirrorsAreCompactedInsteadOfCollectedInTheBackground(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    MirrorCloneStrategy strategy = new MirrorCloneStrategy(mirrors, Long.MAX_VALUE);
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      for (int i = 0; i <= MirrorCloneStrategy.MAX_PACKS + 1; i++) {
+        TestRepositories.commit(
+            repository, "master", Map.of("main.wdl", "version 1.0\n# " + i + "\n"));
+        strategy.cloneRepository(
+            remote.toUri().toString(),
+            "master",
+            Files.createDirectory(temporaryDirectory.resolve("clone" + i)),
+            new WdlFileSelector("main.wdl"));
+      }
+    }
+    Path mirror =
+        mirrors.resolve(MirrorCloneStrategy.getMirrorName(remote.toUri().toString()) + ".git");
+    try (Git git = Git.open(mirror.toFile())) {
+      assertEquals(
+          0,
+          git.getRepository()
+              .getConfig()
+              .getInt(ConfigConstants.CONFIG_GC_SECTION, ConfigConstants.CONFIG_KEY_AUTO, -1));
+      Number packs = (Number) git.gc().getStatistics().get("numberOfPackFiles");
+      assertTrue(packs.intValue() <= MirrorCloneStrategy.MAX_PACKS);
+    }
+  }
+
+  @Test
+  public void mirrorCloneEvictsTheLeastRecentlyUsedMirror(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    List<String> uris = new ArrayList<>();
+    for (String name : List.of("first", "second")) {
+      Path remote = temporaryDirectory.resolve(name);
+      try (Repository repository = TestRepositories.createBareRepository(remote)) {
+        TestRepositories.commit(repository, "master", WORKFLOW);
+      }
+      uris.add(remote.toUri().toString());
+    }
+    Path firstClone = Files.createDirectory(temporaryDirectory.resolve("firstClone"));
+    new MirrorCloneStrategy(mirrors, Long.MAX_VALUE)
+        .cloneRepository(
+            uris.get(0), "master", firstClone, new WdlFileSelector("workflows/main.wdl"));
+    Path firstMirror = mirrors.resolve(MirrorCloneStrategy.getMirrorName(uris.get(0)) + ".git");
+    long mirrorBytes;
+    try (Stream<Path> files = Files.walk(firstMirror)) {
+      mirrorBytes =
+          files.filter(Files::isRegularFile).mapToLong(path -> path.toFile().length()).sum();
+    }
+    // Room for one mirror, not two
+    Path secondClone = Files.createDirectory(temporaryDirectory.resolve("secondClone"));
+    new MirrorCloneStrategy(mirrors, mirrorBytes + mirrorBytes / 2)
+        .cloneRepository(
+            uris.get(1), "master", secondClone, new WdlFileSelector("workflows/main.wdl"));
+    assertFalse(Files.exists(firstMirror));
+    assertTrue(
+        Files.exists(mirrors.resolve(MirrorCloneStrategy.getMirrorName(uris.get(1)) + ".git")));
+  }
+
+  @Test
+  public void mirrorCloneWaitsForALockedMirrorUntilTheDeadline(@TempDir Path temporaryDirectory)
+      throws Exception {
+    // Holds the first fetch, and with it the lock of the mirror
+    CountDownLatch fetching = new CountDownLatch(1);
+    ExecutorService executor = Executors.newCachedThreadPool();
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(executor);
+    server.createContext(
+        "/",
+        exchange -> {
+          fetching.countDown();
+          try {
+            Thread.sleep(Duration.ofMinutes(1).toMillis());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    server.start();
+    String uri = "http://localhost:" + server.getAddress().getPort() + "/dockstore/workflow.git";
+    Ref ref =
+        new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, "refs/heads/master", ObjectId.zeroId());
+    MirrorCloneStrategy strategy =
+        new MirrorCloneStrategy(temporaryDirectory.resolve("mirrors"), Long.MAX_VALUE);
+    ExecutorService cloneExecutor = Executors.newSingleThreadExecutor();
+    try {
+      cloneExecutor.submit(
+          () ->
+              strategy.cloneRepository(
+                  uri,
+                  ref,
+                  Files.createDirectory(temporaryDirectory.resolve("stalledClone")),
+                  new WdlFileSelector("workflows/main.wdl"),
+                  Deadline.after(Duration.ofSeconds(30))));
+      assertTrue(fetching.await(30, TimeUnit.SECONDS));
+      Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+      long start = System.nanoTime();
+      DeadlineExceededException exception =
+          assertThrows(
+              DeadlineExceededException.class,
+              () ->
+                  strategy.cloneRepository(
+                      uri,
+                      ref,
+                      clone,
+                      new WdlFileSelector("workflows/main.wdl"),
+                      Deadline.after(Duration.ofSeconds(1))));
+      assertEquals(ParsingMetrics.CLONE, exception.getPhase());
+      assertTrue(
+          Duration.ofNanos(System.nanoTime() - start)
+                  .compareTo(Duration.ofSeconds(1).plus(TIMEOUT_SLACK))
+              < 0,
+          "The wait for the lock should end at the deadline");
+    } finally {
+      server.stop(0);
+      executor.shutdownNow();
+      cloneExecutor.shutdown();
+      cloneExecutor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+  }
+
+  @Test
+  public void forgettingAMirrorKeepsItsLockFile(@TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    Path mirrors = temporaryDirectory.resolve("mirrors");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", WORKFLOW);
+    }
+    String uri = remote.toUri().toString();
+    MirrorCloneStrategy strategy = new MirrorCloneStrategy(mirrors, Long.MAX_VALUE);
+    strategy.cloneRepository(
+        uri,
+        "master",
+        Files.createDirectory(temporaryDirectory.resolve("clone")),
+        new WdlFileSelector("workflows/main.wdl"));
+    strategy.forget(uri);
+    String name = MirrorCloneStrategy.getMirrorName(uri);
+    assertFalse(Files.exists(mirrors.resolve(name + ".git")));
+    // Another container may be waiting on it, a new lock file would not be locked by that one
+    assertTrue(Files.exists(mirrors.resolve(name + ".lock")));
+  }
+
+  @Test
+  public void archiveCloneWritesOnlyTheEntriesThatMayBeSelected(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    final ObjectId commitId;
+    try (Repository repository =
+        TestRepositories.createBareRepository(
+            temporaryDirectory.resolve("dockstore/workflow.git"))) {
+      commitId = TestRepositories.commit(repository, "master", WORKFLOW);
+    }
+    HttpServer server = serveArchive("/dockstore/workflow/zip/" + commitId.getName(), WORKFLOW);
+    try {
+      String clonedCommitId =
+          new ArchiveCloneStrategy(
+                  temporaryDirectory.toUri().toString(),
+                  "http://localhost:" + server.getAddress().getPort(),
+                  new FullCloneStrategy())
+              .cloneRepository(
+                  temporaryDirectory.toUri() + "dockstore/workflow.git",
+                  "master",
+                  clone,
+                  new WdlFileSelector("workflows/main.wdl"));
+      assertEquals(commitId.getName(), clonedCommitId);
+    } finally {
+      server.stop(0);
+    }
+    assertTrue(Files.exists(clone.resolve("workflows/main.wdl")));
+    assertTrue(Files.exists(clone.resolve("tasks/align.wdl")));
+    assertTrue(Files.exists(clone.resolve("tasks/common.wdl")));
+    assertFalse(Files.exists(clone.resolve("README.md")));
+  }
+
+  @Test
+  public void archiveCloneFallsBackWhenTheArchiveCantBeDownloaded(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("dockstore/workflow"))) {
+      TestRepositories.commit(repository, "master", WORKFLOW);
+    }
+    HttpServer server = serveArchive("/dockstore/other/zip/", WORKFLOW);
+    try {
+      new ArchiveCloneStrategy(
+              temporaryDirectory.toUri().toString(),
+              "http://localhost:" + server.getAddress().getPort(),
+              new FullCloneStrategy())
+          .cloneRepository(
+              temporaryDirectory.toUri() + "dockstore/workflow",
+              "master",
+              clone,
+              new WdlFileSelector("workflows/main.wdl"));
+    } finally {
+      server.stop(0);
+    }
+    assertTrue(
+        Files.exists(clone.resolve("README.md")), "The full clone should check out every file");
+  }
+
+  @Test
+  public void archiveCloneStopsReadingAStalledArchiveAtTheDeadline(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path clone = Files.createDirectory(temporaryDirectory.resolve("clone"));
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("dockstore/workflow"))) {
+      TestRepositories.commit(repository, "master", WORKFLOW);
+    }
+    // Sends the headers and a few bytes, then nothing, on a thread of its own
+    ExecutorService executor = Executors.newCachedThreadPool();
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.setExecutor(executor);
+    server.createContext(
+        "/dockstore/workflow/zip/",
+        exchange -> {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+          OutputStream body = exchange.getResponseBody();
+          body.write(new byte[] {'P', 'K'});
+          body.flush();
+          try {
+            Thread.sleep(Duration.ofMinutes(1).toMillis());
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    server.start();
+    long start = System.nanoTime();
+    try {
+      ArchiveCloneStrategy strategy =
+          new ArchiveCloneStrategy(
+              temporaryDirectory.toUri().toString(),
+              "http://localhost:" + server.getAddress().getPort(),
+              new FullCloneStrategy());
+      assertThrows(
+          DeadlineExceededException.class,
+          () ->
+              strategy.cloneRepository(
+                  temporaryDirectory.toUri() + "dockstore/workflow",
+                  "master",
+                  clone,
+                  new WdlFileSelector("workflows/main.wdl"),
+                  Deadline.after(Duration.ofSeconds(2))));
+    } finally {
+      server.stop(0);
+      executor.shutdownNow();
+    }
+    assertTrue(
+        Duration.ofNanos(System.nanoTime() - start)
+                .compareTo(Duration.ofSeconds(2).plus(TIMEOUT_SLACK))
+            < 0,
+        "The stalled read should be closed soon after the deadline");
+  }
+
+  /** Serve a zip of files like GitHub does, with the files in a top directory. */
+  private static HttpServer serveArchive(String path, Map<String, String> files)
+      throws IOException {
+    ByteArrayOutputStream archive = new ByteArrayOutputStream();
+    try (ZipOutputStream zipOutputStream = new ZipOutputStream(archive)) {
+      for (Map.Entry<String, String> file : files.entrySet()) {
+        zipOutputStream.putNextEntry(new ZipEntry("workflow-master/" + file.getKey()));
+        zipOutputStream.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    HttpServer server =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        path,
+        exchange -> {
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, archive.size());
+          try (OutputStream body = exchange.getResponseBody()) {
+            archive.writeTo(body);
+          }
+        });
+    server.start();
+    return server;
+  }
+}
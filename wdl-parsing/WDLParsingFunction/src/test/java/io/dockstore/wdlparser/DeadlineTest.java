@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.amazonaws.services.lambda.runtime.Context;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.net.HttpURLConnection;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.junit.jupiter.api.Test;
+
+public class DeadlineTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final Duration TIMEOUT = Duration.ofMillis(200);
+
+  @Test
+  public void requestsWithoutTimeLeftAreAnsweredWithTheirPhase() throws Exception {
+    // Less time left than the margin, the request is out of time before it resolves the branch
+    final Context context =
+        (Context)
+            Proxy.newProxyInstance(
+                Context.class.getClassLoader(),
+                new Class<?>[] {Context.class},
+                (proxy, method, args) -> 0);
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri("https://github.com/dockstore/missing.git");
+    request.setBranch("main");
+    request.setDescriptorRelativePathInGit("main.wdl");
+    String event =
+        MAPPER.writeValueAsString(
+            Map.of("path", "/parse", "body", MAPPER.writeValueAsString(request)));
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new StreamingApp().handleRequest(new ByteArrayInputStream(event.getBytes()), output, context);
+
+    JsonNode response = MAPPER.readTree(output.toByteArray());
+    assertEquals(HttpURLConnection.HTTP_GATEWAY_TIMEOUT, response.get("statusCode").asInt());
+    assertEquals(
+        Map.of("message", "Timed out in phase Resolve", "phase", ParsingMetrics.RESOLVE),
+        MAPPER.readValue(response.get("body").asText(), Map.class));
+  }
+
+  @Test
+  public void batchesReturnTheDescriptorsParsedBeforeTheDeadline() {
+    List<BatchParsingResult> results =
+        new BatchParsingExecutor(2)
+            .parse(
+                List.of("main.wdl", "slow.wdl"),
+                path -> {
+                  if ("slow.wdl".equals(path)) {
+                    try {
+                      new CountDownLatch(1).await();
+                    } catch (InterruptedException e) {
+                      Thread.currentThread().interrupt();
+                    }
+                  }
+                  return new LanguageParsingResponse();
+                },
+                Deadline.after(TIMEOUT));
+    assertNotNull(results.get(0).getLanguageParsingResponse());
+    assertNull(results.get(0).getError());
+    assertNull(results.get(1).getLanguageParsingResponse());
+    assertEquals("Timed out before the descriptor was parsed", results.get(1).getError());
+  }
+}
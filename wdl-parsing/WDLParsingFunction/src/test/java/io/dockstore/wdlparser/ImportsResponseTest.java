@@ -0,0 +1,161 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks that scanning the imports finds the same files as womtool. */
+public class ImportsResponseTest {
+
+  // Each directory is a workflow whose main descriptor is main.wdl
+  private static final Path FIXTURES = Path.of("src/test/resources/imports").toAbsolutePath();
+  private HttpServer server;
+  private String baseUrl;
+
+  /** Serve HTTP imports locally, so that the tests don't depend on GitHub. */
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serve(
+        "/wdl/tasks.wdl",
+        "version 1.0\n\nimport \"util.wdl\" as util\n\n"
+            + "task hello {\n  command <<<\n    echo hello\n  >>>\n}\n");
+    serve("/wdl/util.wdl", "version 1.0\n\ntask noop {\n  command <<<\n  >>>\n}\n");
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void serve(String path, String contents) {
+    server.createContext(
+        path,
+        exchange -> {
+          byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+          try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+          }
+        });
+  }
+
+  private static Set<String> getSecondaryFilePaths(LanguageParsingResponse response) {
+    return new HashSet<>(response.getSecondaryFilePaths());
+  }
+
+  private static void assertSameImports(Path mainDescriptor) {
+    LanguageParsingResponse womtoolResponse = App.getResponse(mainDescriptor.toString());
+    assertTrue(womtoolResponse.getVersionTypeValidation().getValid(), mainDescriptor.toString());
+    LanguageParsingResponse importsResponse = App.getImportsResponse(mainDescriptor.toString());
+    assertNull(importsResponse.getVersionTypeValidation().getValid());
+    assertEquals(
+        getSecondaryFilePaths(womtoolResponse),
+        getSecondaryFilePaths(importsResponse),
+        mainDescriptor.toString());
+  }
+
+  @Test
+  public void fixturesHaveTheImportsOfWomtool() throws IOException {
+    try (DirectoryStream<Path> fixtures = Files.newDirectoryStream(FIXTURES)) {
+      for (Path fixture : fixtures) {
+        assertSameImports(fixture.resolve("main.wdl"));
+      }
+    }
+  }
+
+  @Test
+  public void httpImportsAreTheImportsOfWomtool(@TempDir Path directory) throws IOException {
+    Path mainDescriptor = directory.resolve("main.wdl");
+    Files.writeString(
+        mainDescriptor,
+        "version 1.0\n\nimport \""
+            + baseUrl
+            + "/wdl/tasks.wdl\" as tasks\n\n"
+            + "workflow main {\n  call tasks.hello\n}\n");
+    assertSameImports(mainDescriptor);
+    assertEquals(
+        Set.of(baseUrl + "/wdl/tasks.wdl", baseUrl + "/wdl/util.wdl"),
+        getSecondaryFilePaths(App.getImportsResponse(mainDescriptor.toString())));
+  }
+
+  @Test
+  public void aliasesAndRelativeImportsAreScanned() {
+    Path fixture = FIXTURES.resolve("aliases");
+    LanguageParsingResponse response =
+        App.getImportsResponse(fixture.resolve("main.wdl").toString());
+    assertEquals(
+        List.of(
+            fixture.resolve("structs.wdl").toString(), fixture.resolve("tasks/qc.wdl").toString()),
+        response.getSecondaryFilePaths());
+    assertEquals(
+        List.of(),
+        App.getImportsResponse(FIXTURES.resolve("none/main.wdl").toString())
+            .getSecondaryFilePaths());
+  }
+
+  @Test
+  public void nestedImportsAreAlsoFoundNextToTheMainDescriptor() {
+    Path fixture = FIXTURES.resolve("nested");
+    LanguageParsingResponse response =
+        App.getImportsResponse(fixture.resolve("main.wdl").toString());
+    assertNull(response.getVersionTypeValidation().getValid());
+    assertEquals(
+        List.of(
+            fixture.resolve("tasks/align.wdl").toString(),
+            fixture.resolve("common/util.wdl").toString()),
+        response.getSecondaryFilePaths());
+  }
+
+  @Test
+  public void missingImportsAreInvalid(@TempDir Path directory) throws IOException {
+    Path mainDescriptor = directory.resolve("main.wdl");
+    Files.writeString(mainDescriptor, "version 1.0\n\nimport \"tasks/missing.wdl\"\n");
+    LanguageParsingResponse response = App.getImportsResponse(mainDescriptor.toString());
+    String missing = directory.resolve("tasks/missing.wdl").toString();
+    assertFalse(response.getVersionTypeValidation().getValid());
+    assertEquals(
+        Map.of(missing, "Could not find " + missing),
+        response.getVersionTypeValidation().getMessage());
+    assertNull(response.getSecondaryFilePaths());
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.parsing.IncrementalClone;
+import io.dockstore.parsing.TestRepositories;
+import java.net.HttpURLConnection;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class IncrementalParsingTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String MAIN = "version 1.0\nimport \"tasks.wdl\"\nworkflow main {\n}\n";
+  private static final String TASKS = "version 1.0\ntask hello {\n  command <<<\n  >>>\n}\n";
+
+  private static IncrementalParsingResponse parse(Path remote, IncrementalParsingResponse previous)
+      throws Exception {
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit("main.wdl");
+    IncrementalParsingRequest incrementalRequest = new IncrementalParsingRequest();
+    incrementalRequest.setLanguageParsingRequest(request);
+    if (previous != null) {
+      incrementalRequest.setPreviousCommitId(previous.getCommitId());
+      incrementalRequest.setPreviousResponse(previous.getLanguageParsingResponse());
+    }
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setPath("/parse/incremental");
+    requestEvent.setBody(MAPPER.writeValueAsString(incrementalRequest));
+    APIGatewayProxyResponseEvent result = new App().handleRequest(requestEvent, null);
+    assertEquals(HttpURLConnection.HTTP_OK, result.getStatusCode().intValue(), result.getBody());
+    return MAPPER.readValue(result.getBody(), IncrementalParsingResponse.class);
+  }
+
+  @Test
+  public void unrelatedChangesKeepThePreviousResponse(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      ObjectId first =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of("main.wdl", MAIN, "tasks.wdl", TASKS, "README.md", "First"));
+      IncrementalParsingResponse firstResponse = parse(remote, null);
+      assertTrue(firstResponse.isChanged());
+      assertEquals(first.getName(), firstResponse.getCommitId());
+      assertTrue(firstResponse.getLanguageParsingResponse().getVersionTypeValidation().getValid());
+      // The branch didn't move
+      assertFalse(parse(remote, firstResponse).isChanged());
+      ObjectId second =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of("main.wdl", MAIN, "tasks.wdl", TASKS, "README.md", "Second"));
+      IncrementalParsingResponse secondResponse = parse(remote, firstResponse);
+      assertFalse(secondResponse.isChanged());
+      assertEquals(second.getName(), secondResponse.getCommitId());
+      assertEquals(
+          firstResponse.getLanguageParsingResponse().getClonedRepositoryAbsolutePath(),
+          secondResponse.getLanguageParsingResponse().getClonedRepositoryAbsolutePath());
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of("main.wdl", MAIN, "tasks.wdl", TASKS + "\n", "README.md", "Second"));
+      assertTrue(parse(remote, secondResponse).isChanged());
+    }
+  }
+
+  @Test
+  public void selectedFilesThatAppearAreChanges(@TempDir Path temporaryDirectory) throws Exception {
+    try (Repository repository =
+        TestRepositories.createBareRepository(temporaryDirectory.resolve("remote"))) {
+      ObjectId missing = TestRepositories.commit(repository, "master", Map.of("main.wdl", MAIN));
+      ObjectId added =
+          TestRepositories.commit(
+              repository, "master", Map.of("main.wdl", MAIN, "tasks.wdl", TASKS));
+      ObjectId unrelated =
+          TestRepositories.commit(
+              repository,
+              "master",
+              Map.of("main.wdl", MAIN, "tasks.wdl", TASKS, "other/other.wdl", TASKS));
+      WdlFileSelector fileSelector = new WdlFileSelector("main.wdl");
+      assertEquals(
+          List.of("tasks.wdl"), IncrementalClone.getChangedPaths(repository, missing, added));
+      assertFalse(IncrementalClone.isUnchanged(repository, missing.getName(), added, fileSelector));
+      assertTrue(
+          IncrementalClone.isUnchanged(repository, added.getName(), unrelated, fileSelector));
+      // Commits that the repository doesn't have can't be compared
+      assertFalse(
+          IncrementalClone.isUnchanged(
+              repository, ObjectId.zeroId().getName(), unrelated, fileSelector));
+      assertFalse(IncrementalClone.isUnchanged(repository, "main", unrelated, fileSelector));
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.dockstore.parsing.GitRefResolver;
+import io.dockstore.parsing.TestRepositories;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class ParsingResultCacheTest {
+
+  @Test
+  public void keyDependsOnEveryComponent() {
+    String key = ParsingResultCache.key("uri", "commit", "Dockstore.wdl");
+    assertEquals(key, ParsingResultCache.key("uri", "commit", "Dockstore.wdl"));
+    assertNotEquals(key, ParsingResultCache.key("uri2", "commit", "Dockstore.wdl"));
+    assertNotEquals(key, ParsingResultCache.key("uri", "commit2", "Dockstore.wdl"));
+    assertNotEquals(key, ParsingResultCache.key("uri", "commit", "other.wdl"));
+  }
+
+  @Test
+  public void inMemoryCacheEvictsLeastRecentlyUsed() {
+    InMemoryParsingResultCache cache = new InMemoryParsingResultCache(2);
+    cache.put("a", "1");
+    cache.put("b", "2");
+    cache.get("a");
+    cache.put("c", "3");
+    assertEquals(Optional.of("1"), cache.get("a"));
+    assertTrue(cache.get("b").isEmpty(), "The least recently used entry should be evicted");
+    assertEquals(Optional.of("3"), cache.get("c"));
+  }
+
+  @Test
+  public void directoryCacheSurvivesNewInstances(@TempDir Path directory) {
+    new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES)
+        .put("key", "{}");
+    assertEquals(
+        Optional.of("{}"),
+        new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES)
+            .get("key"));
+    assertTrue(
+        new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES)
+            .get("other")
+            .isEmpty());
+  }
+
+  @Test
+  public void directoryCacheEvictsTheLeastRecentlyWritten(@TempDir Path directory)
+      throws Exception {
+    DirectoryParsingResultCache cache = new DirectoryParsingResultCache(directory, 2);
+    cache.put("old", "{}");
+    Files.setLastModifiedTime(
+        directory.resolve("old.json"), FileTime.from(Instant.now().minus(Duration.ofHours(1))));
+    cache.put("new", "{}");
+    assertTrue(cache.get("old").isEmpty(), "The least recently written response should be evicted");
+    assertEquals(Optional.of("{}"), cache.get("new"));
+  }
+
+  @Test
+  public void directoryCacheDeletesTheTemporaryFileOfAFailedWrite(@TempDir Path directory)
+      throws Exception {
+    // A directory that isn't empty can't be replaced by the response
+    Files.createFile(Files.createDirectory(directory.resolve("key.json")).resolve("file"));
+    new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES)
+        .put("key", "{}");
+    try (Stream<Path> files = Files.list(directory)) {
+      assertEquals(List.of(directory.resolve("key.json")), files.collect(Collectors.toList()));
+    }
+  }
+
+  @Test
+  public void tieredCachePromotesSharedHits(@TempDir Path directory) {
+    new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES)
+        .put("key", "{}");
+    InMemoryParsingResultCache memory = new InMemoryParsingResultCache(1);
+    ParsingResultCache cache =
+        new TieredParsingResultCache(
+            memory,
+            new DirectoryParsingResultCache(
+                directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES));
+    assertEquals(Optional.of("{}"), cache.get("key"));
+    assertEquals(Optional.of("{}"), memory.get("key"));
+  }
+
+  @Test
+  public void tieredCacheRemovesFromBothTiers(@TempDir Path directory) {
+    InMemoryParsingResultCache memory = new InMemoryParsingResultCache(1);
+    DirectoryParsingResultCache shared =
+        new DirectoryParsingResultCache(directory, ParsingResultCache.DEFAULT_MAX_STORED_BYTES);
+    ParsingResultCache cache = new TieredParsingResultCache(memory, shared);
+    cache.put("key", "{\"truncated");
+    cache.remove("key");
+    assertTrue(memory.get("key").isEmpty());
+    assertTrue(shared.get("key").isEmpty());
+  }
+
+  @Test
+  public void resolvesBranchesAndTagsWithoutCloning(@TempDir Path directory) throws Exception {
+    try (Repository repository = TestRepositories.createBareRepository(directory)) {
+      ObjectId first = TestRepositories.commit(repository, "main", Map.of("Dockstore.wdl", ""));
+      TestRepositories.tag(repository, "1.0", first);
+      ObjectId second =
+          TestRepositories.commit(repository, "main", Map.of("Dockstore.wdl", "version 1.0"));
+      String uri = directory.toUri().toString();
+      assertEquals(Optional.of(second.getName()), GitRefResolver.resolveCommit(uri, "main"));
+      assertEquals(
+          Optional.of(first.getName()),
+          GitRefResolver.resolveCommit(uri, "1.0"),
+          "An annotated tag should resolve to the commit, not the tag object");
+      assertTrue(GitRefResolver.resolveCommit(uri, "missing").isEmpty());
+    }
+  }
+}
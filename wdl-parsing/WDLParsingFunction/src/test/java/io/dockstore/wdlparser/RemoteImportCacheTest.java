@@ -0,0 +1,243 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class RemoteImportCacheTest {
+
+  private static final long MAX_BYTES = 1024;
+  private static final Duration TIMEOUT = Duration.ofSeconds(5);
+  private static final Duration SHORT_TIMEOUT = Duration.ofMillis(500);
+  private static final long DRIP_MILLIS = 100;
+  private static final Duration LONG_TIME_TO_LIVE = Duration.ofHours(1);
+  private static final String ETAG = "\"v1\"";
+  private static final String LAST_MODIFIED = "Wed, 21 Oct 2015 07:28:00 GMT";
+  private static final String TASKS =
+      "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n";
+  // Two bytes a char in UTF-8
+  private static final String ACCENTED_TASKS = "version 1.0\n# " + "\u00e9".repeat(100) + "\n";
+  private HttpServer server;
+  private String baseUrl;
+  // The conditional request header of each request the server received, "" if there was none
+  private final List<String> requests = new ArrayList<>();
+
+  /** Serve imports locally, counting requests and answering conditional requests. */
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/etag.wdl",
+        exchange -> {
+          String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+          exchange.getResponseHeaders().add("ETag", ETAG);
+          respond(exchange, ifNoneMatch, ETAG.equals(ifNoneMatch), TASKS);
+        });
+    server.createContext(
+        "/last-modified.wdl",
+        exchange -> {
+          String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+          exchange.getResponseHeaders().add("Last-Modified", LAST_MODIFIED);
+          respond(exchange, ifModifiedSince, LAST_MODIFIED.equals(ifModifiedSince), TASKS);
+        });
+    server.createContext(
+        "/other.wdl", exchange -> respond(exchange, null, false, TASKS.replace("hello", "other")));
+    server.createContext(
+        "/large.wdl", exchange -> respond(exchange, null, false, "#".repeat((int) MAX_BYTES + 1)));
+    server.createContext(
+        "/accented.wdl", exchange -> respond(exchange, null, false, ACCENTED_TASKS));
+    server.createContext("/slow.wdl", RemoteImportCacheTest::drip);
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void respond(
+      HttpExchange exchange, String validator, boolean notModified, String contents)
+      throws IOException {
+    synchronized (requests) {
+      requests.add(validator == null ? "" : validator);
+    }
+    if (notModified) {
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_NOT_MODIFIED, -1);
+      exchange.close();
+      return;
+    }
+    byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      body.write(bytes);
+    }
+  }
+
+  /** Send the headers at once, then the body a byte at a time. */
+  private static void drip(HttpExchange exchange) throws IOException {
+    byte[] bytes = TASKS.getBytes(StandardCharsets.UTF_8);
+    exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+    try (OutputStream body = exchange.getResponseBody()) {
+      for (byte b : bytes) {
+        body.write(b);
+        body.flush();
+        Thread.sleep(DRIP_MILLIS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static RemoteImportCache createCache(
+      long maxCachedBytes, Duration timeToLive, Optional<Path> directory) {
+    return new RemoteImportCache(
+        MAX_BYTES,
+        TIMEOUT,
+        maxCachedBytes,
+        timeToLive,
+        directory.map(path -> new RemoteImportStore(path, Long.MAX_VALUE)));
+  }
+
+  @Test
+  public void freshImportsAreNotRequestedAgain() throws IOException, InterruptedException {
+    RemoteImportCache cache = createCache(MAX_BYTES, LONG_TIME_TO_LIVE, Optional.empty());
+    assertEquals(TASKS, cache.fetch(baseUrl + "/etag.wdl"));
+    assertEquals(TASKS, cache.fetch(baseUrl + "/etag.wdl"));
+    assertEquals(List.of(""), requests);
+  }
+
+  @Test
+  public void staleImportsAreRevalidatedWithTheirEtag() throws IOException, InterruptedException {
+    RemoteImportCache cache = createCache(MAX_BYTES, Duration.ZERO, Optional.empty());
+    assertEquals(TASKS, cache.fetch(baseUrl + "/etag.wdl"));
+    assertEquals(TASKS, cache.fetch(baseUrl + "/etag.wdl"));
+    assertEquals(List.of("", ETAG), requests);
+  }
+
+  @Test
+  public void staleImportsAreRevalidatedWithTheirDate() throws IOException, InterruptedException {
+    RemoteImportCache cache = createCache(MAX_BYTES, Duration.ZERO, Optional.empty());
+    assertEquals(TASKS, cache.fetch(baseUrl + "/last-modified.wdl"));
+    assertEquals(TASKS, cache.fetch(baseUrl + "/last-modified.wdl"));
+    assertEquals(List.of("", LAST_MODIFIED), requests);
+  }
+
+  @Test
+  public void leastRecentlyUsedImportsAreEvictedBySize() throws IOException, InterruptedException {
+    // Room for one import, but not two
+    RemoteImportCache cache =
+        createCache(TASKS.length() + TASKS.length() / 2, LONG_TIME_TO_LIVE, Optional.empty());
+    cache.fetch(baseUrl + "/etag.wdl");
+    cache.fetch(baseUrl + "/other.wdl");
+    cache.fetch(baseUrl + "/etag.wdl");
+    // Evicted, so downloaded again without a validator
+    assertEquals(List.of("", "", ""), requests);
+  }
+
+  @Test
+  public void importsAreSizedInBytes() throws IOException, InterruptedException {
+    // Room for the chars of the import, but not its bytes
+    long length = ACCENTED_TASKS.length();
+    RemoteImportCache cache = createCache(length + length / 2, LONG_TIME_TO_LIVE, Optional.empty());
+    assertEquals(ACCENTED_TASKS, cache.fetch(baseUrl + "/accented.wdl"));
+    assertEquals(ACCENTED_TASKS, cache.fetch(baseUrl + "/accented.wdl"));
+    // Evicted as soon as it was cached, so downloaded again
+    assertEquals(List.of("", ""), requests);
+  }
+
+  @Test
+  public void importsOutliveTheCacheInTheDirectory(@TempDir Path directory)
+      throws IOException, InterruptedException {
+    createCache(MAX_BYTES, LONG_TIME_TO_LIVE, Optional.of(directory)).fetch(baseUrl + "/etag.wdl");
+    RemoteImportCache newCache = createCache(MAX_BYTES, LONG_TIME_TO_LIVE, Optional.of(directory));
+    assertEquals(TASKS, newCache.fetch(baseUrl + "/etag.wdl"));
+    assertEquals(List.of(""), requests);
+  }
+
+  @Test
+  public void storedImportsAreEvictedBeyondTheirBudget(@TempDir Path directory) throws IOException {
+    RemoteImport first = new RemoteImport();
+    first.setUrl(baseUrl + "/first.wdl");
+    first.setContents(TASKS);
+    new RemoteImportStore(directory, Long.MAX_VALUE).put(first);
+    long storedBytes = 0;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        storedBytes += Files.size(file);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(0));
+      }
+    }
+    // Room for one import, but not two
+    RemoteImportStore store = new RemoteImportStore(directory, storedBytes + storedBytes / 2);
+    RemoteImport second = new RemoteImport();
+    second.setUrl(baseUrl + "/other.wdl");
+    second.setContents(TASKS);
+    store.put(second);
+    assertTrue(store.get(first.getUrl()).isEmpty());
+    assertEquals(TASKS, store.get(second.getUrl()).orElseThrow().getContents());
+  }
+
+  @Test
+  public void slowImportsTimeOut() {
+    RemoteImportCache cache =
+        new RemoteImportCache(
+            MAX_BYTES, SHORT_TIMEOUT, MAX_BYTES, LONG_TIME_TO_LIVE, Optional.empty());
+    final long start = System.nanoTime();
+    // The headers arrive at once, the body would take several seconds
+    assertThrows(HttpTimeoutException.class, () -> cache.fetch(baseUrl + "/slow.wdl"));
+    assertTrue(Duration.ofNanos(System.nanoTime() - start).compareTo(TIMEOUT) < 0);
+  }
+
+  @Test
+  public void largeImportsAreRejected() {
+    RemoteImportCache cache = createCache(MAX_BYTES, LONG_TIME_TO_LIVE, Optional.empty());
+    assertThrows(
+        RemoteImportCache.TooLargeException.class, () -> cache.fetch(baseUrl + "/large.wdl"));
+  }
+
+  @Test
+  public void failedRequestsAreNotCached() {
+    RemoteImportCache cache = createCache(MAX_BYTES, LONG_TIME_TO_LIVE, Optional.empty());
+    assertThrows(IOException.class, () -> cache.fetch(baseUrl + "/missing.wdl"));
+    assertThrows(IOException.class, () -> cache.fetch(baseUrl + "/missing.wdl"));
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import io.dockstore.parsing.TestRepositories;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Compares the first request of a new JVM with and without priming, which is the latency that a
+ * SnapStart restore saves. Every start is a separate JVM that parses a workflow from a local
+ * repository, so it runs without AWS or network access:
+ *
+ * <pre>mvn test -Dtest=StartupBenchmark</pre>
+ *
+ * <p>The class name doesn't end with Test, so the regular test run skips it.
+ */
+public class StartupBenchmark {
+
+  private static final int STARTS = 5;
+  private static final Map<String, String> WORKFLOW =
+      Map.of(
+          "main.wdl",
+          "version 1.0\nimport \"tasks.wdl\" as tasks\nworkflow main {\n  call tasks.hello\n}\n",
+          "tasks.wdl",
+          "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n");
+
+  @Test
+  public void compareColdAndPrimedStarts(@TempDir Path temporaryDirectory) throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", WORKFLOW);
+    }
+    List<Long> coldStarts = new ArrayList<>();
+    List<Long> primedStarts = new ArrayList<>();
+    for (int i = 0; i < STARTS; i++) {
+      coldStarts.add(timeFirstRequest(remote, false));
+      primedStarts.add(timeFirstRequest(remote, true));
+    }
+    System.out.printf(
+        "First request without priming: median %d ms %s%n", median(coldStarts), coldStarts);
+    System.out.printf(
+        "First request after priming: median %d ms %s%n", median(primedStarts), primedStarts);
+  }
+
+  private static long timeFirstRequest(Path remote, boolean prime)
+      throws IOException, InterruptedException {
+    Process process =
+        new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp",
+                System.getProperty("java.class.path"),
+                StartupBenchmark.class.getName(),
+                remote.toUri().toString(),
+                String.valueOf(prime))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+    String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+    assertEquals(0, process.waitFor(), output);
+    // Logging also goes to stdout, the measurement is the last line
+    String[] lines = output.trim().split("\\R");
+    return Long.parseLong(lines[lines.length - 1]);
+  }
+
+  private static long median(List<Long> values) {
+    List<Long> sorted = new ArrayList<>(values);
+    Collections.sort(sorted);
+    return sorted.get(sorted.size() / 2);
+  }
+
+  /**
+   * Run in the forked JVM: create the handler, optionally prime it, then time one request.
+   *
+   * @param args The repository URI and whether to prime
+   */
+  public static void main(String[] args) throws IOException {
+    final App app = new App();
+    if (Boolean.parseBoolean(args[1]) && !App.PRIMING.prime()) {
+      throw new IllegalStateException("Priming failed");
+    }
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(args[0]);
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit("main.wdl");
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setBody(new ObjectMapper().writeValueAsString(request));
+    final long start = System.nanoTime();
+    APIGatewayProxyResponseEvent response = app.handleRequest(requestEvent, null);
+    final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+      throw new IllegalStateException(response.getBody());
+    }
+    System.out.println(elapsed);
+  }
+}
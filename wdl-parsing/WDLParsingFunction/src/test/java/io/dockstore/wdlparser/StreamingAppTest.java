@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.TestRepositories;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class StreamingAppTest {
+
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private static JsonNode handle(String event) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new StreamingApp()
+        .handleRequest(
+            new ByteArrayInputStream(event.getBytes(StandardCharsets.UTF_8)), output, null);
+    return MAPPER.readTree(output.toByteArray());
+  }
+
+  private static JsonNode withoutWorkspace(String body) throws IOException {
+    ObjectNode tree = (ObjectNode) MAPPER.readTree(body);
+    tree.remove("clonedRepositoryAbsolutePath");
+    return tree;
+  }
+
+  @Test
+  public void streamingResponsesMatchTheResponseEvents(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path remote = temporaryDirectory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(
+          repository,
+          "master",
+          Map.of(
+              "main.wdl",
+              "version 1.0\nimport \"tasks.wdl\" as tasks\n"
+                  + "# Quotes \" and \\\\ in a comment\n"
+                  + "workflow main {\n  call tasks.hello\n}\n",
+              "tasks.wdl",
+              "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n"));
+    }
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit("main.wdl");
+    APIGatewayProxyRequestEvent requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setPath("/parse");
+    requestEvent.setHeaders(Map.of("Accept", "application/json"));
+    requestEvent.setBody(MAPPER.writeValueAsString(request));
+    final APIGatewayProxyResponseEvent expected = new App().handleRequest(requestEvent, null);
+    // The body before the path, with fields that the handler skips
+    String event =
+        "{\"body\":"
+            + MAPPER.writeValueAsString(requestEvent.getBody())
+            + ",\"headers\":{\"Accept\":\"application/json\"},\"multiValueHeaders\":null"
+            + ",\"requestContext\":{\"stage\":\"prod\",\"elapsed\":[1,2]},\"path\":\"/parse\"}";
+    JsonNode response = handle(event);
+    assertEquals(HttpURLConnection.HTTP_OK, response.get("statusCode").asInt());
+    LanguageParsingResponse languageParsingResponse =
+        MAPPER.readValue(response.get("body").asText(), LanguageParsingResponse.class);
+    assertTrue(languageParsingResponse.getVersionTypeValidation().getValid());
+    // Each request clones into a workspace of its own
+    assertEquals(
+        withoutWorkspace(expected.getBody()), withoutWorkspace(response.get("body").asText()));
+    assertEquals("application/json", response.get("headers").get("Content-Type").asText());
+    assertTrue(response.get("headers").has(App.SERVER_TIMING_HEADER));
+  }
+
+  @Test
+  public void eventsWithoutARequestAreBadRequests() throws IOException {
+    for (String event :
+        List.of("{\"path\":\"/parse\"}", "{\"body\":\"{\\\"uri\\\":\"}", "[]", "")) {
+      JsonNode response = handle(event);
+      assertEquals(HttpURLConnection.HTTP_BAD_REQUEST, response.get("statusCode").asInt(), event);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Generates valid WDL 1.0 workflows with an import graph of a given width and depth, for benchmarks
+ * that must not depend on GitHub.
+ *
+ * <p>Every level of the graph is a directory of {@code width} files. The main descriptor imports
+ * every file of the first level and every file imports every file of the next level, so files are
+ * reached through many chains and the import graph has {@code width * depth + 1} files but {@code
+ * width * width * (depth - 1) + width} imports.
+ */
+public final class SyntheticWdlRepository {
+
+  public static final String MAIN_DESCRIPTOR = "main.wdl";
+
+  private SyntheticWdlRepository() {
+    // hide the default constructor for a utility class
+  }
+
+  /**
+   * Generate the files of a workflow.
+   *
+   * @param width The number of files in each level
+   * @param depth The number of levels below the main descriptor
+   * @return The contents of every file, keyed by path relative to the root of the repository
+   */
+  public static Map<String, String> generate(int width, int depth) {
+    final Map<String, String> files = new LinkedHashMap<>();
+    StringBuilder main = new StringBuilder("version 1.0\n");
+    for (int i = 0; i < width; i++) {
+      main.append(String.format("import \"level1/file%d.wdl\" as file%d%n", i, i));
+    }
+    main.append("workflow main {\n");
+    for (int i = 0; i < width; i++) {
+      main.append(String.format("  call file%d.task_1_%d%n", i, i));
+    }
+    main.append("}\n");
+    files.put(MAIN_DESCRIPTOR, main.toString());
+    for (int level = 1; level <= depth; level++) {
+      for (int i = 0; i < width; i++) {
+        StringBuilder file = new StringBuilder("version 1.0\n");
+        if (level < depth) {
+          for (int j = 0; j < width; j++) {
+            file.append(
+                String.format("import \"../level%d/file%d.wdl\" as file%d%n", level + 1, j, j));
+          }
+        }
+        file.append(
+            String.format(
+                "task task_%d_%d {%n  command {%n    echo %d %d%n  }%n}%n", level, i, level, i));
+        files.put(String.format("level%d/file%d.wdl", level, i), file.toString());
+      }
+    }
+    return files;
+  }
+
+  /**
+   * Write the files of a workflow to a directory.
+   *
+   * @param directory The root of the working tree
+   * @param files The contents of every file, keyed by path relative to the directory
+   * @return The absolute path of the main descriptor
+   */
+  public static Path write(Path directory, Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Path path = directory.resolve(file.getKey());
+      Files.createDirectories(path.getParent());
+      Files.writeString(path, file.getValue());
+    }
+    return directory.resolve(MAIN_DESCRIPTOR).toAbsolutePath();
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WdlImportGraphTest {
+
+  private static final int MAX_DEPTH = 3;
+  private static final int MAX_FILES = 5;
+  private static final long MAX_BYTES = 1024;
+  private static final WdlImportGraph IMPORT_GRAPH =
+      new WdlImportGraph(
+          MAX_DEPTH,
+          MAX_FILES,
+          MAX_BYTES,
+          new RemoteImportCache(
+              MAX_BYTES,
+              Duration.ofSeconds(MAX_DEPTH),
+              MAX_BYTES,
+              Duration.ZERO,
+              Optional.empty()));
+  private HttpServer server;
+  private String baseUrl;
+
+  /** Serve HTTP imports locally, so that the tests don't depend on GitHub. */
+  @BeforeEach
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    serve("/recursive.wdl", "import \"recursive.wdl\" as r\n");
+    serve("/large.wdl", "#".repeat((int) MAX_BYTES + 1));
+    server.start();
+    baseUrl = "http://localhost:" + server.getAddress().getPort();
+  }
+
+  @AfterEach
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  private void serve(String path, String contents) {
+    server.createContext(
+        path,
+        exchange -> {
+          byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, bytes.length);
+          try (OutputStream body = exchange.getResponseBody()) {
+            body.write(bytes);
+          }
+        });
+  }
+
+  private static Path write(Path directory, Map<String, String> files) throws IOException {
+    for (Map.Entry<String, String> file : files.entrySet()) {
+      Files.writeString(directory.resolve(file.getKey()), file.getValue());
+    }
+    return directory.resolve("main.wdl");
+  }
+
+  @Test
+  public void localCycleIsNamed(@TempDir Path directory) throws IOException {
+    Path main =
+        write(
+            directory,
+            Map.of(
+                "main.wdl", "import \"a.wdl\"\n",
+                "a.wdl", "import \"b.wdl\"\n",
+                "b.wdl", "import \"a.wdl\"\n"));
+    WdlImportException exception =
+        assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+    assertEquals(directory.resolve("a.wdl").toString(), exception.getFile());
+    assertEquals(
+        "Recursive import: "
+            + directory.resolve("a.wdl")
+            + " -> "
+            + directory.resolve("b.wdl")
+            + " -> "
+            + directory.resolve("a.wdl"),
+        exception.getMessage());
+  }
+
+  @Test
+  public void httpSelfImportIsACycle(@TempDir Path directory) throws IOException {
+    Path main = write(directory, Map.of("main.wdl", "import \"" + baseUrl + "/recursive.wdl\"\n"));
+    WdlImportException exception =
+        assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+    assertEquals(baseUrl + "/recursive.wdl", exception.getFile());
+    assertTrue(exception.getMessage().startsWith("Recursive import: "));
+  }
+
+  @Test
+  public void sharedImportsAreNotCycles(@TempDir Path directory)
+      throws IOException, WdlImportException {
+    Path main =
+        write(
+            directory,
+            Map.of(
+                "main.wdl", "import \"a.wdl\"\nimport \"b.wdl\"\nimport \"missing.wdl\"\n",
+                "a.wdl", "import \"common.wdl\"\n",
+                "b.wdl", "import \"common.wdl\"\n",
+                "common.wdl", "version 1.0\n"));
+    Set<String> files = IMPORT_GRAPH.walk(main);
+    assertTrue(files.contains(directory.resolve("common.wdl").toString()));
+    assertTrue(files.contains(directory.resolve("missing.wdl").toString()));
+  }
+
+  @Test
+  public void deepImportsExceedTheLimit(@TempDir Path directory) throws IOException {
+    Path main =
+        write(
+            directory,
+            Map.of(
+                "main.wdl", "import \"1.wdl\"\n",
+                "1.wdl", "import \"2.wdl\"\n",
+                "2.wdl", "import \"3.wdl\"\n",
+                "3.wdl", "import \"4.wdl\"\n",
+                "4.wdl", ""));
+    WdlImportException exception =
+        assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+    assertEquals(directory.resolve("4.wdl").toString(), exception.getFile());
+  }
+
+  @Test
+  public void manyImportsExceedTheLimit(@TempDir Path directory) throws IOException {
+    Path main =
+        write(
+            directory,
+            Map.of(
+                "main.wdl",
+                "import \"1.wdl\"\nimport \"2.wdl\"\nimport \"3.wdl\"\nimport \"4.wdl\"\n"
+                    + "import \"5.wdl\"\n"));
+    assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+  }
+
+  @Test
+  public void largeHttpImportsExceedTheLimit(@TempDir Path directory) throws IOException {
+    Path main = write(directory, Map.of("main.wdl", "import \"" + baseUrl + "/large.wdl\"\n"));
+    WdlImportException exception =
+        assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+    assertEquals(baseUrl + "/large.wdl", exception.getFile());
+  }
+
+  @Test
+  public void missingHttpImportsFail(@TempDir Path directory) throws IOException {
+    Path main = write(directory, Map.of("main.wdl", "import \"" + baseUrl + "/missing.wdl\"\n"));
+    WdlImportException exception =
+        assertThrows(WdlImportException.class, () -> IMPORT_GRAPH.walk(main));
+    assertEquals(main.toString(), exception.getFile());
+  }
+
+  @Test
+  public void recursiveWorkflowsAreInvalidWithoutRunningWomtool(@TempDir Path directory)
+      throws IOException {
+    Path main = write(directory, Map.of("main.wdl", "import \"main.wdl\"\n"));
+    LanguageParsingResponse response = App.getResponse(main.toString());
+    assertFalse(response.getVersionTypeValidation().getValid());
+    assertTrue(
+        response
+            .getVersionTypeValidation()
+            .getMessage()
+            .get(main.toString())
+            .startsWith("Recursive import: "));
+  }
+}
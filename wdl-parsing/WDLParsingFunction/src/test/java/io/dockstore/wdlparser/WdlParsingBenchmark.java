@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyRequestEvent;
+import com.amazonaws.services.lambda.runtime.events.APIGatewayProxyResponseEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dockstore.openapi.client.model.LanguageParsingRequest;
+import dockstore.openapi.client.model.LanguageParsingResponse;
+import io.dockstore.parsing.TestRepositories;
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the WDL pipeline on generated workflows, offline:
+ *
+ * <pre>mvn test -P benchmark -Djmh.args="WdlParsingBenchmark -prof gc"</pre>
+ *
+ * <p>The profile turns off the result cache, otherwise every request after the first would be a
+ * cache hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = WdlParsingBenchmark.WARMUP_ITERATIONS, time = 2)
+@Measurement(iterations = WdlParsingBenchmark.MEASUREMENT_ITERATIONS, time = 2)
+public class WdlParsingBenchmark {
+
+  static final int WARMUP_ITERATIONS = 3;
+  static final int MEASUREMENT_ITERATIONS = 5;
+
+  @Param({"2", "8"})
+  int width;
+
+  @Param({"2", "6"})
+  int depth;
+
+  private Path directory;
+  private Path mainDescriptor;
+  private App app;
+  private APIGatewayProxyRequestEvent requestEvent;
+
+  /** Write the workflow to a working tree and commit it to a local bare repository. */
+  @Setup
+  public void createRepository() throws IOException, GitAPIException {
+    directory = Files.createTempDirectory("benchmark");
+    Map<String, String> files = SyntheticWdlRepository.generate(width, depth);
+    mainDescriptor = SyntheticWdlRepository.write(directory.resolve("workingTree"), files);
+    Path remote = directory.resolve("remote");
+    try (Repository repository = TestRepositories.createBareRepository(remote)) {
+      TestRepositories.commit(repository, "master", files);
+    }
+    LanguageParsingRequest request = new LanguageParsingRequest();
+    request.setUri(remote.toUri().toString());
+    request.setBranch("master");
+    request.setDescriptorRelativePathInGit(SyntheticWdlRepository.MAIN_DESCRIPTOR);
+    requestEvent = new APIGatewayProxyRequestEvent();
+    requestEvent.setBody(new ObjectMapper().writeValueAsString(request));
+    app = new App();
+    // Fail the setup rather than measure a broken pipeline
+    APIGatewayProxyResponseEvent response = handleRequest();
+    if (response.getStatusCode() != HttpURLConnection.HTTP_OK) {
+      throw new IllegalStateException(response.getBody());
+    }
+  }
+
+  /** Delete the working tree and the repository. */
+  @TearDown
+  public void deleteRepository() throws IOException {
+    try (Stream<Path> paths = Files.walk(directory)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  /**
+   * Walk the import graph and validate the workflow with womtool, from a working tree.
+   *
+   * @return The response, so that it isn't optimised away
+   */
+  @Benchmark
+  public LanguageParsingResponse getResponse() {
+    return App.getResponse(mainDescriptor.toString());
+  }
+
+  /**
+   * Handle a request end to end: resolve the branch, clone, parse and serialize.
+   *
+   * @return The response, so that it isn't optimised away
+   */
+  @Benchmark
+  public APIGatewayProxyResponseEvent handleRequest() {
+    return app.handleRequest(requestEvent, null);
+  }
+}
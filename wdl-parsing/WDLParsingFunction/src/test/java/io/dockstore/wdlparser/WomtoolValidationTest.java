@@ -0,0 +1,77 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WomtoolValidationTest {
+
+  private static final Path MAIN_DESCRIPTOR = Path.of("/tmp/clonedRepository/workflows/main.wdl");
+
+  @Test
+  public void errorsWithoutImportsBelongToTheMainDescriptor() {
+    WomtoolValidation validation =
+        WomtoolValidation.invalid(List.of("No struct definition for 'Sample'", "Missing input"));
+    assertEquals(
+        Map.of(
+            MAIN_DESCRIPTOR.toString(),
+            "No struct definition for 'Sample'" + System.lineSeparator() + "Missing input"),
+        validation.getMessagesByFile(MAIN_DESCRIPTOR));
+  }
+
+  @Test
+  public void errorsBelongToTheInnermostFailedImport() {
+    String nestedError =
+        "Failed to import '../tasks/align.wdl' (reason 1 of 1): "
+            + "Failed to import 'common.wdl' (reason 1 of 1): Unrecognized token";
+    String httpError =
+        "Failed to import 'https://example.com/wdl/remote.wdl' (reason 1 of 1): "
+            + "Failed to import 'util.wdl' (reason 1 of 1): Unrecognized token";
+    WomtoolValidation validation = WomtoolValidation.invalid(List.of(nestedError, httpError));
+    assertEquals(
+        Map.of(
+            "/tmp/clonedRepository/tasks/common.wdl",
+            nestedError,
+            "https://example.com/wdl/util.wdl",
+            httpError),
+        validation.getMessagesByFile(MAIN_DESCRIPTOR));
+  }
+
+  @Test
+  public void nestedImportsNextToTheMainDescriptorCauseTheirErrors(@TempDir Path directory)
+      throws IOException {
+    // Like womtool, common/util.wdl is not next to tasks/align.wdl but next to main.wdl
+    Path mainDescriptor = directory.resolve("main.wdl");
+    Files.createDirectories(directory.resolve("tasks"));
+    Files.createDirectories(directory.resolve("common"));
+    Files.writeString(directory.resolve("common/util.wdl"), "version 1.0\nunrecognized\n");
+    String error =
+        "Failed to import 'tasks/align.wdl' (reason 1 of 1): "
+            + "Failed to import 'common/util.wdl' (reason 1 of 1): Unrecognized token";
+    assertEquals(
+        Map.of(directory.resolve("common/util.wdl").toString(), error),
+        WomtoolValidation.invalid(List.of(error)).getMessagesByFile(mainDescriptor));
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 OICR and UCSC
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.dockstore.wdlparser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import io.dockstore.parsing.Deadline;
+import io.dockstore.parsing.DeadlineExceededException;
+import io.dockstore.parsing.ParsingMetrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WomtoolWorkerPoolTest {
+
+  private static final String HEAP = "128m";
+  private static final List<String> HANGING_WORKER = List.of("sleep", "60");
+  private static final Duration TIMEOUT = Duration.ofMillis(500);
+
+  @Test
+  public void workersValidateInParallelAndAreRecycled(@TempDir Path temporaryDirectory)
+      throws Exception {
+    Path mainDescriptor = temporaryDirectory.resolve("main.wdl");
+    Files.writeString(
+        mainDescriptor,
+        "version 1.0\nimport \"tasks.wdl\" as tasks\nworkflow main {\n  call tasks.hello\n}\n");
+    Files.writeString(
+        temporaryDirectory.resolve("tasks.wdl"),
+        "version 1.0\ntask hello {\n  command {\n    echo hello\n  }\n}\n");
+    Path missingDescriptor = temporaryDirectory.resolve("missing.wdl");
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try (WomtoolWorkerPool pool =
+        new WomtoolWorkerPool(2, HEAP, WomtoolWorkerPool.DEFAULT_STACK, 2)) {
+      List<Future<WomtoolValidation>> validations =
+          executor.invokeAll(
+              List.of(() -> pool.validate(mainDescriptor), () -> pool.validate(mainDescriptor)));
+      for (Future<WomtoolValidation> validation : validations) {
+        assertTrue(validation.get().isValid(), String.valueOf(validation.get().getErrors()));
+      }
+      assertEquals(2, pool.getStartedWorkers());
+
+      // Each worker is recycled after its second task
+      assertFalse(pool.validate(missingDescriptor).isValid());
+      assertFalse(pool.validate(missingDescriptor).isValid());
+      assertEquals(2 + 2, pool.getStartedWorkers());
+      assertTrue(pool.validate(mainDescriptor).isValid());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void workersStillValidatingAtTheDeadlineAreReplaced(@TempDir Path temporaryDirectory) {
+    // Never answers, like womtool validating a workflow that doesn't end
+    try (WomtoolWorkerPool pool =
+        new WomtoolWorkerPool(HANGING_WORKER, 1, WomtoolWorkerPool.DEFAULT_MAX_TASKS)) {
+      DeadlineExceededException exception =
+          assertThrows(
+              DeadlineExceededException.class,
+              () -> pool.validate(temporaryDirectory.resolve("main.wdl"), Deadline.after(TIMEOUT)));
+      assertEquals(ParsingMetrics.PARSE, exception.getPhase());
+      assertEquals(2, pool.getStartedWorkers());
+      assertThrows(
+          DeadlineExceededException.class,
+          () -> pool.validate(temporaryDirectory.resolve("main.wdl"), Deadline.after(TIMEOUT)));
+      assertEquals(2 + 1, pool.getStartedWorkers());
+    }
+  }
+
+  @Test
+  public void workersAreStartedAgainAfterARestore() {
+    try (WomtoolWorkerPool pool =
+        new WomtoolWorkerPool(HANGING_WORKER, 2, WomtoolWorkerPool.DEFAULT_MAX_TASKS)) {
+      assertEquals(2, pool.getStartedWorkers());
+      pool.afterRestore(null);
+      assertEquals(2 + 2, pool.getStartedWorkers());
+    }
+  }
+
+  @Test
+  public void workflowsAreValidatedInThisJvmByDefault(@TempDir Path temporaryDirectory)
+      throws IOException {
+    Path mainDescriptor = temporaryDirectory.resolve("main.wdl");
+    Files.writeString(mainDescriptor, "version 1.0\nworkflow main {\n}\n");
+    WomtoolValidator validator =
+        WomtoolValidator.fromEnvironment(RemoteImportCache.fromEnvironment());
+    assertFalse(validator instanceof WomtoolWorkerPool);
+    assertTrue(validator.validate(mainDescriptor).isValid());
+  }
+}